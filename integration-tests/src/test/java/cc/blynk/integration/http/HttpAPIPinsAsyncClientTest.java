@@ -20,12 +20,15 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import static cc.blynk.integration.BaseTest.getRelativeDataFolder;
 import static cc.blynk.integration.TestUtil.createHolderWithIOMock;
@@ -35,11 +38,13 @@ import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_ALLOW_O
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
 import static io.netty.handler.codec.http.HttpHeaderNames.LOCATION;
+import static io.netty.handler.codec.http.HttpHeaderNames.TRANSFER_ENCODING;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
@@ -262,6 +267,59 @@ public class HttpAPIPinsAsyncClientTest extends SingleServerInstancePerTest {
         assertEquals("*", response.getHeader(ACCESS_CONTROL_ALLOW_ORIGIN));
     }
 
+    @Test
+    public void testStreamCSVDataWithinTimeRange() throws Exception {
+        Path reportingPath = Paths.get(holder.reportingDiskDao.dataFolder, "dmitriy@blynk.cc");
+        Files.createDirectories(reportingPath);
+        Path minuteFile = Paths.get(reportingPath.toString(), "history_125564119-0_v13_minute.bin");
+        Files.deleteIfExists(minuteFile);
+        long now = System.currentTimeMillis() / 60_000 * 60_000;
+        for (int i = 9; i >= 0; i--) {
+            FileUtils.write(minuteFile, i, now - i * 60_000);
+        }
+
+        //history pool is mocked for this server
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(holder.blockingIOProcessor).executeHistory(any());
+
+        long from = now - 5 * 60_000;
+        long to = now - 2 * 60_000;
+        Future<Response> f = httpclient.prepareGet(httpsServerUrl
+                + "4ae3851817194e2596cf1b7103603ef8/data/v13?from=" + from + "&to=" + to).execute();
+        Response response = f.get();
+        assertEquals(200, response.getStatusCode());
+        assertEquals("application/x-gzip", response.getHeader(CONTENT_TYPE));
+        assertEquals("chunked", response.getHeader(TRANSFER_ENCODING));
+        assertEquals("*", response.getHeader(ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals("5.0," + from + ",0\n"
+                + "4.0," + (now - 4 * 60_000) + ",0\n"
+                + "3.0," + (now - 3 * 60_000) + ",0\n"
+                + "2.0," + to + ",0\n", gunzip(response.getResponseBodyAsBytes()));
+
+        f = httpclient.prepareGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/data/v13?stream=true").execute();
+        response = f.get();
+        assertEquals(200, response.getStatusCode());
+        assertEquals(10, gunzip(response.getResponseBodyAsBytes()).split("\n").length);
+
+        f = httpclient.prepareGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/data/v14?stream=true").execute();
+        response = f.get();
+        assertEquals(400, response.getStatusCode());
+        assertEquals("No data.", response.getResponseBody());
+
+        f = httpclient.prepareGet(httpsServerUrl + "4ae3851817194e2596cf1b7103603ef8/data/v13?from=x").execute();
+        response = f.get();
+        assertEquals(400, response.getStatusCode());
+        assertEquals("Wrong time range.", response.getResponseBody());
+    }
+
+    private static String gunzip(byte[] gzipped) throws Exception {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
     @Test
     public void testChangeLabelPropertyViaGet() throws Exception {
         Future<Response> f = httpclient.prepareGet(httpsServerUrl + clientPair.token + "/update/v4?label=My-New-Label").execute();
@@ -0,0 +1,170 @@
+package cc.blynk.integration.tcp;
+
+import cc.blynk.integration.BaseTest;
+import cc.blynk.integration.model.SimpleClientHandler;
+import cc.blynk.integration.model.tcp.ClientPair;
+import cc.blynk.integration.model.tcp.TestHardClient;
+import cc.blynk.server.Holder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.servers.BaseServer;
+import cc.blynk.server.servers.application.MobileAndHttpsServer;
+import cc.blynk.server.servers.hardware.HardwareAndHttpAPIServer;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static cc.blynk.integration.TestUtil.createDefaultHolder;
+import static cc.blynk.integration.TestUtil.ok;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Many devices of the one user writing to the same app connection, with the app flush
+ * consolidation disabled, flushing after the queued tasks and flushing with the delay.
+ * Socket reads on the app side are used instead of the server write syscalls, so the fewer reads
+ * per update mean the fewer syscalls. Latency is measured from the hardware send till the app read.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AppFlushConsolidationPerfTest extends BaseTest {
+
+    private static final int DEVICES = 50;
+    private static final int UPDATES_PER_DEVICE = 2_000;
+    private static final int UPDATES_PER_BURST = 10;
+    private static final long PAUSE_BETWEEN_BURSTS_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    @Ignore
+    public void compareFlushConsolidationModes() throws Exception {
+        for (String delayMicros : new String[] {"-1", "0", "200", "-1", "0", "200"}) {
+            run(delayMicros);
+        }
+    }
+
+    private void run(String delayMicros) throws Exception {
+        properties.setProperty("app.flush.consolidation.delay.micros", delayMicros);
+        properties.setProperty("user.message.quota.limit", "1000000");
+        Holder holder = createDefaultHolder(properties, "no-db.properties");
+        BaseServer hardwareServer = new HardwareAndHttpAPIServer(holder).start();
+        BaseServer appServer = new MobileAndHttpsServer(holder).start();
+        NioEventLoopGroup devicesLoop = new NioEventLoopGroup(2);
+        TestHardClient[] devices = new TestHardClient[DEVICES];
+        ClientPair clientPair = initAppAndHardPair("user_profile_json_empty_dash.txt");
+
+        try {
+            for (int i = 0; i < DEVICES; i++) {
+                devices[i] = new TestHardClient("localhost", tcpHardPort, devicesLoop);
+                devices[i].start();
+                devices[i].login(clientPair.token);
+                verify(devices[i].responseMock, timeout(1000)).channelRead(any(), eq(ok(1)));
+                devices[i].replace(new SimpleClientHandler());
+            }
+
+            int expectedUpdates = DEVICES * UPDATES_PER_DEVICE;
+            UpdatesHandler updatesHandler = new UpdatesHandler(expectedUpdates);
+            ReadsCounter readsCounter = new ReadsCounter();
+            clientPair.appClient.replace(updatesHandler);
+            clientPair.appClient.channel.pipeline().addFirst(readsCounter);
+
+            long start = System.nanoTime();
+            Thread[] senders = new Thread[DEVICES];
+            for (int i = 0; i < DEVICES; i++) {
+                TestHardClient device = devices[i];
+                senders[i] = new Thread(() -> {
+                    for (int j = 0; j < UPDATES_PER_DEVICE; j++) {
+                        device.send("hardware vw 1 " + System.nanoTime());
+                        if (j % UPDATES_PER_BURST == 0) {
+                            LockSupport.parkNanos(PAUSE_BETWEEN_BURSTS_NANOS);
+                        }
+                    }
+                });
+                senders[i].start();
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            boolean allReceived = updatesHandler.received.await(30, TimeUnit.SECONDS);
+            long durationNanos = System.nanoTime() - start;
+
+            long[] latencies = Arrays.copyOf(updatesHandler.latencies, updatesHandler.count);
+            Arrays.sort(latencies);
+            int updates = latencies.length;
+            System.out.println("Delay micros " + delayMicros + (allReceived ? "" : " (not all updates received)")
+                    + " : updates " + updates
+                    + ", updates/sec " + updates * TimeUnit.SECONDS.toNanos(1) / durationNanos
+                    + ", app socket reads " + readsCounter.reads.get()
+                    + ", updates per read " + (float) updates / readsCounter.reads.get()
+                    + ", latency p50 " + micros(latencies, 0.5)
+                    + "us, p99 " + micros(latencies, 0.99)
+                    + "us, max " + micros(latencies, 1) + "us");
+        } finally {
+            for (TestHardClient device : devices) {
+                if (device != null) {
+                    device.stop();
+                }
+            }
+            devicesLoop.shutdownGracefully();
+            clientPair.stop();
+            appServer.close();
+            hardwareServer.close();
+            holder.close();
+        }
+    }
+
+    private static long micros(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sortedLatencies.length - 1, (int) (sortedLatencies.length * percentile));
+        return TimeUnit.NANOSECONDS.toMicros(sortedLatencies[index]);
+    }
+
+    private static final class ReadsCounter extends ChannelInboundHandlerAdapter {
+
+        private final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            reads.incrementAndGet();
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private static final class UpdatesHandler extends SimpleClientHandler {
+
+        private final CountDownLatch received;
+        private final long[] latencies;
+        //written only from the app client event loop
+        private volatile int count;
+
+        UpdatesHandler(int expectedUpdates) {
+            this.received = new CountDownLatch(expectedUpdates);
+            this.latencies = new long[expectedUpdates];
+        }
+
+        @Override
+        public void channelRead0(ChannelHandlerContext ctx, MessageBase msg) {
+            if (msg.command == HARDWARE && count < latencies.length) {
+                String body = ((StringMessage) msg).body;
+                long sentAt = Long.parseLong(body.substring(body.lastIndexOf('\0') + 1));
+                latencies[count] = System.nanoTime() - sentAt;
+                count++;
+                received.countDown();
+            }
+        }
+    }
+
+}
@@ -9,11 +9,16 @@ import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.dao.ota.OTAManager;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.widgets.ui.reporting.ReportPipeline;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.processors.EventorProcessor;
+import cc.blynk.server.core.reporting.HistoryTailCache;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.core.reporting.storage.ReportingStorageType;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.server.db.ReportingDBManager;
+import cc.blynk.server.db.ReportingSpool;
 import cc.blynk.server.internal.token.TokensPool;
 import cc.blynk.server.notifications.mail.MailWrapper;
 import cc.blynk.server.notifications.push.GCMWrapper;
@@ -33,6 +38,7 @@ import io.netty.util.internal.SystemPropertyUtil;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentMap;
 
@@ -97,12 +103,15 @@ public class Holder {
         this.sessionDao = new SessionDao();
         this.blockingIOProcessor = new BlockingIOProcessor(
                 serverProperties.getIntProperty("blocking.processor.thread.pool.limit", 6),
-                serverProperties.getIntProperty("notifications.queue.limit", 2000)
+                serverProperties.getIntProperty("notifications.queue.limit", 2000),
+                serverProperties.getIntProperty("history.reads.per.request",
+                        BlockingIOProcessor.DEFAULT_HISTORY_READS_PER_REQUEST)
         );
 
         boolean enableDB = serverProperties.isDBEnabled();
         this.dbManager = new DBManager(blockingIOProcessor, enableDB);
-        this.reportingDBManager = new ReportingDBManager(blockingIOProcessor, enableDB);
+        this.reportingDBManager = new ReportingDBManager(blockingIOProcessor, enableDB,
+                Paths.get(serverProperties.getDataFolder(), ReportingSpool.DEFAULT_FOLDER));
 
         if (restore) {
             try {
@@ -120,7 +129,16 @@ public class Holder {
         this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
         this.stats = new GlobalStats();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
+                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled(),
+                ReportingStorageType.fromString(serverProperties.getProperty("reporting.storage")),
+                serverProperties.getIntProperty("reporting.read.cache.max.files",
+                        ReportingDiskDao.DEFAULT_READ_CACHE_MAX_FILES),
+                serverProperties.getLongProperty("reporting.tail.cache.max.mb",
+                        HistoryTailCache.DEFAULT_MAX_BYTES / 1024 / 1024) * 1024 * 1024,
+                this.stats);
+        //drains raw data buffer before the scheduled flush when it is filled
+        RawDataProcessor rawDataProcessor = reportingDiskDao.rawDataProcessor;
+        rawDataProcessor.setHighWaterMarkListener(() -> reportingDBManager.insertReportingRaw(rawDataProcessor));
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
 
@@ -151,7 +169,13 @@ public class Holder {
                 props.getProperty("http.port"),
                 props.getBoolProperty("force.port.80.for.csv")
         );
-        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
+        this.reportScheduler = new ReportScheduler(1, new ReportPipeline(
+                props.getIntProperty("report.stage.threads", ReportPipeline.DEFAULT_STAGE_THREADS),
+                props.getIntProperty("report.shared.reads.ttl",
+                        ReportPipeline.DEFAULT_SHARED_READS_TTL_SECONDS),
+                props.getIntProperty("report.shared.reads.max.mb",
+                        ReportPipeline.DEFAULT_SHARED_READS_MAX_MB)),
+                downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
 
         String contactEmail = serverProperties.getProperty("contact.email", mailProperties.getSMTPUsername());
         this.sslContextHolder = new SslContextHolder(props, contactEmail);
@@ -179,7 +203,16 @@ public class Holder {
         this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
         this.stats = new GlobalStats();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
+                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled(),
+                ReportingStorageType.fromString(serverProperties.getProperty("reporting.storage")),
+                serverProperties.getIntProperty("reporting.read.cache.max.files",
+                        ReportingDiskDao.DEFAULT_READ_CACHE_MAX_FILES),
+                serverProperties.getLongProperty("reporting.tail.cache.max.mb",
+                        HistoryTailCache.DEFAULT_MAX_BYTES / 1024 / 1024) * 1024 * 1024,
+                this.stats);
+        //drains raw data buffer before the scheduled flush when it is filled
+        RawDataProcessor rawDataProcessor = reportingDiskDao.rawDataProcessor;
+        rawDataProcessor.setHighWaterMarkListener(() -> reportingDBManager.insertReportingRaw(rawDataProcessor));
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
 
@@ -210,7 +243,13 @@ public class Holder {
                 props.getProperty("http.port"),
                 props.getBoolProperty("force.port.80.for.csv")
         );
-        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
+        this.reportScheduler = new ReportScheduler(1, new ReportPipeline(
+                props.getIntProperty("report.stage.threads", ReportPipeline.DEFAULT_STAGE_THREADS),
+                props.getIntProperty("report.shared.reads.ttl",
+                        ReportPipeline.DEFAULT_SHARED_READS_TTL_SECONDS),
+                props.getIntProperty("report.shared.reads.max.mb",
+                        ReportPipeline.DEFAULT_SHARED_READS_MAX_MB)),
+                downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
 
         this.sslContextHolder = new SslContextHolder(props, "test@blynk.cc");
         this.tokensPool = new TokensPool(serverProperties.getReportingFolder());
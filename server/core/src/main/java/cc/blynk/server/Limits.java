@@ -31,6 +31,8 @@ public class Limits {
     public final int webhookFailureLimit;
     public final int hardwareIdleTimeout;
     public final int appIdleTimeout;
+    //-1 - disabled
+    public final int appFlushConsolidationDelayMicros;
     public final int storeMinuteRecordDays;
 
     public Limits(ServerProperties props) {
@@ -52,6 +54,7 @@ public class Limits {
                 isUnlimited(props.getIntProperty("webhooks.failure.count.limit", 10), Integer.MAX_VALUE);
         this.hardwareIdleTimeout = props.getIntProperty("hard.socket.idle.timeout", 0);
         this.appIdleTimeout = props.getIntProperty("app.socket.idle.timeout", 300);
+        this.appFlushConsolidationDelayMicros = props.getIntProperty("app.flush.consolidation.delay.micros", -1);
 
         this.hourlyRegistrationsLimit = props.getIntProperty("hourly.registrations.limit", 1000);
         this.storeMinuteRecordDays = props.getIntProperty("store.minute.record.days", 10);
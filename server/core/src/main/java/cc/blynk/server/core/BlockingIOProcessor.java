@@ -20,6 +20,7 @@ import java.util.concurrent.TimeUnit;
 public class BlockingIOProcessor implements Closeable {
 
     private static final int MINIMUM_ALLOWED_POOL_SIZE = 3;
+    public static final int DEFAULT_HISTORY_READS_PER_REQUEST = 4;
 
     //pool for messaging
     public final ThreadPoolExecutor messagingExecutor;
@@ -32,7 +33,16 @@ public class BlockingIOProcessor implements Closeable {
     //separate pool for history graph data
     public final ThreadPoolExecutor historyExecutor;
 
+    //helper threads for the history graph requests with many data streams.
+    //pool size is the global limit of the additional reads
+    public final ThreadPoolExecutor historyReadExecutor;
+    public final int historyReadsPerRequest;
+
     public BlockingIOProcessor(int poolSize, int maxQueueSize) {
+        this(poolSize, maxQueueSize, DEFAULT_HISTORY_READS_PER_REQUEST);
+    }
+
+    public BlockingIOProcessor(int poolSize, int maxQueueSize, int historyReadsPerRequest) {
         //pool size can't be less than 3.
         poolSize = Math.max(MINIMUM_ALLOWED_POOL_SIZE, poolSize);
         this.messagingExecutor = new ThreadPoolExecutor(
@@ -58,6 +68,12 @@ public class BlockingIOProcessor implements Closeable {
         this.historyExecutor = new ThreadPoolExecutor(poolSize / 4, poolSize / 2, 2L,
                 TimeUnit.MINUTES, new ArrayBlockingQueue<>(250),
                 BlynkTPFactory.build("history"));
+
+        this.historyReadExecutor = new ThreadPoolExecutor(poolSize / 2, poolSize / 2, 2L,
+                TimeUnit.MINUTES, new ArrayBlockingQueue<>(poolSize),
+                BlynkTPFactory.build("historyRead"));
+        this.historyReadExecutor.allowCoreThreadTimeOut(true);
+        this.historyReadsPerRequest = Math.max(1, historyReadsPerRequest);
     }
 
     public void execute(Runnable task) {
@@ -81,6 +97,7 @@ public class BlockingIOProcessor implements Closeable {
         dbExecutor.shutdown();
         messagingExecutor.shutdown();
         historyExecutor.shutdown();
+        historyReadExecutor.shutdown();
         dbGetServerExecutor.shutdown();
     }
 }
@@ -0,0 +1,166 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.utils.CSVRowEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Gzipped CSV export (same rows as CSVGenerator.createCSV() writes to the file) that is
+ * encoded and compressed chunk by chunk, directly from the reporting data, while
+ * ChunkedWriteHandler sends it. Next chunk is produced only when the channel is writable,
+ * so only one chunk per request is kept in memory. Reporting data of the next device is read
+ * only when the rows of the previous one are encoded, so only one series is kept as well.
+ */
+public final class CSVChunkedInput implements ChunkedInput<ByteBuf> {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    //enough for the double, long and int with separators
+    private static final int MAX_ROW_LENGTH = 64;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final IntFunction<ByteBuffer> deviceDataReader;
+    private final int[] deviceIds;
+    private final long from;
+    private final long to;
+
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] rows;
+    private final CSVRowEncoder row;
+
+    private int deviceIndex;
+    //data of the device at deviceIndex, null when it wasn't read yet
+    private ByteBuffer deviceData;
+    private long progress;
+    private boolean headerWritten;
+    private boolean finishing;
+    private boolean endOfInput;
+
+    /**
+     * @param deviceDataReader - reads reporting data of the device by its index within deviceIds,
+     *                           returns null for the device without data
+     * @param from - rows with ts less than from are skipped
+     * @param to - rows with ts greater than to are skipped
+     */
+    CSVChunkedInput(IntFunction<ByteBuffer> deviceDataReader, int[] deviceIds, long from, long to) {
+        this.deviceDataReader = deviceDataReader;
+        this.deviceIds = deviceIds;
+        this.from = from;
+        this.to = to;
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        this.crc = new CRC32();
+        this.rows = new byte[CHUNK_SIZE];
+        this.row = new CSVRowEncoder();
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return endOfInput;
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    @Deprecated
+    @Override
+    public ByteBuf readChunk(ChannelHandlerContext ctx) {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(ByteBufAllocator allocator) {
+        if (endOfInput) {
+            return null;
+        }
+
+        ByteBuf chunk = allocator.buffer(CHUNK_SIZE);
+        try {
+            if (!headerWritten) {
+                chunk.writeBytes(GZIP_HEADER);
+                headerWritten = true;
+            }
+            while (chunk.readableBytes() < CHUNK_SIZE && !endOfInput) {
+                if (!finishing && deflater.needsInput()) {
+                    int length = encodeRows();
+                    if (length == 0) {
+                        deflater.finish();
+                        finishing = true;
+                    } else {
+                        crc.update(rows, 0, length);
+                        deflater.setInput(rows, 0, length);
+                    }
+                }
+                deflate(chunk);
+                if (deflater.finished()) {
+                    writeTrailer(chunk);
+                    endOfInput = true;
+                }
+            }
+        } catch (RuntimeException e) {
+            chunk.release();
+            throw e;
+        }
+        return chunk;
+    }
+
+    private void deflate(ByteBuf chunk) {
+        chunk.ensureWritable(MAX_ROW_LENGTH);
+        int writerIndex = chunk.writerIndex();
+        int written = deflater.deflate(chunk.nioBuffer(writerIndex, chunk.writableBytes()));
+        chunk.writerIndex(writerIndex + written);
+    }
+
+    private void writeTrailer(ByteBuf chunk) {
+        chunk.writeIntLE((int) crc.getValue());
+        chunk.writeIntLE((int) deflater.getBytesRead());
+    }
+
+    //fills rows buffer with the next CSV rows, returns number of bytes
+    private int encodeRows() {
+        int length = 0;
+        while (deviceIndex < deviceIds.length && length + MAX_ROW_LENGTH <= rows.length) {
+            if (deviceData == null) {
+                deviceData = deviceDataReader.apply(deviceIndex);
+            }
+            if (deviceData == null || deviceData.remaining() < SIZE_OF_REPORT_ENTRY) {
+                deviceData = null;
+                deviceIndex++;
+                continue;
+            }
+            double value = deviceData.getDouble();
+            long ts = deviceData.getLong();
+            progress++;
+            if (ts < from || ts > to) {
+                continue;
+            }
+
+            row.append(value).append(',').append(ts).append(',').append(deviceIds[deviceIndex]).append('\n');
+            length += row.writeAsciiTo(rows, length);
+        }
+        return length;
+    }
+
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    /**
+     * @return - number of the processed reporting entries
+     */
+    @Override
+    public long progress() {
+        return progress;
+    }
+}
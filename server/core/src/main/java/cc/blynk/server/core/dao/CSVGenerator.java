@@ -5,6 +5,7 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
+import cc.blynk.utils.CSVRowEncoder;
 import io.netty.util.CharsetUtil;
 
 import java.io.BufferedWriter;
@@ -14,6 +15,7 @@ import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.function.IntFunction;
 import java.util.zip.GZIPOutputStream;
 
 import static cc.blynk.utils.FileUtils.CSV_DIR;
@@ -49,12 +51,13 @@ public class CSVGenerator {
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
                      new GZIPOutputStream(output), CharsetUtil.US_ASCII))) {
 
+            CSVRowEncoder encoder = new CSVRowEncoder();
             int emptyDataCounter = 0;
             for (int deviceId : deviceIds) {
                 ByteBuffer onePinData = reportingDao.getByteBufferFromDisk(user, dashId, deviceId,
                         pinType, pin, FETCH_COUNT, GraphGranularityType.MINUTE, 0);
                 if (onePinData != null) {
-                    writeBufToCsv(writer, onePinData, deviceId);
+                    writeBufToCsv(writer, encoder, onePinData, deviceId);
                 } else {
                     emptyDataCounter++;
                 }
@@ -67,6 +70,58 @@ public class CSVGenerator {
         return path;
     }
 
+    /**
+     * Same export as createCSV(), but without the file. Data is gzipped while it is sent.
+     * Only the first device with data is read right away, to fail with NoDataException before
+     * the response is started. Data of the other devices is read by the returned input.
+     *
+     * @param from - min ts of the exported rows, inclusive
+     * @param to - max ts of the exported rows, inclusive
+     */
+    public CSVChunkedInput streamCSV(User user, int dashId, PinType pinType, short pin,
+                                     long from, long to, int... deviceIds) throws NoDataException {
+        if (!DataStream.isValid(pin, pinType)) {
+            throw new IllegalStateException("Wrong pin format.");
+        }
+
+        int count = fetchCount(from, System.currentTimeMillis());
+        IntFunction<ByteBuffer> reader = i -> reportingDao.getByteBufferFromDisk(user, dashId,
+                deviceIds[i], pinType, pin, count, GraphGranularityType.MINUTE, 0);
+
+        ByteBuffer data = null;
+        int index = 0;
+        while (index < deviceIds.length && (data = reader.apply(index)) == null) {
+            index++;
+        }
+        if (data == null) {
+            throw new NoDataException();
+        }
+
+        //devices before the first one with data have no data
+        int firstIndex = index;
+        ByteBuffer firstData = data;
+        return new CSVChunkedInput(i -> {
+            if (i == firstIndex) {
+                return firstData;
+            }
+            return i < firstIndex ? null : reader.apply(i);
+        }, deviceIds, from, to);
+    }
+
+    /**
+     * Minute series have at most one point per minute, so points with ts after from are
+     * within the last minutes since from. Points after to can't be skipped the same way,
+     * as number of them is unknown till they are read, so they are filtered while encoding.
+     *
+     * @return - number of the last points to read for the points with ts after from.
+     */
+    static int fetchCount(long from, long now) {
+        long period = GraphGranularityType.MINUTE.period;
+        long minutes = now / period - from / period + 1;
+        //at least 1 point, so the series with data isn't reported as empty
+        return (int) Math.max(1, Math.min(FETCH_COUNT, minutes));
+    }
+
     private static Path generateExportCSVPath(String email, int dashId, int deviceId, PinType pinType, short pin) {
         return Paths.get(CSV_DIR, format(email, dashId, deviceId, pinType, pin));
     }
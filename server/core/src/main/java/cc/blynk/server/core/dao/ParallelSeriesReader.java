@@ -0,0 +1,86 @@
+package cc.blynk.server.core.dao;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes independent series reads of the single graph request concurrently.
+ *
+ * Calling thread always takes part in the reading, helpers are only submitted to the
+ * executor, so the request completes even when the executor is busy with other
+ * requests or rejects the helpers. Reads are taken from the shared counter by whoever is free,
+ * so at most parallelism reads of the request are in progress at any time.
+ */
+final class ParallelSeriesReader implements Runnable {
+
+    @FunctionalInterface
+    interface SeriesRead {
+        ByteBuffer read(int index);
+    }
+
+    private final SeriesRead seriesRead;
+    private final ByteBuffer[] results;
+    private final AtomicInteger nextIndex;
+    private final CountDownLatch completed;
+
+    private ParallelSeriesReader(int count, SeriesRead seriesRead) {
+        this.seriesRead = seriesRead;
+        this.results = new ByteBuffer[count];
+        this.nextIndex = new AtomicInteger();
+        this.completed = new CountDownLatch(count);
+    }
+
+    /**
+     * @return - results of the reads, in the order of the indexes
+     */
+    static ByteBuffer[] readAll(int count, SeriesRead seriesRead, Executor executor, int parallelism) {
+        ParallelSeriesReader reader = new ParallelSeriesReader(count, seriesRead);
+        if (executor != null) {
+            int helpers = Math.min(parallelism, count) - 1;
+            for (int i = 0; i < helpers; i++) {
+                try {
+                    executor.execute(reader);
+                } catch (RejectedExecutionException e) {
+                    //all helper threads are busy, remaining reads are done by the calling thread
+                    break;
+                }
+            }
+        }
+        reader.run();
+        reader.awaitCompletion();
+        return reader.results;
+    }
+
+    @Override
+    public void run() {
+        int index = nextIndex.getAndIncrement();
+        while (index < results.length) {
+            try {
+                results[index] = seriesRead.read(index);
+            } finally {
+                completed.countDown();
+            }
+            index = nextIndex.getAndIncrement();
+        }
+    }
+
+    //reads that were taken by the helpers are still in progress
+    private void awaitCompletion() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                completed.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package cc.blynk.server.core.dao;
 import cc.blynk.server.core.dao.functions.GraphFunction;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
@@ -10,11 +11,15 @@ import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.server.core.reporting.HistoryTailCache;
+import cc.blynk.server.core.reporting.SeriesRegistry;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
-import cc.blynk.server.core.reporting.raw.GraphValue;
 import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
 import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorageType;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.NumberUtil;
 import org.apache.logging.log4j.LogManager;
@@ -22,18 +27,17 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
-import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_BYTES;
 import static cc.blynk.utils.FileUtils.CSV_DIR;
 import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
@@ -47,34 +51,54 @@ public class ReportingDiskDao implements Closeable {
 
     private static final Logger log = LogManager.getLogger(ReportingDiskDao.class);
 
+    public final SeriesRegistry seriesRegistry;
     public final AverageAggregatorProcessor averageAggregator;
     public final RawDataCacheForGraphProcessor rawDataCacheForGraphProcessor;
     public final RawDataProcessor rawDataProcessor;
     public final CSVGenerator csvGenerator;
+    public final ReportingStorage storage;
+    public final HistoryTailCache tailCache;
 
     public final String dataFolder;
 
     private final boolean enableRawDbDataStore;
 
-    private static final Function<Path, Boolean> NO_FILTER = s -> true;
+    private static final Function<String, Boolean> NO_FILTER = s -> true;
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
+    public static final int DEFAULT_READ_CACHE_MAX_FILES = 1024;
 
     //for test only
     public ReportingDiskDao(String reportingFolder, AverageAggregatorProcessor averageAggregator,
                             boolean isEnabled) {
+        this.seriesRegistry = averageAggregator.seriesRegistry;
         this.averageAggregator = averageAggregator;
         this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor();
         this.dataFolder = reportingFolder;
+        this.storage = ReportingStorageType.FILE.create(reportingFolder);
+        this.tailCache = new HistoryTailCache(HistoryTailCache.DEFAULT_MAX_BYTES, new GlobalStats());
         this.enableRawDbDataStore = isEnabled;
-        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
+        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore, seriesRegistry,
+                RawDataProcessor.DEFAULT_CAPACITY);
         this.csvGenerator = new CSVGenerator(this);
     }
 
     public ReportingDiskDao(String reportingFolder, boolean isEnabled) {
-        this.averageAggregator = new AverageAggregatorProcessor(reportingFolder);
+        this(reportingFolder, isEnabled, ReportingStorageType.FILE, DEFAULT_READ_CACHE_MAX_FILES,
+                HistoryTailCache.DEFAULT_MAX_BYTES, new GlobalStats());
+    }
+
+    public ReportingDiskDao(String reportingFolder, boolean isEnabled,
+                            ReportingStorageType storageType, int readCacheMaxFiles,
+                            long tailCacheMaxBytes, GlobalStats stats) {
+        this.seriesRegistry = new SeriesRegistry(reportingFolder);
+        this.averageAggregator = new AverageAggregatorProcessor(reportingFolder, seriesRegistry);
         this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor();
         this.dataFolder = reportingFolder;
+        this.storage = storageType.create(reportingFolder, readCacheMaxFiles);
+        this.tailCache = new HistoryTailCache(tailCacheMaxBytes, stats);
         this.enableRawDbDataStore = isEnabled;
-        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
+        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore, seriesRegistry,
+                RawDataProcessor.DEFAULT_CAPACITY);
         this.csvGenerator = new CSVGenerator(this);
         createCSVFolder();
     }
@@ -90,43 +114,54 @@ public class ReportingDiskDao implements Closeable {
     public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
                                             PinType pinType, short pin, int count,
                                             GraphGranularityType type, int skipCount) {
-        Path userDataFile = Paths.get(
-                dataFolder,
-                FileUtils.getUserStorageDir(user.email, user.appName),
-                generateFilename(dashId, deviceId, pinType, pin, type)
-        );
-        if (Files.exists(userDataFile)) {
-            try {
-                return FileUtils.read(userDataFile, count, skipCount);
-            } catch (Exception ioe) {
-                log.error(ioe);
+        try {
+            String userDir = getUserStorageDir(user);
+            String fileName = generateFilename(dashId, deviceId, pinType, pin, type);
+            int seriesId = seriesRegistry.getId(
+                    new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin));
+            if (seriesId == SeriesRegistry.NO_ID) {
+                return storage.read(userDir, fileName, count, skipCount);
             }
+            return tailCache.read(seriesId, type, count, skipCount,
+                    (tailCount, tailSkip) -> storage.read(userDir, fileName, tailCount, tailSkip));
+        } catch (Exception ioe) {
+            log.error(ioe);
         }
 
         return null;
     }
 
-    private static boolean hasData(byte[][] data) {
-        for (byte[] pinData : data) {
-            if (pinData.length > 0) {
+    private static boolean hasData(ByteBuffer[] data) {
+        for (ByteBuffer pinData : data) {
+            if (pinData.hasRemaining()) {
                 return true;
             }
         }
         return false;
     }
 
-    private ByteBuffer getDataForTag(User user, GraphPinRequest graphPinRequest) {
-        TreeMap<Long, GraphFunction> data = new TreeMap<>();
-        for (int deviceId : graphPinRequest.deviceIds) {
-            ByteBuffer localByteBuf = getByteBufferFromDisk(user,
-                    graphPinRequest.dashId, deviceId,
-                    graphPinRequest.pinType, graphPinRequest.pin,
-                    graphPinRequest.count, graphPinRequest.type,
-                    graphPinRequest.skipCount
-            );
-            addBufferToResult(data, graphPinRequest.functionType, localByteBuf);
+    /**
+     * @param reads - data of the devices of the tag, starting from the index from
+     */
+    private static ByteBuffer getDataForTag(GraphPinRequest graphPinRequest, ByteBuffer[] reads, int from) {
+        ByteBuffer[] devicesData = new ByteBuffer[graphPinRequest.deviceIds.length];
+        int size = 0;
+        for (int i = 0; i < devicesData.length; i++) {
+            ByteBuffer localByteBuf = reads[from + i];
+            if (localByteBuf != null) {
+                devicesData[size++] = localByteBuf;
+            }
         }
 
+        if (SortedSeriesMerger.isSorted(devicesData, size)) {
+            return SortedSeriesMerger.merge(devicesData, size, graphPinRequest.functionType.produce());
+        }
+
+        //could happen only for the files written with the server time going backwards
+        TreeMap<Long, GraphFunction> data = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            addBufferToResult(data, graphPinRequest.functionType, devicesData[i]);
+        }
         return toByteBuf(data);
     }
 
@@ -153,56 +188,36 @@ public class ReportingDiskDao implements Closeable {
             result.putDouble(entry.getValue().getResult())
                     .putLong(entry.getKey());
         }
+        ((Buffer) result).flip();
         return result;
     }
 
-    private ByteBuffer getByteBufferFromDisk(User user, GraphPinRequest graphPinRequest) {
-        try {
-            if (graphPinRequest.isTag) {
-                return getDataForTag(user, graphPinRequest);
-            } else {
-                return getByteBufferFromDisk(user,
-                        graphPinRequest.dashId, graphPinRequest.deviceId,
-                        graphPinRequest.pinType, graphPinRequest.pin,
-                        graphPinRequest.count, graphPinRequest.type,
-                        graphPinRequest.skipCount
-                );
-            }
-        } catch (Exception e) {
-            log.error("Error getting data from disk.", e);
-            return null;
-        }
-    }
-
-    public Path getUserReportingFolderPath(User user) {
-        return Paths.get(dataFolder, FileUtils.getUserStorageDir(user.email, user.appName));
+    private static String getUserStorageDir(User user) {
+        return FileUtils.getUserStorageDir(user.email, user.appName);
     }
 
     public int delete(User user) {
-        return delete(user, NO_FILTER);
+        int removedFilesCounter = delete(user, NO_FILTER);
+        seriesRegistry.remove(user.email, user.appName);
+        return removedFilesCounter;
     }
 
-    public int delete(User user, Function<Path, Boolean> filter) {
+    public int delete(User user, Function<String, Boolean> fileNameFilter) {
         log.debug("Removing all reporting data for {}", user.email);
-        Path reportingFolderPath = getUserReportingFolderPath(user);
+        int removedFilesCounter = storage.delete(getUserStorageDir(user), fileNameFilter);
+        invalidateTailCache(user, fileNameFilter);
+        return removedFilesCounter;
+    }
 
-        int removedFilesCounter = 0;
-        try {
-            if (Files.exists(reportingFolderPath)) {
-                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
-                    for (Path reportingFile : reportingFolder) {
-                        if (filter.apply(reportingFile)) {
-                            log.trace("Removing {}", reportingFile);
-                            FileUtils.deleteQuietly(reportingFile);
-                            removedFilesCounter++;
-                        }
-                    }
+    //should be called after the files are removed, but before the series are removed from the registry
+    private void invalidateTailCache(User user, Function<String, Boolean> fileNameFilter) {
+        seriesRegistry.forEachId(user.email, user.appName, seriesId -> {
+            for (GraphGranularityType type : GraphGranularityType.values()) {
+                if (fileNameFilter.apply(seriesRegistry.getFileName(seriesId, type))) {
+                    tailCache.invalidate(seriesId, type);
                 }
             }
-        } catch (Exception e) {
-            log.error("Error removing file : {}.", reportingFolderPath);
-        }
-        return removedFilesCounter;
+        });
     }
 
     private static boolean containsPrefix(List<String> prefixes, String filename) {
@@ -226,13 +241,6 @@ public class ReportingDiskDao implements Closeable {
         return "history_" + dashId + DEVICE_SEPARATOR + deviceId + "_";
     }
 
-    private static void delete(String userReportingDir, int dashId, int deviceId, PinType pinType, short pin,
-                               GraphGranularityType reportGranularity) {
-        Path userDataFile = Paths.get(userReportingDir,
-                generateFilename(dashId, deviceId, pinType, pin, reportGranularity));
-        FileUtils.deleteQuietly(userDataFile);
-    }
-
     public static String generateFilename(int dashId, int deviceId,
                                           PinType pinType, short pin, GraphGranularityType type) {
         return generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type.label);
@@ -240,57 +248,60 @@ public class ReportingDiskDao implements Closeable {
 
     public int delete(User user, int dashId, int deviceId, String[] pins) throws IOException {
         log.debug("Removing selected pin data for dashId {}, deviceId {}.", dashId, deviceId);
-        Path userReportingPath = getUserReportingFolderPath(user);
 
-        int count = 0;
         List<String> prefixes = new ArrayList<>();
         for (String pin : pins) {
             prefixes.add(generateFilenamePrefix(dashId, deviceId, pin));
         }
-        try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
-            for (Path reportingFile : userReportingFolder) {
-                String userFileName = reportingFile.getFileName().toString();
-                if (containsPrefix(prefixes, userFileName)) {
-                    FileUtils.deleteQuietly(reportingFile);
-                    count++;
-                }
-            }
-        }
-        return count;
+        Function<String, Boolean> fileNameFilter = fileName -> containsPrefix(prefixes, fileName);
+        int removedFilesCounter = storage.delete(getUserStorageDir(user), fileNameFilter);
+        invalidateTailCache(user, fileNameFilter);
+        return removedFilesCounter;
     }
 
     public int delete(User user, int dashId, int deviceId) throws IOException {
         log.debug("Removing all pin data for dashId {}, deviceId {}.", dashId, deviceId);
-        Path userReportingPath = getUserReportingFolderPath(user);
-
-        int count = 0;
-        if (Files.exists(userReportingPath)) {
-            String fileNamePrefix = generateFilenamePrefix(dashId, deviceId);
-            try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
-                for (Path reportingFile : userReportingFolder) {
-                    if (reportingFile.getFileName().toString().startsWith(fileNamePrefix)) {
-                        FileUtils.deleteQuietly(reportingFile);
-                        count++;
-                    }
-                }
-            }
-        }
-        return count;
+
+        String fileNamePrefix = generateFilenamePrefix(dashId, deviceId);
+        Function<String, Boolean> fileNameFilter = fileName -> fileName.startsWith(fileNamePrefix);
+        int removedFilesCounter = storage.delete(getUserStorageDir(user), fileNameFilter);
+        invalidateTailCache(user, fileNameFilter);
+        seriesRegistry.remove(user.email, user.appName, dashId, deviceId);
+        return removedFilesCounter;
     }
 
     public void delete(User user, int dashId, int deviceId, PinType pinType, short pin) {
         log.debug("Removing {}{} pin data for dashId {}, deviceId {}.", pinType.pintTypeChar, pin, dashId, deviceId);
-        String userReportingDir = getUserReportingFolderPath(user).toString();
+        String userStorageDir = getUserStorageDir(user);
+        int seriesId = seriesRegistry.getId(
+                new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin));
 
         for (GraphGranularityType reportGranularity : GraphGranularityType.values()) {
-            delete(userReportingDir, dashId, deviceId, pinType, pin, reportGranularity);
+            storage.delete(userStorageDir, generateFilename(dashId, deviceId, pinType, pin, reportGranularity));
+            if (seriesId != SeriesRegistry.NO_ID) {
+                tailCache.invalidate(seriesId, reportGranularity);
+            }
         }
     }
 
     public void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType, String value, long ts) {
+        Device device = user.profile.getDeviceById(dash, deviceId);
+        if (device == null) {
+            process(user, dash, deviceId, pin, pinType, value, ts, NumberUtil.parseDouble(value));
+        } else {
+            process(user, dash, device, pin, pinType, value, ts, NumberUtil.parseDouble(value));
+        }
+    }
+
+    public void process(User user, DashBoard dash, Device device, short pin, PinType pinType, String value, long ts) {
+        process(user, dash, device, pin, pinType, value, ts, NumberUtil.parseDouble(value));
+    }
+
+    //for the values that were already parsed by the decoder
+    public void process(User user, DashBoard dash, Device device, short pin, PinType pinType,
+                        String value, long ts, double doubleVal) {
         try {
-            double doubleVal = NumberUtil.parseDouble(value);
-            process(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
+            collect(user, dash, device, device.id, pin, pinType, value, ts, doubleVal);
         } catch (Exception e) {
             //just in case
             log.trace("Error collecting reporting entry.");
@@ -299,10 +310,23 @@ public class ReportingDiskDao implements Closeable {
 
     private void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType,
                          String value, long ts, double doubleVal) {
+        try {
+            collect(user, dash, null, deviceId, pin, pinType, value, ts, doubleVal);
+        } catch (Exception e) {
+            //just in case
+            log.trace("Error collecting reporting entry.");
+        }
+    }
+
+    /**
+     * @param device - device of the entry, null when it is not within the profile
+     */
+    private void collect(User user, DashBoard dash, Device device, int deviceId, short pin, PinType pinType,
+                         String value, long ts, double doubleVal) {
+        int seriesId = SeriesRegistry.NO_ID;
         if (enableRawDbDataStore) {
-            rawDataProcessor.collect(
-                    new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin),
-                    ts, value, doubleVal);
+            seriesId = getSeriesId(user, dash, device, deviceId, pinType, pin);
+            rawDataProcessor.collect(seriesId, ts, value, doubleVal);
         }
 
         //not a number, nothing to aggregate
@@ -313,31 +337,93 @@ public class ReportingDiskDao implements Closeable {
         //store history data only for the pins assigned to the superchart
         Widget widgetWithLogPins = user.profile.getWidgetWithLoggedPin(dash, deviceId, pin, pinType);
         if (widgetWithLogPins != null) {
-            BaseReportingKey key = new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin);
-            averageAggregator.collect(key, ts, doubleVal);
+            if (seriesId == SeriesRegistry.NO_ID) {
+                seriesId = getSeriesId(user, dash, device, deviceId, pinType, pin);
+            }
+            averageAggregator.collect(seriesId, ts, doubleVal);
             if (widgetWithLogPins instanceof Superchart) {
                 if (((Superchart) widgetWithLogPins).hasLivePeriodsSelected()) {
-                    rawDataCacheForGraphProcessor.collect(key, new GraphValue(doubleVal, ts));
+                    rawDataCacheForGraphProcessor.collect(seriesRegistry.getKey(seriesId), doubleVal, ts);
                 }
             }
         }
     }
 
-    public byte[][] getReportingData(User user, GraphPinRequest[] requestedPins) throws NoDataException {
-        byte[][] values = new byte[requestedPins.length][];
+    private int getSeriesId(User user, DashBoard dash, Device device, int deviceId, PinType pinType, short pin) {
+        if (device == null) {
+            return seriesRegistry.getOrCreateId(
+                    new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin));
+        }
+        return seriesRegistry.getOrCreateId(user, dash.id, device, pinType, pin);
+    }
+
+    /**
+     * @return - data for every requested pin. Buffers could be the read only
+     *           views of the storage data, so they should be consumed without modification.
+     */
+    public ByteBuffer[] getReportingData(User user, GraphPinRequest[] requestedPins) throws NoDataException {
+        return getReportingData(user, requestedPins, null, 1);
+    }
 
+    /**
+     * Every requested pin (and every device of the requested tag) is the separate series read,
+     * reads are executed concurrently by the calling thread and readExecutor.
+     *
+     * @param readExecutor - executor for the additional reads, null to read within the calling thread only
+     * @param maxParallelReads - max number of the series of the request that are read at the same time
+     */
+    public ByteBuffer[] getReportingData(User user, GraphPinRequest[] requestedPins,
+                                         Executor readExecutor, int maxParallelReads) throws NoDataException {
+        int readsCount = 0;
+        for (GraphPinRequest graphPinRequest : requestedPins) {
+            log.debug("Getting data for graph pin : {}.", graphPinRequest);
+            if (isDiskRead(graphPinRequest)) {
+                readsCount += graphPinRequest.isTag ? graphPinRequest.deviceIds.length : 1;
+            }
+        }
+
+        GraphPinRequest[] readPins = new GraphPinRequest[readsCount];
+        int[] readDeviceIds = new int[readsCount];
+        int readIndex = 0;
+        for (GraphPinRequest graphPinRequest : requestedPins) {
+            if (isDiskRead(graphPinRequest)) {
+                if (graphPinRequest.isTag) {
+                    for (int deviceId : graphPinRequest.deviceIds) {
+                        readPins[readIndex] = graphPinRequest;
+                        readDeviceIds[readIndex++] = deviceId;
+                    }
+                } else {
+                    readPins[readIndex] = graphPinRequest;
+                    readDeviceIds[readIndex++] = graphPinRequest.deviceId;
+                }
+            }
+        }
+
+        ByteBuffer[] reads = ParallelSeriesReader.readAll(readsCount,
+                index -> getByteBufferFromDisk(user,
+                        readPins[index].dashId, readDeviceIds[index],
+                        readPins[index].pinType, readPins[index].pin,
+                        readPins[index].count, readPins[index].type,
+                        readPins[index].skipCount),
+                readExecutor, maxParallelReads);
+
+        ByteBuffer[] values = new ByteBuffer[requestedPins.length];
+        readIndex = 0;
         for (int i = 0; i < requestedPins.length; i++) {
             GraphPinRequest graphPinRequest = requestedPins[i];
-            log.debug("Getting data for graph pin : {}.", graphPinRequest);
+            ByteBuffer byteBuffer = null;
             if (graphPinRequest.isValid()) {
-                ByteBuffer byteBuffer = graphPinRequest.isLiveData()
-                        //live graph data is not on disk but in memory
-                        ? rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest)
-                        : getByteBufferFromDisk(user, graphPinRequest);
-                values[i] = byteBuffer == null ? EMPTY_BYTES : byteBuffer.array();
-            } else {
-                values[i] = EMPTY_BYTES;
+                if (graphPinRequest.isLiveData()) {
+                    //live graph data is not on disk but in memory
+                    byteBuffer = rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest);
+                } else if (graphPinRequest.isTag) {
+                    byteBuffer = getDataForTag(graphPinRequest, reads, readIndex);
+                    readIndex += graphPinRequest.deviceIds.length;
+                } else {
+                    byteBuffer = reads[readIndex++];
+                }
             }
+            values[i] = byteBuffer == null ? EMPTY_BUFFER : byteBuffer;
         }
 
         if (!hasData(values)) {
@@ -347,9 +433,43 @@ public class ReportingDiskDao implements Closeable {
         return values;
     }
 
+    /**
+     * Reads the series of the single requested pin, for the callers that read series one by one.
+     *
+     * @return - series data, empty buffer when there is no data
+     */
+    public ByteBuffer getReportingData(User user, GraphPinRequest graphPinRequest) {
+        ByteBuffer byteBuffer = null;
+        if (graphPinRequest.isValid()) {
+            if (graphPinRequest.isLiveData()) {
+                byteBuffer = rawDataCacheForGraphProcessor.getLiveGraphData(user, graphPinRequest);
+            } else if (graphPinRequest.isTag) {
+                ByteBuffer[] reads = new ByteBuffer[graphPinRequest.deviceIds.length];
+                for (int i = 0; i < reads.length; i++) {
+                    reads[i] = getByteBufferFromDisk(user, graphPinRequest.dashId, graphPinRequest.deviceIds[i],
+                            graphPinRequest.pinType, graphPinRequest.pin,
+                            graphPinRequest.count, graphPinRequest.type, graphPinRequest.skipCount);
+                }
+                byteBuffer = getDataForTag(graphPinRequest, reads, 0);
+            } else {
+                byteBuffer = getByteBufferFromDisk(user, graphPinRequest.dashId, graphPinRequest.deviceId,
+                        graphPinRequest.pinType, graphPinRequest.pin,
+                        graphPinRequest.count, graphPinRequest.type, graphPinRequest.skipCount);
+            }
+        }
+        return byteBuffer == null ? EMPTY_BUFFER : byteBuffer;
+    }
+
+    private static boolean isDiskRead(GraphPinRequest graphPinRequest) {
+        return graphPinRequest.isValid() && !graphPinRequest.isLiveData();
+    }
+
     @Override
     public void close() {
         System.out.println("Stopping aggregator...");
         this.averageAggregator.close();
+        this.seriesRegistry.persist();
+        System.out.println("Closing reporting storage...");
+        this.storage.close();
     }
 }
@@ -0,0 +1,128 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.dao.functions.GraphFunction;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * K-way merge of the reporting entries of several series (devices of the tag)
+ * into the single series. Entries with the same ts are aggregated with the graph function.
+ *
+ * Every series is already ordered by ts, so instead of the map with all
+ * buckets, only the head entry of every series is tracked within the min-heap and
+ * the result is written directly into the output buffer bucket after bucket.
+ */
+final class SortedSeriesMerger {
+
+    private static final int TS_OFFSET = 8;
+
+    private SortedSeriesMerger() {
+    }
+
+    /**
+     * @return true if entries of every series (from position to limit) are ordered by ts
+     */
+    static boolean isSorted(ByteBuffer[] series, int seriesCount) {
+        for (int i = 0; i < seriesCount; i++) {
+            ByteBuffer buf = series[i];
+            long prevTs = Long.MIN_VALUE;
+            for (int pos = buf.position(); pos + SIZE_OF_REPORT_ENTRY <= buf.limit(); pos += SIZE_OF_REPORT_ENTRY) {
+                long ts = buf.getLong(pos + TS_OFFSET);
+                if (ts < prevTs) {
+                    return false;
+                }
+                prevTs = ts;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Series should be ordered by ts (see isSorted()), positions of the series buffers are moved.
+     *
+     * @return flipped buffer with the aggregated entries ordered by ts
+     */
+    static ByteBuffer merge(ByteBuffer[] series, int seriesCount, GraphFunction function) {
+        int totalEntries = 0;
+        //indexes of the series, ordered by the ts of the head entry of the series
+        int[] heap = new int[seriesCount];
+        long[] headTs = new long[seriesCount];
+        int heapSize = 0;
+        for (int i = 0; i < seriesCount; i++) {
+            ByteBuffer buf = series[i];
+            int entries = buf.remaining() / SIZE_OF_REPORT_ENTRY;
+            if (entries > 0) {
+                totalEntries += entries;
+                headTs[i] = buf.getLong(buf.position() + TS_OFFSET);
+                heap[heapSize] = i;
+                siftUp(heap, headTs, heapSize);
+                heapSize++;
+            }
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(totalEntries * SIZE_OF_REPORT_ENTRY);
+        while (heapSize > 0) {
+            long ts = headTs[heap[0]];
+            function.reset();
+            do {
+                int seriesIndex = heap[0];
+                ByteBuffer buf = series[seriesIndex];
+                function.apply(buf.getDouble());
+                buf.getLong();
+                if (buf.remaining() >= SIZE_OF_REPORT_ENTRY) {
+                    headTs[seriesIndex] = buf.getLong(buf.position() + TS_OFFSET);
+                } else {
+                    heapSize--;
+                    heap[0] = heap[heapSize];
+                }
+                siftDown(heap, headTs, heapSize);
+            } while (heapSize > 0 && headTs[heap[0]] == ts);
+
+            result.putDouble(function.getResult())
+                  .putLong(ts);
+        }
+        ((Buffer) result).flip();
+        return result;
+    }
+
+    private static void siftUp(int[] heap, long[] headTs, int index) {
+        int seriesIndex = heap[index];
+        long ts = headTs[seriesIndex];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (headTs[heap[parent]] <= ts) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = seriesIndex;
+    }
+
+    private static void siftDown(int[] heap, long[] headTs, int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int index = 0;
+        int seriesIndex = heap[0];
+        long ts = headTs[seriesIndex];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && headTs[heap[right]] < headTs[heap[child]]) {
+                child = right;
+            }
+            if (ts <= headTs[heap[child]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = seriesIndex;
+    }
+
+}
@@ -11,4 +11,9 @@ public interface GraphFunction {
 
     double getResult();
 
+    /**
+     * Allows to reuse the same function for the next bucket.
+     */
+    void reset();
+
 }
@@ -1,7 +1,6 @@
 package cc.blynk.server.core.dao.functions;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 
 /**
  * The Blynk Project.
@@ -10,25 +9,34 @@ import java.util.Collections;
  */
 public class MedianGraphFunction implements GraphFunction {
 
-    private final ArrayList<Double> array;
+    private double[] array;
+    private int size;
 
     public MedianGraphFunction() {
-        this.array = new ArrayList<>();
+        this.array = new double[16];
     }
 
     @Override
     public void apply(double newValue) {
-        array.add(newValue);
+        if (size == array.length) {
+            array = Arrays.copyOf(array, size * 2);
+        }
+        array[size++] = newValue;
     }
 
     @Override
     public double getResult() {
-        Collections.sort(array);
-        int middle = array.size() / 2;
-        if (array.size() % 2 == 0) {
-            return (array.get(middle) + array.get(middle - 1)) / 2;
+        Arrays.sort(array, 0, size);
+        int middle = size / 2;
+        if (size % 2 == 0) {
+            return (array[middle] + array[middle - 1]) / 2;
         }
-        return array.get(middle);
+        return array[middle];
+    }
+
+    @Override
+    public void reset() {
+        this.size = 0;
     }
 
 }
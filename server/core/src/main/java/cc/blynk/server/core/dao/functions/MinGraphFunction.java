@@ -19,4 +19,9 @@ public class MinGraphFunction implements GraphFunction {
         return value;
     }
 
+    @Override
+    public void reset() {
+        this.value = Double.MAX_VALUE;
+    }
+
 }
@@ -40,6 +40,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_DEVICES;
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_TAGS;
@@ -101,9 +102,31 @@ public class DashBoard {
     @Deprecated
     public Map<PinStorageKey, PinStorageValue> pinsStorage = Collections.emptyMap();
 
+    private transient volatile PinRoutingIndex pinRoutingIndex;
+
+    private final transient AtomicInteger pinRoutingVersion = new AtomicInteger();
+
+    public PinRoutingIndex.PinRoute getPinRoute(int deviceId, short pin, PinType type) {
+        int version = pinRoutingVersion.get();
+        Widget[] widgets = this.widgets;
+        Device[] devices = this.devices;
+        Tag[] tags = this.tags;
+        PinRoutingIndex index = this.pinRoutingIndex;
+        if (index == null || !index.isBuiltFrom(widgets, devices, tags, version)) {
+            index = PinRoutingIndex.build(version, widgets, devices, tags);
+            this.pinRoutingIndex = index;
+        }
+        return index.get(deviceId, pin, type);
+    }
+
+    //should be called when nested structure (tile template, tag) is changed in place
+    public void invalidatePinRouting() {
+        pinRoutingVersion.incrementAndGet();
+    }
+
     public boolean updateWidgets(int deviceId, short pin, PinType type, String value) {
         boolean hasWidget = false;
-        for (Widget widget : widgets) {
+        for (Widget widget : getPinRoute(deviceId, pin, type).widgets) {
             if (widget.updateIfSame(deviceId, pin, type, value)) {
                 hasWidget = true;
             }
@@ -194,15 +217,7 @@ public class DashBoard {
     }
 
     public WebHook findWebhookByPin(int deviceId, short pin, PinType pinType) {
-        for (Widget widget : widgets) {
-            if (widget instanceof WebHook) {
-                WebHook webHook = (WebHook) widget;
-                if (webHook.isSameWebHook(deviceId, pin, pinType)) {
-                    return webHook;
-                }
-            }
-        }
-        return null;
+        return getPinRoute(deviceId, pin, pinType).webHook;
     }
 
     public static int getWidgetIndexByIdOrThrow(Widget[] widgets, long id) {
@@ -334,6 +349,7 @@ public class DashBoard {
                 ((DeviceCleaner) widget).deleteDevice(deviceId);
             }
         }
+        invalidatePinRouting();
     }
 
     public void addTimers(TimerWorker timerWorker, UserKey userKey) {
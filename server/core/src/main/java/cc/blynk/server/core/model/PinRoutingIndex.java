@@ -0,0 +1,344 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.MultiPinWidget;
+import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.model.widgets.Target;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
+import cc.blynk.server.core.model.widgets.ui.reporting.ReportingWidget;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportDataStream;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportSource;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
+import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+
+import java.util.ArrayList;
+
+import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_WIDGETS;
+
+/**
+ * Immutable snapshot of the dashboard structure, that tells for every (deviceId, pinType, pin)
+ * what has to be done with the value that came from the hardware: widgets to update,
+ * widget the pin is logged by, webhook to call and eventor rules to evaluate.
+ * So hardware write doesn't scan all widgets of the project.
+ *
+ * Routes are the superset of the widgets that match the pin, so callers still use
+ * the widget methods (updateIfSame, isReady) for the final check and the widget state.
+ *
+ * Index is built from the copy-on-write arrays of the dashboard and is valid while
+ * dash.widgets, dash.devices and dash.tags are the same arrays. Changes that modify
+ * nested structures in place (tile templates, tags) have to call DashBoard.invalidatePinRouting().
+ */
+public final class PinRoutingIndex {
+
+    private static final Rule[] EMPTY_RULES = {};
+    private static final PinType[] PIN_TYPES = PinType.values();
+
+    public static final PinRoute EMPTY_ROUTE = new PinRoute(EMPTY_WIDGETS, null, null, EMPTY_RULES);
+
+    private final Widget[] widgets;
+    private final Device[] devices;
+    private final Tag[] tags;
+    private final int version;
+    private final LongObjectMap<PinRoute> routes;
+    //reporting widget logs the pin for any device, so these routes are keyed without device
+    private final LongObjectMap<PinRoute> reportedPins;
+
+    private PinRoutingIndex(Widget[] widgets, Device[] devices, Tag[] tags, int version,
+                            LongObjectMap<PinRoute> routes, LongObjectMap<PinRoute> reportedPins) {
+        this.widgets = widgets;
+        this.devices = devices;
+        this.tags = tags;
+        this.version = version;
+        this.routes = routes;
+        this.reportedPins = reportedPins;
+    }
+
+    static long key(int deviceId, PinType pinType, short pin) {
+        return ((long) deviceId << 32) | ((long) pinType.ordinal() << 16) | (pin & 0xFFFFL);
+    }
+
+    public PinRoute get(int deviceId, short pin, PinType pinType) {
+        PinRoute route = routes.get(key(deviceId, pinType, pin));
+        if (route == null) {
+            route = reportedPins.get(key(0, pinType, pin));
+        }
+        return route == null ? EMPTY_ROUTE : route;
+    }
+
+    boolean isBuiltFrom(Widget[] widgets, Device[] devices, Tag[] tags, int version) {
+        return this.widgets == widgets && this.devices == devices && this.tags == tags && this.version == version;
+    }
+
+    //version has to be read before the dashboard arrays, so concurrent change is never missed
+    static PinRoutingIndex build(int version, Widget[] widgets, Device[] devices, Tag[] tags) {
+        Builder builder = new Builder(widgets, devices, tags);
+        Eventor eventor = null;
+        for (int order = 0; order < widgets.length; order++) {
+            Widget widget = widgets[order];
+            if (widget instanceof Eventor) {
+                if (eventor == null) {
+                    eventor = (Eventor) widget;
+                    builder.addEventor(eventor);
+                }
+            } else if (widget instanceof WebHook) {
+                builder.addWebHook((WebHook) widget);
+            } else if (widget instanceof OnePinWidget) {
+                OnePinWidget onePinWidget = (OnePinWidget) widget;
+                builder.addWidget(onePinWidget, onePinWidget.deviceId, onePinWidget.pinType,
+                        onePinWidget.pin, onePinWidget.pwmMode, true);
+            } else if (widget instanceof MultiPinWidget) {
+                MultiPinWidget multiPinWidget = (MultiPinWidget) widget;
+                if (multiPinWidget.dataStreams != null) {
+                    for (DataStream dataStream : multiPinWidget.dataStreams) {
+                        builder.addWidget(multiPinWidget, multiPinWidget.deviceId, dataStream);
+                    }
+                }
+            } else if (widget instanceof Superchart) {
+                builder.addGraph((Superchart) widget, order, null);
+            } else if (widget instanceof DeviceTiles) {
+                DeviceTiles deviceTiles = (DeviceTiles) widget;
+                for (Tile tile : deviceTiles.tiles) {
+                    builder.addWidget(deviceTiles, tile.deviceId, tile.dataStream);
+                }
+                for (TileTemplate tileTemplate : deviceTiles.templates) {
+                    for (Widget tileWidget : tileTemplate.widgets) {
+                        if (tileWidget instanceof Superchart) {
+                            builder.addGraph((Superchart) tileWidget, order, tileTemplate.deviceIds);
+                        }
+                    }
+                }
+            } else if (widget instanceof ReportingWidget) {
+                builder.addReporting((ReportingWidget) widget, order);
+            }
+        }
+        return builder.build(version);
+    }
+
+    /**
+     * What has to be done with the value of the one pin.
+     */
+    public static final class PinRoute {
+
+        //widgets that may hold the pin, widget.updateIfSame() decides
+        public final Widget[] widgets;
+
+        //first widget (Superchart or ReportingWidget) that stores history of the pin
+        public final Widget loggedWidget;
+
+        public final WebHook webHook;
+
+        //rules of the eventor triggered by the pin, rule.isReady() decides
+        public final Rule[] rules;
+
+        PinRoute(Widget[] widgets, Widget loggedWidget, WebHook webHook, Rule[] rules) {
+            this.widgets = widgets;
+            this.loggedWidget = loggedWidget;
+            this.webHook = webHook;
+            this.rules = rules;
+        }
+    }
+
+    private static final class RouteBuilder {
+
+        private final ArrayList<Widget> widgets = new ArrayList<>();
+        private Widget loggedWidget;
+        private int loggedOrder = Integer.MAX_VALUE;
+        private WebHook webHook;
+        private final ArrayList<Rule> rules = new ArrayList<>();
+
+        private void addWidget(Widget widget) {
+            //same widget is matched by several pin types
+            if (widgets.isEmpty() || widgets.get(widgets.size() - 1) != widget) {
+                widgets.add(widget);
+            }
+        }
+
+        private void addLogged(Widget widget, int order) {
+            if (order < loggedOrder) {
+                this.loggedWidget = widget;
+                this.loggedOrder = order;
+            }
+        }
+
+        private PinRoute build() {
+            return new PinRoute(
+                    widgets.isEmpty() ? EMPTY_WIDGETS : widgets.toArray(new Widget[0]),
+                    loggedWidget,
+                    webHook,
+                    rules.isEmpty() ? EMPTY_RULES : rules.toArray(new Rule[0]));
+        }
+    }
+
+    private static final class Builder {
+
+        private final Widget[] widgets;
+        private final Device[] devices;
+        private final Tag[] tags;
+        private final LongObjectHashMap<RouteBuilder> routes = new LongObjectHashMap<>();
+        private final LongObjectHashMap<RouteBuilder> reportedPins = new LongObjectHashMap<>();
+
+        private Builder(Widget[] widgets, Device[] devices, Tag[] tags) {
+            this.widgets = widgets;
+            this.devices = devices;
+            this.tags = tags;
+        }
+
+        private static RouteBuilder route(LongObjectHashMap<RouteBuilder> routes, long key) {
+            RouteBuilder route = routes.get(key);
+            if (route == null) {
+                route = new RouteBuilder();
+                routes.put(key, route);
+            }
+            return route;
+        }
+
+        private RouteBuilder route(int deviceId, PinType pinType, short pin) {
+            return route(routes, key(deviceId, pinType, pin));
+        }
+
+        //pin types the value of which is matched by DataStream.isSame() and OnePinWidget.isSame()
+        private static boolean matches(PinType type, PinType pinType, boolean pwmMode, boolean digitalForAnalog) {
+            return type == pinType
+                    || (pwmMode && type == PinType.ANALOG)
+                    || (digitalForAnalog && type == PinType.DIGITAL && pinType == PinType.ANALOG);
+        }
+
+        private void addWidget(Widget widget, int deviceId, DataStream dataStream) {
+            if (dataStream != null) {
+                addWidget(widget, deviceId, dataStream.pinType, dataStream.pin, dataStream.pwmMode, false);
+            }
+        }
+
+        private void addWidget(Widget widget, int deviceId, PinType pinType, short pin,
+                               boolean pwmMode, boolean digitalForAnalog) {
+            for (PinType type : PIN_TYPES) {
+                if (matches(type, pinType, pwmMode, digitalForAnalog)) {
+                    route(deviceId, type, pin).addWidget(widget);
+                }
+            }
+        }
+
+        private void addWebHook(WebHook webHook) {
+            for (PinType type : PIN_TYPES) {
+                if (matches(type, webHook.pinType, webHook.pwmMode, true)) {
+                    RouteBuilder route = route(webHook.deviceId, type, webHook.pin);
+                    if (route.webHook == null) {
+                        route.webHook = webHook;
+                    }
+                }
+            }
+        }
+
+        private void addEventor(Eventor eventor) {
+            if (eventor.rules == null) {
+                return;
+            }
+            for (Rule rule : eventor.rules) {
+                DataStream dataStream = rule.triggerDataStream;
+                if (dataStream == null) {
+                    continue;
+                }
+                for (PinType type : PIN_TYPES) {
+                    if (matches(type, dataStream.pinType, dataStream.pwmMode, false)) {
+                        route(eventor.deviceId, type, dataStream.pin).rules.add(rule);
+                    }
+                }
+            }
+        }
+
+        private void addGraph(Superchart graph, int order, int[] tileDeviceIds) {
+            for (GraphDataStream graphDataStream : graph.dataStreams) {
+                if (graphDataStream == null || graphDataStream.dataStream == null) {
+                    continue;
+                }
+                DataStream dataStream = graphDataStream.dataStream;
+                int targetId = graphDataStream.targetId;
+                Target target = getTarget(targetId);
+                for (PinType type : PIN_TYPES) {
+                    if (matches(type, dataStream.pinType, dataStream.pwmMode, false)) {
+                        //datastream assigned directly to the device
+                        route(targetId, type, dataStream.pin).addLogged(graph, order);
+                        //graph is within deviceTiles
+                        if (tileDeviceIds != null) {
+                            for (int deviceId : tileDeviceIds) {
+                                route(deviceId, type, dataStream.pin).addLogged(graph, order);
+                            }
+                        }
+                        //graph is within device selector or tags
+                        if (target != null) {
+                            for (int deviceId : target.getAssignedDeviceIds()) {
+                                route(deviceId, type, dataStream.pin).addLogged(graph, order);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void addReporting(ReportingWidget reportingWidget, int order) {
+            for (ReportSource reportSource : reportingWidget.reportSources) {
+                for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
+                    if (reportDataStream.pinType != null) {
+                        route(reportedPins, key(0, reportDataStream.pinType, reportDataStream.pin))
+                                .addLogged(reportingWidget, order);
+                    }
+                }
+            }
+        }
+
+        private Target getTarget(int targetId) {
+            if (targetId < Tag.START_TAG_ID) {
+                for (Device device : devices) {
+                    if (device.id == targetId) {
+                        return device;
+                    }
+                }
+            } else if (targetId < DeviceSelector.DEVICE_SELECTOR_STARTING_ID) {
+                for (Tag tag : tags) {
+                    if (tag.id == targetId) {
+                        return tag;
+                    }
+                }
+            } else {
+                for (Widget widget : widgets) {
+                    if (widget.id == targetId && widget instanceof DeviceSelector) {
+                        return (DeviceSelector) widget;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private PinRoutingIndex build(int version) {
+            LongObjectHashMap<PinRoute> builtReportedPins = new LongObjectHashMap<>(reportedPins.size());
+            for (LongObjectMap.PrimitiveEntry<RouteBuilder> entry : reportedPins.entries()) {
+                builtReportedPins.put(entry.key(), entry.value().build());
+            }
+
+            LongObjectHashMap<PinRoute> builtRoutes = new LongObjectHashMap<>(routes.size());
+            for (LongObjectMap.PrimitiveEntry<RouteBuilder> entry : routes.entries()) {
+                RouteBuilder route = entry.value();
+                //reporting widget may go before the graph that logs the same pin
+                long key = entry.key();
+                RouteBuilder reported = reportedPins.get(key & 0xFFFFFFFFL);
+                if (reported != null) {
+                    route.addLogged(reported.loggedWidget, reported.loggedOrder);
+                }
+                builtRoutes.put(key, route.build());
+            }
+            return new PinRoutingIndex(widgets, devices, tags, version, builtRoutes, builtReportedPins);
+        }
+    }
+
+}
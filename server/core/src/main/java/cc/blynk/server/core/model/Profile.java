@@ -18,10 +18,7 @@ import cc.blynk.server.core.model.widgets.MultiPinWidget;
 import cc.blynk.server.core.model.widgets.OnePinWidget;
 import cc.blynk.server.core.model.widgets.Target;
 import cc.blynk.server.core.model.widgets.Widget;
-import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
-import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
 import cc.blynk.server.core.model.widgets.ui.DeviceSelector;
-import cc.blynk.server.core.model.widgets.ui.reporting.ReportingWidget;
 import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
 import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
 import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
@@ -159,6 +156,7 @@ public class Profile {
         for (Tag tag : dash.tags) {
             tag.deleteDevice(deviceId);
         }
+        dash.invalidatePinRouting();
     }
 
     public void cleanPinStorage(DashBoard dash, Widget widget, boolean removeTemplates) {
@@ -326,70 +324,7 @@ public class Profile {
     }
 
     public Widget getWidgetWithLoggedPin(DashBoard dash, int deviceId, short pin, PinType pinType) {
-        for (Widget widget : dash.widgets) {
-            if (widget instanceof Superchart) {
-                Superchart graph = (Superchart) widget;
-                if (isWithinGraph(dash, graph, pin, pinType, deviceId)) {
-                    return graph;
-                }
-            }
-            if (widget instanceof DeviceTiles) {
-                DeviceTiles deviceTiles = (DeviceTiles) widget;
-                for (TileTemplate tileTemplate : deviceTiles.templates) {
-                    for (Widget tilesWidget : tileTemplate.widgets) {
-                        if (tilesWidget instanceof Superchart) {
-                            Superchart graph = (Superchart) tilesWidget;
-                            if (isWithinGraph(dash, graph, pin, pinType, deviceId, tileTemplate.deviceIds)) {
-                                return graph;
-                            }
-                        }
-                    }
-                }
-            }
-            if (widget instanceof ReportingWidget) {
-                ReportingWidget reportingWidget = (ReportingWidget) widget;
-                if (reportingWidget.hasPin(pin, pinType)) {
-                    return reportingWidget;
-                }
-            }
-        }
-        return null;
-    }
-
-    private boolean isWithinGraph(DashBoard dash, Superchart graph,
-                                         short pin, PinType pinType, int deviceId, int... deviceIds) {
-        for (GraphDataStream graphDataStream : graph.dataStreams) {
-            if (graphDataStream != null && graphDataStream.dataStream != null
-                    && graphDataStream.dataStream.isSame(pin, pinType)) {
-
-                int graphTargetId = graphDataStream.targetId;
-
-                //this is the case when datastream assigned directly to the device
-                if (deviceId == graphTargetId) {
-                    return true;
-                }
-
-                //this is the case when graph is within deviceTiles
-                if (deviceIds != null && ArrayUtil.contains(deviceIds, deviceId)) {
-                    return true;
-                }
-
-                //this is the case when graph is within device selector or tags
-                Target target;
-                if (graphTargetId < Tag.START_TAG_ID) {
-                    target = getDeviceById(dash, graphTargetId);
-                } else if (graphTargetId < DeviceSelector.DEVICE_SELECTOR_STARTING_ID) {
-                    target = getTagById(dash, graphTargetId);
-                } else {
-                    //means widget assigned to device selector widget.
-                    target = dash.getDeviceSelector(graphTargetId);
-                }
-                if (target != null && ArrayUtil.contains(target.getAssignedDeviceIds(), deviceId)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return dash.getPinRoute(deviceId, pin, pinType).loggedWidget;
     }
 
     public int getDashIndexOrThrow(int dashId) {
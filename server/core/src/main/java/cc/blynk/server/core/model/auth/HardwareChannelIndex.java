@@ -0,0 +1,111 @@
+package cc.blynk.server.core.model.auth;
+
+import io.netty.channel.Channel;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the hardware channels of the session by (dashId, deviceId) and by dashId,
+ * so lookups don't scan all hardware channels of the user and don't touch their pipelines.
+ *
+ * Hardware connects and disconnects are rare comparing to the lookups, so every change
+ * creates the new snapshot and readers never lock.
+ */
+final class HardwareChannelIndex {
+
+    static final Channel[] EMPTY_CHANNELS = {};
+    static final HardwareChannelIndex EMPTY =
+            new HardwareChannelIndex(new LongObjectHashMap<>(0), new IntObjectHashMap<>(0));
+
+    private final LongObjectMap<Channel[]> byDevice;
+    private final IntObjectMap<Channel[]> byDash;
+
+    private HardwareChannelIndex(LongObjectMap<Channel[]> byDevice, IntObjectMap<Channel[]> byDash) {
+        this.byDevice = byDevice;
+        this.byDash = byDash;
+    }
+
+    private static long key(int dashId, int deviceId) {
+        return ((long) dashId << 32) | (deviceId & 0xFFFFFFFFL);
+    }
+
+    Channel[] get(int dashId, int deviceId) {
+        Channel[] channels = byDevice.get(key(dashId, deviceId));
+        return channels == null ? EMPTY_CHANNELS : channels;
+    }
+
+    Channel[] get(int dashId) {
+        Channel[] channels = byDash.get(dashId);
+        return channels == null ? EMPTY_CHANNELS : channels;
+    }
+
+    HardwareChannelIndex add(int dashId, int deviceId, Channel channel) {
+        LongObjectMap<Channel[]> newByDevice = new LongObjectHashMap<>(byDevice.size() + 1);
+        newByDevice.putAll(byDevice);
+        long key = key(dashId, deviceId);
+        newByDevice.put(key, add(newByDevice.get(key), channel));
+
+        IntObjectMap<Channel[]> newByDash = new IntObjectHashMap<>(byDash.size() + 1);
+        newByDash.putAll(byDash);
+        newByDash.put(dashId, add(newByDash.get(dashId), channel));
+
+        return new HardwareChannelIndex(newByDevice, newByDash);
+    }
+
+    HardwareChannelIndex remove(int dashId, int deviceId, Channel channel) {
+        long key = key(dashId, deviceId);
+        Channel[] deviceChannels = byDevice.get(key);
+        if (deviceChannels == null) {
+            return this;
+        }
+
+        LongObjectMap<Channel[]> newByDevice = new LongObjectHashMap<>(byDevice.size());
+        newByDevice.putAll(byDevice);
+        deviceChannels = remove(deviceChannels, channel);
+        if (deviceChannels.length == 0) {
+            newByDevice.remove(key);
+        } else {
+            newByDevice.put(key, deviceChannels);
+        }
+
+        IntObjectMap<Channel[]> newByDash = new IntObjectHashMap<>(byDash.size());
+        newByDash.putAll(byDash);
+        Channel[] dashChannels = remove(newByDash.get(dashId), channel);
+        if (dashChannels.length == 0) {
+            newByDash.remove(dashId);
+        } else {
+            newByDash.put(dashId, dashChannels);
+        }
+
+        return new HardwareChannelIndex(newByDevice, newByDash);
+    }
+
+    private static Channel[] add(Channel[] channels, Channel channel) {
+        if (channels == null) {
+            return new Channel[] {channel};
+        }
+        Channel[] result = Arrays.copyOf(channels, channels.length + 1);
+        result[channels.length] = channel;
+        return result;
+    }
+
+    private static Channel[] remove(Channel[] channels, Channel channel) {
+        if (channels == null) {
+            return EMPTY_CHANNELS;
+        }
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                Channel[] result = new Channel[channels.length - 1];
+                System.arraycopy(channels, 0, result, 0, i);
+                System.arraycopy(channels, i + 1, result, i, channels.length - i - 1);
+                return result;
+            }
+        }
+        return channels;
+    }
+
+}
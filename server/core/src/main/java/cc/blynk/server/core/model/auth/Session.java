@@ -4,8 +4,12 @@ import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.MobileMessageDecoder;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareWriteMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.utils.ArrayUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -14,15 +18,14 @@ import io.netty.util.internal.ConcurrentSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
 import java.util.Set;
 
 import static cc.blynk.server.internal.CommonByteBufUtil.deviceOffline;
+import static cc.blynk.server.internal.CommonByteBufUtil.makeBinaryMessage;
 import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
+import static cc.blynk.server.internal.CommonByteBufUtil.writeDashIdAndDeviceId;
 import static cc.blynk.server.internal.StateHolderUtil.getHardState;
 import static cc.blynk.server.internal.StateHolderUtil.isSameDash;
-import static cc.blynk.server.internal.StateHolderUtil.isSameDashAndDeviceId;
-import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
 
 /**
  * The Blynk Project.
@@ -42,6 +45,10 @@ public class Session {
     private final ChannelFutureListener appRemover = future -> appChannels.remove(future.channel());
     private final ChannelFutureListener hardRemover = future -> hardwareChannels.remove(future.channel());
 
+    //hardware channels by dashId and deviceId, replaced on every hardware connect/disconnect
+    private volatile HardwareChannelIndex hardwareIndex = HardwareChannelIndex.EMPTY;
+    private final Object hardwareIndexLock = new Object();
+
     public Session(EventLoop initialEventLoop) {
         this.initialEventLoop = initialEventLoop;
     }
@@ -83,86 +90,105 @@ public class Session {
 
     public void addHardChannel(Channel hardChannel) {
         if (hardwareChannels.add(hardChannel)) {
-            hardChannel.closeFuture().addListener(hardRemover);
+            HardwareStateHolder hardwareState = getHardState(hardChannel);
+            if (hardwareState == null) {
+                hardChannel.closeFuture().addListener(hardRemover);
+                return;
+            }
+            //ids are captured, as pipeline may be already cleared when channel is closed
+            int dashId = hardwareState.dash.id;
+            int deviceId = hardwareState.device.id;
+            synchronized (hardwareIndexLock) {
+                hardwareIndex = hardwareIndex.add(dashId, deviceId, hardChannel);
+            }
+            hardChannel.closeFuture().addListener(future -> {
+                hardwareChannels.remove(hardChannel);
+                synchronized (hardwareIndexLock) {
+                    hardwareIndex = hardwareIndex.remove(dashId, deviceId, hardChannel);
+                }
+            });
         }
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int[] deviceIds) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.dash.id == activeDashId
-                    && (deviceIds.length == 0 || ArrayUtil.contains(deviceIds, hardwareState.device.id))) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
-                }
-            }
-        }
-        return targetChannels;
+    /**
+     * @return - connected hardware channels of the device. Returned array is shared and must not be modified.
+     */
+    public Channel[] getHardwareChannels(int dashId, int deviceId) {
+        return hardwareIndex.get(dashId, deviceId);
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int deviceId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.isSameDashAndDeviceId(activeDashId, deviceId)) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
-                }
-            }
-        }
-        return targetChannels;
+    /**
+     * @return - connected hardware channels of the dash. Returned array is shared and must not be modified.
+     */
+    public Channel[] getHardwareChannels(int dashId) {
+        return hardwareIndex.get(dashId);
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceId), cmd, msgId, body);
+        return send(hardwareIndex.get(activeDashId, deviceId), null, cmd, msgId, body) == null;
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int... deviceIds) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceIds), cmd, msgId, body);
+        HardwareChannelIndex hardwareIndex = this.hardwareIndex;
+        if (deviceIds.length == 0) {
+            return send(hardwareIndex.get(activeDashId), null, cmd, msgId, body) == null;
+        }
+        StringMessage msg = null;
+        for (int i = 0; i < deviceIds.length; i++) {
+            int deviceId = deviceIds[i];
+            //same device may be listed twice
+            if (ArrayUtil.getIndexByVal(deviceIds, deviceId) == i) {
+                msg = send(hardwareIndex.get(activeDashId, deviceId), msg, cmd, msgId, body);
+            }
+        }
+        return msg == null;
     }
 
     public boolean sendMessageToHardware(short cmd, int msgId, String body) {
-        return sendMessageToHardware(hardwareChannels, cmd, msgId, body);
-    }
-
-    private boolean sendMessageToHardware(Set<Channel> targetChannels, short cmd, int msgId, String body) {
-        int channelsNum = targetChannels.size();
+        int channelsNum = hardwareChannels.size();
         if (channelsNum == 0) {
             return true; // -> no active hardware
         }
 
-        send(targetChannels, cmd, msgId, body);
+        send(hardwareChannels, cmd, msgId, body);
 
         return false; // -> there is active hardware
     }
 
+    /**
+     * Sends the message to the hardware channels that can accept its body.
+     *
+     * @return - sent message (created once for all channels) or null when there is no such channels
+     */
+    private static StringMessage send(Channel[] channels, StringMessage msg, short cmd, int msgId, String body) {
+        for (Channel channel : channels) {
+            HardwareStateHolder hardwareState = getHardState(channel);
+            if (hardwareState != null) {
+                if (hardwareState.device.fitsBufferSize(body.length())) {
+                    if (msg == null) {
+                        msg = makeUTF8StringMessage(cmd, msgId, body);
+                    }
+                    if (channel.isWritable()) {
+                        channel.writeAndFlush(msg, channel.voidPromise());
+                    }
+                } else {
+                    log.trace("Message is to large. Size {}.", body.length());
+                }
+            }
+        }
+        return msg;
+    }
+
     public boolean isHardwareConnected() {
         return hardwareChannels.size() > 0;
     }
 
     public boolean isHardwareConnected(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                return true;
-            }
-        }
-        return false;
+        return hardwareIndex.get(dashId, deviceId).length > 0;
     }
 
     public boolean isHardwareConnected(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
-                return true;
-            }
-        }
-        return false;
+        return hardwareIndex.get(dashId).length > 0;
     }
 
     public void sendOfflineMessageToApps(int dashId, int deviceId) {
@@ -175,28 +201,43 @@ public class Session {
 
     public void sendToApps(short cmd, int msgId, int dashId, int deviceId, String body) {
         if (isAppConnected()) {
-            String finalBody = prependDashIdAndDeviceId(dashId, deviceId, body);
+            ByteBuf finalBody = ByteBufAllocator.DEFAULT.buffer(body.length() + 16);
+            writeDashIdAndDeviceId(finalBody, dashId, deviceId);
+            ByteBufUtil.writeUtf8(finalBody, body);
             sendToApps(cmd, msgId, dashId, finalBody);
         }
     }
 
-    public void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
-        Set<Channel> targetChannels = filterByDash(dashId);
+    public void sendToApps(short cmd, int msgId, int dashId, int deviceId, HardwareWriteMessage message) {
+        if (isAppConnected()) {
+            ByteBuf finalBody = ByteBufAllocator.DEFAULT.buffer(64);
+            writeDashIdAndDeviceId(finalBody, dashId, deviceId);
+            message.writeBody(finalBody);
+            sendToApps(cmd, msgId, dashId, finalBody);
+        }
+    }
 
-        int targetsNum = targetChannels.size();
-        if (targetsNum > 0) {
-            send(targetChannels, cmd, msgId, finalBody);
+    public void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
+        if (isAppConnected()) {
+            sendToApps(cmd, msgId, dashId, ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, finalBody));
         }
     }
 
-    private Set<Channel> filterByDash(int dashId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (isSameDash(channel, dashId)) {
-                targetChannels.add(channel);
+    /**
+     * Body is encoded only once, every app channel of the dash gets the retained duplicate of it.
+     * Passed body is released.
+     */
+    private void sendToApps(short cmd, int msgId, int dashId, ByteBuf finalBody) {
+        try {
+            for (Channel channel : appChannels) {
+                if (channel.isWritable() && isSameDash(channel, dashId)) {
+                    channel.writeAndFlush(makeBinaryMessage(cmd, msgId, finalBody.retainedDuplicate()),
+                            channel.voidPromise());
+                }
             }
+        } finally {
+            finalBody.release();
         }
-        return targetChannels;
     }
 
     private static void sendMessageToMultipleReceivers(Set<Channel> targets, StringMessage msg) {
@@ -213,16 +254,21 @@ public class Session {
     }
 
     public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (channel != sendingChannel && needSync(channel, sharedToken)) {
-                targetChannels.add(channel);
+        ByteBuf encodedBody = null;
+        try {
+            for (Channel channel : appChannels) {
+                if (channel != sendingChannel && channel.isWritable() && needSync(channel, sharedToken)) {
+                    if (encodedBody == null) {
+                        encodedBody = ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, body);
+                    }
+                    channel.writeAndFlush(makeBinaryMessage(cmd, msgId, encodedBody.retainedDuplicate()),
+                            channel.voidPromise());
+                }
+            }
+        } finally {
+            if (encodedBody != null) {
+                encodedBody.release();
             }
-        }
-
-        int channelsNum = targetChannels.size();
-        if (channelsNum > 0) {
-            send(targetChannels, cmd, msgId, body);
         }
     }
 
@@ -239,18 +285,14 @@ public class Session {
     }
 
     public void closeHardwareChannelByDeviceId(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                channel.close();
-            }
+        for (Channel channel : hardwareIndex.get(dashId, deviceId)) {
+            channel.close();
         }
     }
 
     public void closeHardwareChannelByDashId(int dashId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDash(channel, dashId)) {
-                channel.close();
-            }
+        for (Channel channel : hardwareIndex.get(dashId)) {
+            channel.close();
         }
     }
 
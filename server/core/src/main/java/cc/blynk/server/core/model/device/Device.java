@@ -4,6 +4,7 @@ import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.serialization.View;
 import cc.blynk.server.core.model.widgets.Target;
 import cc.blynk.server.core.plugins.PlaatoStructure;
+import cc.blynk.server.core.reporting.SeriesIdCache;
 import com.fasterxml.jackson.annotation.JsonView;
 
 import java.util.concurrent.TimeUnit;
@@ -61,6 +62,8 @@ public class Device implements Target {
     @JsonView(View.Private.class)
     public PlaatoStructure plaato = new PlaatoStructure();
 
+    public final transient SeriesIdCache seriesIdCache = new SeriesIdCache();
+
     public Device(int id, String name, BoardType boardType) {
         this.id = id;
         this.name = name;
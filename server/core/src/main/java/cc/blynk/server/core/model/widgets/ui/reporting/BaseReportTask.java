@@ -7,7 +7,7 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportDataStream;
 import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportSource;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
-import cc.blynk.server.notifications.mail.MailWrapper;
+import cc.blynk.utils.CSVRowEncoder;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -43,23 +43,15 @@ public abstract class BaseReportTask implements Runnable {
 
     final Report report;
 
-    private final MailWrapper mailWrapper;
-
-    private final ReportingDiskDao reportingDiskDao;
-
-    private final String downloadUrl;
+    private final ReportScheduler reportScheduler;
 
     private static final Charset REPORT_ENCODING = UTF_16;
     private static final int size = 64 * 1024;
 
-    protected BaseReportTask(User user, int dashId, Report report,
-                             MailWrapper mailWrapper, ReportingDiskDao reportingDiskDao,
-                             String downloadUrl) {
+    protected BaseReportTask(User user, int dashId, Report report, ReportScheduler reportScheduler) {
         this.key = new ReportTaskKey(user, dashId, report.id);
         this.report = report;
-        this.mailWrapper = mailWrapper;
-        this.reportingDiskDao = reportingDiskDao;
-        this.downloadUrl = downloadUrl;
+        this.reportScheduler = reportScheduler;
     }
 
     private static String deviceAndPinFileName(String deviceName, int deviceId, ReportDataStream reportDataStream) {
@@ -71,52 +63,65 @@ public abstract class BaseReportTask implements Runnable {
         return deviceName + "_" + deviceId + ".csv";
     }
 
+    /**
+     * Submits the report to the report pipeline, report is generated and sent asynchronously.
+     * onFinished() is called when it is done.
+     */
     @Override
     public void run() {
-        try {
-            report.lastReportAt = generateReport();
-            log.debug(report);
-        } catch (Exception e) {
-            log.debug("Error generating report {} for {}.", report, key.user.email, e);
-        }
+        reportScheduler.pipeline.submit(this);
     }
 
-    private void sendEmail(Path output) throws Exception {
+    /**
+     * Called by the pipeline after the report is processed, successfully or not.
+     * Result is within the report.lastRunResult.
+     */
+    protected void onFinished(long finishedAt) {
+        report.lastReportAt = finishedAt;
+        log.debug(report);
+    }
+
+    /**
+     * @return - time when the report was expected to be sent, 0 if report is not scheduled.
+     */
+    protected long dueAt() {
+        return 0;
+    }
+
+    void sendEmail(Path output) throws Exception {
         String durationLabel = report.reportType.getDurationLabel().toLowerCase();
         String subj = "Your " + durationLabel + " " + report.getReportName() + " is ready";
-        String gzipDownloadUrl = downloadUrl + output.getFileName();
+        String gzipDownloadUrl = reportScheduler.downloadUrl + output.getFileName();
         String dynamicSection = report.buildDynamicSection();
-        mailWrapper.sendReportEmail(report.recipients, subj, gzipDownloadUrl, dynamicSection);
+        reportScheduler.mailWrapper.sendReportEmail(report.recipients, subj, gzipDownloadUrl, dynamicSection);
     }
 
-    protected long generateReport() {
-        long now = System.currentTimeMillis();
-
-        String date = LocalDate.now(report.tzName).toString();
-        Path userCsvFolder = FileUtils.getUserReportDir(
-                key.user.email, key.user.appName, key.reportId, date);
-
-        try {
-            Profile profile = key.user.profile;
-            DashBoard dash = profile.getDashByIdOrThrow(key.dashId);
-            report.lastRunResult = generateReport(userCsvFolder, profile, dash, now);
-        } catch (IllegalCommandException illegalState) {
-            report.lastRunResult = ReportResult.ERROR;
+    void onError(Exception e) {
+        report.lastRunResult = ReportResult.ERROR;
+        if (e instanceof IllegalCommandException) {
             log.debug("Dashboard is not exists anymore for the report {} for user {}. ", report.id, key.user.email);
-        } catch (Exception e) {
-            report.lastRunResult = ReportResult.ERROR;
+        } else {
             log.error("Error generating report {} for user {}. ", report.id, key.user.email);
             log.error("Error: ", e);
         }
+    }
 
-        long newNow = System.currentTimeMillis();
-
-        log.info("Processed report for {}, time {} ms.", key.user.email, newNow - now);
-        return newNow;
+    void onNoData() {
+        report.lastRunResult = ReportResult.NO_DATA;
+        log.info("No data for report for user {} and reportId {}.", key.user.email, report.id);
     }
 
-    private ReportResult generateReport(Path userCsvFolder, Profile profile,
-                                        DashBoard dash, long now) throws Exception {
+    /**
+     * Read stage : reads data of all valid report data streams.
+     */
+    ReportData read(long now) {
+        String date = LocalDate.now(report.tzName).toString();
+        Path userCsvFolder = FileUtils.getUserReportDir(
+                key.user.email, key.user.appName, key.reportId, date);
+
+        Profile profile = key.user.profile;
+        DashBoard dash = profile.getDashByIdOrThrow(key.dashId);
+
         int fetchCount = (int) report.reportType.getFetchCount(report.granularityType);
         long startFrom = now - TimeUnit.DAYS.toMillis(report.reportType.getDuration());
         //truncate second, minute, hour, depending of granularity in order to do not filter first point.
@@ -124,55 +129,78 @@ public abstract class BaseReportTask implements Runnable {
         startFrom = (startFrom / report.granularityType.period) * report.granularityType.period;
         Path output = Paths.get(userCsvFolder.toString() + ".zip");
 
-        boolean hasData = generateReport(output, profile, dash, fetchCount, startFrom);
-        if (hasData) {
-            sendEmail(output);
-            return ReportResult.OK;
+        ReportData reportData = new ReportData(now, output, startFrom, profile, dash);
+        ReportingDiskDao reportingDiskDao = reportScheduler.reportingDao;
+        ReportSeriesCache seriesCache = reportScheduler.pipeline.seriesCache;
+        for (ReportSource reportSource : report.reportSources) {
+            if (reportSource.isValid()) {
+                ReportDataStream[] streams = validStreams(reportSource.reportDataStreams);
+                for (int deviceId : reportSource.getDeviceIds()) {
+                    ByteBuffer[] data = new ByteBuffer[streams.length];
+                    for (int i = 0; i < streams.length; i++) {
+                        ReportDataStream reportDataStream = streams[i];
+                        data[i] = seriesCache.read(reportingDiskDao, key.user,
+                                key.dashId, deviceId, reportDataStream.pinType,
+                                reportDataStream.pin, fetchCount, report.granularityType, now);
+                    }
+                    reportData.devices.add(new ReportData.DeviceData(deviceId, streams, data));
+                }
+            }
         }
+        return reportData;
+    }
 
-        log.info("No data for report for user {} and reportId {}.", key.user.email, report.id);
-        return ReportResult.NO_DATA;
+    private static ReportDataStream[] validStreams(ReportDataStream[] reportDataStreams) {
+        int count = 0;
+        for (ReportDataStream reportDataStream : reportDataStreams) {
+            if (reportDataStream.isValid()) {
+                count++;
+            }
+        }
+        ReportDataStream[] result = new ReportDataStream[count];
+        int i = 0;
+        for (ReportDataStream reportDataStream : reportDataStreams) {
+            if (reportDataStream.isValid()) {
+                result[i++] = reportDataStream;
+            }
+        }
+        return result;
     }
 
-    private boolean generateReport(Path output, Profile profile,
-                                   DashBoard dash, int fetchCount, long startFrom) throws Exception {
+    /**
+     * Build stage : encodes the read data to CSV and zips it to the report output file.
+     *
+     * @return - true if report has at least one row
+     */
+    boolean build(ReportData reportData) throws Exception {
         switch (report.reportOutput) {
             case MERGED_CSV:
-                return merged(output, profile, dash, fetchCount, startFrom);
+                return merged(reportData);
             case CSV_FILE_PER_DEVICE:
-                return filePerDevice(output, profile, dash, fetchCount, startFrom);
+                return filePerDevice(reportData);
             case CSV_FILE_PER_DEVICE_PER_PIN:
             case EXCEL_TAB_PER_DEVICE:
             default:
-                return filePerDevicePerPin(output, profile, dash, fetchCount, startFrom);
+                return filePerDevicePerPin(reportData);
         }
     }
 
-    private boolean merged(Path output, Profile profile, DashBoard dash,
-                           int fetchCount, long startFrom) throws Exception {
+    private boolean merged(ReportData reportData) throws Exception {
         boolean atLeastOne = false;
-        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output));
+        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(reportData.output));
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipStream, REPORT_ENCODING), size)) {
+            CSVRowEncoder encoder = new CSVRowEncoder(report.makeFormatter());
             String fileName = truncateFileName(report.getReportName()) + ".csv";
             ZipEntry zipEntry = new ZipEntry(fileName);
             zipStream.putNextEntry(zipEntry);
-            for (ReportSource reportSource : report.reportSources) {
-                if (reportSource.isValid()) {
-                    for (int deviceId : reportSource.getDeviceIds()) {
-                        String deviceName = profile.getCSVDeviceName(dash, deviceId);
-                        for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
-                            if (reportDataStream.isValid()) {
-                                ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
-                                        key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
-
-                                if (onePinData != null) {
-                                    String pin = reportDataStream.formatAndEscapePin();
-                                    atLeastOne = FileUtils.writeBufToCsvFilterAndFormat(writer,
-                                            onePinData, pin, deviceName, startFrom, report.makeFormatter());
-                                }
-                            }
-                        }
+            for (ReportData.DeviceData deviceData : reportData.devices) {
+                String deviceName = reportData.profile.getCSVDeviceName(reportData.dash, deviceData.deviceId);
+                for (int i = 0; i < deviceData.streams.length; i++) {
+                    ByteBuffer onePinData = deviceData.data[i];
+                    if (onePinData != null) {
+                        String pin = deviceData.streams[i].formatAndEscapePin();
+                        atLeastOne = FileUtils.writeBufToCsvFilterAndFormat(writer, encoder,
+                                onePinData, pin, deviceName, reportData.startFrom);
                     }
                 }
             }
@@ -181,65 +209,46 @@ public abstract class BaseReportTask implements Runnable {
         return atLeastOne;
     }
 
-    private boolean filePerDevice(Path output, Profile profile,
-                                  DashBoard dash, int fetchCount, long startFrom) throws Exception {
+    private boolean filePerDevice(ReportData reportData) throws Exception {
         boolean atLeastOne = false;
-        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output));
+        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(reportData.output));
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipStream, REPORT_ENCODING), size)) {
-            for (ReportSource reportSource : report.reportSources) {
-                if (reportSource.isValid()) {
-                    for (int deviceId : reportSource.getDeviceIds()) {
-                        String deviceName = profile.getDeviceName(dash, deviceId);
-                        String deviceFileName = deviceFileName(deviceName, deviceId);
-                        ZipEntry zipEntry = new ZipEntry(deviceFileName);
-                        zipStream.putNextEntry(zipEntry);
-                        for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
-                            if (reportDataStream.isValid()) {
-                                ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
-                                        key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
-
-                                if (onePinData != null) {
-                                    String pin = reportDataStream.formatAndEscapePin();
-                                    atLeastOne = FileUtils.writeBufToCsvFilterAndFormat(writer,
-                                            onePinData, pin, startFrom, report.makeFormatter());
-                                }
-                            }
-                        }
-                        zipStream.closeEntry();
+            CSVRowEncoder encoder = new CSVRowEncoder(report.makeFormatter());
+            for (ReportData.DeviceData deviceData : reportData.devices) {
+                String deviceName = reportData.profile.getDeviceName(reportData.dash, deviceData.deviceId);
+                String deviceFileName = deviceFileName(deviceName, deviceData.deviceId);
+                ZipEntry zipEntry = new ZipEntry(deviceFileName);
+                zipStream.putNextEntry(zipEntry);
+                for (int i = 0; i < deviceData.streams.length; i++) {
+                    ByteBuffer onePinData = deviceData.data[i];
+                    if (onePinData != null) {
+                        String pin = deviceData.streams[i].formatAndEscapePin();
+                        atLeastOne = FileUtils.writeBufToCsvFilterAndFormat(writer, encoder,
+                                onePinData, pin, reportData.startFrom);
                     }
                 }
+                zipStream.closeEntry();
             }
         }
         return atLeastOne;
     }
 
-    private boolean filePerDevicePerPin(Path output, Profile profile,
-                                        DashBoard dash, int fetchCount, long startFrom) throws Exception {
+    private boolean filePerDevicePerPin(ReportData reportData) throws Exception {
         boolean atLeastOne = false;
-        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(output))) {
-            for (ReportSource reportSource : report.reportSources) {
-                if (reportSource.isValid()) {
-                    for (int deviceId : reportSource.getDeviceIds()) {
-                        String deviceName = profile.getDeviceName(dash, deviceId);
-                        for (ReportDataStream reportDataStream : reportSource.reportDataStreams) {
-                            if (reportDataStream.isValid()) {
-                                ByteBuffer onePinData = reportingDiskDao.getByteBufferFromDisk(key.user,
-                                        key.dashId, deviceId, reportDataStream.pinType,
-                                        reportDataStream.pin, fetchCount, report.granularityType, 0);
-
-                                if (onePinData != null) {
-                                    String onePinDataCsv = FileUtils.writeBufToCsvFilterAndFormat(onePinData,
-                                            startFrom, report.makeFormatter());
-                                    if (onePinDataCsv.length() > 0) {
-                                        String onePinFileName =
-                                                deviceAndPinFileName(deviceName, deviceId, reportDataStream);
-                                        addZipEntryAndWrite(zipStream, onePinFileName,
-                                                onePinDataCsv.getBytes(REPORT_ENCODING));
-                                        atLeastOne = true;
-                                    }
-                                }
-                            }
+        try (ZipOutputStream zipStream = new ZipOutputStream(Files.newOutputStream(reportData.output))) {
+            CSVRowEncoder encoder = new CSVRowEncoder(report.makeFormatter());
+            for (ReportData.DeviceData deviceData : reportData.devices) {
+                String deviceName = reportData.profile.getDeviceName(reportData.dash, deviceData.deviceId);
+                for (int i = 0; i < deviceData.streams.length; i++) {
+                    ByteBuffer onePinData = deviceData.data[i];
+                    if (onePinData != null) {
+                        encoder.reset();
+                        FileUtils.writeBufToCsvFilterAndFormat(encoder, onePinData, reportData.startFrom);
+                        if (encoder.length() > 0) {
+                            String onePinFileName =
+                                    deviceAndPinFileName(deviceName, deviceData.deviceId, deviceData.streams[i]);
+                            addZipEntryAndWrite(zipStream, onePinFileName, encoder);
+                            atLeastOne = true;
                         }
                     }
                 }
@@ -249,11 +258,12 @@ public abstract class BaseReportTask implements Runnable {
     }
 
     private void addZipEntryAndWrite(ZipOutputStream zipStream,
-                                        String onePinFileName, byte[] onePinDataCsv) throws IOException {
+                                        String onePinFileName, CSVRowEncoder onePinDataCsv) throws IOException {
         ZipEntry zipEntry = new ZipEntry(onePinFileName);
         try {
             zipStream.putNextEntry(zipEntry);
-            zipStream.write(onePinDataCsv);
+            //same bytes as onePinDataCsv.toString().getBytes(REPORT_ENCODING)
+            onePinDataCsv.writeUtf16To(zipStream);
             zipStream.closeEntry();
         } catch (ZipException zipException) {
             String message = zipException.getMessage();
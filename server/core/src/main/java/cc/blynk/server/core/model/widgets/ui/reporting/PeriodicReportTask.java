@@ -1,5 +1,6 @@
 package cc.blynk.server.core.model.widgets.ui.reporting;
 
+import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandBodyException;
 
@@ -16,27 +17,42 @@ public class PeriodicReportTask extends BaseReportTask {
     private final ReportScheduler reportScheduler;
 
     PeriodicReportTask(User user, int dashId, Report report, ReportScheduler reportScheduler) {
-        super(user, dashId, report,
-                reportScheduler.mailWrapper, reportScheduler.reportingDao,
-                reportScheduler.downloadUrl);
+        super(user, dashId, report, reportScheduler);
         this.reportScheduler = reportScheduler;
     }
 
     @Override
-    public void run() {
+    protected long dueAt() {
+        return report.nextReportAt;
+    }
+
+    @Override
+    protected void onFinished(long finishedAt) {
+        report.lastReportAt = finishedAt;
+        if (!isCurrent()) {
+            log.debug("Report {} for {} was removed or updated while processed, not rescheduling.",
+                    report.id, key.user.email);
+            return;
+        }
         try {
-            long finishedAt = generateReport();
-            report.lastReportAt = finishedAt;
             reschedule(finishedAt);
             log.debug("After rescheduling: {}", report);
         } catch (IllegalCommandBodyException ice) {
             log.info("Seems like report is expired for {}.", key.user.email);
             report.lastRunResult = ReportResult.EXPIRED;
-        } catch (Exception e) {
-            log.debug("Error generating report {} for {}.", report, key.user.email, e);
         }
     }
 
+    //updated report is the new object with own task, so only the same report object is rescheduled
+    private boolean isCurrent() {
+        DashBoard dash = key.user.profile.getDashById(key.dashId);
+        if (dash == null) {
+            return false;
+        }
+        ReportingWidget reportingWidget = dash.getReportingWidget();
+        return reportingWidget != null && report.isActive && reportingWidget.getReportById(report.id) == report;
+    }
+
     private void reschedule(long reportFinishedAt) {
         long initialDelaySeconds = report.calculateDelayInSeconds();
         report.nextReportAt = reportFinishedAt + initialDelaySeconds * 1000;
@@ -0,0 +1,49 @@
+package cc.blynk.server.core.model.widgets.ui.reporting;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.Profile;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportDataStream;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data of the single report run, passed between the report pipeline stages.
+ */
+final class ReportData {
+
+    final long startedAt;
+    final Path output;
+    final long startFrom;
+    final Profile profile;
+    final DashBoard dash;
+    final List<DeviceData> devices;
+
+    ReportData(long startedAt, Path output, long startFrom, Profile profile, DashBoard dash) {
+        this.startedAt = startedAt;
+        this.output = output;
+        this.startFrom = startFrom;
+        this.profile = profile;
+        this.dash = dash;
+        this.devices = new ArrayList<>();
+    }
+
+    /**
+     * Data of the valid data streams of the device within one report source,
+     * data is null when the pin has no data.
+     */
+    static final class DeviceData {
+
+        final int deviceId;
+        final ReportDataStream[] streams;
+        final ByteBuffer[] data;
+
+        DeviceData(int deviceId, ReportDataStream[] streams, ByteBuffer[] data) {
+            this.deviceId = deviceId;
+            this.streams = streams;
+            this.data = data;
+        }
+    }
+}
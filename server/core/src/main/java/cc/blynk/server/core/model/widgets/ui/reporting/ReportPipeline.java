@@ -0,0 +1,220 @@
+package cc.blynk.server.core.model.widgets.ui.reporting;
+
+import cc.blynk.utils.BlynkTPFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates reports in stages, every stage has own bounded pool :
+ *  - read : reads data of all report pins from the disk;
+ *  - build : encodes CSV and compresses it into the zip. Encoding and zipping are
+ *    one stage, as zip is streamed from the encoder without keeping whole CSV in memory;
+ *  - mail : sends the report email.
+ *
+ * So independent reports run concurrently and slow SMTP doesn't hold the disk reads
+ * of the next reports. Reports processed within the same window share the series reads,
+ * see ReportSeriesCache. When the queue of the stage is full the stage is executed
+ * by the submitting thread, so the scheduler slows down instead of dropping reports.
+ * Build and mail queues are as small as the number of stage threads, as queued reports
+ * hold the read data, so the read stage waits for them instead of reading more data.
+ * After the close, new stages are rejected and their reports are finished with the error.
+ */
+public class ReportPipeline implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(ReportPipeline.class);
+
+    public static final int DEFAULT_STAGE_THREADS = 2;
+    public static final int DEFAULT_SHARED_READS_TTL_SECONDS = 60;
+    public static final int DEFAULT_SHARED_READS_MAX_MB = 64;
+    private static final int READ_QUEUE_SIZE = 500;
+
+    public final ThreadPoolExecutor readExecutor;
+    public final ThreadPoolExecutor buildExecutor;
+    public final ThreadPoolExecutor mailExecutor;
+
+    public final StageMetrics readMetrics = new StageMetrics();
+    public final StageMetrics buildMetrics = new StageMetrics();
+    public final StageMetrics mailMetrics = new StageMetrics();
+    //time between the nextReportAt of the periodic report and the moment report processing starts
+    public final StageMetrics lagMetrics = new StageMetrics();
+
+    private final AtomicInteger inProgress = new AtomicInteger();
+
+    //series loaded by the read stage, shared between the reports processed at the same time
+    final ReportSeriesCache seriesCache;
+
+    /**
+     * @param sharedReadsTtlSeconds - how long series read by one report are reused by others, 0 disables sharing
+     * @param sharedReadsMaxMb - limit of the memory taken by the shared series
+     */
+    public ReportPipeline(int stageThreads, int sharedReadsTtlSeconds, int sharedReadsMaxMb) {
+        this.seriesCache = new ReportSeriesCache(TimeUnit.SECONDS.toMillis(sharedReadsTtlSeconds),
+                sharedReadsMaxMb * 1024L * 1024L);
+        int threads = Math.max(1, stageThreads);
+        this.readExecutor = newStageExecutor(threads, READ_QUEUE_SIZE, "reportRead");
+        this.buildExecutor = newStageExecutor(threads, threads, "reportBuild");
+        this.mailExecutor = newStageExecutor(threads, threads, "reportMail");
+    }
+
+    public ReportPipeline(int stageThreads, int sharedReadsTtlSeconds) {
+        this(stageThreads, sharedReadsTtlSeconds, DEFAULT_SHARED_READS_MAX_MB);
+    }
+
+    private static ThreadPoolExecutor newStageExecutor(int threads, int queueSize, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 2L, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(queueSize), BlynkTPFactory.build(name),
+                ReportPipeline::runOrReject);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    //same as CallerRunsPolicy, but doesn't drop the stage silently when executor is shut down
+    private static void runOrReject(Runnable stage, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Report pipeline is closed.");
+        }
+        stage.run();
+    }
+
+    /**
+     * @return - number of the reports that are submitted and not finished yet
+     */
+    public int inProgress() {
+        return inProgress.get();
+    }
+
+    /**
+     * @return - number of the series reads that were served by the read of another report
+     */
+    public long getSharedReads(boolean reset) {
+        return reset ? seriesCache.sharedReads.sumThenReset() : seriesCache.sharedReads.sum();
+    }
+
+    public long getDiskReads(boolean reset) {
+        return reset ? seriesCache.diskReads.sumThenReset() : seriesCache.diskReads.sum();
+    }
+
+    void submit(BaseReportTask task) {
+        inProgress.incrementAndGet();
+        execute(readExecutor, task, System.currentTimeMillis(),
+                () -> read(task, System.currentTimeMillis()));
+    }
+
+    private void execute(ThreadPoolExecutor executor, BaseReportTask task, long startedAt, Runnable stage) {
+        try {
+            executor.execute(stage);
+        } catch (RejectedExecutionException e) {
+            task.onError(e);
+            finish(task, startedAt);
+        }
+    }
+
+    private void read(BaseReportTask task, long startedAt) {
+        long dueAt = task.dueAt();
+        if (dueAt > 0) {
+            lagMetrics.record(Math.max(0, System.currentTimeMillis() - dueAt));
+        }
+        ReportData data;
+        try {
+            data = task.read(startedAt);
+        } catch (Exception e) {
+            task.onError(e);
+            finish(task, startedAt);
+            return;
+        } finally {
+            readMetrics.record(System.currentTimeMillis() - startedAt);
+        }
+        execute(buildExecutor, task, startedAt, () -> build(task, data));
+    }
+
+    private void build(BaseReportTask task, ReportData data) {
+        long buildStart = System.currentTimeMillis();
+        boolean hasData;
+        try {
+            hasData = task.build(data);
+        } catch (Exception e) {
+            task.onError(e);
+            finish(task, data.startedAt);
+            return;
+        } finally {
+            buildMetrics.record(System.currentTimeMillis() - buildStart);
+        }
+
+        if (hasData) {
+            execute(mailExecutor, task, data.startedAt, () -> mail(task, data));
+        } else {
+            task.onNoData();
+            finish(task, data.startedAt);
+        }
+    }
+
+    private void mail(BaseReportTask task, ReportData data) {
+        long mailStart = System.currentTimeMillis();
+        try {
+            task.sendEmail(data.output);
+            task.report.lastRunResult = ReportResult.OK;
+        } catch (Exception e) {
+            task.onError(e);
+        } finally {
+            mailMetrics.record(System.currentTimeMillis() - mailStart);
+        }
+        finish(task, data.startedAt);
+    }
+
+    private void finish(BaseReportTask task, long startedAt) {
+        long finishedAt = System.currentTimeMillis();
+        inProgress.decrementAndGet();
+        log.info("Processed report for {}, time {} ms.", task.key.user.email, finishedAt - startedAt);
+
+        try {
+            task.onFinished(finishedAt);
+        } catch (Exception e) {
+            log.error("Error finishing report {} for {}.", task.report.id, task.key.user.email, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        readExecutor.shutdown();
+        buildExecutor.shutdown();
+        mailExecutor.shutdown();
+    }
+
+    /**
+     * Count, total and max duration of the stage, in millis.
+     */
+    public static final class StageMetrics {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+        void record(long millis) {
+            count.increment();
+            totalMillis.add(millis);
+            maxMillis.accumulate(millis);
+        }
+
+        public long getCount(boolean reset) {
+            return reset ? count.sumThenReset() : count.sum();
+        }
+
+        public long getTotalMillis(boolean reset) {
+            return reset ? totalMillis.sumThenReset() : totalMillis.sum();
+        }
+
+        public long getMaxMillis(boolean reset) {
+            return reset ? maxMillis.getThenReset() : maxMillis.get();
+        }
+    }
+
+}
@@ -34,9 +34,20 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
     public final MailWrapper mailWrapper;
     public final ReportingDiskDao reportingDao;
     public final String downloadUrl;
+    public final ReportPipeline pipeline;
 
     public ReportScheduler(int corePoolSize, String downloadUrl,
                            MailWrapper mailWrapper, ReportingDiskDao reportingDao, Map<UserKey, User> users) {
+        this(corePoolSize, new ReportPipeline(ReportPipeline.DEFAULT_STAGE_THREADS,
+                ReportPipeline.DEFAULT_SHARED_READS_TTL_SECONDS), downloadUrl, mailWrapper, reportingDao, users);
+    }
+
+    /**
+     * @param corePoolSize - scheduler threads, they only submit the due reports to the pipeline
+     * @param pipeline - generates the submitted reports
+     */
+    public ReportScheduler(int corePoolSize, ReportPipeline pipeline, String downloadUrl,
+                           MailWrapper mailWrapper, ReportingDiskDao reportingDao, Map<UserKey, User> users) {
         super(corePoolSize,  BlynkTPFactory.build("report"));
         setRemoveOnCancelPolicy(true);
         setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
@@ -44,6 +55,7 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
         this.downloadUrl = downloadUrl;
         this.mailWrapper = mailWrapper;
         this.reportingDao = reportingDao;
+        this.pipeline = pipeline;
         init(users);
     }
 
@@ -109,6 +121,12 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
         return scheduledFuture;
     }
 
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        pipeline.close();
+    }
+
     public void cancelStoredFuture(User user, int dashId) {
         Iterator<Map.Entry<ReportTaskKey, ScheduledFuture<?>>> iter = map.entrySet().iterator();
         while (iter.hasNext()) {
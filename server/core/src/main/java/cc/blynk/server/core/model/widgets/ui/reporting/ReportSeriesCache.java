@@ -0,0 +1,210 @@
+package cc.blynk.server.core.model.widgets.ui.reporting;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Short living cache of the series read by the reports. Many reports fire at the same time
+ * (midnight of the same time zone) and cover the same pins : few report formats of the same
+ * project, the same devices within different report sources, daily and weekly reports of the
+ * same pin. So every series is loaded from the disk once per ttl window and the other reports
+ * take the last points they need from the loaded one.
+ *
+ * Concurrent reads of the same series wait for the single disk read.
+ *
+ * Total size of the loaded series is limited by maxBytes. Series are evicted in the load order,
+ * so expired series go first and then the oldest ones, when the limit is exceeded.
+ */
+final class ReportSeriesCache {
+
+    private static final ByteBuffer NO_DATA = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final ConcurrentHashMap<SeriesKey, CachedSeries> cache;
+    //cached series in the load order, may contain already removed ones
+    private final ConcurrentLinkedQueue<CachedSeries> loadOrder;
+    private final AtomicLong usedBytes;
+    private final long ttlMillis;
+    private final long maxBytes;
+
+    final LongAdder sharedReads = new LongAdder();
+    final LongAdder diskReads = new LongAdder();
+
+    ReportSeriesCache(long ttlMillis, long maxBytes) {
+        this.cache = new ConcurrentHashMap<>();
+        this.loadOrder = new ConcurrentLinkedQueue<>();
+        this.usedBytes = new AtomicLong();
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    long usedBytes() {
+        return usedBytes.get();
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * Same as ReportingDiskDao.getByteBufferFromDisk() with 0 skip. Returned buffer is own
+     * view of the data for every caller, so it could be consumed.
+     */
+    ByteBuffer read(ReportingDiskDao reportingDiskDao, User user, int dashId, int deviceId,
+                    PinType pinType, short pin, int count, GraphGranularityType type, long now) {
+        if (ttlMillis <= 0) {
+            diskReads.increment();
+            return reportingDiskDao.getByteBufferFromDisk(user, dashId, deviceId, pinType, pin, count, type, 0);
+        }
+        evict(now);
+
+        SeriesKey key = new SeriesKey(
+                new BaseReportingKey(user.email, user.appName, dashId, deviceId, pinType, pin), type);
+        CachedSeries loading = new CachedSeries(key, count, now);
+        CachedSeries cached = cache.compute(key, (k, existing) -> {
+            if (existing != null && existing.covers(count, now, ttlMillis)) {
+                return existing;
+            }
+            if (existing != null) {
+                existing.remove(usedBytes);
+            }
+            return loading;
+        });
+
+        if (cached != loading) {
+            ByteBuffer data = cached.data.join();
+            sharedReads.increment();
+            return tail(data, count);
+        }
+        loadOrder.add(loading);
+
+        ByteBuffer data = NO_DATA;
+        try {
+            diskReads.increment();
+            ByteBuffer read = reportingDiskDao.getByteBufferFromDisk(
+                    user, dashId, deviceId, pinType, pin, count, type, 0);
+            if (read != null) {
+                data = read;
+            }
+        } finally {
+            //waiting reports get no data in case of unexpected error, as if the read failed for them
+            loading.data.complete(data);
+            loading.loaded(data.remaining(), usedBytes);
+            evict(now);
+        }
+        return tail(data, count);
+    }
+
+    //removes the removed, expired and, while the limit is exceeded, the oldest series
+    private synchronized void evict(long now) {
+        CachedSeries eldest;
+        while ((eldest = loadOrder.peek()) != null) {
+            if (!eldest.isRemoved() && !eldest.isExpired(now, ttlMillis) && usedBytes.get() <= maxBytes) {
+                return;
+            }
+            loadOrder.poll();
+            if (cache.remove(eldest.key, eldest)) {
+                eldest.remove(usedBytes);
+            }
+        }
+    }
+
+    //last count points of the data, null if there is no data
+    private static ByteBuffer tail(ByteBuffer data, int count) {
+        if (data == NO_DATA) {
+            return null;
+        }
+        ByteBuffer result = data.duplicate();
+        int size = Math.min(result.remaining(), count * SIZE_OF_REPORT_ENTRY);
+        ((Buffer) result).position(result.limit() - size);
+        return result.slice();
+    }
+
+    private static final class CachedSeries {
+
+        private final SeriesKey key;
+        private final int count;
+        private final long loadedAt;
+        private final CompletableFuture<ByteBuffer> data;
+        //guarded by this. size is accounted within the used bytes only while series is cached
+        private long bytes;
+        private boolean isLoaded;
+        private volatile boolean isRemoved;
+
+        CachedSeries(SeriesKey key, int count, long loadedAt) {
+            this.key = key;
+            this.count = count;
+            this.loadedAt = loadedAt;
+            this.data = new CompletableFuture<>();
+        }
+
+        synchronized void loaded(long bytes, AtomicLong usedBytes) {
+            if (!isRemoved) {
+                this.bytes = bytes;
+                this.isLoaded = true;
+                usedBytes.addAndGet(bytes);
+            }
+        }
+
+        synchronized void remove(AtomicLong usedBytes) {
+            if (!isRemoved) {
+                isRemoved = true;
+                if (isLoaded) {
+                    usedBytes.addAndGet(-bytes);
+                }
+            }
+        }
+
+        boolean isRemoved() {
+            return isRemoved;
+        }
+
+        boolean isExpired(long now, long ttlMillis) {
+            return now - loadedAt >= ttlMillis;
+        }
+
+        boolean covers(int count, long now, long ttlMillis) {
+            return this.count >= count && !isExpired(now, ttlMillis);
+        }
+    }
+
+    private static final class SeriesKey {
+
+        private final BaseReportingKey reportingKey;
+        private final GraphGranularityType type;
+
+        SeriesKey(BaseReportingKey reportingKey, GraphGranularityType type) {
+            this.reportingKey = reportingKey;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey that = (SeriesKey) o;
+            return type == that.type && reportingKey.equals(that.reportingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * reportingKey.hashCode() + type.hashCode();
+        }
+    }
+}
@@ -10,7 +10,6 @@ import cc.blynk.server.core.model.widgets.Widget;
 import cc.blynk.server.core.model.widgets.notifications.Mail;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
 import cc.blynk.server.core.model.widgets.notifications.Twitter;
-import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
 import cc.blynk.server.core.model.widgets.others.eventor.Rule;
 import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
 import cc.blynk.server.core.model.widgets.others.eventor.model.action.SetPinAction;
@@ -92,15 +91,18 @@ public class EventorProcessor {
 
     public void process(User user, Session session, DashBoard dash, int deviceId, short pin,
                         PinType type, String triggerValue, long now) {
-        Eventor eventor = dash.getEventorWidget();
-        if (eventor == null || eventor.rules == null
-                || eventor.deviceId != deviceId || !dash.isActive) {
+        if (!dash.isActive) {
+            return;
+        }
+        //only rules of the eventor assigned to the device and triggered by the pin
+        Rule[] rules = dash.getPinRoute(deviceId, pin, type).rules;
+        if (rules.length == 0) {
             return;
         }
 
         double valueParsed = NumberUtil.parseDouble(triggerValue);
 
-        for (Rule rule : eventor.rules) {
+        for (Rule rule : rules) {
             if (rule.isReady(pin, type)) {
                 if (rule.matchesCondition(triggerValue, valueParsed)) {
                     if (!rule.isProcessed) {
@@ -0,0 +1,163 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.protocol.enums.Command.APP_SYNC;
+import static cc.blynk.server.core.protocol.enums.Command.DEVICE_OFFLINE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_CONNECTED;
+import static cc.blynk.server.core.protocol.enums.Command.SET_WIDGET_PROPERTY;
+
+/**
+ * Consolidates flushes of the app channel, so updates of the many chatty devices of the user
+ * go to the app socket with one syscall instead of one syscall per update.
+ *
+ * Same idea as netty FlushConsolidationHandler, but it knows our messages : only updates that
+ * are forwarded to the app (hardware writes, device connect/offline, property changes, sync) are
+ * delayed. Anything else (responses, graph data, etc) is flushed right away together with the
+ * delayed updates, so request/response latency is not affected.
+ *
+ * Delayed updates are flushed once the tasks already queued in the event loop are done (delay 0)
+ * or after the given delay. They are flushed earlier when MAX_PENDING_MESSAGES updates are waiting,
+ * channel becomes not writable, message that needs the immediate flush is written or channel is closed.
+ *
+ * Must be placed after the message encoder, as it works with the not yet encoded messages.
+ */
+public final class AppFlushConsolidationHandler extends ChannelDuplexHandler {
+
+    static final int MAX_PENDING_MESSAGES = 256;
+
+    private final long delayMicros;
+    private final Runnable flushTask;
+
+    private ChannelHandlerContext ctx;
+    //updates written since the last flush
+    private int pendingMessages;
+    //message that needs the immediate flush was written since the last flush
+    private boolean flushNow;
+    private boolean flushScheduled;
+    private ScheduledFuture<?> delayedFlush;
+
+    /**
+     * @param delayMicros - 0 to flush once the tasks already queued in the event loop are done,
+     *                      otherwise the max time updates wait for the flush
+     */
+    public AppFlushConsolidationHandler(long delayMicros) {
+        if (delayMicros < 0) {
+            throw new IllegalArgumentException("Flush delay should be positive or 0.");
+        }
+        this.delayMicros = delayMicros;
+        this.flushTask = () -> {
+            if (flushScheduled) {
+                flushScheduled = false;
+                delayedFlush = null;
+                flushPending();
+            }
+        };
+    }
+
+    private static boolean canBeDelayed(Object msg) {
+        if (msg instanceof MessageBase) {
+            switch (((MessageBase) msg).command) {
+                case HARDWARE:
+                case DEVICE_OFFLINE:
+                case HARDWARE_CONNECTED:
+                case SET_WIDGET_PROPERTY:
+                case APP_SYNC:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (canBeDelayed(msg)) {
+            pendingMessages++;
+        } else {
+            flushNow = true;
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (flushNow || pendingMessages >= MAX_PENDING_MESSAGES || !ctx.channel().isWritable()) {
+            flushPending();
+        } else if (pendingMessages > 0) {
+            scheduleFlush(ctx);
+        } else {
+            ctx.flush();
+        }
+    }
+
+    private void scheduleFlush(ChannelHandlerContext ctx) {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        if (delayMicros == 0) {
+            ctx.channel().eventLoop().execute(flushTask);
+        } else {
+            delayedFlush = ctx.channel().eventLoop().schedule(flushTask, delayMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void flushPending() {
+        if (flushScheduled) {
+            flushScheduled = false;
+            if (delayedFlush != null) {
+                delayedFlush.cancel(false);
+                delayedFlush = null;
+            }
+        }
+        pendingMessages = 0;
+        flushNow = false;
+        ctx.flush();
+    }
+
+    private void flushIfPending() {
+        if (pendingMessages > 0) {
+            flushPending();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isWritable()) {
+            flushIfPending();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfPending();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfPending();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfPending();
+    }
+
+}
@@ -4,6 +4,7 @@ import cc.blynk.server.Limits;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareWriteMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.internal.QuotaLimitChecker;
@@ -31,10 +32,18 @@ public class MessageDecoder extends ByteToMessageDecoder {
 
     private final GlobalStats stats;
     private final QuotaLimitChecker limitChecker;
+    //hardware write commands are parsed right from the bytes, see HardwareWriteMessage
+    private final boolean parseHardwareWrites;
+    private byte[] hardwareBody;
 
     public MessageDecoder(GlobalStats stats, Limits limits) {
+        this(stats, limits, false);
+    }
+
+    public MessageDecoder(GlobalStats stats, Limits limits, boolean parseHardwareWrites) {
         this.stats = stats;
         this.limitChecker = new QuotaLimitChecker(limits.userQuotaLimit);
+        this.parseHardwareWrites = parseHardwareWrites;
     }
 
     @Override
@@ -62,7 +71,14 @@ public class MessageDecoder extends ByteToMessageDecoder {
                 return;
             }
 
-            message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            message = null;
+            if (parseHardwareWrites && command == Command.HARDWARE) {
+                message = parseHardwareWrite(messageId, in, codeOrLength);
+            }
+            if (message == null) {
+                message = produce(messageId, command,
+                        (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            }
         }
 
         log.trace("Incoming {}", message);
@@ -72,6 +88,20 @@ public class MessageDecoder extends ByteToMessageDecoder {
         out.add(message);
     }
 
+    private HardwareWriteMessage parseHardwareWrite(int messageId, ByteBuf in, int length) {
+        byte[] body = this.hardwareBody;
+        if (body == null || body.length < length) {
+            body = new byte[Math.max(length, 64)];
+            this.hardwareBody = body;
+        }
+        in.getBytes(in.readerIndex(), body, 0, length);
+        HardwareWriteMessage message = HardwareWriteMessage.parse(messageId, body, length);
+        if (message != null) {
+            in.skipBytes(length);
+        }
+        return message;
+    }
+
     public InstanceLoadMeter getQuotaMeter() {
         return limitChecker.quotaMeter;
     }
@@ -1,5 +1,6 @@
 package cc.blynk.server.core.protocol.handlers.encoders;
 
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import io.netty.buffer.ByteBuf;
@@ -35,6 +36,10 @@ public class WSMessageEncoder extends ChannelOutboundHandlerAdapter {
 
             if (message instanceof ResponseMessage) {
                 out.writeInt(((ResponseMessage) message).code);
+            } else if (message instanceof ByteBufMessage) {
+                //body is not copied, ownership goes to the frame
+                out = ByteBufAllocator.DEFAULT.compositeBuffer(2)
+                        .addComponents(true, out, ((ByteBufMessage) message).body);
             } else {
                 byte[] body = message.getBytes();
                 if (body.length > 0) {
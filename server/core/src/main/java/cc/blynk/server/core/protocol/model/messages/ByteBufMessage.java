@@ -0,0 +1,67 @@
+package cc.blynk.server.core.protocol.model.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * Binary message with the body within the (pooled) netty buffer, so big bodies
+ * are not copied to the heap. Body is owned by the message : encoders either pass it
+ * further or release it together with the message.
+ */
+public class ByteBufMessage extends MessageBase implements ReferenceCounted {
+
+    public final ByteBuf body;
+
+    public ByteBufMessage(int messageId, short command, ByteBuf body) {
+        super(messageId, command);
+        this.body = body;
+    }
+
+    /**
+     * Copy of the body, for the encoders that don't support buffer bodies.
+     */
+    @Override
+    public byte[] getBytes() {
+        return ByteBufUtil.getBytes(body);
+    }
+
+    @Override
+    public int refCnt() {
+        return body.refCnt();
+    }
+
+    @Override
+    public ByteBufMessage retain() {
+        body.retain();
+        return this;
+    }
+
+    @Override
+    public ByteBufMessage retain(int increment) {
+        body.retain(increment);
+        return this;
+    }
+
+    @Override
+    public ByteBufMessage touch() {
+        body.touch();
+        return this;
+    }
+
+    @Override
+    public ByteBufMessage touch(Object hint) {
+        body.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return body.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return body.release(decrement);
+    }
+}
@@ -0,0 +1,130 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.utils.NumberUtil;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+
+/**
+ * Hardware write command ("vw 1 22.5") that is parsed right from the incoming bytes,
+ * without decoding the body into the String and splitting it.
+ *
+ * Body bytes are the scratch buffer of the MessageDecoder, that is reused for the next message
+ * of the channel, so the message is valid only within the channelRead() call.
+ * Value and body strings are created only when requested.
+ */
+public final class HardwareWriteMessage extends MessageBase {
+
+    public final PinType pinType;
+
+    public final short pin;
+
+    //NumberUtil.NO_RESULT when value is not a number
+    public final double doubleValue;
+
+    private final byte[] bytes;
+    private final int length;
+    private final int valueOffset;
+
+    private String value;
+    private String body;
+
+    private HardwareWriteMessage(int messageId, PinType pinType, short pin,
+                                 byte[] bytes, int length, int valueOffset) {
+        super(messageId, HARDWARE);
+        this.pinType = pinType;
+        this.pin = pin;
+        this.bytes = bytes;
+        this.length = length;
+        this.valueOffset = valueOffset;
+        this.doubleValue = NumberUtil.parseDouble(bytes, valueOffset, length - valueOffset);
+    }
+
+    /**
+     * @return - parsed message or null when the body is not a valid write command
+     *           ("vw", "aw" or "dw", pin from 0 to 255 and not empty value).
+     *           Such bodies go the regular way, so errors are reported as before.
+     */
+    public static HardwareWriteMessage parse(int messageId, byte[] bytes, int length) {
+        if (length < 6 || bytes[1] != 'w' || bytes[2] != 0) {
+            return null;
+        }
+        PinType pinType = getPinType(bytes[0]);
+        if (pinType == null) {
+            return null;
+        }
+
+        int pin = 0;
+        int i = 3;
+        for (; i < length && i < 6; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9') {
+                break;
+            }
+            pin = pin * 10 + (b - '0');
+        }
+        //no pin, too long pin or no value separator
+        if (i == 3 || i == length || bytes[i] != 0 || pin > 255) {
+            return null;
+        }
+
+        int valueOffset = i + 1;
+        if (valueOffset == length) {
+            return null;
+        }
+        return new HardwareWriteMessage(messageId, pinType, (short) pin, bytes, length, valueOffset);
+    }
+
+    private static PinType getPinType(byte pinTypeChar) {
+        switch (pinTypeChar) {
+            case 'a' :
+            case 'A' :
+                return PinType.ANALOG;
+            case 'v' :
+            case 'V' :
+                return PinType.VIRTUAL;
+            case 'd' :
+            case 'D' :
+                return PinType.DIGITAL;
+            default:
+                return null;
+        }
+    }
+
+    public String getValue() {
+        String value = this.value;
+        if (value == null) {
+            value = new String(bytes, valueOffset, length - valueOffset, StandardCharsets.UTF_8);
+            this.value = value;
+        }
+        return value;
+    }
+
+    public String getBody() {
+        String body = this.body;
+        if (body == null) {
+            body = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            this.body = body;
+        }
+        return body;
+    }
+
+    public void writeBody(ByteBuf out) {
+        out.writeBytes(bytes, 0, length);
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    @Override
+    public String toString() {
+        return "HardwareWriteMessage{" + super.toString() + ", body='" + getBody() + "'}";
+    }
+}
@@ -0,0 +1,178 @@
+package cc.blynk.server.core.reporting;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import static cc.blynk.utils.ByteUtils.REPORTING_RECORD_SIZE_BYTES;
+
+/**
+ * Deflates history graph data directly into the pooled netty buffers of the fixed size.
+ * Output is the same as for the ByteUtils.compress(int dashId, ByteBuffer[] values),
+ * but neither the compressed data nor the series are copied to the heap.
+ *
+ * Deflater could be driven by the caller: series are added one by one when needsInput()
+ * and chunks are taken with nextChunk(), so the caller decides when the next series is read
+ * and when the next chunk is produced.
+ */
+public final class GraphDataDeflater {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBufAllocator allocator;
+    private final int chunkSize;
+    private final Deflater deflater;
+    private final ByteBuffer intBuf;
+    private ByteBuf chunk;
+    //series data that goes after its size, which is the current input
+    private ByteBuffer pendingData;
+    private boolean finishing;
+
+    public GraphDataDeflater(ByteBufAllocator allocator, int chunkSize, int dashId) {
+        this.allocator = allocator;
+        this.chunkSize = chunkSize;
+        this.deflater = new Deflater();
+        this.intBuf = ByteBuffer.allocate(4);
+        setInput(dashId);
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        /**
+         * @param chunk - ownership of the chunk goes to the consumer
+         */
+        void accept(ByteBuf chunk);
+    }
+
+    /**
+     * Deflates whole graph data into the single buffer.
+     */
+    public static ByteBuf deflate(ByteBufAllocator allocator, int dashId, ByteBuffer[] values) {
+        CompositeByteBuf result = allocator.compositeBuffer(Integer.MAX_VALUE);
+        try {
+            deflate(allocator, DEFAULT_CHUNK_SIZE, dashId, values, chunk -> result.addComponent(true, chunk));
+        } catch (RuntimeException e) {
+            result.release();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Deflates graph data into the chunks of the chunkSize, the last chunk may be smaller.
+     * Values are not modified.
+     */
+    public static void deflate(ByteBufAllocator allocator, int chunkSize, int dashId,
+                               ByteBuffer[] values, ChunkConsumer consumer) {
+        GraphDataDeflater graphDataDeflater = new GraphDataDeflater(allocator, chunkSize, dashId);
+        try {
+            graphDataDeflater.drainTo(consumer);
+            for (ByteBuffer data : values) {
+                graphDataDeflater.addSeries(data);
+                graphDataDeflater.drainTo(consumer);
+            }
+            graphDataDeflater.finish();
+            graphDataDeflater.drainTo(consumer);
+        } finally {
+            graphDataDeflater.close();
+        }
+    }
+
+    private void drainTo(ChunkConsumer consumer) {
+        ByteBuf nextChunk;
+        while ((nextChunk = nextChunk()) != null) {
+            consumer.accept(nextChunk);
+        }
+    }
+
+    /**
+     * @return - true when the next series could be added
+     */
+    public boolean needsInput() {
+        return !finishing && pendingData == null && deflater.needsInput();
+    }
+
+    /**
+     * Should be called only when needsInput(). Series is not modified.
+     */
+    public void addSeries(ByteBuffer data) {
+        if (!needsInput()) {
+            throw new IllegalStateException("Previous series is not deflated yet.");
+        }
+        setInput(data.remaining() / REPORTING_RECORD_SIZE_BYTES);
+        pendingData = data.duplicate();
+    }
+
+    /**
+     * Should be called when all series are added.
+     */
+    public void finish() {
+        if (!needsInput()) {
+            throw new IllegalStateException("Previous series is not deflated yet.");
+        }
+        deflater.finish();
+        finishing = true;
+    }
+
+    public boolean isFinished() {
+        return deflater.finished() && chunk == null;
+    }
+
+    /**
+     * @return - full chunk, the last chunk after finish(), or null when more input is needed
+     */
+    public ByteBuf nextChunk() {
+        while (true) {
+            if (deflater.finished()) {
+                ByteBuf lastChunk = chunk;
+                chunk = null;
+                if (lastChunk != null && !lastChunk.isReadable()) {
+                    lastChunk.release();
+                    return null;
+                }
+                return lastChunk;
+            }
+            if (chunk != null && !chunk.isWritable()) {
+                ByteBuf fullChunk = chunk;
+                chunk = null;
+                return fullChunk;
+            }
+            if (!finishing && deflater.needsInput()) {
+                if (pendingData == null) {
+                    return null;
+                }
+                deflater.setInput(pendingData);
+                pendingData = null;
+            }
+            deflateToChunk();
+        }
+    }
+
+    private void setInput(int value) {
+        intBuf.clear();
+        intBuf.putInt(0, value);
+        deflater.setInput(intBuf);
+    }
+
+    private void deflateToChunk() {
+        if (chunk == null) {
+            chunk = allocator.buffer(chunkSize, chunkSize);
+        }
+        int writerIndex = chunk.writerIndex();
+        int written = deflater.deflate(chunk.nioBuffer(writerIndex, chunk.writableBytes()));
+        chunk.writerIndex(writerIndex + written);
+    }
+
+    public void close() {
+        deflater.end();
+        pendingData = null;
+        if (chunk != null) {
+            chunk.release();
+            chunk = null;
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.stats.GlobalStats;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * In-memory copy of the latest minute and hourly entries of the recently viewed series,
+ * so most of the history graph requests (1 hour - 1 day of minute data,
+ * 1 week of hourly data) are served without touching the storage.
+ *
+ * Ring of the series is seeded from the storage on the first request and then is
+ * filled by the ReportingWorker with the same entries it flushes to the storage,
+ * so ring is always the exact tail of the stored series.
+ *
+ * Total size of the rings is limited, least recently read rings are evicted.
+ * Rings of the removed series are invalidated by the series id.
+ */
+public final class HistoryTailCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    static final int MINUTE_POINTS = 24 * 60;
+    static final int HOURLY_POINTS = 24 * 7;
+    private static final int RING_OVERHEAD = 64;
+
+    private final long maxBytes;
+    private final GlobalStats stats;
+    private final Map<Long, TailRing> rings;
+    //guarded by this. same rings, from the least recently read one
+    private final LinkedHashMap<Long, TailRing> readOrder;
+    //guarded by this
+    private long usedBytes;
+    //guarded by this. odd while ReportingWorker flushes, rings loaded during the flush may miss flushed entries.
+    //invalidation adds 2, so ring loaded before the removal of the data is not cached as well
+    private volatile long flushSequence;
+
+    public HistoryTailCache(long maxBytes, GlobalStats stats) {
+        this.maxBytes = maxBytes;
+        this.stats = stats;
+        this.rings = new ConcurrentHashMap<>();
+        this.readOrder = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+    @FunctionalInterface
+    public interface TailLoader {
+        ByteBuffer load(int count, int skip) throws IOException;
+    }
+
+    static int capacity(GraphGranularityType type) {
+        switch (type) {
+            case MINUTE :
+                return MINUTE_POINTS;
+            case HOURLY :
+                return HOURLY_POINTS;
+            default:
+                return 0;
+        }
+    }
+
+    private static long key(int seriesId, GraphGranularityType type) {
+        return ((long) seriesId << 8) | type.ordinal();
+    }
+
+    /**
+     * Reads the last entries of the series, same as ReportingStorage.read().
+     * Requests that don't fit the ring go directly to the loader.
+     */
+    public ByteBuffer read(int seriesId, GraphGranularityType type,
+                           int count, int skip, TailLoader loader) throws IOException {
+        int capacity = capacity(type);
+        if (maxBytes <= 0 || capacity == 0 || count + skip > capacity) {
+            return loader.load(count, skip);
+        }
+
+        long key = key(seriesId, type);
+        TailRing ring = rings.get(key);
+        if (ring != null) {
+            stats.markHistoryCacheHit();
+            markRead(key);
+            return ring.read(count, skip);
+        }
+
+        stats.markHistoryCacheMiss();
+        long sequence = flushSequence;
+        ring = new TailRing(capacity, loader.load(capacity, 0));
+        if ((sequence & 1) == 0) {
+            put(key, ring, sequence);
+        }
+        return ring.read(count, skip);
+    }
+
+    /**
+     * Appends just flushed entries to the ring of the series, if it is cached.
+     *
+     * @param entries - entries ordered by ts, from position to limit
+     */
+    public void append(int seriesId, GraphGranularityType type, ByteBuffer entries) {
+        TailRing ring = rings.get(key(seriesId, type));
+        if (ring != null) {
+            ring.append(entries);
+        }
+    }
+
+    public synchronized void beginFlush() {
+        flushSequence++;
+    }
+
+    public synchronized void endFlush() {
+        flushSequence++;
+    }
+
+    /**
+     * Should be called when the stored data of the series is removed.
+     */
+    public synchronized void invalidate(int seriesId, GraphGranularityType type) {
+        flushSequence += 2;
+        long key = key(seriesId, type);
+        TailRing ring = rings.remove(key);
+        if (ring != null) {
+            readOrder.remove(key);
+            usedBytes -= ring.bytes();
+        }
+    }
+
+    public synchronized void clear() {
+        flushSequence += 2;
+        rings.clear();
+        readOrder.clear();
+        usedBytes = 0;
+    }
+
+    public int size() {
+        return rings.size();
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    private synchronized void markRead(long key) {
+        readOrder.get(key);
+    }
+
+    private synchronized void put(long key, TailRing ring, long sequence) {
+        if (sequence != flushSequence) {
+            return;
+        }
+        TailRing previous = rings.put(key, ring);
+        readOrder.put(key, ring);
+        usedBytes += ring.bytes();
+        if (previous != null) {
+            usedBytes -= previous.bytes();
+        }
+        Iterator<Map.Entry<Long, TailRing>> leastRecentlyRead = readOrder.entrySet().iterator();
+        while (usedBytes > maxBytes && leastRecentlyRead.hasNext()) {
+            Map.Entry<Long, TailRing> eldest = leastRecentlyRead.next();
+            leastRecentlyRead.remove();
+            rings.remove(eldest.getKey());
+            usedBytes -= eldest.getValue().bytes();
+        }
+    }
+
+    private static final class TailRing {
+
+        private final long[] timestamps;
+        private final double[] values;
+        //guarded by this
+        private int head;
+        //guarded by this
+        private int size;
+
+        TailRing(int capacity, ByteBuffer tail) {
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+            if (tail != null) {
+                append(tail);
+            }
+        }
+
+        long bytes() {
+            return (long) timestamps.length * SIZE_OF_REPORT_ENTRY + RING_OVERHEAD;
+        }
+
+        synchronized void append(ByteBuffer entries) {
+            int capacity = timestamps.length;
+            for (int i = entries.position(); i + SIZE_OF_REPORT_ENTRY <= entries.limit(); i += SIZE_OF_REPORT_ENTRY) {
+                values[head] = entries.getDouble(i);
+                timestamps[head] = entries.getLong(i + 8);
+                head = (head + 1) % capacity;
+                if (size < capacity) {
+                    size++;
+                }
+            }
+        }
+
+        //same window as the storage read
+        synchronized ByteBuffer read(int count, int skip) {
+            int diff = size - (count + skip);
+            int start = Math.max(0, diff);
+            int resultSize = diff < 0 ? count + diff : count;
+            if (resultSize <= 0) {
+                return null;
+            }
+
+            int capacity = timestamps.length;
+            int oldest = (head - size + capacity) % capacity;
+            ByteBuffer result = ByteBuffer.allocate(resultSize * SIZE_OF_REPORT_ENTRY);
+            for (int i = 0; i < resultSize; i++) {
+                int index = (oldest + start + i) % capacity;
+                result.putDouble(values[index])
+                      .putLong(timestamps[index]);
+            }
+            ((Buffer) result).flip();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.enums.PinType;
+
+import java.util.Arrays;
+
+/**
+ * Small per device cache of pin -> series id, so hardware writes could find
+ * the series id without building and hashing the reporting key.
+ * Device usually has only few logged pins, so plain copy-on-write array is used.
+ */
+public final class SeriesIdCache {
+
+    private static final int[] EMPTY = {};
+
+    //pairs of (pin key, series id)
+    private volatile int[] entries = EMPTY;
+
+    private static int pinKey(PinType pinType, short pin) {
+        return (pinType.ordinal() << 16) | (pin & 0xFFFF);
+    }
+
+    public int get(PinType pinType, short pin) {
+        int pinKey = pinKey(pinType, pin);
+        int[] entries = this.entries;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i] == pinKey) {
+                return entries[i + 1];
+            }
+        }
+        return SeriesRegistry.NO_ID;
+    }
+
+    public synchronized void put(PinType pinType, short pin, int seriesId) {
+        int pinKey = pinKey(pinType, pin);
+        int[] entries = this.entries;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i] == pinKey) {
+                int[] newEntries = entries.clone();
+                newEntries[i + 1] = seriesId;
+                this.entries = newEntries;
+                return;
+            }
+        }
+        int[] newEntries = Arrays.copyOf(entries, entries.length + 2);
+        newEntries[entries.length] = pinKey;
+        newEntries[entries.length + 1] = seriesId;
+        this.entries = newEntries;
+    }
+}
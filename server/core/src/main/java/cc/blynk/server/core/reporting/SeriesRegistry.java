@@ -0,0 +1,347 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Assigns compact int id to every reporting series (user, dash, device, pin),
+ * so hot paths could operate with primitive ids instead of composite keys.
+ * Ids are assigned sequentially starting from 0 and never reused.
+ *
+ * Registry also holds the user storage dir and series file names, so they are
+ * built only once per series. When created for the reporting folder, mapping is
+ * appended to the registry file on every persist() and loaded on start,
+ * so ids are stable between restarts.
+ *
+ * Series of the removed devices/users are dropped from the registry. Their ids stay
+ * assigned (as a tombstone record in the file), so ids of the other series don't change.
+ */
+public final class SeriesRegistry {
+
+    private static final Logger log = LogManager.getLogger(SeriesRegistry.class);
+
+    public static final int NO_ID = -1;
+    static final String REGISTRY_FILENAME = "series_registry.bin";
+    private static final int TOMBSTONE_ID = -1;
+
+    private final Path registryPath;
+    private final ConcurrentHashMap<BaseReportingKey, Integer> ids;
+    private volatile Series[] series;
+    //guarded by this
+    private int size;
+    //guarded by this
+    private int persistedSize;
+    //series were removed since the last persist(), so file has to be rewritten. guarded by this
+    private boolean hasRemovedSeries;
+
+    public SeriesRegistry() {
+        this.registryPath = null;
+        this.ids = new ConcurrentHashMap<>();
+        this.series = new Series[1024];
+    }
+
+    public SeriesRegistry(String dataFolder) {
+        this.registryPath = Paths.get(dataFolder, REGISTRY_FILENAME);
+        this.ids = new ConcurrentHashMap<>();
+        this.series = new Series[1024];
+        load();
+    }
+
+    public int getOrCreateId(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        return register(key);
+    }
+
+    /**
+     * Hot path lookup. Series id is cached within the device, so in most cases
+     * no key is created and nothing is hashed.
+     */
+    public int getOrCreateId(User user, int dashId, Device device, PinType pinType, short pin) {
+        int id = device.seriesIdCache.get(pinType, pin);
+        if (id != NO_ID && matches(id, user, dashId, device.id, pinType, pin)) {
+            return id;
+        }
+        id = getOrCreateId(new BaseReportingKey(user.email, user.appName, dashId, device.id, pinType, pin));
+        device.seriesIdCache.put(pinType, pin, id);
+        return id;
+    }
+
+    public int getId(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        return id == null ? NO_ID : id;
+    }
+
+    /**
+     * @return - key of the series, null when series was removed
+     */
+    public BaseReportingKey getKey(int id) {
+        Series s = series[id];
+        return s == null ? null : s.key;
+    }
+
+    public boolean isRemoved(int id) {
+        return series[id] == null;
+    }
+
+    public String getUserDir(int id) {
+        return series[id].userDir;
+    }
+
+    public String getFileName(int id, GraphGranularityType type) {
+        return series[id].fileNames[type.ordinal()];
+    }
+
+    /**
+     * @return - number of the assigned ids, including ids of the removed series
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Scans all the series, so is for the rare operations only.
+     */
+    public void forEachId(String email, String appName, IntConsumer consumer) {
+        for (Map.Entry<BaseReportingKey, Integer> entry : ids.entrySet()) {
+            BaseReportingKey key = entry.getKey();
+            if (key.email.equals(email) && key.appName.equals(appName)) {
+                consumer.accept(entry.getValue());
+            }
+        }
+    }
+
+    public int remove(String email, String appName) {
+        return remove(key -> key.email.equals(email) && key.appName.equals(appName));
+    }
+
+    public int remove(String email, String appName, int dashId, int deviceId) {
+        return remove(key -> key.dashId == dashId && key.deviceId == deviceId
+                && key.email.equals(email) && key.appName.equals(appName));
+    }
+
+    private int remove(Predicate<BaseReportingKey> filter) {
+        int removedCounter = 0;
+        for (Map.Entry<BaseReportingKey, Integer> entry : ids.entrySet()) {
+            if (filter.test(entry.getKey()) && remove(entry.getKey(), entry.getValue())) {
+                removedCounter++;
+            }
+        }
+        return removedCounter;
+    }
+
+    private synchronized boolean remove(BaseReportingKey key, int id) {
+        if (!ids.remove(key, id)) {
+            return false;
+        }
+        series[id] = null;
+        hasRemovedSeries = true;
+        return true;
+    }
+
+    /**
+     * @return - true when ids are stable between restarts
+     */
+    public boolean isPersistent() {
+        return registryPath != null;
+    }
+
+    //device cache may be filled by another registry (e.g. after the reload), so verifying it
+    private boolean matches(int id, User user, int dashId, int deviceId, PinType pinType, short pin) {
+        Series[] series = this.series;
+        Series s = id < series.length ? series[id] : null;
+        if (s == null) {
+            return false;
+        }
+        BaseReportingKey key = s.key;
+        return key.deviceId == deviceId && key.dashId == dashId
+                && key.pin == pin && key.pinType == pinType
+                && key.email.equals(user.email) && key.appName.equals(user.appName);
+    }
+
+    private synchronized int register(BaseReportingKey key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+
+        int newId = size;
+        add(new Series(key));
+        ids.put(key, newId);
+        return newId;
+    }
+
+    //should be called under lock
+    private void add(Series newSeries) {
+        Series[] currentSeries = series;
+        if (size == currentSeries.length) {
+            currentSeries = Arrays.copyOf(currentSeries, size * 2);
+        }
+        currentSeries[size] = newSeries;
+        //publishing the series before the id, so getKey() always sees it
+        this.series = currentSeries;
+        size++;
+    }
+
+    /**
+     * Appends all series registered since the last call to the registry file.
+     * When series were removed, the whole file is rewritten.
+     */
+    public synchronized void persist() {
+        if (registryPath == null) {
+            return;
+        }
+        if (hasRemovedSeries) {
+            if (rewrite()) {
+                persistedSize = size;
+                hasRemovedSeries = false;
+            }
+            return;
+        }
+        if (persistedSize == size) {
+            return;
+        }
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(newOutputStream(registryPath, CREATE, APPEND)))) {
+            for (int i = persistedSize; i < size; i++) {
+                write(dos, series[i]);
+            }
+            persistedSize = size;
+        } catch (IOException e) {
+            log.error("Error persisting series registry to {}.", registryPath, e);
+        }
+    }
+
+    //data folder doesn't exist on a fresh install till the first data is persisted
+    private static OutputStream newOutputStream(Path path, OpenOption... options) throws IOException {
+        Files.createDirectories(path.getParent());
+        return Files.newOutputStream(path, options);
+    }
+
+    private static void write(DataOutputStream dos, Series series) throws IOException {
+        if (series == null) {
+            //tombstone, keeps the ids of the following series
+            dos.writeUTF("");
+            dos.writeUTF("");
+            dos.writeInt(TOMBSTONE_ID);
+            dos.writeInt(TOMBSTONE_ID);
+            dos.writeChar(PinType.VIRTUAL.pintTypeChar);
+            dos.writeShort(0);
+            return;
+        }
+        BaseReportingKey key = series.key;
+        dos.writeUTF(key.email == null ? "" : key.email);
+        dos.writeUTF(key.appName == null ? "" : key.appName);
+        dos.writeInt(key.dashId);
+        dos.writeInt(key.deviceId);
+        dos.writeChar(key.pinType.pintTypeChar);
+        dos.writeShort(key.pin);
+    }
+
+    private synchronized void load() {
+        if (Files.notExists(registryPath)) {
+            return;
+        }
+
+        boolean isCorrupted = false;
+        try (DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(registryPath)))) {
+            while (dis.available() > 0) {
+                String email = dis.readUTF();
+                String appName = dis.readUTF();
+                int dashId = dis.readInt();
+                int deviceId = dis.readInt();
+                PinType pinType = PinType.getPinType(dis.readChar());
+                short pin = dis.readShort();
+                if (dashId == TOMBSTONE_ID && deviceId == TOMBSTONE_ID && email.isEmpty()) {
+                    add(null);
+                    continue;
+                }
+                BaseReportingKey key = new BaseReportingKey(email, appName, dashId, deviceId, pinType, pin);
+                ids.put(key, size);
+                add(new Series(key));
+            }
+        } catch (EOFException e) {
+            log.warn("Last record of series registry {} is partially written.", registryPath);
+            isCorrupted = true;
+        } catch (Exception e) {
+            log.error("Error loading series registry from {}.", registryPath, e);
+            isCorrupted = true;
+        }
+        persistedSize = size;
+
+        if (isCorrupted) {
+            rewrite();
+        }
+        log.info("Loaded {} reporting series ids.", size);
+    }
+
+    private boolean rewrite() {
+        Path tmpPath = Paths.get(registryPath.toString() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(newOutputStream(tmpPath)))) {
+            for (int i = 0; i < size; i++) {
+                write(dos, series[i]);
+            }
+        } catch (IOException e) {
+            log.error("Error rewriting series registry {}.", registryPath, e);
+            return false;
+        }
+        try {
+            Files.move(tmpPath, registryPath, REPLACE_EXISTING, ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            log.error("Error replacing series registry {}.", registryPath, e);
+            return false;
+        }
+    }
+
+    private static final class Series {
+
+        final BaseReportingKey key;
+        final String userDir;
+        final String[] fileNames;
+
+        Series(BaseReportingKey key) {
+            this.key = key;
+            this.userDir = FileUtils.getUserStorageDir(key.email, key.appName);
+            GraphGranularityType[] types = GraphGranularityType.values();
+            this.fileNames = new String[types.length];
+            for (GraphGranularityType type : types) {
+                fileNames[type.ordinal()] = ReportingDiskDao.generateFilename(
+                        key.dashId, key.deviceId, key.pinType, key.pin, type);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package cc.blynk.server.core.reporting.average;
+
+import java.util.Arrays;
+
+/**
+ * Reusable primitive buffer for the entries drained from the AggregationTable.
+ * After sort() entries are grouped by series and ordered by bucket within the series.
+ *
+ * Not thread safe.
+ */
+public final class AggregationBatch implements AggregationConsumer {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private long[] keys;
+    private double[] averages;
+    private int size;
+
+    public AggregationBatch(int capacity) {
+        this.keys = new long[capacity];
+        this.averages = new double[capacity];
+    }
+
+    @Override
+    public void accept(int seriesId, long bucket, double sum, long count) {
+        if (size == keys.length) {
+            int newCapacity = Math.max(16, size * 2);
+            keys = Arrays.copyOf(keys, newCapacity);
+            averages = Arrays.copyOf(averages, newCapacity);
+        }
+        keys[size] = AggregationTable.key(seriesId, bucket);
+        averages[size] = sum / count;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int getSeriesId(int index) {
+        return AggregationTable.seriesId(keys[index]);
+    }
+
+    public long getBucket(int index) {
+        return AggregationTable.bucket(keys[index]);
+    }
+
+    public double getAverage(int index) {
+        return averages[index];
+    }
+
+    public void sort() {
+        sort(0, size - 1);
+    }
+
+    //plain quicksort over both arrays, keys are unique within the batch
+    private void sort(int from, int to) {
+        while (to - from > INSERTION_SORT_THRESHOLD) {
+            long pivot = keys[(from + to) >>> 1];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            //recursing into the smaller part to bound the stack depth
+            if (j - from < to - i) {
+                sort(from, j);
+                from = i;
+            } else {
+                sort(i, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        double average = averages[i];
+        averages[i] = averages[j];
+        averages[j] = average;
+    }
+}
@@ -0,0 +1,210 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.reporting.SeriesRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Crash safe checkpoint of the AggregationTable, so in-flight aggregates survive the restart.
+ *
+ * Checkpoint file is a sequence of frames [length][crc32][drainedBefore][entries],
+ * where every entry is [series id and bucket][sum][count]. The first frame is the full snapshot
+ * of the table, next frames contain only entries changed since the previous checkpoint and are
+ * appended to the file. When appended frames outgrow the table, the file is rewritten
+ * with the new full snapshot. On restore frames are applied in order, the later entry replaces
+ * the earlier one and entries that were already drained are removed.
+ *
+ * Series ids are used as is, so the checkpoint requires the persistent SeriesRegistry.
+ */
+final class AggregationCheckpoint {
+
+    private static final Logger log = LogManager.getLogger(AggregationCheckpoint.class);
+
+    static final int ENTRY_SIZE = 24;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int PAYLOAD_HEADER_SIZE = 8;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final Path path;
+    private final AggregationTable table;
+    private final SeriesRegistry seriesRegistry;
+    private ByteBuffer buffer;
+    //size of the checkpoint file, -1 when the full snapshot should be written
+    private long fileSize = -1;
+    private long writtenDrainedBefore;
+
+    AggregationCheckpoint(Path path, AggregationTable table, SeriesRegistry seriesRegistry) {
+        this.path = path;
+        this.table = table;
+        this.seriesRegistry = seriesRegistry;
+        this.buffer = ByteBuffer.allocate(64 * ENTRY_SIZE);
+    }
+
+    /**
+     * Loads the checkpoint into the table. Broken tail, that is left after the crash
+     * in the middle of the write, is ignored.
+     *
+     * @return - number of the entries in the table after the restore
+     */
+    int restore() {
+        if (Files.notExists(path)) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            log.error("Error reading aggregation checkpoint {}.", path, e);
+            return 0;
+        }
+
+        int seriesCount = seriesRegistry.size();
+        long drainedBefore = 0;
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= FRAME_HEADER_SIZE) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length < PAYLOAD_HEADER_SIZE || length > data.remaining()
+                    || (length - PAYLOAD_HEADER_SIZE) % ENTRY_SIZE != 0) {
+                log.warn("Last frame of the aggregation checkpoint {} is partially written.", path);
+                break;
+            }
+            ByteBuffer payload = data.slice();
+            ((Buffer) payload).limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Last frame of the aggregation checkpoint {} is corrupted.", path);
+                break;
+            }
+            ((Buffer) data).position(data.position() + length);
+
+            drainedBefore = Math.max(drainedBefore, payload.getLong());
+            while (payload.hasRemaining()) {
+                long key = payload.getLong();
+                double sum = payload.getDouble();
+                long count = payload.getLong();
+                int seriesId = AggregationTable.seriesId(key);
+                //series could be lost with the broken tail of the registry
+                if (seriesId < seriesCount) {
+                    table.put(seriesId, AggregationTable.bucket(key), sum, count);
+                }
+            }
+        }
+        table.drainOutdated(drainedBefore, (seriesId, bucket, sum, count) -> { });
+
+        int size = table.size();
+        log.info("Restored {} aggregated entries from {}. Time {} ms.",
+                size, path, System.currentTimeMillis() - start);
+        return size;
+    }
+
+    /**
+     * Appends entries changed since the previous call, or writes the full snapshot
+     * when the file grows too big. Should be called by the single thread.
+     *
+     * @return - number of the entries written
+     */
+    int write() throws IOException {
+        if (fileSize < 0) {
+            return writeSnapshot();
+        }
+
+        long previousDrainedBefore = writtenDrainedBefore;
+        ((Buffer) buffer).clear();
+        reserveHeader();
+        int written = table.checkpoint(this::put, false);
+        //drained entries have to be removed from the checkpoint even when nothing is changed
+        if (written == 0 && previousDrainedBefore == writtenDrainedBefore) {
+            return 0;
+        }
+        long liveBytes = (long) table.size() * ENTRY_SIZE;
+        if (fileSize + buffer.position() > Math.max(2 * liveBytes, MIN_COMPACTION_SIZE)) {
+            return writeSnapshot();
+        }
+
+        try (FileChannel channel = FileChannel.open(path, WRITE, APPEND)) {
+            fileSize += writeFrame(channel);
+            channel.force(false);
+        } catch (IOException e) {
+            //frames after the broken one are not restored, changes are lost, so starting over
+            fileSize = -1;
+            throw e;
+        }
+        return written;
+    }
+
+    private int writeSnapshot() throws IOException {
+        //nothing to keep yet, e.g. on the fresh install there is no data folder till the first data
+        if (table.size() == 0 && Files.notExists(path)) {
+            return 0;
+        }
+        ((Buffer) buffer).clear();
+        reserveHeader();
+        int written = table.checkpoint(this::put, true);
+
+        fileSize = -1;
+        Path tmpPath = Paths.get(path.toString() + ".tmp");
+        Files.createDirectories(path.getParent());
+        int size;
+        try (FileChannel channel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            size = writeFrame(channel);
+            channel.force(false);
+        }
+        Files.move(tmpPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        fileSize = size;
+        return written;
+    }
+
+    private void reserveHeader() {
+        ((Buffer) buffer).position(FRAME_HEADER_SIZE);
+        writtenDrainedBefore = table.getDrainedBefore();
+        buffer.putLong(writtenDrainedBefore);
+    }
+
+    private void put(int seriesId, long bucket, double sum, long count) {
+        if (buffer.remaining() < ENTRY_SIZE) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            ((Buffer) buffer).flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+        buffer.putLong(AggregationTable.key(seriesId, bucket))
+              .putDouble(sum)
+              .putLong(count);
+    }
+
+    private int writeFrame(FileChannel channel) throws IOException {
+        ((Buffer) buffer).flip();
+        int length = buffer.limit() - FRAME_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        ((Buffer) payload).position(FRAME_HEADER_SIZE);
+        crc.update(payload);
+        buffer.putInt(0, length);
+        buffer.putInt(4, (int) crc.getValue());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return buffer.limit();
+    }
+
+}
@@ -0,0 +1,11 @@
+package cc.blynk.server.core.reporting.average;
+
+/**
+ * Receives aggregated entries of the AggregationTable without boxing.
+ */
+@FunctionalInterface
+public interface AggregationConsumer {
+
+    void accept(int seriesId, long bucket, double sum, long count);
+
+}
@@ -36,6 +36,10 @@ public final class AggregationKey implements Serializable {
         return ts < nowTruncatedToPeriod;
     }
 
+    public BaseReportingKey getBaseReportingKey() {
+        return baseReportingKey;
+    }
+
     public String getEmail() {
         return baseReportingKey.email;
     }
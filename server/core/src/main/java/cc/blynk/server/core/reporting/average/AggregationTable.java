@@ -0,0 +1,307 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.reporting.SeriesRegistry;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent aggregation map of (series id, period bucket) -> (sum, count).
+ * Replaces ConcurrentHashMap<AggregationKey, AggregationValue>, so collecting
+ * of the value doesn't allocate anything.
+ *
+ * Table is split into stripes, every stripe is open addressing hash table
+ * with linear probing that stores keys, sums and counts in primitive arrays
+ * and is guarded by its own monitor.
+ */
+public final class AggregationTable {
+
+    private static final int STRIPES = 16;
+    private static final int STRIPE_INITIAL_CAPACITY = 64;
+    //series id is never negative, so such key is never used
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final SeriesRegistry seriesRegistry;
+    private final Stripe[] stripes;
+    //entries with the bucket less than this one are already drained
+    private volatile long drainedBefore;
+
+    public AggregationTable(SeriesRegistry seriesRegistry) {
+        this.seriesRegistry = seriesRegistry;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(STRIPE_INITIAL_CAPACITY);
+        }
+    }
+
+    static long key(int seriesId, long bucket) {
+        return ((long) seriesId << 32) | (bucket & 0xFFFFFFFFL);
+    }
+
+    static int seriesId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    static long bucket(long key) {
+        return key & 0xFFFFFFFFL;
+    }
+
+    private static long hash(long key) {
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes[(int) (hash >>> 60)];
+    }
+
+    public void add(int seriesId, long bucket, double value) {
+        add(seriesId, bucket, value, 1);
+    }
+
+    void add(int seriesId, long bucket, double sum, long count) {
+        long key = key(seriesId, bucket);
+        long hash = hash(key);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            stripe.add(key, (int) hash, sum, count);
+        }
+    }
+
+    /**
+     * Replaces the entry, used for the restore from the checkpoint.
+     */
+    void put(int seriesId, long bucket, double sum, long count) {
+        long key = key(seriesId, bucket);
+        long hash = hash(key);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            stripe.put(key, (int) hash, sum, count);
+        }
+    }
+
+    public AggregationValue get(AggregationKey aggregationKey) {
+        int seriesId = seriesRegistry.getId(aggregationKey.getBaseReportingKey());
+        if (seriesId == SeriesRegistry.NO_ID) {
+            return null;
+        }
+        long key = key(seriesId, aggregationKey.ts);
+        long hash = hash(key);
+        Stripe stripe = stripe(hash);
+        synchronized (stripe) {
+            int index = stripe.indexOf(key, (int) hash);
+            if (index < 0) {
+                return null;
+            }
+            return new AggregationValue(stripe.sums[index], stripe.counts[index]);
+        }
+    }
+
+    /**
+     * Removes all entries with bucket less than nowBucket and passes them to the consumer.
+     * Consumer is called under the stripe lock, so it should be fast.
+     */
+    public int drainOutdated(long nowBucket, AggregationConsumer consumer) {
+        int drained = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                drained += stripe.drainOutdated(nowBucket, consumer);
+            }
+        }
+        if (nowBucket > drainedBefore) {
+            drainedBefore = nowBucket;
+        }
+        return drained;
+    }
+
+    public void forEach(AggregationConsumer consumer) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach(consumer);
+            }
+        }
+    }
+
+    /**
+     * Passes entries changed since the previous call (or all entries when full) to the consumer.
+     * Consumer is called under the stripe lock, so it should be fast.
+     */
+    int checkpoint(AggregationConsumer consumer, boolean full) {
+        int written = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                written += stripe.checkpoint(consumer, full);
+            }
+        }
+        return written;
+    }
+
+    long getDrainedBefore() {
+        return drainedBefore;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.init(STRIPE_INITIAL_CAPACITY);
+            }
+        }
+    }
+
+    Map<AggregationKey, AggregationValue> toMap() {
+        Map<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        forEach((seriesId, bucket, sum, count) -> {
+            BaseReportingKey key = seriesRegistry.getKey(seriesId);
+            if (key != null) {
+                map.put(new AggregationKey(key, bucket), new AggregationValue(sum, count));
+            }
+        });
+        return map;
+    }
+
+    private static final class Stripe {
+
+        private long[] keys;
+        private double[] sums;
+        private long[] counts;
+        //entry is changed since the last checkpoint
+        private boolean[] dirty;
+        private int size;
+
+        Stripe(int capacity) {
+            init(capacity);
+        }
+
+        private void init(int capacity) {
+            this.keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            this.sums = new double[capacity];
+            this.counts = new long[capacity];
+            this.dirty = new boolean[capacity];
+            this.size = 0;
+        }
+
+        void add(long key, int hash, double sum, long count) {
+            int index = slot(key, hash);
+            sums[index] += sum;
+            counts[index] += count;
+            dirty[index] = true;
+        }
+
+        void put(long key, int hash, double sum, long count) {
+            int index = slot(key, hash);
+            sums[index] = sum;
+            counts[index] = count;
+        }
+
+        /**
+         * @return - index of the key, new entry with zero sum and count is added when there is no such key
+         */
+        private int slot(long key, int hash) {
+            int index = indexOf(key, hash);
+            if (index >= 0) {
+                return index;
+            }
+            //keeping load factor below 0.75
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            index = hash & mask;
+            while (keys[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            size++;
+            return index;
+        }
+
+        int indexOf(long key, int hash) {
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (true) {
+                long existingKey = keys[index];
+                if (existingKey == key) {
+                    return index;
+                }
+                if (existingKey == EMPTY) {
+                    return -1;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        int drainOutdated(long nowBucket, AggregationConsumer consumer) {
+            int drained = 0;
+            for (int i = 0; i < keys.length; i++) {
+                long key = keys[i];
+                if (key != EMPTY && bucket(key) < nowBucket) {
+                    consumer.accept(seriesId(key), bucket(key), sums[i], counts[i]);
+                    keys[i] = EMPTY;
+                    drained++;
+                }
+            }
+            //removal breaks probe chains, so remaining entries are reinserted
+            if (drained > 0) {
+                rehash(keys.length);
+            }
+            return drained;
+        }
+
+        void forEach(AggregationConsumer consumer) {
+            for (int i = 0; i < keys.length; i++) {
+                long key = keys[i];
+                if (key != EMPTY) {
+                    consumer.accept(seriesId(key), bucket(key), sums[i], counts[i]);
+                }
+            }
+        }
+
+        int checkpoint(AggregationConsumer consumer, boolean full) {
+            int written = 0;
+            for (int i = 0; i < keys.length; i++) {
+                long key = keys[i];
+                if (key != EMPTY && (full || dirty[i])) {
+                    consumer.accept(seriesId(key), bucket(key), sums[i], counts[i]);
+                    written++;
+                }
+                dirty[i] = false;
+            }
+            return written;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = this.keys;
+            double[] oldSums = this.sums;
+            long[] oldCounts = this.counts;
+            boolean[] oldDirty = this.dirty;
+            init(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                long key = oldKeys[i];
+                if (key != EMPTY) {
+                    int index = (int) hash(key) & mask;
+                    while (keys[index] != EMPTY) {
+                        index = (index + 1) & mask;
+                    }
+                    keys[index] = key;
+                    sums[index] = oldSums[i];
+                    counts[index] = oldCounts[i];
+                    dirty[index] = oldDirty[i];
+                    size++;
+                }
+            }
+        }
+    }
+}
@@ -20,11 +20,24 @@ public class AggregationValue implements Serializable {
         this.count = 1;
     }
 
+    AggregationValue(double values, long count) {
+        this.values = values;
+        this.count = count;
+    }
+
     public void update(double val) {
         values += val;
         count++;
     }
 
+    double getValues() {
+        return values;
+    }
+
+    long getCount() {
+        return count;
+    }
+
     public double calcAverage() {
         return values / count;
     }
@@ -1,15 +1,16 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.reporting.SeriesRegistry;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.server.internal.SerializationUtil.deserialize;
 import static cc.blynk.server.internal.SerializationUtil.serialize;
@@ -29,70 +30,122 @@ public class AverageAggregatorProcessor implements Closeable {
     static final String MINUTE_TEMP_FILENAME = "minute_temp.bin";
     static final String HOURLY_TEMP_FILENAME = "hourly_temp.bin";
     static final String DAILY_TEMP_FILENAME = "daily_temp.bin";
+    static final String MINUTE_CHECKPOINT_FILENAME = "minute_aggregates.bin";
+    static final String HOURLY_CHECKPOINT_FILENAME = "hourly_aggregates.bin";
+    static final String DAILY_CHECKPOINT_FILENAME = "daily_aggregates.bin";
     private final String dataFolder;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> minute;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+    public final SeriesRegistry seriesRegistry;
+    private final AggregationTable minute;
+    private final AggregationTable hourly;
+    private final AggregationTable daily;
+    //null when series ids are not persisted, in that case tables are serialized on close
+    private final AggregationCheckpoint[] checkpoints;
 
-    @SuppressWarnings("unchecked")
     public AverageAggregatorProcessor(String dataFolder) {
-        this.dataFolder = dataFolder;
-
-        Path path;
-
-        path = Paths.get(dataFolder, MINUTE_TEMP_FILENAME);
-        this.minute = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
-
-        path = Paths.get(dataFolder, HOURLY_TEMP_FILENAME);
-        this.hourly = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
-
-        path = Paths.get(dataFolder, DAILY_TEMP_FILENAME);
-        this.daily = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
+        this(dataFolder, new SeriesRegistry());
     }
 
-    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
-        AggregationValue aggregationValue = map.get(key);
-        if (aggregationValue == null) {
-            aggregationValue = map.putIfAbsent(key, new AggregationValue(value));
-            if (aggregationValue == null) {
-                return;
+    public AverageAggregatorProcessor(String dataFolder, SeriesRegistry seriesRegistry) {
+        this.dataFolder = dataFolder;
+        this.seriesRegistry = seriesRegistry;
+        this.minute = new AggregationTable(seriesRegistry);
+        this.hourly = new AggregationTable(seriesRegistry);
+        this.daily = new AggregationTable(seriesRegistry);
+        if (seriesRegistry.isPersistent()) {
+            this.checkpoints = new AggregationCheckpoint[] {
+                    new AggregationCheckpoint(Paths.get(dataFolder, MINUTE_CHECKPOINT_FILENAME),
+                            minute, seriesRegistry),
+                    new AggregationCheckpoint(Paths.get(dataFolder, HOURLY_CHECKPOINT_FILENAME),
+                            hourly, seriesRegistry),
+                    new AggregationCheckpoint(Paths.get(dataFolder, DAILY_CHECKPOINT_FILENAME),
+                            daily, seriesRegistry)
+            };
+            for (AggregationCheckpoint checkpoint : checkpoints) {
+                checkpoint.restore();
             }
+        } else {
+            this.checkpoints = null;
         }
+        //files of the previous versions
+        restore(minute, Paths.get(dataFolder, MINUTE_TEMP_FILENAME));
+        restore(hourly, Paths.get(dataFolder, HOURLY_TEMP_FILENAME));
+        restore(daily, Paths.get(dataFolder, DAILY_TEMP_FILENAME));
+    }
 
-        aggregationValue.update(value);
+    @SuppressWarnings("unchecked")
+    private void restore(AggregationTable table, Path path) {
+        if (Files.notExists(path)) {
+            return;
+        }
+        Map<AggregationKey, AggregationValue> map = (Map<AggregationKey, AggregationValue>) deserialize(path);
+        for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
+            AggregationKey key = entry.getKey();
+            AggregationValue value = entry.getValue();
+            table.add(seriesRegistry.getOrCreateId(key.getBaseReportingKey()), key.ts,
+                    value.getValues(), value.getCount());
+        }
+        FileUtils.deleteQuietly(path);
     }
 
     public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
-        aggregate(minute, new AggregationKey(baseReportingKey, ts / MINUTE), val);
-        aggregate(hourly, new AggregationKey(baseReportingKey, ts / HOUR), val);
-        aggregate(daily, new AggregationKey(baseReportingKey, ts / DAY), val);
+        collect(seriesRegistry.getOrCreateId(baseReportingKey), ts, val);
+    }
+
+    public void collect(int seriesId, long ts, double val) {
+        minute.add(seriesId, ts / MINUTE, val);
+        hourly.add(seriesId, ts / HOUR, val);
+        daily.add(seriesId, ts / DAY, val);
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getMinute() {
+    public AggregationTable getMinute() {
         return minute;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getHourly() {
+    public AggregationTable getHourly() {
         return hourly;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getDaily() {
+    public AggregationTable getDaily() {
         return daily;
     }
 
+    /**
+     * Writes changes of the aggregated entries since the previous call to the disk,
+     * so they are not lost after the crash. Should be called by the single thread.
+     */
+    public void checkpoint() {
+        if (checkpoints == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        //checkpoint refers the series by ids, so they have to be persisted first
+        seriesRegistry.persist();
+        int written = 0;
+        for (AggregationCheckpoint checkpoint : checkpoints) {
+            try {
+                written += checkpoint.write();
+            } catch (Exception e) {
+                log.error("Error writing aggregation checkpoint.", e);
+            }
+        }
+        log.debug("Checkpoint of {} aggregated entries. Time {} ms.", written, System.currentTimeMillis() - start);
+    }
+
     @Override
     public void close() {
-        if (minute.size() > 100_000) {
+        if (checkpoints != null) {
+            checkpoint();
+            return;
+        }
+        int minuteSize = minute.size();
+        if (minuteSize > 100_000) {
             log.info("Too many minute records ({}). "
-                    + "This may cause performance issues on server start. Skipping.", minute.size());
+                    + "This may cause performance issues on server start. Skipping.", minuteSize);
         } else {
-            serialize(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
+            serialize(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute.toMap());
         }
-        serialize(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
-        serialize(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
+        serialize(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly.toMap());
+        serialize(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily.toMap());
     }
 
 }
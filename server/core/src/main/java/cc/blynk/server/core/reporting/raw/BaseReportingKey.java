@@ -20,6 +20,9 @@ public final class BaseReportingKey implements Serializable {
     public final PinType pinType;
     public final short pin;
 
+    //keys are mostly used as map keys, so hash is cached
+    private transient int hash;
+
     public BaseReportingKey(User user, GraphPinRequest graphPinRequest) {
         this(user.email, user.appName,
              graphPinRequest.dashId, graphPinRequest.deviceId,
@@ -66,12 +69,16 @@ public final class BaseReportingKey implements Serializable {
 
     @Override
     public int hashCode() {
-        int result = email != null ? email.hashCode() : 0;
-        result = 31 * result + (appName != null ? appName.hashCode() : 0);
-        result = 31 * result + dashId;
-        result = 31 * result + deviceId;
-        result = 31 * result + (pinType != null ? pinType.hashCode() : 0);
-        result = 31 * result + (int) pin;
+        int result = hash;
+        if (result == 0) {
+            result = email != null ? email.hashCode() : 0;
+            result = 31 * result + (appName != null ? appName.hashCode() : 0);
+            result = 31 * result + dashId;
+            result = 31 * result + deviceId;
+            result = 31 * result + (pinType != null ? pinType.hashCode() : 0);
+            result = 31 * result + (int) pin;
+            hash = result;
+        }
         return result;
     }
 }
@@ -0,0 +1,92 @@
+package cc.blynk.server.core.reporting.raw;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Last values of the series for the LIVE graph, stored in the primitive ring.
+ *
+ * Values of the series are written by the event loop of the device, so writes are almost
+ * never contended. Reads go with the optimistic stamp (seqlock), copy the values and retry
+ * when the write happened in the middle, so readers never block the writer.
+ */
+public final class LiveGraphSeries {
+
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+
+    private final StampedLock lock = new StampedLock();
+    private final double[] values;
+    private final long[] timestamps;
+    //total number of the values written, guarded by the lock
+    private long written;
+    //time of the last write, used only for the eviction of the idle series
+    volatile long lastWriteTs;
+
+    LiveGraphSeries(int capacity) {
+        this.values = new double[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    void add(double value, long ts, long now) {
+        long stamp = lock.writeLock();
+        try {
+            int index = (int) (written % values.length);
+            values[index] = value;
+            timestamps[index] = ts;
+            written++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        lastWriteTs = now;
+    }
+
+    /**
+     * @return - last count values (skipping the skipCount newest ones) in the order they were added,
+     *           null when there are no such values
+     */
+    ByteBuffer read(int count, int skipCount) {
+        for (int i = 0; i < OPTIMISTIC_READ_ATTEMPTS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                ByteBuffer result = copy(count, skipCount);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return copy(count, skipCount);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    //may see the values in the middle of the write, so result is valid only after the stamp validation
+    private ByteBuffer copy(int count, int skipCount) {
+        long written = this.written;
+        int capacity = values.length;
+        int size = (int) Math.min(written, capacity);
+        int end = size - skipCount;
+        int start = Math.max(0, end - count);
+        if (end <= start) {
+            return null;
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate((end - start) * SIZE_OF_REPORT_ENTRY);
+        //index of the oldest value
+        long first = written - size;
+        for (int i = start; i < end; i++) {
+            int index = (int) ((first + i) % capacity);
+            byteBuffer.putDouble(values[index])
+                      .putLong(timestamps[index]);
+        }
+        ((Buffer) byteBuffer).flip();
+        return byteBuffer;
+    }
+
+}
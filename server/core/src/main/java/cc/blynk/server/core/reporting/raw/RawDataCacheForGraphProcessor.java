@@ -2,16 +2,18 @@ package cc.blynk.server.core.reporting.raw;
 
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.reporting.GraphPinRequest;
-import cc.blynk.utils.structure.LimitedArrayDeque;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentHashMap;
-
-import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Raw data storage for graph LIVE stream.
  *
+ * Every series keeps last GRAPH_CACHE_SIZE values in the LiveGraphSeries ring, values are
+ * collected by the event loops and read by the history executor. Series that were not updated
+ * for IDLE_TIMEOUT are removed by evictIdle().
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 25.01.17.
@@ -19,54 +21,41 @@ import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 public class RawDataCacheForGraphProcessor {
 
     private static final int GRAPH_CACHE_SIZE = 60;
+    static final long IDLE_TIMEOUT = TimeUnit.HOURS.toMillis(1);
 
-    public final ConcurrentHashMap<BaseReportingKey, LimitedArrayDeque<GraphValue>> rawStorage;
+    public final ConcurrentHashMap<BaseReportingKey, LiveGraphSeries> rawStorage;
 
     public RawDataCacheForGraphProcessor() {
         rawStorage = new ConcurrentHashMap<>();
     }
 
-    public void collect(BaseReportingKey baseReportingKey, GraphValue graphCacheValue) {
-        LimitedArrayDeque<GraphValue> cache = rawStorage.get(baseReportingKey);
-        if (cache == null) {
-            cache = new LimitedArrayDeque<>(GRAPH_CACHE_SIZE);
-            rawStorage.put(baseReportingKey, cache);
+    public void collect(BaseReportingKey baseReportingKey, double value, long ts) {
+        LiveGraphSeries series = rawStorage.get(baseReportingKey);
+        if (series == null) {
+            series = rawStorage.computeIfAbsent(baseReportingKey, key -> new LiveGraphSeries(GRAPH_CACHE_SIZE));
         }
-        cache.add(graphCacheValue);
+        series.add(value, ts, System.currentTimeMillis());
     }
 
     public ByteBuffer getLiveGraphData(User user, GraphPinRequest graphPinRequest) {
-        LimitedArrayDeque<GraphValue> cache = rawStorage.get(new BaseReportingKey(user, graphPinRequest));
-
-        if (cache != null && cache.size() > graphPinRequest.skipCount) {
-            return toByteBuffer(cache, graphPinRequest.count, graphPinRequest.skipCount);
-        }
-
-        return null;
-    }
-
-    private ByteBuffer toByteBuffer(LimitedArrayDeque<GraphValue> cache, int count, int skipCount) {
-        int size = cache.size();
-        int expectedMinimumLength = count + skipCount;
-        int diff = size - expectedMinimumLength;
-        int startReadIndex = Math.max(0, diff);
-        int expectedResultSize = diff < 0 ? count + diff : count;
-        if (expectedResultSize <= 0) {
+        LiveGraphSeries series = rawStorage.get(new BaseReportingKey(user, graphPinRequest));
+        if (series == null) {
             return null;
         }
+        return series.read(graphPinRequest.count, graphPinRequest.skipCount);
+    }
 
-        ByteBuffer byteBuffer = ByteBuffer.allocate(expectedResultSize * SIZE_OF_REPORT_ENTRY);
+    /**
+     * @return - number of the removed series
+     */
+    public int evictIdle(long now) {
+        int size = rawStorage.size();
+        rawStorage.values().removeIf(series -> now - series.lastWriteTs > IDLE_TIMEOUT);
+        return size - rawStorage.size();
+    }
 
-        int i = 0;
-        int counter = 0;
-        for (GraphValue graphValue : cache) {
-            if (startReadIndex <= i && counter < expectedResultSize) {
-                counter++;
-                byteBuffer.putDouble(graphValue.value)
-                        .putLong(graphValue.ts);
-            }
-            i++;
-        }
-        return byteBuffer;
+    public int size() {
+        return rawStorage.size();
     }
+
 }
@@ -1,16 +1,25 @@
 package cc.blynk.server.core.reporting.raw;
 
-import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.SeriesRegistry;
 import cc.blynk.utils.NumberUtil;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Simply stores every record in memory that should be stored in reporting DB lately.
- * Could cause OOM at high request rate. However we don't use it very high loads.
- * So this is fine for now.
+ * Collects every raw record that should be stored in reporting DB lately.
+ *
+ * Records are kept in the bounded ring buffer preallocated on start, every record is
+ * the series id, ts and value in the primitive arrays, so collecting doesn't allocate
+ * and memory is limited regardless of the request rate. Buffer is written by the many
+ * hardware threads and drained by the single DB thread.
+ *
+ * When the buffer is full the new records are dropped and counted, so slow DB never
+ * blocks the hardware threads. When the buffer is filled above the half, high water mark
+ * listener is called, so the buffer is drained before the next scheduled flush.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -18,24 +27,213 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class RawDataProcessor {
 
-    public final Map<AggregationKey, Object> rawStorage;
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int NO_SLOT = -1;
+
+    public final boolean isEnabled;
+    private final SeriesRegistry seriesRegistry;
+
+    private final int capacity;
+    private final int mask;
+    private final int highWaterMark;
+    private final int[] seriesIds;
+    private final long[] timestamps;
+    private final double[] doubleValues;
+    //only for the values that are not numbers
+    private final String[] stringValues;
+    //sequence + 1 of the record published to the slot
+    private final AtomicLongArray published;
+
+    //next sequence to claim by the writers
+    private final AtomicLong tail = new AtomicLong();
+    //next sequence to drain, changed only by the drain
+    private volatile long head;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+    //open addressing table of the slots, used by drain to find the records of the same series and ts
+    private final int[] duplicatesTable;
+    private volatile Runnable highWaterMarkListener;
+
+    public final LongAdder collected = new LongAdder();
+    public final LongAdder dropped = new LongAdder();
+    public final LongAdder duplicates = new LongAdder();
+    public final LongAdder drained = new LongAdder();
+    public final LongAdder stored = new LongAdder();
+    public final LongAdder failed = new LongAdder();
 
     public RawDataProcessor(boolean enable) {
-        if (enable) {
-            rawStorage = new ConcurrentHashMap<>();
-        } else {
-            rawStorage = Collections.emptyMap();
-        }
+        this(enable, new SeriesRegistry(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - max number of the records waiting for the drain, rounded up to the power of 2
+     */
+    public RawDataProcessor(boolean enable, SeriesRegistry seriesRegistry, int capacity) {
+        this.isEnabled = enable;
+        this.seriesRegistry = seriesRegistry;
+        this.capacity = enable ? Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) : 0;
+        this.mask = this.capacity - 1;
+        this.highWaterMark = this.capacity / 2;
+        this.seriesIds = new int[this.capacity];
+        this.timestamps = new long[this.capacity];
+        this.doubleValues = new double[this.capacity];
+        this.stringValues = new String[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+        this.duplicatesTable = new int[this.capacity * 2];
+        Arrays.fill(duplicatesTable, NO_SLOT);
     }
 
+    public void setHighWaterMarkListener(Runnable highWaterMarkListener) {
+        this.highWaterMarkListener = highWaterMarkListener;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean collect(BaseReportingKey key, long ts, String stringValue, double doubleValue) {
+        return isEnabled && collect(seriesRegistry.getOrCreateId(key), ts, stringValue, doubleValue);
+    }
+
+    /**
+     * @return - false in case record is dropped as buffer is full
+     */
     //todo 2 millis is minimum allowed interval for data pushing.
-    public void collect(BaseReportingKey key, long ts, String stringValue, double doubleValue) {
-        final AggregationKey aggregationKey = new AggregationKey(key, ts);
+    public boolean collect(int seriesId, long ts, String stringValue, double doubleValue) {
+        if (!isEnabled) {
+            return false;
+        }
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head >= capacity) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+
+        int slot = (int) seq & mask;
+        seriesIds[slot] = seriesId;
+        timestamps[slot] = ts;
         if (doubleValue == NumberUtil.NO_RESULT) {
-            rawStorage.put(aggregationKey, stringValue);
-        } else {
-            rawStorage.put(aggregationKey, doubleValue);
+            stringValues[slot] = stringValue;
         }
+        doubleValues[slot] = doubleValue;
+        published.set(slot, seq + 1);
+        collected.increment();
+
+        if (seq - head == highWaterMark) {
+            Runnable listener = highWaterMarkListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Allows only single drain at a time, so drain requests doesn't pile up
+     * in the DB queue when DB is slow.
+     *
+     * @return - false if the drain is already in progress or scheduled
+     */
+    public boolean tryStartDrain() {
+        return draining.compareAndSet(false, true);
+    }
+
+    public void finishDrain() {
+        draining.set(false);
+    }
+
+    /**
+     * Passes all records published till now to the consumer and frees their slots.
+     * Only the last record of the same series and ts is passed, as it is the primary key
+     * of the raw data table. Must be called by the single thread at a time.
+     *
+     * @return - number of the records passed to the consumer
+     */
+    public int drain(RawDataConsumer consumer) throws Exception {
+        long start = head;
+        long end = start;
+        long claimed = tail.get();
+        while (end < claimed && published.get((int) end & mask) == end + 1) {
+            end++;
+        }
+        if (end == start) {
+            return 0;
+        }
+
+        markDuplicates(start, end);
+
+        int passed = 0;
+        try {
+            for (long seq = start; seq < end; seq++) {
+                int slot = (int) seq & mask;
+                int seriesId = seriesIds[slot];
+                if (seriesId == SeriesRegistry.NO_ID) {
+                    continue;
+                }
+                BaseReportingKey key = seriesRegistry.getKey(seriesId);
+                //series was removed after the value was collected
+                if (key == null) {
+                    continue;
+                }
+                consumer.accept(key, seriesId,
+                        timestamps[slot], stringValues[slot], doubleValues[slot]);
+                passed++;
+            }
+        } finally {
+            for (long seq = start; seq < end; seq++) {
+                stringValues[(int) seq & mask] = null;
+            }
+            head = end;
+            drained.add(passed);
+        }
+        return passed;
+    }
+
+    //walks from the newest record, so the latest value of the series and ts wins
+    private void markDuplicates(long start, long end) {
+        int tableMask = duplicatesTable.length - 1;
+        for (long seq = end - 1; seq >= start; seq--) {
+            int slot = (int) seq & mask;
+            int seriesId = seriesIds[slot];
+            long ts = timestamps[slot];
+            int index = hash(seriesId, ts) & tableMask;
+            int existing = duplicatesTable[index];
+            while (existing != NO_SLOT
+                    && (seriesIds[existing] != seriesId || timestamps[existing] != ts)) {
+                index = (index + 1) & tableMask;
+                existing = duplicatesTable[index];
+            }
+            if (existing == NO_SLOT) {
+                duplicatesTable[index] = slot;
+            } else {
+                seriesIds[slot] = SeriesRegistry.NO_ID;
+                duplicates.increment();
+            }
+        }
+        Arrays.fill(duplicatesTable, NO_SLOT);
+    }
+
+    private static int hash(int seriesId, long ts) {
+        long h = (ts * 31 + seriesId) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public interface RawDataConsumer {
+
+        /**
+         * @param stringValue - not null only when doubleValue is NumberUtil.NO_RESULT
+         */
+        void accept(BaseReportingKey key, int seriesId, long ts, String stringValue, double doubleValue)
+                throws Exception;
+
     }
 
 }
@@ -0,0 +1,125 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.nio.ByteBuffer;
+
+import static cc.blynk.server.core.reporting.storage.CompressedBlockWriter.DOD_BITS_1;
+import static cc.blynk.server.core.reporting.storage.CompressedBlockWriter.DOD_BITS_2;
+import static cc.blynk.server.core.reporting.storage.CompressedBlockWriter.DOD_BITS_3;
+import static cc.blynk.server.core.reporting.storage.CompressedBlockWriter.LEADING_ZEROS_BITS;
+import static cc.blynk.server.core.reporting.storage.CompressedBlockWriter.MEANINGFUL_BITS;
+
+/**
+ * Streaming decoder of the block payload written by the CompressedBlockWriter.
+ * Entries are decoded one by one, nothing is allocated.
+ *
+ * Not thread safe.
+ */
+final class CompressedBlockReader {
+
+    private ByteBuffer buf;
+    private long bitPosition;
+    private int remaining;
+
+    private long ts;
+    private long delta;
+    private long valueBits;
+    private int leadingZeros;
+    private int trailingZeros;
+    private boolean isFirst;
+
+    /**
+     * @param buf - buffer with the payload, data is read with absolute gets
+     * @param offset - payload start within the buffer
+     * @param count - number of entries within the payload
+     */
+    void reset(ByteBuffer buf, int offset, int count) {
+        this.buf = buf;
+        this.bitPosition = (long) offset << 3;
+        this.remaining = count;
+        this.isFirst = true;
+    }
+
+    boolean hasNext() {
+        return remaining > 0;
+    }
+
+    /**
+     * Decodes the next entry, available via ts() and value() after the call.
+     */
+    void next() {
+        if (isFirst) {
+            ts = readBits(64);
+            valueBits = readBits(64);
+            delta = 0;
+            isFirst = false;
+        } else {
+            delta += readDeltaOfDelta();
+            ts += delta;
+            readValue();
+        }
+        remaining--;
+    }
+
+    long ts() {
+        return ts;
+    }
+
+    double value() {
+        return Double.longBitsToDouble(valueBits);
+    }
+
+    private long readDeltaOfDelta() {
+        if (readBit() == 0) {
+            return 0;
+        }
+        if (readBit() == 0) {
+            return readSigned(DOD_BITS_1);
+        }
+        if (readBit() == 0) {
+            return readSigned(DOD_BITS_2);
+        }
+        if (readBit() == 0) {
+            return readSigned(DOD_BITS_3);
+        }
+        return readBits(64);
+    }
+
+    private void readValue() {
+        if (readBit() == 0) {
+            return;
+        }
+        if (readBit() == 1) {
+            leadingZeros = (int) readBits(LEADING_ZEROS_BITS);
+            trailingZeros = 64 - leadingZeros - ((int) readBits(MEANINGFUL_BITS) + 1);
+        }
+        int meaningfulBits = 64 - leadingZeros - trailingZeros;
+        valueBits ^= readBits(meaningfulBits) << trailingZeros;
+    }
+
+    private long readSigned(int bits) {
+        long value = readBits(bits);
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    private int readBit() {
+        int b = buf.get((int) (bitPosition >>> 3));
+        int bit = (b >>> (7 - (int) (bitPosition & 7))) & 1;
+        bitPosition++;
+        return bit;
+    }
+
+    private long readBits(int bits) {
+        long value = 0;
+        while (bits > 0) {
+            int bitIndex = (int) (bitPosition & 7);
+            int availableBits = 8 - bitIndex;
+            int chunkBits = Math.min(availableBits, bits);
+            int b = buf.get((int) (bitPosition >>> 3)) & 0xFF;
+            int chunk = (b >>> (availableBits - chunkBits)) & ((1 << chunkBits) - 1);
+            value = (value << chunkBits) | chunk;
+            bitPosition += chunkBits;
+            bits -= chunkBits;
+        }
+        return value;
+    }
+}
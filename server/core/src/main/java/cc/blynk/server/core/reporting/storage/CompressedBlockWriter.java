@@ -0,0 +1,156 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.util.Arrays;
+
+/**
+ * Encodes reporting entries into the compressed block payload.
+ * Timestamps are stored as delta-of-delta, values as XOR with the previous value
+ * (see "Gorilla: A Fast, Scalable, In-Memory Time Series Database").
+ *
+ * The first entry of the block is stored as is:
+ *   ts - 64 bits, value - 64 bits.
+ *
+ * Every next timestamp is stored as delta-of-delta (dod) with the previous timestamp:
+ *   '0'                  - dod is 0, the regular minute/hour/day step;
+ *   '10'   + 7 bits      - dod within [-64, 63];
+ *   '110'  + 20 bits     - dod within [-2^19, 2^19 - 1];
+ *   '1110' + 32 bits     - dod within int range;
+ *   '1111' + 64 bits     - any other dod.
+ *
+ * Every next value is stored as XOR with the previous value:
+ *   '0'                  - value is the same;
+ *   '10' + meaningful    - meaningful bits are within the previous leading/trailing zeros window;
+ *   '11' + 5 bits of leading zeros + 6 bits of (meaningful length - 1) + meaningful bits.
+ *
+ * Encoding is deterministic, so the payload of the first N entries is a prefix of
+ * the payload of the same N + M entries. Storage relies on it when the open block is rewritten.
+ *
+ * Not thread safe.
+ */
+final class CompressedBlockWriter {
+
+    static final int DOD_BITS_1 = 7;
+    static final int DOD_BITS_2 = 20;
+    static final int DOD_BITS_3 = 32;
+    static final int LEADING_ZEROS_BITS = 5;
+    static final int MEANINGFUL_BITS = 6;
+    static final int MAX_LEADING_ZEROS = (1 << LEADING_ZEROS_BITS) - 1;
+
+    private byte[] buf;
+    private int bitPosition;
+    private int count;
+
+    private long prevTs;
+    private long prevDelta;
+    private long prevValueBits;
+    private int prevLeadingZeros;
+    private int prevTrailingZeros;
+
+    CompressedBlockWriter(int initialCapacity) {
+        this.buf = new byte[initialCapacity];
+    }
+
+    void reset() {
+        Arrays.fill(buf, 0, size(), (byte) 0);
+        this.bitPosition = 0;
+        this.count = 0;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return - payload size in bytes
+     */
+    int size() {
+        return (bitPosition + 7) >>> 3;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    void append(double value, long ts) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            writeBits(ts, 64);
+            writeBits(valueBits, 64);
+            prevDelta = 0;
+            prevLeadingZeros = -1;
+        } else {
+            long delta = ts - prevTs;
+            appendDeltaOfDelta(delta - prevDelta);
+            appendValue(valueBits ^ prevValueBits);
+            prevDelta = delta;
+        }
+        prevTs = ts;
+        prevValueBits = valueBits;
+        count++;
+    }
+
+    private void appendDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            writeBits(0b0, 1);
+        } else if (fits(dod, DOD_BITS_1)) {
+            writeBits(0b10, 2);
+            writeBits(dod, DOD_BITS_1);
+        } else if (fits(dod, DOD_BITS_2)) {
+            writeBits(0b110, 3);
+            writeBits(dod, DOD_BITS_2);
+        } else if (fits(dod, DOD_BITS_3)) {
+            writeBits(0b1110, 4);
+            writeBits(dod, DOD_BITS_3);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(dod, 64);
+        }
+    }
+
+    private static boolean fits(long value, int bits) {
+        long limit = 1L << (bits - 1);
+        return value >= -limit && value < limit;
+    }
+
+    private void appendValue(long xor) {
+        if (xor == 0) {
+            writeBits(0b0, 1);
+            return;
+        }
+
+        int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), MAX_LEADING_ZEROS);
+        int trailingZeros = Long.numberOfTrailingZeros(xor);
+        if (prevLeadingZeros != -1 && leadingZeros >= prevLeadingZeros && trailingZeros >= prevTrailingZeros) {
+            writeBits(0b10, 2);
+            writeBits(xor >>> prevTrailingZeros, 64 - prevLeadingZeros - prevTrailingZeros);
+        } else {
+            int meaningfulBits = 64 - leadingZeros - trailingZeros;
+            writeBits(0b11, 2);
+            writeBits(leadingZeros, LEADING_ZEROS_BITS);
+            writeBits(meaningfulBits - 1, MEANINGFUL_BITS);
+            writeBits(xor >>> trailingZeros, meaningfulBits);
+            prevLeadingZeros = leadingZeros;
+            prevTrailingZeros = trailingZeros;
+        }
+    }
+
+    //writes lowest "bits" bits of the value, starting from the highest one
+    private void writeBits(long value, int bits) {
+        ensureCapacity(bitPosition + bits);
+        while (bits > 0) {
+            int freeBits = 8 - (bitPosition & 7);
+            int chunkBits = Math.min(freeBits, bits);
+            int chunk = (int) (value >>> (bits - chunkBits)) & ((1 << chunkBits) - 1);
+            buf[bitPosition >>> 3] |= (byte) (chunk << (freeBits - chunkBits));
+            bitPosition += chunkBits;
+            bits -= chunkBits;
+        }
+    }
+
+    private void ensureCapacity(int bits) {
+        int bytes = (bits + 7) >>> 3;
+        if (bytes > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(bytes, buf.length * 2));
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * File per series storage with compressed entries. Layout of the folders and
+ * names of the files are the same as for the FileReportingStorage, but all
+ * data is placed within the "compressed" folder of the reporting folder.
+ *
+ * Series file is the sequence of blocks:
+ *   [int header][payload][int footer], header == footer == (entries count << 16 | payload size).
+ *
+ * Payload is encoded by the CompressedBlockWriter. The last block of the file
+ * is open till it has ENTRIES_PER_BLOCK entries, so new entries are appended by
+ * the rewrite of the last block. Footer allows to read the last blocks without
+ * scanning the whole file. Header is always written after the payload, so in case
+ * the rewrite was interrupted (or is in progress), header still describes the
+ * previous, valid prefix of the block.
+ *
+ * Reads are not blocked by the writes. As the last block is rewritten in place, read is
+ * validated with the write stamp of the file and repeated under the storage lock
+ * when the write of the same file happened in the middle of it.
+ */
+public class CompressedReportingStorage extends FileReportingStorage {
+
+    public static final String COMPRESSED_FOLDER = "compressed";
+
+    static final int ENTRIES_PER_BLOCK = 128;
+    private static final int HEADER_SIZE = 4;
+    private static final int BLOCK_OVERHEAD = 2 * HEADER_SIZE;
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 2;
+
+    private final Path compressedFolder;
+    //guarded by this
+    private final CompressedBlockWriter writer;
+
+    public CompressedReportingStorage(String dataFolder) {
+        this(dataFolder, MappedReadCache.DEFAULT_MAX_FILES);
+    }
+
+    public CompressedReportingStorage(String dataFolder, int readCacheMaxFiles) {
+        super(Paths.get(dataFolder, COMPRESSED_FOLDER).toString(), readCacheMaxFiles);
+        this.compressedFolder = Paths.get(dataFolder, COMPRESSED_FOLDER);
+        this.writer = new CompressedBlockWriter(1024);
+    }
+
+    public static boolean isCompressedFolder(Path path) {
+        return COMPRESSED_FOLDER.equals(path.getFileName().toString());
+    }
+
+    public boolean contains(String userDir, String fileName) {
+        return Files.exists(compressedFolder.resolve(userDir).resolve(fileName));
+    }
+
+    @Override
+    public void write(String userDir, String fileName, double value, long ts) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(SIZE_OF_REPORT_ENTRY);
+        entry.putDouble(value)
+             .putLong(ts);
+        ((Buffer) entry).flip();
+        write(userDir, fileName, entry);
+    }
+
+    @Override
+    public synchronized void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+        if (!entries.hasRemaining()) {
+            return;
+        }
+        Path userDataFile = getUserReportFolder(userDir).resolve(fileName);
+        long end;
+        long size;
+        MappedByteBuffer newMapping = null;
+        boolean isCached = readCache.beginWrite(userDataFile);
+        try (FileChannel channel = FileChannel.open(userDataFile, CREATE, READ, WRITE)) {
+            long blockStart = reopenLastBlock(channel);
+            while (entries.hasRemaining()) {
+                if (writer.count() == ENTRIES_PER_BLOCK) {
+                    blockStart += writeBlock(channel, blockStart);
+                    writer.reset();
+                }
+                writer.append(entries.getDouble(), entries.getLong());
+            }
+            end = blockStart + writeBlock(channel, blockStart);
+            size = channel.size();
+            //file is being read, so it is remapped right away instead of the miss on the next read
+            if (isCached && size == end) {
+                newMapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            }
+        } finally {
+            readCache.endWrite(userDataFile, newMapping);
+        }
+
+        //only possible after the interrupted write
+        if (size > end) {
+            ByteBuffer data;
+            try (FileChannel channel = FileChannel.open(userDataFile, READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            }
+            replace(userDataFile, data);
+        }
+    }
+
+    //loads entries of the open last block into the writer, returns offset of the block to write
+    private long reopenLastBlock(FileChannel channel) throws IOException {
+        writer.reset();
+        ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        Blocks blocks = readLastBlocks(data, 1);
+        if (blocks.size == 0) {
+            return 0;
+        }
+        int offset = blocks.offsets[0];
+        int count = blocks.counts[0];
+        if (count == ENTRIES_PER_BLOCK) {
+            return offset + BLOCK_OVERHEAD + blocks.lengths[0];
+        }
+
+        CompressedBlockReader reader = new CompressedBlockReader();
+        reader.reset(data, offset + HEADER_SIZE, count);
+        while (reader.hasNext()) {
+            reader.next();
+            writer.append(reader.value(), reader.ts());
+        }
+        return offset;
+    }
+
+    //payload and footer go first, header is the last
+    private int writeBlock(FileChannel channel, long offset) throws IOException {
+        int payloadSize = writer.size();
+        int header = header(writer.count(), payloadSize);
+        ByteBuffer block = ByteBuffer.allocate(payloadSize + HEADER_SIZE);
+        block.put(writer.array(), 0, payloadSize)
+             .putInt(header);
+        ((Buffer) block).flip();
+        writeFully(channel, block, offset + HEADER_SIZE);
+
+        ByteBuffer headerBuf = ByteBuffer.allocate(HEADER_SIZE);
+        headerBuf.putInt(header);
+        ((Buffer) headerBuf).flip();
+        writeFully(channel, headerBuf, offset);
+        return payloadSize + BLOCK_OVERHEAD;
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException {
+        Path file = compressedFolder.resolve(userDir).resolve(fileName);
+        for (int i = 0; i < OPTIMISTIC_READ_ATTEMPTS; i++) {
+            long stamp = readCache.readStamp(file);
+            ByteBuffer result;
+            try {
+                result = read(readCache.get(file), count, skip);
+            } catch (RuntimeException e) {
+                //partially rewritten block may look like the garbage
+                if (readCache.isValid(file, stamp)) {
+                    throw e;
+                }
+                continue;
+            }
+            if (readCache.isValid(file, stamp)) {
+                return result;
+            }
+        }
+        //writes are done under the same lock
+        synchronized (this) {
+            return read(readCache.get(file), count, skip);
+        }
+    }
+
+    private static ByteBuffer read(ByteBuffer data, int count, int skip) {
+        if (data == null) {
+            return null;
+        }
+
+        Blocks blocks = readLastBlocks(data, count + skip);
+        //indexes of the entries within the blocks, starting from the oldest block
+        int to = blocks.entries - skip;
+        if (to <= 0) {
+            return null;
+        }
+        int from = Math.max(0, to - count);
+
+        ByteBuffer result = ByteBuffer.allocate((to - from) * SIZE_OF_REPORT_ENTRY);
+        CompressedBlockReader reader = new CompressedBlockReader();
+        int index = 0;
+        for (int i = blocks.size - 1; i >= 0 && index < to; i--) {
+            int blockCount = blocks.counts[i];
+            if (index + blockCount <= from) {
+                index += blockCount;
+                continue;
+            }
+            reader.reset(data, blocks.offsets[i] + HEADER_SIZE, blockCount);
+            while (reader.hasNext() && index < to) {
+                reader.next();
+                if (index >= from) {
+                    result.putDouble(reader.value())
+                          .putLong(reader.ts());
+                }
+                index++;
+            }
+        }
+        ((Buffer) result).flip();
+        return result;
+    }
+
+    /**
+     * Drops the oldest blocks, so series keeps at least maxRecordsCount entries.
+     */
+    @Override
+    protected synchronized boolean truncate(Path userReportingFile, int maxRecordsCount) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(userReportingFile, READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Blocks blocks = readLastBlocks(data, maxRecordsCount);
+        if (blocks.size == 0) {
+            return false;
+        }
+        int keepFrom = blocks.offsets[blocks.size - 1];
+        if (keepFrom == 0) {
+            return false;
+        }
+
+        ((Buffer) data).position(keepFrom);
+        replace(userReportingFile, data);
+        return true;
+    }
+
+    /**
+     * Walks the blocks from the end of the file till minEntries are collected
+     * or the beginning of the file is reached.
+     */
+    private static Blocks readLastBlocks(ByteBuffer data, int minEntries) {
+        Blocks blocks = new Blocks();
+        int end = data.limit();
+        while (end > 0 && blocks.entries < minEntries) {
+            if (end < BLOCK_OVERHEAD) {
+                return scanBlocks(data, minEntries);
+            }
+            int footer = data.getInt(end - HEADER_SIZE);
+            int start = end - BLOCK_OVERHEAD - length(footer);
+            if (!isValid(footer) || start < 0 || data.getInt(start) != footer) {
+                //the last block is being rewritten or write was interrupted
+                return scanBlocks(data, minEntries);
+            }
+            blocks.add(start, count(footer), length(footer));
+            end = start;
+        }
+        return blocks;
+    }
+
+    /**
+     * Walks the blocks from the beginning of the file using headers only.
+     * Scan stops on the first block without the matching footer, such block is the last one.
+     */
+    private static Blocks scanBlocks(ByteBuffer data, int minEntries) {
+        Blocks all = new Blocks();
+        int size = data.limit();
+        int offset = 0;
+        while (offset + HEADER_SIZE <= size) {
+            int header = data.getInt(offset);
+            int footerOffset = offset + HEADER_SIZE + length(header);
+            if (!isValid(header) || footerOffset > size) {
+                break;
+            }
+            all.add(offset, count(header), length(header));
+            if (footerOffset + HEADER_SIZE > size || data.getInt(footerOffset) != header) {
+                break;
+            }
+            offset = footerOffset + HEADER_SIZE;
+        }
+
+        Blocks blocks = new Blocks();
+        for (int i = all.size - 1; i >= 0 && blocks.entries < minEntries; i--) {
+            blocks.add(all.offsets[i], all.counts[i], all.lengths[i]);
+        }
+        return blocks;
+    }
+
+    private static int header(int count, int length) {
+        return count << 16 | length;
+    }
+
+    private static int count(int header) {
+        return header >>> 16;
+    }
+
+    private static int length(int header) {
+        return header & 0xFFFF;
+    }
+
+    private static boolean isValid(int header) {
+        int count = count(header);
+        return count > 0 && count <= ENTRIES_PER_BLOCK && length(header) > 0;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * Blocks of the series file, from the newest to the oldest.
+     */
+    private static final class Blocks {
+
+        int[] offsets = new int[8];
+        int[] counts = new int[8];
+        int[] lengths = new int[8];
+        int size;
+        int entries;
+
+        void add(int offset, int count, int length) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            offsets[size] = offset;
+            counts[size] = count;
+            lengths[size] = length;
+            size++;
+            entries += count;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Legacy storage. Every series is stored within separate append-only file
+ * in the user reporting folder. Reads are served from the cached read only
+ * mappings of the files.
+ */
+public class FileReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(FileReportingStorage.class);
+
+    private final String dataFolder;
+    //user dirs that are known to exist, so we don't hit the disk on every write
+    private final Set<String> existingUserDirs;
+    final MappedReadCache readCache;
+
+    public FileReportingStorage(String dataFolder) {
+        this(dataFolder, MappedReadCache.DEFAULT_MAX_FILES);
+    }
+
+    public FileReportingStorage(String dataFolder, int readCacheMaxFiles) {
+        this.dataFolder = dataFolder;
+        this.existingUserDirs = ConcurrentHashMap.newKeySet();
+        this.readCache = new MappedReadCache(readCacheMaxFiles);
+    }
+
+    @Override
+    public void write(String userDir, String fileName, double value, long ts) throws IOException {
+        Path userDataFile = getUserReportFolder(userDir).resolve(fileName);
+        FileUtils.write(userDataFile, value, ts);
+        readCache.invalidate(userDataFile);
+    }
+
+    @Override
+    public void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+        Path userDataFile = getUserReportFolder(userDir).resolve(fileName);
+        try (FileChannel channel = FileChannel.open(userDataFile, CREATE, WRITE, APPEND)) {
+            while (entries.hasRemaining()) {
+                channel.write(entries);
+            }
+        }
+        readCache.invalidate(userDataFile);
+    }
+
+    protected Path getUserReportFolder(String userDir) throws IOException {
+        Path userReportFolder = Paths.get(dataFolder, userDir);
+        if (!existingUserDirs.contains(userDir)) {
+            Files.createDirectories(userReportFolder);
+            existingUserDirs.add(userDir);
+        }
+        return userReportFolder;
+    }
+
+    /**
+     * @return - read only view of the cached file mapping, or null if there is no data
+     */
+    @Override
+    public ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException {
+        ByteBuffer data = readCache.get(Paths.get(dataFolder, userDir, fileName));
+        if (data == null) {
+            return null;
+        }
+
+        //same window as FileUtils.read(), but without copying
+        int size = data.remaining();
+        int expectedMinimumLength = (count + skip) * SIZE_OF_REPORT_ENTRY;
+        int diff = size - expectedMinimumLength;
+        int startReadIndex = Math.max(0, diff);
+        int bufferSize = diff < 0 ? count * SIZE_OF_REPORT_ENTRY + diff : count * SIZE_OF_REPORT_ENTRY;
+        if (bufferSize <= 0) {
+            return null;
+        }
+        ((Buffer) data).limit(startReadIndex + bufferSize);
+        ((Buffer) data).position(startReadIndex);
+        return data.slice();
+    }
+
+    @Override
+    public void delete(String userDir, String fileName) {
+        Path userDataFile = Paths.get(dataFolder, userDir, fileName);
+        FileUtils.deleteQuietly(userDataFile);
+        readCache.invalidate(userDataFile);
+    }
+
+    @Override
+    public int delete(String userDir, Function<String, Boolean> fileNameFilter) {
+        Path reportingFolderPath = Paths.get(dataFolder, userDir);
+
+        int removedFilesCounter = 0;
+        try {
+            if (Files.exists(reportingFolderPath)) {
+                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
+                    for (Path reportingFile : reportingFolder) {
+                        if (fileNameFilter.apply(reportingFile.getFileName().toString())) {
+                            log.trace("Removing {}", reportingFile);
+                            FileUtils.deleteQuietly(reportingFile);
+                            readCache.invalidate(reportingFile);
+                            removedFilesCounter++;
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error removing file : {}.", reportingFolderPath);
+        }
+        return removedFilesCounter;
+    }
+
+    @Override
+    public int truncate(GraphGranularityType type, int maxRecordsCount) {
+        int truncatedFilesCounter = 0;
+
+        Path reportingFolderPath = Paths.get(dataFolder);
+        if (Files.notExists(reportingFolderPath)) {
+            return 0;
+        }
+
+        String glob = "*_" + type.label + ".bin";
+        try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
+            for (Path userReportingDirectory : reportingFolder) {
+                if (Files.isDirectory(userReportingDirectory)) {
+                    int filesCounter = 0;
+                    try {
+                        try (DirectoryStream<Path> userReportingFolder =
+                                     Files.newDirectoryStream(userReportingDirectory, glob)) {
+                            for (Path userReportingFile : userReportingFolder) {
+                                filesCounter++;
+                                if (truncate(userReportingFile, maxRecordsCount)) {
+                                    truncatedFilesCounter++;
+                                }
+                            }
+                        }
+                        if (filesCounter == 0) {
+                            existingUserDirs.remove(userReportingDirectory.getFileName().toString());
+                            Files.delete(userReportingDirectory);
+                        }
+                    } catch (Exception e) {
+                        log.error("Truncation failed for {}. Reason : {}.", userReportingDirectory, e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error truncating reporting data in {}.", reportingFolderPath, e);
+        }
+        return truncatedFilesCounter;
+    }
+
+    /**
+     * Removes the oldest records of the series file.
+     *
+     * @return - true if file was truncated
+     */
+    protected boolean truncate(Path userReportingFile, int maxRecordsCount) throws IOException {
+        long fileSize = Files.size(userReportingFile);
+        if (fileSize > maxRecordsCount * SIZE_OF_REPORT_ENTRY) {
+            replace(userReportingFile, FileUtils.read(userReportingFile, maxRecordsCount));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Series files are never truncated in place, as they could be mapped by readers.
+     */
+    void replace(Path userReportingFile, ByteBuffer data) throws IOException {
+        Path tmpFile = Paths.get(userReportingFile.toString() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        Files.move(tmpFile, userReportingFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        readCache.invalidate(userReportingFile);
+    }
+
+    @Override
+    public void flush() {
+        //every entry is written directly to the file
+    }
+
+    @Override
+    public void close() {
+        readCache.invalidateAll();
+    }
+}
@@ -0,0 +1,160 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * LRU cache of the read only mappings of the series files, so repeated graph
+ * requests are served without exists/open/stat/seek/read/close syscalls and
+ * without copying the data to the heap.
+ *
+ * Mapping doesn't hold the file descriptor, channel is closed right after the map() call,
+ * so the only limited resource is the number of mappings (virtual memory and vm.max_map_count).
+ * Evicted mappings are released by GC.
+ *
+ * Storage should invalidate the file on every modification. Files are never
+ * truncated in place (only replaced or unlinked), so mapping that is still in use
+ * after invalidation always points to the valid data, it is just outdated.
+ *
+ * Storage that rewrites the data in place has to wrap the modification with
+ * beginWrite()/endWrite() and validate the read with the write stamp taken before it,
+ * as the mapping shares the page cache with the file and may see the partial rewrite.
+ * Cached file is remapped within endWrite(), so read after the append is not a miss.
+ */
+final class MappedReadCache {
+
+    static final int DEFAULT_MAX_FILES = 1024;
+    private static final int WRITE_STAMP_STRIPES = 256;
+
+    private final Map<Path, MappedByteBuffer> mappings;
+    //guarded by this. mapping created before the modification is not cached
+    private long modifications;
+    //seqlock per stripe of files, odd value means the write is in progress
+    private final AtomicLongArray writeStamps = new AtomicLongArray(WRITE_STAMP_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    MappedReadCache(int maxFiles) {
+        this.mappings = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, MappedByteBuffer> eldest) {
+                return size() > maxFiles;
+            }
+        };
+    }
+
+    /**
+     * @return - read only view of the whole file, or null if file doesn't exist
+     */
+    ByteBuffer get(Path file) throws IOException {
+        long modificationsBefore;
+        synchronized (this) {
+            MappedByteBuffer mapping = mappings.get(file);
+            if (mapping != null) {
+                hits.increment();
+                return mapping.duplicate();
+            }
+            modificationsBefore = modifications;
+        }
+        misses.increment();
+
+        MappedByteBuffer mapping = map(file);
+        if (mapping == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (modificationsBefore == modifications) {
+                mappings.put(file, mapping);
+            }
+        }
+        return mapping.duplicate();
+    }
+
+    /**
+     * @return - stamp to validate the read of the file with, see isValid()
+     */
+    long readStamp(Path file) {
+        return writeStamps.get(stripe(file));
+    }
+
+    /**
+     * @return - true when no write of the file was started since the stamp was taken
+     */
+    boolean isValid(Path file, long stamp) {
+        //data reads of the mapping should not be reordered with the stamp read
+        VarHandle.acquireFence();
+        return (stamp & 1) == 0 && writeStamps.get(stripe(file)) == stamp;
+    }
+
+    /**
+     * @return - true if the file is cached, so it is worth to remap it on endWrite()
+     */
+    boolean beginWrite(Path file) {
+        writeStamps.getAndUpdate(stripe(file), stamp -> stamp | 1);
+        synchronized (this) {
+            modifications++;
+            return mappings.remove(file) != null;
+        }
+    }
+
+    /**
+     * Should be called even if write failed. Mapping created within the write
+     * is cached instead of the outdated one, otherwise file is just invalidated.
+     */
+    void endWrite(Path file, MappedByteBuffer newMapping) {
+        synchronized (this) {
+            modifications++;
+            if (newMapping == null) {
+                mappings.remove(file);
+            } else {
+                mappings.put(file, newMapping);
+            }
+        }
+        writeStamps.getAndUpdate(stripe(file), stamp -> (stamp | 1) + 1);
+    }
+
+    synchronized void invalidate(Path file) {
+        modifications++;
+        mappings.remove(file);
+    }
+
+    synchronized void invalidateAll() {
+        modifications++;
+        mappings.clear();
+    }
+
+    synchronized int size() {
+        return mappings.size();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private static int stripe(Path file) {
+        return (file.hashCode() & 0x7FFFFFFF) % WRITE_STAMP_STRIPES;
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Storage engine for aggregated history graph data.
+ * Every series is addressed by the user storage dir and the legacy series
+ * file name (see ReportingDiskDao.generateFilename()), so all engines share
+ * the same naming and filtering rules.
+ *
+ * Every entry is value (double) and timestamp (long), 16 bytes in total.
+ */
+public interface ReportingStorage extends Closeable {
+
+    void write(String userDir, String fileName, double value, long ts) throws IOException;
+
+    /**
+     * Appends bunch of entries of the same series at once.
+     *
+     * @param entries - entries ordered by ts, ready for read
+     */
+    void write(String userDir, String fileName, ByteBuffer entries) throws IOException;
+
+    /**
+     * Reads bunch of last records of the series.
+     *
+     * @param count - number of records to read
+     * @param skip  - number of entries to skip from the end
+     * @return - byte buffer with data or null if there is no data.
+     *           Buffer could be the read only view of the storage data, so
+     *           it should be read with relative gets and never modified.
+     */
+    ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException;
+
+    void delete(String userDir, String fileName);
+
+    int delete(String userDir, Function<String, Boolean> fileNameFilter);
+
+    /**
+     * Removes the oldest records of all series of given granularity,
+     * so every series holds (at least) maxRecordsCount of the latest records.
+     *
+     * @return - number of truncated series
+     */
+    int truncate(GraphGranularityType type, int maxRecordsCount);
+
+    /**
+     * Called once all entries of the reporting tick are written.
+     */
+    void flush() throws IOException;
+
+    @Override
+    void close();
+}
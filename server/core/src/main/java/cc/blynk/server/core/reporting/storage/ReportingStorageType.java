@@ -0,0 +1,40 @@
+package cc.blynk.server.core.reporting.storage;
+
+public enum ReportingStorageType {
+
+    FILE,
+    SEGMENT,
+    COMPRESSED;
+
+    public static ReportingStorageType fromString(String type) {
+        if (type == null) {
+            return FILE;
+        }
+        switch (type.trim().toLowerCase()) {
+            case "segment" :
+                return SEGMENT;
+            case "compressed" :
+                return COMPRESSED;
+            default:
+                return FILE;
+        }
+    }
+
+    public ReportingStorage create(String dataFolder) {
+        return create(dataFolder, MappedReadCache.DEFAULT_MAX_FILES);
+    }
+
+    /**
+     * @param readCacheMaxFiles - max number of the series files with cached read mappings
+     */
+    public ReportingStorage create(String dataFolder, int readCacheMaxFiles) {
+        switch (this) {
+            case SEGMENT :
+                return new SegmentReportingStorage(dataFolder);
+            case COMPRESSED :
+                return new CompressedReportingStorage(dataFolder, readCacheMaxFiles);
+            default:
+                return new FileReportingStorage(dataFolder, readCacheMaxFiles);
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Stores all series within few big memory-mapped segment files instead of file per series.
+ * Every segment is split into fixed size blocks. Every series owns the list of blocks
+ * (see SegmentSeries) and appends entries to the last one, so write is a plain memory put
+ * and read of the last N entries touches only ceil(N / ENTRIES_PER_BLOCK) + 1 blocks.
+ *
+ * Series index is kept in memory and checkpointed to the disk on every flush(),
+ * last block of every series is rescanned on start, so entries written after the last
+ * checkpoint are not lost. Blocks freed by delete/truncate are not reused until the checkpoint
+ * without them is on the disk, otherwise after the crash the old index could point
+ * to the block that already holds entries of another series.
+ */
+public class SegmentReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(SegmentReportingStorage.class);
+
+    public static final String SEGMENTS_FOLDER = "segments";
+    private static final String INDEX_FILENAME = "series.idx";
+    private static final String SEGMENT_FILENAME_PREFIX = "segment_";
+    private static final String SEGMENT_FILENAME_EXTENSION = ".dat";
+    private static final int INDEX_VERSION = 1;
+
+    static final int BLOCK_SIZE = 1024;
+    static final int ENTRIES_PER_BLOCK = BLOCK_SIZE / SIZE_OF_REPORT_ENTRY;
+    static final int BLOCKS_PER_SEGMENT = 64 * 1024;
+    private static final long SEGMENT_SIZE = (long) BLOCK_SIZE * BLOCKS_PER_SEGMENT;
+
+    private final Path segmentsFolder;
+    private final Map<String, Map<String, SegmentSeries>> index;
+
+    //guarded by this
+    private final BitSet usedBlocks;
+    //guarded by this
+    private int freeBlockHint;
+    //freed blocks still referenced by the last checkpoint, guarded by this
+    private BitSet quarantinedBlocks;
+
+    private volatile MappedByteBuffer[] segments;
+    private volatile boolean isDirty;
+
+    public SegmentReportingStorage(String dataFolder) {
+        this.segmentsFolder = Paths.get(dataFolder, SEGMENTS_FOLDER);
+        this.index = new ConcurrentHashMap<>();
+        this.usedBlocks = new BitSet();
+        this.quarantinedBlocks = new BitSet();
+        try {
+            Files.createDirectories(segmentsFolder);
+            this.segments = mapSegments();
+            loadIndex();
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening reporting segments in " + segmentsFolder, e);
+        }
+        log.info("Reporting segments loaded from {}. Segments : {}, used blocks : {}.",
+                segmentsFolder, segments.length, usedBlocks.cardinality());
+    }
+
+    public static boolean isSegmentsFolder(Path path) {
+        return path.getFileName().toString().equals(SEGMENTS_FOLDER);
+    }
+
+    public boolean contains(String userDir, String fileName) {
+        Map<String, SegmentSeries> userSeries = index.get(userDir);
+        return userSeries != null && userSeries.containsKey(fileName);
+    }
+
+    @Override
+    public void write(String userDir, String fileName, double value, long ts) throws IOException {
+        while (true) {
+            SegmentSeries series = getOrCreateSeries(userDir, fileName);
+            synchronized (series) {
+                //series was removed concurrently, so creating new one
+                if (series.isRemoved) {
+                    continue;
+                }
+                append(series, value, ts);
+            }
+            isDirty = true;
+            return;
+        }
+    }
+
+    @Override
+    public void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+        while (true) {
+            SegmentSeries series = getOrCreateSeries(userDir, fileName);
+            synchronized (series) {
+                if (series.isRemoved) {
+                    continue;
+                }
+                while (entries.hasRemaining()) {
+                    append(series, entries.getDouble(), entries.getLong());
+                }
+            }
+            isDirty = true;
+            return;
+        }
+    }
+
+    private SegmentSeries getOrCreateSeries(String userDir, String fileName) {
+        Map<String, SegmentSeries> userSeries = index.get(userDir);
+        if (userSeries != null) {
+            SegmentSeries series = userSeries.get(fileName);
+            if (series != null) {
+                return series;
+            }
+        }
+        //series is created under the user bin lock, so removeUserIfEmpty() can't drop the map in between
+        SegmentSeries[] created = new SegmentSeries[1];
+        index.compute(userDir, (k, existingSeries) -> {
+            Map<String, SegmentSeries> newUserSeries = existingSeries == null
+                    ? new ConcurrentHashMap<>()
+                    : existingSeries;
+            created[0] = newUserSeries.computeIfAbsent(fileName, f -> new SegmentSeries());
+            return newUserSeries;
+        });
+        return created[0];
+    }
+
+    private void removeUserIfEmpty(String userDir) {
+        index.computeIfPresent(userDir, (k, userSeries) -> userSeries.isEmpty() ? null : userSeries);
+    }
+
+    boolean hasUser(String userDir) {
+        return index.containsKey(userDir);
+    }
+
+    //should be called under series lock
+    private void append(SegmentSeries series, double value, long ts) throws IOException {
+        if (series.isTailFull()) {
+            series.addBlock(allocateBlock());
+        }
+        int block = series.lastBlock();
+        int offset = blockOffset(block) + series.tailCount * SIZE_OF_REPORT_ENTRY;
+        segment(block).putDouble(offset, value)
+                      .putLong(offset + 8, ts);
+        series.tailCount++;
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, String fileName, int count, int skip) {
+        Map<String, SegmentSeries> userSeries = index.get(userDir);
+        if (userSeries == null) {
+            return null;
+        }
+        SegmentSeries series = userSeries.get(fileName);
+        if (series == null) {
+            return null;
+        }
+
+        synchronized (series) {
+            int size = series.size();
+            int end = size - skip;
+            int start = Math.max(0, end - count);
+            if (end - start <= 0) {
+                return null;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((end - start) * SIZE_OF_REPORT_ENTRY);
+            int entry = start;
+            while (entry < end) {
+                int block = series.blocks[entry / ENTRIES_PER_BLOCK];
+                int entryInBlock = entry % ENTRIES_PER_BLOCK;
+                int entriesToCopy = Math.min(ENTRIES_PER_BLOCK - entryInBlock, end - entry);
+                ByteBuffer segment = segment(block).duplicate();
+                int position = blockOffset(block) + entryInBlock * SIZE_OF_REPORT_ENTRY;
+                ((Buffer) segment).limit(position + entriesToCopy * SIZE_OF_REPORT_ENTRY).position(position);
+                buf.put(segment);
+                entry += entriesToCopy;
+            }
+            ((Buffer) buf).flip();
+            return buf;
+        }
+    }
+
+    @Override
+    public void delete(String userDir, String fileName) {
+        Map<String, SegmentSeries> userSeries = index.get(userDir);
+        if (userSeries != null) {
+            SegmentSeries series = userSeries.remove(fileName);
+            if (series != null) {
+                release(series);
+            }
+            removeUserIfEmpty(userDir);
+        }
+    }
+
+    @Override
+    public int delete(String userDir, Function<String, Boolean> fileNameFilter) {
+        Map<String, SegmentSeries> userSeries = index.get(userDir);
+        if (userSeries == null) {
+            return 0;
+        }
+
+        int removedSeriesCounter = 0;
+        for (Map.Entry<String, SegmentSeries> entry : userSeries.entrySet()) {
+            if (fileNameFilter.apply(entry.getKey()) && userSeries.remove(entry.getKey(), entry.getValue())) {
+                log.trace("Removing {} for {}.", entry.getKey(), userDir);
+                release(entry.getValue());
+                removedSeriesCounter++;
+            }
+        }
+        removeUserIfEmpty(userDir);
+        return removedSeriesCounter;
+    }
+
+    @Override
+    public int truncate(GraphGranularityType type, int maxRecordsCount) {
+        String suffix = "_" + type.label + ".bin";
+        int truncatedSeriesCounter = 0;
+        for (Map<String, SegmentSeries> userSeries : index.values()) {
+            for (Map.Entry<String, SegmentSeries> entry : userSeries.entrySet()) {
+                if (entry.getKey().endsWith(suffix)) {
+                    SegmentSeries series = entry.getValue();
+                    synchronized (series) {
+                        //only whole blocks are dropped, so series may hold a bit more than maxRecordsCount
+                        int outdatedBlocks = (series.size() - maxRecordsCount) / ENTRIES_PER_BLOCK;
+                        if (outdatedBlocks > 0 && !series.isRemoved) {
+                            freeBlocks(series.blocks, outdatedBlocks);
+                            series.removeHead(outdatedBlocks);
+                            truncatedSeriesCounter++;
+                        }
+                    }
+                }
+            }
+        }
+        if (truncatedSeriesCounter > 0) {
+            isDirty = true;
+        }
+        return truncatedSeriesCounter;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!isDirty) {
+            return;
+        }
+        isDirty = false;
+
+        //blocks freed from now on may still be in the index written below
+        BitSet releasedBlocks = takeQuarantinedBlocks();
+        try {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            writeIndex();
+        } catch (IOException e) {
+            isDirty = true;
+            quarantine(releasedBlocks);
+            throw e;
+        }
+        releaseBlocks(releasedBlocks);
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.error("Error flushing reporting segments.", e);
+        }
+    }
+
+    private void release(SegmentSeries series) {
+        synchronized (series) {
+            series.isRemoved = true;
+            freeBlocks(series.blocks, series.blocksCount);
+            series.blocksCount = 0;
+            series.tailCount = 0;
+        }
+        isDirty = true;
+    }
+
+    private synchronized int allocateBlock() throws IOException {
+        int block = usedBlocks.nextClearBit(freeBlockHint);
+        if (block / BLOCKS_PER_SEGMENT >= segments.length) {
+            addSegment();
+        }
+        usedBlocks.set(block);
+        freeBlockHint = block + 1;
+
+        //block may contain entries of the removed series
+        ByteBuffer segment = segment(block);
+        int offset = blockOffset(block);
+        for (int i = 0; i < BLOCK_SIZE; i += Long.BYTES) {
+            segment.putLong(offset + i, 0L);
+        }
+        return block;
+    }
+
+    private synchronized void freeBlocks(int[] blocks, int count) {
+        for (int i = 0; i < count; i++) {
+            quarantinedBlocks.set(blocks[i]);
+        }
+    }
+
+    private synchronized BitSet takeQuarantinedBlocks() {
+        BitSet blocks = quarantinedBlocks;
+        quarantinedBlocks = new BitSet();
+        return blocks;
+    }
+
+    private synchronized void quarantine(BitSet blocks) {
+        quarantinedBlocks.or(blocks);
+    }
+
+    private synchronized void releaseBlocks(BitSet blocks) {
+        usedBlocks.andNot(blocks);
+        int firstBlock = blocks.nextSetBit(0);
+        if (firstBlock >= 0 && firstBlock < freeBlockHint) {
+            freeBlockHint = firstBlock;
+        }
+    }
+
+    private void addSegment() throws IOException {
+        MappedByteBuffer[] newSegments = Arrays.copyOf(segments, segments.length + 1);
+        newSegments[segments.length] = map(segmentPath(segments.length));
+        this.segments = newSegments;
+        log.info("New reporting segment {} created.", segments.length - 1);
+    }
+
+    private ByteBuffer segment(int block) {
+        return segments[block / BLOCKS_PER_SEGMENT];
+    }
+
+    private static int blockOffset(int block) {
+        return (block % BLOCKS_PER_SEGMENT) * BLOCK_SIZE;
+    }
+
+    private Path segmentPath(int segmentId) {
+        return segmentsFolder.resolve(SEGMENT_FILENAME_PREFIX + segmentId + SEGMENT_FILENAME_EXTENSION);
+    }
+
+    private MappedByteBuffer[] mapSegments() throws IOException {
+        List<MappedByteBuffer> mappedSegments = new ArrayList<>();
+        Path segmentPath = segmentPath(0);
+        while (Files.exists(segmentPath)) {
+            mappedSegments.add(map(segmentPath));
+            segmentPath = segmentPath(mappedSegments.size());
+        }
+        return mappedSegments.toArray(new MappedByteBuffer[0]);
+    }
+
+    private static MappedByteBuffer map(Path segmentPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath, CREATE, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        Path indexPath = segmentsFolder.resolve(INDEX_FILENAME);
+        if (Files.notExists(indexPath)) {
+            return;
+        }
+
+        long totalBlocks = (long) segments.length * BLOCKS_PER_SEGMENT;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            int version = dis.readInt();
+            if (version != INDEX_VERSION) {
+                throw new IOException("Unsupported reporting index version " + version);
+            }
+            int usersCount = dis.readInt();
+            for (int i = 0; i < usersCount; i++) {
+                String userDir = dis.readUTF();
+                int seriesCount = dis.readInt();
+                Map<String, SegmentSeries> userSeries = new ConcurrentHashMap<>();
+                for (int j = 0; j < seriesCount; j++) {
+                    String fileName = dis.readUTF();
+                    int tailCount = dis.readInt();
+                    int[] blocks = new int[dis.readInt()];
+                    for (int k = 0; k < blocks.length; k++) {
+                        int block = dis.readInt();
+                        if (block >= totalBlocks) {
+                            throw new IOException("Reporting index points to missing segment. Block " + block);
+                        }
+                        blocks[k] = block;
+                        usedBlocks.set(block);
+                    }
+                    SegmentSeries series = new SegmentSeries(blocks, tailCount);
+                    recoverTail(series);
+                    userSeries.put(fileName, series);
+                }
+                index.put(userDir, userSeries);
+            }
+        }
+    }
+
+    /**
+     * Entries written after the last index checkpoint are still within the mapped segment.
+     * As blocks are zeroed on allocation, non-zero ts marks written entry.
+     */
+    private void recoverTail(SegmentSeries series) {
+        if (series.blocksCount == 0) {
+            return;
+        }
+        int block = series.lastBlock();
+        ByteBuffer segment = segment(block);
+        int offset = blockOffset(block);
+        while (series.tailCount < ENTRIES_PER_BLOCK
+                && segment.getLong(offset + series.tailCount * SIZE_OF_REPORT_ENTRY + 8) != 0) {
+            series.tailCount++;
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        Path indexPath = segmentsFolder.resolve(INDEX_FILENAME);
+        Path tmpIndexPath = segmentsFolder.resolve(INDEX_FILENAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpIndexPath, CREATE, WRITE, TRUNCATE_EXISTING);
+             DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            dos.writeInt(INDEX_VERSION);
+            //snapshot is taken, as users may be added/removed during the write
+            List<Map.Entry<String, Map<String, SegmentSeries>>> users = new ArrayList<>(index.entrySet());
+            dos.writeInt(users.size());
+            for (Map.Entry<String, Map<String, SegmentSeries>> user : users) {
+                List<Map.Entry<String, SegmentSeries>> userSeries = new ArrayList<>(user.getValue().entrySet());
+                dos.writeUTF(user.getKey());
+                dos.writeInt(userSeries.size());
+                for (Map.Entry<String, SegmentSeries> entry : userSeries) {
+                    SegmentSeries series = entry.getValue();
+                    int tailCount;
+                    int[] blocks;
+                    synchronized (series) {
+                        tailCount = series.tailCount;
+                        blocks = series.copyBlocks();
+                    }
+                    dos.writeUTF(entry.getKey());
+                    dos.writeInt(tailCount);
+                    dos.writeInt(blocks.length);
+                    for (int block : blocks) {
+                        dos.writeInt(block);
+                    }
+                }
+            }
+            dos.flush();
+            channel.force(true);
+        }
+        Files.move(tmpIndexPath, indexPath, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+}
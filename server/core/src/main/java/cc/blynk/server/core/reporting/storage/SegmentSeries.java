@@ -0,0 +1,62 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.util.Arrays;
+
+import static cc.blynk.server.core.reporting.storage.SegmentReportingStorage.ENTRIES_PER_BLOCK;
+
+/**
+ * Per-series index for the segment storage. Holds ids of the blocks owned by the series,
+ * oldest block first. Only the last block may be partially filled.
+ * All access is guarded by the series monitor.
+ */
+final class SegmentSeries {
+
+    private static final int[] EMPTY_BLOCKS = {};
+
+    int[] blocks;
+    int blocksCount;
+    int tailCount;
+    boolean isRemoved;
+
+    SegmentSeries() {
+        this(EMPTY_BLOCKS, 0);
+    }
+
+    SegmentSeries(int[] blocks, int tailCount) {
+        this.blocks = blocks;
+        this.blocksCount = blocks.length;
+        this.tailCount = tailCount;
+    }
+
+    int size() {
+        if (blocksCount == 0) {
+            return 0;
+        }
+        return (blocksCount - 1) * ENTRIES_PER_BLOCK + tailCount;
+    }
+
+    boolean isTailFull() {
+        return blocksCount == 0 || tailCount == ENTRIES_PER_BLOCK;
+    }
+
+    int lastBlock() {
+        return blocks[blocksCount - 1];
+    }
+
+    void addBlock(int block) {
+        if (blocksCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, Math.max(4, blocksCount + (blocksCount >> 1)));
+        }
+        blocks[blocksCount++] = block;
+        tailCount = 0;
+    }
+
+    void removeHead(int count) {
+        System.arraycopy(blocks, count, blocks, 0, blocksCount - count);
+        blocksCount -= count;
+    }
+
+    int[] copyBlocks() {
+        return Arrays.copyOf(blocks, blocksCount);
+    }
+}
@@ -20,8 +20,13 @@ public class GlobalStats {
     //2 last load adders are used as separate counters
     public final LongAdder[] specificCounters;
 
+    public final LongAdder historyCacheHits;
+    public final LongAdder historyCacheMisses;
+
     public GlobalStats() {
         this.totalMessages = new Meter();
+        this.historyCacheHits = new LongAdder();
+        this.historyCacheMisses = new LongAdder();
 
         //yeah, this is a bit ugly code, but as fast as possible =).
         this.specificCounters = new LongAdder[Command.LAST_COMMAND_INDEX];
@@ -51,6 +56,22 @@ public class GlobalStats {
         specificCounters[MQTT_STAT_COUNTER_INDEX].increment();
     }
 
+    public void markHistoryCacheHit() {
+        historyCacheHits.increment();
+    }
+
+    public void markHistoryCacheMiss() {
+        historyCacheMisses.increment();
+    }
+
+    public long getHistoryCacheHits(boolean reset) {
+        return reset ? historyCacheHits.sumThenReset() : historyCacheHits.sum();
+    }
+
+    public long getHistoryCacheMisses(boolean reset) {
+        return reset ? historyCacheMisses.sumThenReset() : historyCacheMisses.sum();
+    }
+
     public long getTotalAppCounter(boolean reset) {
         LongAdder longAdder = specificCounters[APP_STAT_COUNTER_INDEX];
         return reset ? longAdder.sumThenReset() : longAdder.sum();
@@ -0,0 +1,57 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.model.widgets.ui.reporting.ReportPipeline;
+
+class ReportStat {
+
+    private final int inProgress;
+
+    private final int readQueue;
+
+    private final int buildQueue;
+
+    private final int mailQueue;
+
+    //series reads served by the read of the other report
+    private final long sharedReads;
+
+    private final long diskReads;
+
+    private final StageStat read;
+
+    private final StageStat build;
+
+    private final StageStat mail;
+
+    //how late reports are sent comparing to the nextReportAt
+    private final StageStat lag;
+
+    ReportStat(ReportPipeline pipeline, boolean reset) {
+        this.inProgress = pipeline.inProgress();
+        this.readQueue = pipeline.readExecutor.getQueue().size();
+        this.buildQueue = pipeline.buildExecutor.getQueue().size();
+        this.mailQueue = pipeline.mailExecutor.getQueue().size();
+        this.sharedReads = pipeline.getSharedReads(reset);
+        this.diskReads = pipeline.getDiskReads(reset);
+        this.read = new StageStat(pipeline.readMetrics, reset);
+        this.build = new StageStat(pipeline.buildMetrics, reset);
+        this.mail = new StageStat(pipeline.mailMetrics, reset);
+        this.lag = new StageStat(pipeline.lagMetrics, reset);
+    }
+
+    private static class StageStat {
+
+        private final long count;
+
+        private final long avgMs;
+
+        private final long maxMs;
+
+        StageStat(ReportPipeline.StageMetrics metrics, boolean reset) {
+            this.count = metrics.getCount(reset);
+            long total = metrics.getTotalMillis(reset);
+            this.avgMs = count == 0 ? 0 : total / count;
+            this.maxMs = metrics.getMaxMillis(reset);
+        }
+    }
+}
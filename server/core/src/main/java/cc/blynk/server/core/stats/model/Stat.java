@@ -30,6 +30,7 @@ public class Stat {
     public final CommandStat commands = new CommandStat();
     public final HttpStat http = new HttpStat();
     public final BlockingIOStat ioStat;
+    public final ReportStat reportStat;
     public final MemoryStat memoryStat;
 
     public final int oneMinRate;
@@ -42,6 +43,8 @@ public class Stat {
     public final int totalOnlineApps;
     public final int onlineHards;
     public final int totalOnlineHards;
+    public final int historyCacheHits;
+    public final int historyCacheMisses;
     public final transient long ts;
 
     public Stat(SessionDao sessionDao, UserDao userDao, BlockingIOProcessor blockingIOProcessor,
@@ -58,6 +61,8 @@ public class Stat {
 
         this.commands.appTotal = (int) globalStats.getTotalAppCounter(reset);
         this.commands.mqttTotal = (int) globalStats.getTotalMqttCounter(reset);
+        this.historyCacheHits = (int) globalStats.getHistoryCacheHits(reset);
+        this.historyCacheMisses = (int) globalStats.getHistoryCacheMisses(reset);
 
         this.oneMinRate = (int) globalStats.totalMessages.getOneMinuteRate();
         int connectedSessions = 0;
@@ -120,6 +125,7 @@ public class Stat {
         this.registrations = userDao.users.size();
 
         this.ioStat = new BlockingIOStat(blockingIOProcessor, reportScheduler);
+        this.reportStat = new ReportStat(reportScheduler.pipeline, reset);
         this.memoryStat = new MemoryStat(ByteBufAllocator.DEFAULT);
     }
 
@@ -4,6 +4,7 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.server.db.dao.ReportingDBDao;
 import cc.blynk.utils.properties.BaseProperties;
@@ -14,10 +15,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static cc.blynk.utils.properties.DBProperties.DB_PROPERTIES_FILENAME;
 
@@ -29,10 +34,20 @@ import static cc.blynk.utils.properties.DBProperties.DB_PROPERTIES_FILENAME;
 public class ReportingDBManager implements Closeable {
 
     private static final Logger log = LogManager.getLogger(ReportingDBManager.class);
+    private static final int DEFAULT_REPLAY_MAX_ENTRIES = 200_000;
+    private static final long DEFAULT_REPLAY_BUDGET_MILLIS = 30_000;
     private final HikariDataSource ds;
 
     private final BlockingIOProcessor blockingIOProcessor;
-    private final boolean cleanOldReporting;
+    //creates and drops partitions of the aggregated reporting tables, null when DB is disabled
+    public final ReportingRetentionManager retentionManager;
+    //aggregated reporting goes through the spool when it is present
+    public final ReportingSpool spool;
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    //entries replayed by one pass of the replay, budget is checked between the passes
+    private final int replayMaxEntries;
+    //limits the time the DB thread spends on the replay of the big spool, e.g. after the DB downtime
+    private final long replayBudgetMillis;
 
     public ReportingDBDao reportingDBDao;
 
@@ -40,14 +55,31 @@ public class ReportingDBManager implements Closeable {
         this(DB_PROPERTIES_FILENAME, blockingIOProcessor, isEnabled);
     }
 
+    public ReportingDBManager(BlockingIOProcessor blockingIOProcessor, boolean isEnabled, Path spoolFolder) {
+        this(DB_PROPERTIES_FILENAME, blockingIOProcessor, isEnabled, spoolFolder);
+    }
+
     public ReportingDBManager(String propsFilename, BlockingIOProcessor blockingIOProcessor, boolean isEnabled) {
+        this(propsFilename, blockingIOProcessor, isEnabled, null);
+    }
+
+    /**
+     * @param spoolFolder - folder of the reporting spool, null to send aggregated reporting right to the DB
+     */
+    public ReportingDBManager(String propsFilename, BlockingIOProcessor blockingIOProcessor, boolean isEnabled,
+                              Path spoolFolder) {
         this.blockingIOProcessor = blockingIOProcessor;
 
         DBProperties dbProperties = new DBProperties(propsFilename);
+        this.replayMaxEntries = dbProperties.getIntProperty("reporting.spool.replay.max.entries",
+                DEFAULT_REPLAY_MAX_ENTRIES);
+        this.replayBudgetMillis = dbProperties.getLongProperty("reporting.spool.replay.budget.millis",
+                DEFAULT_REPLAY_BUDGET_MILLIS);
         if (!isEnabled || dbProperties.size() == 0) {
             log.info("Separate DB storage disabled.");
             this.ds = null;
-            this.cleanOldReporting = false;
+            this.retentionManager = null;
+            this.spool = null;
             return;
         }
 
@@ -63,17 +95,32 @@ public class ReportingDBManager implements Closeable {
         } catch (Exception e) {
             log.error("Not able connect to reporting DB. Skipping. Reason : {}", e.getMessage());
             this.ds = null;
-            this.cleanOldReporting = false;
+            this.retentionManager = null;
+            this.spool = null;
             return;
         }
 
         this.ds = hikariDataSource;
         this.reportingDBDao = new ReportingDBDao(hikariDataSource);
-        this.cleanOldReporting = dbProperties.cleanReporting();
+        this.retentionManager = new ReportingRetentionManager(hikariDataSource,
+                dbProperties, dbProperties.cleanReporting());
+        this.spool = openSpool(spoolFolder);
 
         log.info("Connected to reporting database successfully.");
     }
 
+    private static ReportingSpool openSpool(Path spoolFolder) {
+        if (spoolFolder == null) {
+            return null;
+        }
+        try {
+            return new ReportingSpool(spoolFolder);
+        } catch (Exception e) {
+            log.error("Error opening reporting spool {}. Reporting is sent right to the DB.", spoolFolder, e);
+            return null;
+        }
+    }
+
     private HikariConfig initConfig(BaseProperties serverProperties) {
         HikariConfig config = new HikariConfig();
         config.setJdbcUrl(serverProperties.getProperty("reporting.jdbc.url"));
@@ -94,21 +141,127 @@ public class ReportingDBManager implements Closeable {
         }
     }
 
+    /**
+     * Appends the entries to the spool, they are stored to the DB by the replay after flushReporting().
+     * Without spool, or when append fails, entries are sent right to the DB queue.
+     */
     public void insertReporting(Map<AggregationKey, AggregationValue> map, GraphGranularityType graphGranularityType) {
         if (isDBEnabled() && map.size() > 0) {
+            if (spool != null) {
+                try {
+                    spool.append(map, graphGranularityType, System.currentTimeMillis());
+                    return;
+                } catch (Exception e) {
+                    log.error("Error appending {} reporting to the spool.", graphGranularityType, e);
+                }
+            }
             blockingIOProcessor.executeDB(() -> reportingDBDao.insert(map, graphGranularityType));
         }
     }
 
-    public void insertReportingRaw(Map<AggregationKey, Object> rawData) {
-        if (isDBEnabled() && rawData.size() > 0) {
-            blockingIOProcessor.executeDB(() -> reportingDBDao.insertRawData(rawData));
+    /**
+     * Syncs entries appended since the last call to the disk, so they survive the crash,
+     * and schedules the replay of the spool to the DB.
+     */
+    public void flushReporting() {
+        if (spool == null || !isDBEnabled()) {
+            return;
+        }
+        try {
+            spool.sync();
+        } catch (Exception e) {
+            log.error("Error syncing reporting spool.", e);
         }
+        replaySpool();
     }
 
-    public void cleanOldReportingRecords(Instant now) {
-        if (isDBEnabled() && cleanOldReporting) {
-            blockingIOProcessor.executeDB(() -> reportingDBDao.cleanOldReportingRecords(now));
+    private void replaySpool() {
+        if (spool.isEmpty() || !replaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            blockingIOProcessor.executeDB(() -> {
+                try {
+                    replaySpool(replayMaxEntries, replayBudgetMillis);
+                } finally {
+                    replaying.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            replaying.set(false);
+            log.warn("DB queue is full, reporting stays in the spool. Pending {} bytes.", spool.getPendingBytes());
+        }
+    }
+
+    /**
+     * Replays the spool by passes of maxEntries, till it is drained, DB fails or the budget is spent.
+     * The rest is replayed by the next flushReporting().
+     */
+    void replaySpool(int maxEntries, long budgetMillis) {
+        long start = System.currentTimeMillis();
+        try {
+            int replayed = 0;
+            int passReplayed;
+            do {
+                passReplayed = spool.replay(this::storeSpooled, maxEntries);
+                replayed += passReplayed;
+            } while (passReplayed >= maxEntries && !spool.isEmpty()
+                    && System.currentTimeMillis() - start < budgetMillis);
+            log.info("Replayed {} reporting entries from spool. Time {}. Pending {} bytes in {} segments, lag {} ms.",
+                    replayed, System.currentTimeMillis() - start, spool.getPendingBytes(),
+                    spool.getSegmentsCount(), spool.getLagMillis(System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.error("Error reading reporting spool.", e);
+        }
+    }
+
+    private void storeSpooled(Map<AggregationKey, AggregationValue> entries,
+                              GraphGranularityType type) throws Exception {
+        try {
+            reportingDBDao.store(entries, type);
+        } catch (SQLException e) {
+            if (!ReportingDBDao.isIntegrityViolation(e)) {
+                throw e;
+            }
+            //some entries are already stored by the interrupted replay or are broken, storing the rest
+            int rejected = reportingDBDao.storeEach(entries, type);
+            spool.rejectedEntries.add(rejected);
+            log.warn("{} of {} spooled {} reporting entries are rejected by DB. Reason : {}",
+                    rejected, entries.size(), type, e.getMessage());
+        }
+    }
+
+    /**
+     * Schedules the drain of the raw data. Only one drain is scheduled at a time, so when DB is
+     * slower than incoming data, raw data buffer is filled and new records are dropped
+     * instead of piling up the drains in the DB queue.
+     */
+    public void insertReportingRaw(RawDataProcessor rawDataProcessor) {
+        if (isDBEnabled() && rawDataProcessor.size() > 0 && rawDataProcessor.tryStartDrain()) {
+            try {
+                blockingIOProcessor.executeDB(() -> {
+                    try {
+                        reportingDBDao.insertRawData(rawDataProcessor);
+                    } finally {
+                        rawDataProcessor.finishDrain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rawDataProcessor.finishDrain();
+                log.warn("DB queue is full, raw data is not stored. Pending records {}.", rawDataProcessor.size());
+            }
+        }
+    }
+
+    /**
+     * Pre-creates partitions of the aggregated reporting tables and removes the expired data.
+     * Called every minute, but does the work only once per ReportingRetentionManager.CHECK_INTERVAL,
+     * starting from the first call. It is not done on start, so DDL never delays or breaks the server start.
+     * Till then rows that miss the partitions go to the default one.
+     */
+    public void maintainReportingTables(Instant now) {
+        if (isDBEnabled() && retentionManager.isDue(now.toEpochMilli())) {
+            blockingIOProcessor.executeDB(() -> retentionManager.maintain(now));
         }
     }
 
@@ -130,6 +283,13 @@ public class ReportingDBManager implements Closeable {
 
     @Override
     public void close() {
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (Exception e) {
+                log.error("Error closing reporting spool.", e);
+            }
+        }
         if (isDBEnabled()) {
             System.out.println("Closing Reporting DB...");
             ds.close();
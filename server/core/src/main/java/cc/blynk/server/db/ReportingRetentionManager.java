@@ -0,0 +1,420 @@
+package cc.blynk.server.db;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import cc.blynk.utils.DateTimeUtils;
+import cc.blynk.utils.properties.BaseProperties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the size of the reporting_average_* tables bounded.
+ *
+ * Tables are cleaned with DELETE ... WHERE ts < ? by default. Partitioning is opt-in : partitioned
+ * tables are split by the ts into the range partitions of the configured interval. Partitions for the
+ * current and few next intervals are created in advance and expired partitions are dropped as a whole,
+ * so there are no mass deletes, no dead tuples and no vacuum of the big tables. Rows that don't fit
+ * any partition go to the DEFAULT one and are moved to the partition of their range once it is created.
+ * When partitions can't be maintained, old data is removed with DELETE, so retention is still applied.
+ *
+ * Existing plain table is converted to the partitioned one by the first maintenance after partitioning
+ * is enabled : the table becomes the partition that holds everything up to the end of the current interval,
+ * so no data is copied and the old data is dropped with that partition once it expires.
+ *
+ * Configured per granularity in db.properties:
+ * reporting.minute.partition=day|month|none (none by default)
+ * reporting.minute.retention.hours=24 (0 - keep forever)
+ * reporting.partitions.ahead=3
+ */
+public final class ReportingRetentionManager {
+
+    private static final Logger log = LogManager.getLogger(ReportingRetentionManager.class);
+
+    static final long CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final int DEFAULT_PARTITIONS_AHEAD = 3;
+    private static final char PARTITIONED_TABLE = 'p';
+    private static final DateTimeFormatter BOUND_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss'+00'");
+
+    private static final String selectTableKind = "SELECT relkind FROM pg_class WHERE oid = to_regclass(?)";
+    private static final String selectPartitions =
+            "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+          + "WHERE i.inhparent = to_regclass(?)";
+
+    private final DataSource ds;
+    private final boolean cleanOldReporting;
+    public final List<Policy> policies;
+    public final int partitionsAhead;
+    private long lastRun;
+
+    public ReportingRetentionManager(DataSource ds, BaseProperties dbProperties, boolean cleanOldReporting) {
+        this(ds, policies(dbProperties),
+                dbProperties.getIntProperty("reporting.partitions.ahead", DEFAULT_PARTITIONS_AHEAD),
+                cleanOldReporting);
+    }
+
+    ReportingRetentionManager(DataSource ds, List<Policy> policies, int partitionsAhead, boolean cleanOldReporting) {
+        this.ds = ds;
+        this.policies = policies;
+        this.partitionsAhead = partitionsAhead;
+        this.cleanOldReporting = cleanOldReporting;
+    }
+
+    static List<Policy> policies(BaseProperties dbProperties) {
+        List<Policy> policies = new ArrayList<>();
+        policies.add(policy(dbProperties, GraphGranularityType.MINUTE,
+                TimeUnit.MINUTES.toMillis(GraphPeriod.DAY.numberOfPoints + 1)));
+        policies.add(policy(dbProperties, GraphGranularityType.HOURLY,
+                TimeUnit.HOURS.toMillis(GraphPeriod.THREE_MONTHS.numberOfPoints + 1)));
+        //daily data is kept forever by default
+        policies.add(policy(dbProperties, GraphGranularityType.DAILY, 0));
+        return policies;
+    }
+
+    private static Policy policy(BaseProperties dbProperties, GraphGranularityType type, long defaultRetention) {
+        String name = type.name().toLowerCase(Locale.ROOT);
+        String interval = dbProperties.getProperty("reporting." + name + ".partition");
+        long retentionHours = dbProperties.getLongProperty("reporting." + name + ".retention.hours", -1);
+        return new Policy("reporting_average_" + name,
+                interval == null || interval.isEmpty()
+                        ? PartitionInterval.NONE
+                        : PartitionInterval.valueOf(interval.toUpperCase(Locale.ROOT)),
+                retentionHours < 0 ? defaultRetention : TimeUnit.HOURS.toMillis(retentionHours));
+    }
+
+    /**
+     * Maintenance is light, but there is no need to do it every minute.
+     * Called from the single reporting worker thread.
+     *
+     * @return - true when the maintenance should be scheduled
+     */
+    public boolean isDue(long now) {
+        if (now - lastRun >= CHECK_INTERVAL) {
+            lastRun = now;
+            return true;
+        }
+        return false;
+    }
+
+    public void maintain(Instant now) {
+        for (Policy policy : policies) {
+            try (Connection connection = ds.getConnection()) {
+                maintain(connection, policy, now);
+            } catch (Exception e) {
+                log.error("Error maintaining reporting table {}.", policy.table, e);
+            }
+        }
+    }
+
+    private void maintain(Connection connection, Policy policy, Instant now) throws SQLException {
+        Character kind = tableKind(connection, policy.table);
+        if (kind == null) {
+            log.warn("Reporting table {} doesn't exist.", policy.table);
+            return;
+        }
+
+        if (policy.isPartitioned()) {
+            try {
+                if (kind != PARTITIONED_TABLE) {
+                    migrate(connection, policy, now);
+                }
+                createPartitions(connection, policy, now);
+                if (cleanOldReporting && policy.retention > 0) {
+                    dropExpiredPartitions(connection, policy, now);
+                }
+                return;
+            } catch (SQLException e) {
+                connection.rollback();
+                log.error("Error maintaining partitions of {}. Old data is removed with DELETE.", policy.table, e);
+            }
+        }
+        if (cleanOldReporting && policy.retention > 0) {
+            deleteExpired(connection, policy, now);
+        }
+    }
+
+    private static Character tableKind(Connection connection, String table) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(selectTableKind)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1).charAt(0) : null;
+            }
+        } finally {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Bound constraint lets ATTACH skip the scan of the whole table. It is validated before the switch,
+     * without blocking the inserts, so the exclusive lock of the switch is held only for a moment.
+     */
+    private static void migrate(Connection connection, Policy policy, Instant now) throws SQLException {
+        long start = System.currentTimeMillis();
+        log.info("Converting {} to the partitioned table...", policy.table);
+        try {
+            execute(connection, policy.addMigrationBoundSQL(now));
+            execute(connection, List.of(policy.validateMigrationBoundSQL()));
+            execute(connection, policy.migrationSQL(now));
+        } catch (SQLException e) {
+            //otherwise new data after the bound would be rejected by the plain table
+            execute(connection, List.of(policy.dropMigrationBoundSQL()));
+            throw e;
+        }
+        log.info("{} is partitioned. Time {} ms.", policy.table, System.currentTimeMillis() - start);
+    }
+
+    private void createPartitions(Connection connection, Policy policy, Instant now) throws SQLException {
+        execute(connection, List.of(policy.createDefaultPartitionSQL()));
+        List<String> existing = partitions(connection, policy);
+        for (ZonedDateTime partitionStart : policy.partitionsToCreate(now, partitionsAhead)) {
+            if (!existing.contains(policy.partitionName(partitionStart))) {
+                //one by one, so the default partition is locked only for a moment
+                execute(connection, policy.createPartitionSQL(partitionStart));
+                log.info("Created reporting partition {}.", policy.partitionName(partitionStart));
+            }
+        }
+    }
+
+    private static List<String> partitions(Connection connection, Policy policy) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(selectPartitions)) {
+            ps.setString(1, policy.table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    partitions.add(rs.getString(1));
+                }
+            }
+        }
+        connection.commit();
+        return partitions;
+    }
+
+    private static void dropExpiredPartitions(Connection connection, Policy policy,
+                                              Instant now) throws SQLException {
+        List<String> expired = new ArrayList<>();
+        for (String partition : partitions(connection, policy)) {
+            if (policy.isExpired(partition, now)) {
+                expired.add(partition);
+            }
+        }
+
+        //one by one, so the exclusive lock of the parent table is held only for a moment
+        for (String partition : expired) {
+            execute(connection, List.of("DROP TABLE IF EXISTS " + partition));
+            log.info("Dropped expired reporting partition {}.", partition);
+        }
+        //default partition holds only the rows that missed the partitions, so it is small
+        deleteExpired(connection, policy.defaultPartitionName(), policy.cutoff(now));
+    }
+
+    private static void deleteExpired(Connection connection, Policy policy, Instant now) throws SQLException {
+        deleteExpired(connection, policy.table, policy.cutoff(now));
+    }
+
+    private static void deleteExpired(Connection connection, String table, Instant cutoff) throws SQLException {
+        long start = System.currentTimeMillis();
+        int removed;
+        try (PreparedStatement ps = connection.prepareStatement(
+                "DELETE FROM " + table + " WHERE ts < ?")) {
+            ps.setTimestamp(1, new Timestamp(cutoff.toEpochMilli()), DateTimeUtils.UTC_CALENDAR);
+            removed = ps.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+        log.info("Removed {} old records from {}. Time {} ms.",
+                removed, table, System.currentTimeMillis() - start);
+    }
+
+    private static void execute(Connection connection, List<String> statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    public enum PartitionInterval {
+
+        NONE(null),
+        DAY(DateTimeFormatter.ofPattern("yyyyMMdd")),
+        MONTH(DateTimeFormatter.ofPattern("yyyyMM"));
+
+        private final DateTimeFormatter suffixFormat;
+
+        PartitionInterval(DateTimeFormatter suffixFormat) {
+            this.suffixFormat = suffixFormat;
+        }
+
+        ZonedDateTime start(Instant ts) {
+            ZonedDateTime day = ts.atZone(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+            return this == MONTH ? day.withDayOfMonth(1) : day;
+        }
+
+        ZonedDateTime next(ZonedDateTime start) {
+            return this == MONTH ? start.plusMonths(1) : start.plusDays(1);
+        }
+
+        String suffix(ZonedDateTime start) {
+            return suffixFormat.format(start);
+        }
+
+        ZonedDateTime parseSuffix(String suffix) {
+            if (this == MONTH) {
+                return YearMonth.parse(suffix, suffixFormat).atDay(1).atStartOfDay(ZoneOffset.UTC);
+            }
+            return LocalDate.parse(suffix, suffixFormat).atStartOfDay(ZoneOffset.UTC);
+        }
+    }
+
+    public static final class Policy {
+
+        public final String table;
+        public final PartitionInterval interval;
+        //millis, 0 - data is never removed
+        public final long retention;
+
+        Policy(String table, PartitionInterval interval, long retention) {
+            this.table = table;
+            this.interval = interval;
+            this.retention = retention;
+        }
+
+        boolean isPartitioned() {
+            return interval != PartitionInterval.NONE;
+        }
+
+        Instant cutoff(Instant now) {
+            return now.minusMillis(retention);
+        }
+
+        String partitionName(ZonedDateTime start) {
+            return table + "_p" + interval.suffix(start);
+        }
+
+        List<ZonedDateTime> partitionsToCreate(Instant now, int ahead) {
+            List<ZonedDateTime> starts = new ArrayList<>(ahead + 1);
+            ZonedDateTime start = interval.start(now);
+            for (int i = 0; i <= ahead; i++) {
+                starts.add(start);
+                start = interval.next(start);
+            }
+            return starts;
+        }
+
+        String defaultPartitionName() {
+            return table + "_default";
+        }
+
+        String createDefaultPartitionSQL() {
+            return "CREATE TABLE IF NOT EXISTS " + defaultPartitionName() + " PARTITION OF " + table + " DEFAULT";
+        }
+
+        /**
+         * Rows of the partition range that went to the default partition are moved to the new partition
+         * before it is attached, otherwise attach fails. Runs in a single transaction.
+         */
+        List<String> createPartitionSQL(ZonedDateTime start) {
+            String partition = partitionName(start);
+            String from = "'" + BOUND_FORMAT.format(start) + "'";
+            String to = "'" + BOUND_FORMAT.format(interval.next(start)) + "'";
+            return List.of(
+                    "CREATE TABLE " + partition + " (LIKE " + table + ")",
+                    "WITH moved AS (DELETE FROM " + defaultPartitionName()
+                            + " WHERE ts >= " + from + " AND ts < " + to + " RETURNING *) "
+                            + "INSERT INTO " + partition + " SELECT * FROM moved",
+                    "ALTER TABLE " + table + " ATTACH PARTITION " + partition
+                            + " FOR VALUES FROM (" + from + ") TO (" + to + ")"
+            );
+        }
+
+        /**
+         * Partition is expired when all its records are older than the retention.
+         * Partitions that are not created by this class are never dropped.
+         */
+        boolean isExpired(String partition, Instant now) {
+            String prefix = table + "_p";
+            if (!partition.startsWith(prefix)) {
+                return false;
+            }
+            ZonedDateTime start;
+            try {
+                start = interval.parseSuffix(partition.substring(prefix.length()));
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+            return !interval.next(start).toInstant().isAfter(cutoff(now));
+        }
+
+        private String migrationBoundName() {
+            return table + "_migration_bound";
+        }
+
+        //added without the scan of the table, so the lock is held only for a moment
+        List<String> addMigrationBoundSQL(Instant now) {
+            return List.of(
+                    dropMigrationBoundSQL(),
+                    "ALTER TABLE " + table + " ADD CONSTRAINT " + migrationBoundName()
+                            + " CHECK (ts < '" + BOUND_FORMAT.format(interval.next(interval.start(now)))
+                            + "') NOT VALID"
+            );
+        }
+
+        //scans the table, but doesn't block the inserts
+        String validateMigrationBoundSQL() {
+            return "ALTER TABLE " + table + " VALIDATE CONSTRAINT " + migrationBoundName();
+        }
+
+        String dropMigrationBoundSQL() {
+            return "ALTER TABLE " + table + " DROP CONSTRAINT IF EXISTS " + migrationBoundName();
+        }
+
+        /**
+         * Existing table is renamed to the partition of the current interval and is attached
+         * with the lower bound open, so it keeps all the existing data. Attach doesn't scan the table,
+         * as the validated bound constraint already proves the rows fit the partition.
+         * Runs in a single transaction.
+         */
+        List<String> migrationSQL(Instant now) {
+            ZonedDateTime start = interval.start(now);
+            String legacy = partitionName(start);
+            return List.of(
+                    "ALTER TABLE " + table + " RENAME TO " + legacy,
+                    "ALTER INDEX IF EXISTS " + table + "_pkey RENAME TO " + legacy + "_pkey",
+                    "CREATE TABLE " + table + " (LIKE " + legacy + " INCLUDING ALL) PARTITION BY RANGE (ts)",
+                    //bound is copied by the LIKE, but is needed only by the legacy partition
+                    "ALTER TABLE " + table + " DROP CONSTRAINT " + migrationBoundName(),
+                    "ALTER TABLE " + table + " ATTACH PARTITION " + legacy
+                            + " FOR VALUES FROM (MINVALUE) TO ('" + BOUND_FORMAT.format(interval.next(start)) + "')",
+                    "ALTER TABLE " + legacy + " DROP CONSTRAINT " + migrationBoundName(),
+                    createDefaultPartitionSQL()
+            );
+        }
+    }
+
+}
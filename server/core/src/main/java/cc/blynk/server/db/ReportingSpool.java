@@ -0,0 +1,427 @@
+package cc.blynk.server.db;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append only local log of the aggregated reporting entries that should be stored in the reporting DB.
+ * Reporting worker appends every flushed minute/hour/day to the spool first, so entries are not lost
+ * when DB is down or the DB queue is full and are not held in memory meanwhile. Spool is replayed
+ * to the DB by the single DB thread, entries are removed from the spool only when DB accepted them.
+ *
+ * Spool is the sequence of the segment files, new segment is started on every start and when current
+ * one exceeds the max size. Fully replayed segments are deleted. Every record is the entries of the single
+ * flush of one granularity : [payload length][crc32 of payload][payload]. Replay position is persisted
+ * to the offset file after every replayed record. Appends are synced to the disk with sync(), once per flush.
+ */
+public final class ReportingSpool implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(ReportingSpool.class);
+
+    public static final String DEFAULT_FOLDER = "reporting_spool";
+    static final String SEGMENT_PREFIX = "spool-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String OFFSET_FILENAME = "spool.offset";
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 8;
+    //email length, dashId, deviceId, pin, pinType, ts, value
+    private static final int ENTRY_FIXED_SIZE = 2 + 4 + 4 + 2 + 1 + 8 + 8;
+    private static final int MAX_CACHED_EMAILS = 10_000;
+    private static final GraphGranularityType[] TYPES = GraphGranularityType.values();
+    private static final PinType[] PIN_TYPES = PinType.values();
+
+    private final Path dir;
+    private final long maxSegmentSize;
+    private final ConcurrentSkipListSet<Long> segments = new ConcurrentSkipListSet<>();
+
+    //appends are done by the reporting worker
+    private final IdentityHashMap<String, byte[]> emails = new IdentityHashMap<>();
+    private ByteBuffer writeBuf = ByteBuffer.allocate(64 * 1024);
+    private final CRC32 writeCrc = new CRC32();
+    private FileChannel writeChannel;
+    private volatile long writeSegment;
+    private volatile long writeSize;
+
+    //reads are done by the single replay
+    private final FileChannel offsetChannel;
+    private final ByteBuffer offsetBuf = ByteBuffer.allocate(16);
+    private final CRC32 readCrc = new CRC32();
+    private ByteBuffer readBuf = ByteBuffer.allocate(64 * 1024);
+    private FileChannel readChannel;
+    private long readSegment;
+    private long readOffset;
+    //read, but not replayed yet
+    private Record nextRecord;
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private volatile long oldestPendingTs;
+    public final LongAdder appendedEntries = new LongAdder();
+    public final LongAdder replayedEntries = new LongAdder();
+    //entries rejected by the DB, e.g. already stored before the crash
+    public final LongAdder rejectedEntries = new LongAdder();
+    public final LongAdder failedReplays = new LongAdder();
+
+    public ReportingSpool(Path dir) throws IOException {
+        this(dir, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    ReportingSpool(Path dir, long maxSegmentSize) throws IOException {
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+        Files.createDirectories(dir);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+
+        this.offsetChannel = FileChannel.open(dir.resolve(OFFSET_FILENAME), CREATE, READ, WRITE);
+        if (offsetChannel.read(offsetBuf, 0) == offsetBuf.capacity()) {
+            this.readSegment = offsetBuf.getLong(0);
+            this.readOffset = offsetBuf.getLong(8);
+        }
+        if (!segments.contains(readSegment)) {
+            this.readSegment = segments.isEmpty() ? 0 : segments.first();
+            this.readOffset = 0;
+        }
+        for (Long segment : segments.headSet(readSegment)) {
+            deleteSegment(segment);
+        }
+
+        long pending = -readOffset;
+        for (Long segment : segments) {
+            pending += Files.size(segmentPath(segment));
+        }
+        pendingBytes.set(Math.max(0, pending));
+
+        openWriteSegment(segments.isEmpty() ? readSegment : segments.last() + 1);
+        if (pendingBytes.get() > 0) {
+            log.info("Reporting spool has {} bytes in {} segments to replay.", pendingBytes.get(), segments.size());
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return dir.resolve(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    private void openWriteSegment(long segment) throws IOException {
+        this.writeChannel = FileChannel.open(segmentPath(segment), CREATE, WRITE);
+        this.writeSize = writeChannel.size();
+        segments.add(segment);
+        this.writeSegment = segment;
+    }
+
+    /**
+     * Appends the entries to the spool, entries are durable only after sync().
+     */
+    public synchronized void append(Map<AggregationKey, AggregationValue> map,
+                                    GraphGranularityType type, long now) throws IOException {
+        if (map.isEmpty()) {
+            return;
+        }
+        if (emails.size() > MAX_CACHED_EMAILS) {
+            emails.clear();
+        }
+        ByteBuffer buf = writeBuf;
+        ((Buffer) buf).clear();
+        ((Buffer) buf).position(RECORD_HEADER_SIZE);
+        buf.putLong(now)
+           .put((byte) type.ordinal())
+           .putInt(map.size());
+        for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
+            AggregationKey key = entry.getKey();
+            byte[] email = email(key.getEmail());
+            buf = ensureWriteCapacity(ENTRY_FIXED_SIZE + email.length);
+            buf.putShort((short) email.length).put(email)
+               .putInt(key.getDashId())
+               .putInt(key.getDeviceId())
+               .putShort(key.getPin())
+               .put((byte) key.getPinType().ordinal())
+               .putLong(key.ts)
+               .putDouble(entry.getValue().calcAverage());
+        }
+        int payloadLength = buf.position() - RECORD_HEADER_SIZE;
+        writeCrc.reset();
+        writeCrc.update(buf.array(), RECORD_HEADER_SIZE, payloadLength);
+        buf.putInt(0, payloadLength)
+           .putInt(4, (int) writeCrc.getValue());
+        ((Buffer) buf).flip();
+
+        if (writeSize >= maxSegmentSize) {
+            writeChannel.force(false);
+            writeChannel.close();
+            openWriteSegment(writeSegment + 1);
+        }
+        long position = writeSize;
+        while (buf.hasRemaining()) {
+            position += writeChannel.write(buf, position);
+        }
+
+        if (pendingBytes.getAndAdd(position - writeSize) == 0) {
+            oldestPendingTs = now;
+        }
+        writeSize = position;
+        appendedEntries.add(map.size());
+    }
+
+    private ByteBuffer ensureWriteCapacity(int size) {
+        if (writeBuf.remaining() < size) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(writeBuf.capacity() * 2, writeBuf.position() + size));
+            ((Buffer) writeBuf).flip();
+            bigger.put(writeBuf);
+            writeBuf = bigger;
+        }
+        return writeBuf;
+    }
+
+    private byte[] email(String email) {
+        byte[] bytes = emails.get(email);
+        if (bytes == null) {
+            bytes = email.getBytes(StandardCharsets.UTF_8);
+            emails.put(email, bytes);
+        }
+        return bytes;
+    }
+
+    public synchronized void sync() throws IOException {
+        writeChannel.force(false);
+    }
+
+    /**
+     * Replays spooled records in the order of appends, till the sink fails or maxEntries are replayed.
+     * Record is removed from the spool only after the sink accepted it, so failed record
+     * is replayed again by the next call.
+     *
+     * @return - number of the replayed entries
+     */
+    public int replay(Sink sink, int maxEntries) throws IOException {
+        int replayed = 0;
+        while (true) {
+            //next record is read even when limit is reached, so lag is up to date
+            Record record = next();
+            if (record == null || replayed >= maxEntries) {
+                break;
+            }
+            try {
+                sink.store(record.entries, record.type);
+            } catch (Exception e) {
+                failedReplays.increment();
+                log.error("Error replaying reporting spool. {} bytes are waiting for the next replay. Reason : {}",
+                        pendingBytes.get(), e.getMessage());
+                return replayed;
+            }
+            commit(record);
+            replayed += record.entries.size();
+        }
+        return replayed;
+    }
+
+    private Record next() throws IOException {
+        if (nextRecord != null) {
+            return nextRecord;
+        }
+        while (true) {
+            long lastSegment = writeSegment;
+            long limit = readSegment == lastSegment ? writeSize : Long.MAX_VALUE;
+            if (readChannel == null) {
+                if (!segments.contains(readSegment)) {
+                    if (readSegment == lastSegment) {
+                        return null;
+                    }
+                    Long nextSegment = segments.higher(readSegment);
+                    readSegment = nextSegment == null ? lastSegment : nextSegment;
+                    readOffset = 0;
+                    continue;
+                }
+                readChannel = FileChannel.open(segmentPath(readSegment), READ);
+            }
+            limit = Math.min(limit, readChannel.size());
+
+            Record record = readRecord(limit);
+            if (record != null) {
+                oldestPendingTs = record.writtenAt;
+                nextRecord = record;
+                return record;
+            }
+            if (readSegment == lastSegment) {
+                return null;
+            }
+            //segment is fully replayed or the rest of it is broken by the crash, moving to the next one
+            if (readOffset < limit) {
+                log.warn("Skipping broken tail of {} bytes of the reporting spool segment {}.",
+                        limit - readOffset, readSegment);
+                pendingBytes.addAndGet(readOffset - limit);
+            }
+            readChannel.close();
+            readChannel = null;
+            deleteSegment(readSegment);
+            Long nextSegment = segments.higher(readSegment);
+            readSegment = nextSegment == null ? lastSegment : nextSegment;
+            readOffset = 0;
+            saveOffset();
+        }
+    }
+
+    private Record readRecord(long limit) throws IOException {
+        if (readOffset + RECORD_HEADER_SIZE > limit) {
+            return null;
+        }
+        ByteBuffer header = readFully(readOffset, RECORD_HEADER_SIZE);
+        int payloadLength = header.getInt(0);
+        int crc = header.getInt(4);
+        if (payloadLength <= 0 || readOffset + RECORD_HEADER_SIZE + payloadLength > limit) {
+            return null;
+        }
+        ByteBuffer payload = readFully(readOffset + RECORD_HEADER_SIZE, payloadLength);
+        readCrc.reset();
+        readCrc.update(payload.array(), 0, payloadLength);
+        if ((int) readCrc.getValue() != crc) {
+            return null;
+        }
+
+        long writtenAt = payload.getLong();
+        GraphGranularityType type = TYPES[payload.get()];
+        int count = payload.getInt();
+        Map<AggregationKey, AggregationValue> entries = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            byte[] email = new byte[payload.getShort()];
+            payload.get(email);
+            int dashId = payload.getInt();
+            int deviceId = payload.getInt();
+            short pin = payload.getShort();
+            PinType pinType = PIN_TYPES[payload.get()];
+            long ts = payload.getLong();
+            AggregationValue value = new AggregationValue();
+            value.update(payload.getDouble());
+            BaseReportingKey key = new BaseReportingKey(new String(email, StandardCharsets.UTF_8), null,
+                    dashId, deviceId, pinType, pin);
+            entries.put(new AggregationKey(key, ts), value);
+        }
+        return new Record(type, entries, writtenAt, RECORD_HEADER_SIZE + payloadLength);
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        if (readBuf.capacity() < length) {
+            readBuf = ByteBuffer.allocate(length);
+        }
+        ByteBuffer buf = readBuf;
+        ((Buffer) buf).clear();
+        ((Buffer) buf).limit(length);
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int read = readChannel.read(buf, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the reporting spool segment " + readSegment);
+            }
+            pos += read;
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+    private void commit(Record record) throws IOException {
+        nextRecord = null;
+        readOffset += record.size;
+        if (pendingBytes.addAndGet(-record.size) == 0) {
+            oldestPendingTs = 0;
+        }
+        replayedEntries.add(record.entries.size());
+        saveOffset();
+    }
+
+    private void saveOffset() throws IOException {
+        ((Buffer) offsetBuf).clear();
+        offsetBuf.putLong(readSegment).putLong(readOffset);
+        ((Buffer) offsetBuf).flip();
+        offsetChannel.write(offsetBuf, 0);
+        offsetChannel.force(false);
+    }
+
+    private void deleteSegment(long segment) throws IOException {
+        segments.remove(segment);
+        Files.deleteIfExists(segmentPath(segment));
+    }
+
+    public boolean isEmpty() {
+        return pendingBytes.get() == 0;
+    }
+
+    /**
+     * @return - size of the records that are not replayed yet
+     */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public int getSegmentsCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return - time since the oldest not replayed record was appended, 0 if nothing to replay
+     */
+    public long getLagMillis(long now) {
+        long oldest = oldestPendingTs;
+        return oldest == 0 || isEmpty() ? 0 : Math.max(0, now - oldest);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writeChannel.force(false);
+        writeChannel.close();
+        if (readChannel != null) {
+            readChannel.close();
+        }
+        offsetChannel.close();
+    }
+
+    public interface Sink {
+        void store(Map<AggregationKey, AggregationValue> entries, GraphGranularityType type) throws Exception;
+    }
+
+    private static final class Record {
+
+        private final GraphGranularityType type;
+        private final Map<AggregationKey, AggregationValue> entries;
+        private final long writtenAt;
+        private final int size;
+
+        Record(GraphGranularityType type, Map<AggregationKey, AggregationValue> entries,
+               long writtenAt, int size) {
+            this.type = type;
+            this.entries = entries;
+            this.writtenAt = writtenAt;
+            this.size = size;
+        }
+    }
+
+}
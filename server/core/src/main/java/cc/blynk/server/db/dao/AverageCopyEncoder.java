@@ -0,0 +1,71 @@
+package cc.blynk.server.db.dao;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Encodes aggregated reporting entries into the PostgreSQL binary COPY format
+ * of the reporting_average_minute/hourly/daily tables.
+ *
+ * Keys of the same series share the email instance (see SeriesRegistry), so encoded email
+ * is cached by the reference and is not encoded again on every flush.
+ * Instance is reused between the flushes, but is not thread safe.
+ */
+public final class AverageCopyEncoder {
+
+    private static final int FIELDS_COUNT = 7;
+    private static final int MAX_CACHED_EMAILS = 10_000;
+
+    private final BinaryCopyWriter writer;
+    private final IdentityHashMap<String, byte[]> emails = new IdentityHashMap<>();
+
+    public AverageCopyEncoder() {
+        this(BinaryCopyWriter.DEFAULT_BUFFER_SIZE);
+    }
+
+    AverageCopyEncoder(int bufferSize) {
+        this.writer = new BinaryCopyWriter(bufferSize);
+    }
+
+    /**
+     * Writes the whole COPY stream of the entries.
+     *
+     * @return - number of the rows written
+     */
+    public int encode(OutputStream out, Map<AggregationKey, AggregationValue> map,
+                      GraphGranularityType type) throws IOException {
+        if (emails.size() > MAX_CACHED_EMAILS) {
+            emails.clear();
+        }
+        writer.begin(out);
+        for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
+            AggregationKey key = entry.getKey();
+            writer.startRow(FIELDS_COUNT);
+            writer.text(email(key.getEmail()));
+            writer.int4(key.getDashId());
+            writer.int8(key.getDeviceId());
+            writer.int2(key.getPin());
+            writer.int2((short) key.getPinType().ordinal());
+            writer.timestamp(key.getTs(type));
+            writer.float8(entry.getValue().calcAverage());
+        }
+        return writer.finish();
+    }
+
+    private byte[] email(String email) {
+        byte[] bytes = emails.get(email);
+        if (bytes == null) {
+            bytes = email.getBytes(StandardCharsets.UTF_8);
+            emails.put(email, bytes);
+        }
+        return bytes;
+    }
+
+}
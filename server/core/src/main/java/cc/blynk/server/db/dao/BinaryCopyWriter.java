@@ -0,0 +1,131 @@
+package cc.blynk.server.db.dao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes rows in the PostgreSQL binary COPY format (COPY ... FROM STDIN (FORMAT BINARY)).
+ * Fields are put right into the fixed buffer that is written to the stream when it is full,
+ * so there are no intermediate row objects, statements or timestamps.
+ * Instance is reused between the COPY operations, but is not thread safe.
+ */
+public final class BinaryCopyWriter {
+
+    static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final int NULL_LENGTH = -1;
+    //postgres timestamps are microseconds since 2000-01-01
+    private static final long POSTGRES_EPOCH_MILLIS = 946_684_800_000L;
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer buf;
+    private OutputStream out;
+    private int rows;
+
+    public BinaryCopyWriter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    BinaryCopyWriter(int bufferSize) {
+        this.buf = ByteBuffer.allocate(bufferSize);
+    }
+
+    public static long toPostgresTimestamp(long tsMillis) {
+        return (tsMillis - POSTGRES_EPOCH_MILLIS) * 1000;
+    }
+
+    /**
+     * Starts the new COPY stream, writes the header.
+     */
+    public void begin(OutputStream out) {
+        this.out = out;
+        this.rows = 0;
+        ((Buffer) buf).clear();
+        buf.put(SIGNATURE)
+           .putInt(0)  //flags
+           .putInt(0); //header extension length
+    }
+
+    public void startRow(int fieldsCount) throws IOException {
+        ensureCapacity(2);
+        buf.putShort((short) fieldsCount);
+        rows++;
+    }
+
+    public void int2(short value) throws IOException {
+        ensureCapacity(4 + 2);
+        buf.putInt(2).putShort(value);
+    }
+
+    public void int4(int value) throws IOException {
+        ensureCapacity(4 + 4);
+        buf.putInt(4).putInt(value);
+    }
+
+    public void int8(long value) throws IOException {
+        ensureCapacity(4 + 8);
+        buf.putInt(8).putLong(value);
+    }
+
+    public void float8(double value) throws IOException {
+        ensureCapacity(4 + 8);
+        buf.putInt(8).putDouble(value);
+    }
+
+    /**
+     * Value for the timestamp and timestamp with time zone columns, in UTC.
+     */
+    public void timestamp(long tsMillis) throws IOException {
+        int8(toPostgresTimestamp(tsMillis));
+    }
+
+    /**
+     * Value for the text and char columns, already encoded in UTF-8.
+     */
+    public void text(byte[] bytes) throws IOException {
+        ensureCapacity(4);
+        buf.putInt(bytes.length);
+        if (bytes.length <= buf.remaining()) {
+            buf.put(bytes);
+            return;
+        }
+        flush();
+        //text values are limited only by the message size, so they may not fit the buffer
+        if (bytes.length <= buf.remaining()) {
+            buf.put(bytes);
+        } else {
+            out.write(bytes);
+        }
+    }
+
+    public void nullField() throws IOException {
+        ensureCapacity(4);
+        buf.putInt(NULL_LENGTH);
+    }
+
+    /**
+     * Writes the trailer and all buffered rows to the stream.
+     *
+     * @return - number of the rows written since begin()
+     */
+    public int finish() throws IOException {
+        ensureCapacity(2);
+        buf.putShort((short) -1);
+        flush();
+        this.out = null;
+        return rows;
+    }
+
+    private void ensureCapacity(int size) throws IOException {
+        if (buf.remaining() < size) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        out.write(buf.array(), 0, buf.position());
+        ((Buffer) buf).clear();
+    }
+
+}
@@ -0,0 +1,88 @@
+package cc.blynk.server.db.dao;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.utils.NumberUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes raw data records drained from RawDataProcessor right into the PostgreSQL
+ * binary COPY format of the reporting_raw_data table, without intermediate row objects.
+ *
+ * Email bytes are cached per series id, so only the string values are encoded per row.
+ * Instance is reused between the drains, but is not thread safe.
+ */
+public final class RawDataCopyEncoder implements RawDataProcessor.RawDataConsumer {
+
+    private static final int FIELDS_COUNT = 8;
+
+    private static final byte[][] PIN_TYPES = new byte[PinType.values().length][];
+
+    static {
+        for (PinType pinType : PinType.values()) {
+            PIN_TYPES[pinType.ordinal()] = pinType.pinTypeString.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final BinaryCopyWriter writer;
+    private String[] emails = new String[1024];
+    private byte[][] emailBytes = new byte[1024][];
+
+    public RawDataCopyEncoder() {
+        this(BinaryCopyWriter.DEFAULT_BUFFER_SIZE);
+    }
+
+    RawDataCopyEncoder(int bufferSize) {
+        this.writer = new BinaryCopyWriter(bufferSize);
+    }
+
+    public void begin(OutputStream out) {
+        writer.begin(out);
+    }
+
+    @Override
+    public void accept(BaseReportingKey key, int seriesId, long ts, String stringValue,
+                       double doubleValue) throws IOException {
+        writer.startRow(FIELDS_COUNT);
+        writer.text(email(key, seriesId));
+        writer.int4(key.dashId);
+        writer.int4(key.deviceId);
+        writer.int2(key.pin);
+        writer.text(PIN_TYPES[key.pinType.ordinal()]);
+        writer.timestamp(ts);
+        if (doubleValue == NumberUtil.NO_RESULT && stringValue != null) {
+            writer.text(stringValue.getBytes(StandardCharsets.UTF_8));
+            writer.nullField();
+        } else {
+            writer.nullField();
+            writer.float8(doubleValue);
+        }
+    }
+
+    /**
+     * @return - number of the rows written since begin()
+     */
+    public int finish() throws IOException {
+        return writer.finish();
+    }
+
+    private byte[] email(BaseReportingKey key, int seriesId) {
+        if (seriesId >= emails.length) {
+            int newLength = Math.max(seriesId + 1, emails.length * 2);
+            emails = Arrays.copyOf(emails, newLength);
+            emailBytes = Arrays.copyOf(emailBytes, newLength);
+        }
+        //keys of the series are never changed, so reference check is enough
+        if (emails[seriesId] != key.email) {
+            emails[seriesId] = key.email;
+            emailBytes[seriesId] = key.email.getBytes(StandardCharsets.UTF_8);
+        }
+        return emailBytes[seriesId];
+    }
+
+}
@@ -6,6 +6,7 @@ import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
 import cc.blynk.server.core.stats.model.CommandStat;
 import cc.blynk.server.core.stats.model.HttpStat;
 import cc.blynk.server.core.stats.model.Stat;
@@ -13,15 +14,19 @@ import cc.blynk.utils.DateTimeUtils;
 import com.zaxxer.hikari.HikariDataSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -45,6 +50,20 @@ public class ReportingDBDao {
             "INSERT INTO reporting_raw_data (email, project_id, device_id, pin, pinType, ts, "
                     + "stringValue, doubleValue) "
                     + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String copyMinute =
+            "COPY reporting_average_minute (email, project_id, device_id, pin, pin_type, ts, value) "
+                    + "FROM STDIN (FORMAT BINARY)";
+    private static final String copyHourly =
+            "COPY reporting_average_hourly (email, project_id, device_id, pin, pin_type, ts, value) "
+                    + "FROM STDIN (FORMAT BINARY)";
+    private static final String copyDaily =
+            "COPY reporting_average_daily (email, project_id, device_id, pin, pin_type, ts, value) "
+                    + "FROM STDIN (FORMAT BINARY)";
+
+    private static final String copyRawData =
+            "COPY reporting_raw_data (email, project_id, device_id, pin, pinType, ts, "
+                    + "stringValue, doubleValue) "
+                    + "FROM STDIN (FORMAT BINARY)";
 
     public static final String selectMinute =
             "SELECT ts, value FROM reporting_average_minute WHERE ts > ? ORDER BY ts DESC limit ?";
@@ -53,6 +72,9 @@ public class ReportingDBDao {
     public static final String selectDaily =
             "SELECT ts, value FROM reporting_average_daily WHERE ts > ? ORDER BY ts DESC limit ?";
 
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+    private static final String skipStored = " ON CONFLICT DO NOTHING";
+
     private static final String deleteMinute = "DELETE FROM reporting_average_minute WHERE ts < ?";
     private static final String deleteHour = "DELETE FROM reporting_average_hourly WHERE ts < ?";
     public static final String deleteDaily = "DELETE FROM reporting_average_daily WHERE ts < ?";
@@ -85,6 +107,12 @@ public class ReportingDBDao {
     private static final Logger log = LogManager.getLogger(ReportingDBDao.class);
 
     private final HikariDataSource ds;
+    //minute, hourly and daily entries are stored concurrently by the DB threads
+    private static final ThreadLocal<AverageCopyEncoder> averageEncoders =
+            ThreadLocal.withInitial(AverageCopyEncoder::new);
+
+    //raw data drains are never concurrent, see RawDataProcessor.tryStartDrain()
+    private final RawDataCopyEncoder rawDataEncoder = new RawDataCopyEncoder();
 
     public ReportingDBDao(HikariDataSource ds) {
         this.ds = ds;
@@ -121,6 +149,17 @@ public class ReportingDBDao {
         ps.setDouble(7, value);
     }
 
+    private static String getCopyByGraphType(GraphGranularityType graphGranularityType) {
+        switch (graphGranularityType) {
+            case MINUTE :
+                return copyMinute;
+            case HOURLY :
+                return copyHourly;
+            default :
+                return copyDaily;
+        }
+    }
+
     private static String getTableByGraphType(GraphGranularityType graphGranularityType) {
         switch (graphGranularityType) {
             case MINUTE :
@@ -132,49 +171,87 @@ public class ReportingDBDao {
         }
     }
 
-    public void insertRawData(Map<AggregationKey, Object> rawData) {
+    /**
+     * Drains collected raw data to the DB. PostgreSQL connection receives the rows with binary COPY
+     * encoded right from the raw data buffer, other connections fall back to the batch insert.
+     * Drained records are not returned back to the buffer in case of error, they are counted as failed.
+     */
+    public void insertRawData(RawDataProcessor rawDataProcessor) {
         long start = System.currentTimeMillis();
 
         log.info("Storing raw reporting...");
+        long drainedBefore = rawDataProcessor.drained.sum();
         int counter = 0;
 
-        try (Connection connection = ds.getConnection();
-             PreparedStatement ps = connection.prepareStatement(insertRawData)) {
+        try (Connection connection = ds.getConnection()) {
+            try {
+                if (connection.isWrapperFor(PGConnection.class)) {
+                    counter = copyRawData(connection.unwrap(PGConnection.class), rawDataProcessor);
+                } else {
+                    counter = batchInsertRawData(connection, rawDataProcessor);
+                }
+                connection.commit();
+            } catch (Exception e) {
+                //pool doesn't see the failed COPY, so transaction has to be closed before the connection is reused
+                connection.rollback();
+                throw e;
+            }
+            rawDataProcessor.stored.add(counter);
+        } catch (Exception e) {
+            rawDataProcessor.failed.add(rawDataProcessor.drained.sum() - drainedBefore);
+            counter = 0;
+            log.error("Error inserting raw reporting data in DB.", e);
+        }
 
-            for (Iterator<Map.Entry<AggregationKey, Object>> iter = rawData.entrySet().iterator(); iter.hasNext();) {
-                Map.Entry<AggregationKey, Object> entry = iter.next();
+        log.info("Storing raw reporting finished. Time {}. Records saved {}, pending {}, dropped {}, failed {}.",
+                System.currentTimeMillis() - start, counter, rawDataProcessor.size(),
+                rawDataProcessor.dropped.sum(), rawDataProcessor.failed.sum());
+    }
 
-                final AggregationKey key = entry.getKey();
-                final Object value = entry.getValue();
+    private int copyRawData(PGConnection connection, RawDataProcessor rawDataProcessor) throws Exception {
+        return copy(connection, copyRawData, out -> {
+            rawDataEncoder.begin(out);
+            rawDataProcessor.drain(rawDataEncoder);
+            return rawDataEncoder.finish();
+        });
+    }
 
-                ps.setString(1, key.getEmail());
-                ps.setInt(2, key.getDashId());
-                ps.setInt(3, key.getDeviceId());
-                ps.setShort(4, key.getPin());
-                ps.setString(5, key.getPinType().pinTypeString);
-                ps.setTimestamp(6, new Timestamp(key.ts), DateTimeUtils.UTC_CALENDAR);
+    private static int copy(PGConnection connection, String copySQL, CopyBody body) throws Exception {
+        CopyIn copyIn = connection.getCopyAPI().copyIn(copySQL);
+        try {
+            int rows = body.write(new CopyInStream(copyIn));
+            copyIn.endCopy();
+            return rows;
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
 
-                if (value instanceof String) {
-                    ps.setString(7, (String) value);
+    private static int batchInsertRawData(Connection connection,
+                                          RawDataProcessor rawDataProcessor) throws Exception {
+        try (PreparedStatement ps = connection.prepareStatement(insertRawData)) {
+            int rows = rawDataProcessor.drain((key, seriesId, ts, stringValue, doubleValue) -> {
+                ps.setString(1, key.email);
+                ps.setInt(2, key.dashId);
+                ps.setInt(3, key.deviceId);
+                ps.setShort(4, key.pin);
+                ps.setString(5, key.pinType.pinTypeString);
+                ps.setTimestamp(6, new Timestamp(ts), DateTimeUtils.UTC_CALENDAR);
+
+                if (stringValue != null) {
+                    ps.setString(7, stringValue);
                     ps.setNull(8, Types.DOUBLE);
                 } else {
                     ps.setNull(7, Types.VARCHAR);
-                    ps.setDouble(8, (Double) value);
+                    ps.setDouble(8, doubleValue);
                 }
-
                 ps.addBatch();
-                counter++;
-                iter.remove();
-            }
-
+            });
             ps.executeBatch();
-            connection.commit();
-        } catch (Exception e) {
-            log.error("Error inserting raw reporting data in DB.", e);
+            return rows;
         }
-
-        log.info("Storing raw reporting finished. Time {}. Records saved {}",
-                System.currentTimeMillis() - start, counter);
     }
 
     public void insertStat(String region, Stat stat) {
@@ -277,29 +354,133 @@ public class ReportingDBDao {
         }
     }
 
+    /**
+     * PostgreSQL connection receives the entries with binary COPY, other connections
+     * fall back to the batch insert.
+     */
     public void insert(Map<AggregationKey, AggregationValue> map, GraphGranularityType graphGranularityType) {
         long start = System.currentTimeMillis();
 
         log.info("Storing {} reporting...", graphGranularityType.name());
 
-        String insertSQL = getTableByGraphType(graphGranularityType);
+        int counter = 0;
+        try {
+            counter = store(map, graphGranularityType);
+        } catch (Exception e) {
+            log.error("Error inserting reporting data in DB.", e);
+        }
 
-        try (Connection connection = ds.getConnection();
-             PreparedStatement ps = connection.prepareStatement(insertSQL)) {
+        log.info("Storing {} reporting finished. Time {}. Records saved {}",
+                graphGranularityType.name(), System.currentTimeMillis() - start, counter);
+    }
+
+    /**
+     * Same as insert(), but throws in case entries are not stored.
+     *
+     * @return - number of the stored entries
+     */
+    public int store(Map<AggregationKey, AggregationValue> map, GraphGranularityType type) throws Exception {
+        try (Connection connection = ds.getConnection()) {
+            try {
+                int counter;
+                if (connection.isWrapperFor(PGConnection.class)) {
+                    counter = copyAverages(connection.unwrap(PGConnection.class), map, type);
+                } else {
+                    counter = batchInsertAverages(connection, map, type);
+                }
+                connection.commit();
+                return counter;
+            } catch (Exception e) {
+                //pool doesn't see the failed COPY, so transaction has to be closed before the connection is reused
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stores the entries that don't violate the constraints, when store() failed for the whole map
+     * because some entries are already stored (e.g. replay was interrupted before the commit was
+     * recorded) or are broken. Duplicates are skipped within the single batch, the rest of the
+     * violations are isolated by storing entries one by one, so it is slow and is used only in this case.
+     *
+     * @return - number of the rejected entries
+     */
+    public int storeEach(Map<AggregationKey, AggregationValue> map, GraphGranularityType type) throws SQLException {
+        try (Connection connection = ds.getConnection()) {
+            if (connection.isWrapperFor(PGConnection.class)) {
+                try {
+                    int rejected = batchInsertAverages(connection, map, type, getTableByGraphType(type) + skipStored);
+                    connection.commit();
+                    return rejected;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    if (!isIntegrityViolation(e)) {
+                        throw e;
+                    }
+                }
+            }
 
+            int rejected = 0;
+            try (PreparedStatement ps = connection.prepareStatement(getTableByGraphType(type))) {
+                for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
+                    prepareReportingInsert(ps, entry, type);
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        ps.executeUpdate();
+                        connection.releaseSavepoint(savepoint);
+                    } catch (SQLException e) {
+                        if (!isIntegrityViolation(e)) {
+                            throw e;
+                        }
+                        connection.rollback(savepoint);
+                        rejected++;
+                        log.debug("Rejected {} reporting entry of {}. Reason : {}",
+                                type, entry.getKey().getEmail(), e.getMessage());
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            return rejected;
+        }
+    }
+
+    //entries already stored or broken, storing them again won't help
+    public static boolean isIntegrityViolation(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION);
+    }
+
+    //returns the number of entries skipped by the insert
+    private static int batchInsertAverages(Connection connection, Map<AggregationKey, AggregationValue> map,
+                                           GraphGranularityType type, String insertSQL) throws SQLException {
+        int skipped = 0;
+        try (PreparedStatement ps = connection.prepareStatement(insertSQL)) {
             for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
-                prepareReportingInsert(ps, entry, graphGranularityType);
+                prepareReportingInsert(ps, entry, type);
                 ps.addBatch();
             }
-
-            ps.executeBatch();
-            connection.commit();
-        } catch (Exception e) {
-            log.error("Error inserting reporting data in DB.", e);
+            for (int inserted : ps.executeBatch()) {
+                if (inserted == 0) {
+                    skipped++;
+                }
+            }
         }
+        return skipped;
+    }
 
-        log.info("Storing {} reporting finished. Time {}. Records saved {}",
-                graphGranularityType.name(), System.currentTimeMillis() - start, map.size());
+    static int copyAverages(PGConnection connection, Map<AggregationKey, AggregationValue> map,
+                            GraphGranularityType type) throws Exception {
+        AverageCopyEncoder encoder = averageEncoders.get();
+        return copy(connection, getCopyByGraphType(type), out -> encoder.encode(out, map, type));
+    }
+
+    static int batchInsertAverages(Connection connection, Map<AggregationKey, AggregationValue> map,
+                                   GraphGranularityType type) throws SQLException {
+        batchInsertAverages(connection, map, type, getTableByGraphType(type));
+        return map.size();
     }
 
     public void cleanOldReportingRecords(Instant now) {
@@ -331,5 +512,34 @@ public class ReportingDBDao {
                 minuteRecordsRemoved, hourRecordsRemoved, System.currentTimeMillis() - now.toEpochMilli());
     }
 
-}
+    private interface CopyBody {
+        int write(OutputStream out) throws Exception;
+    }
+
+    /**
+     * Passes the COPY data right to the connection, without the intermediate buffer.
+     */
+    private static final class CopyInStream extends OutputStream {
+
+        private final CopyIn copyIn;
 
+        CopyInStream(CopyIn copyIn) {
+            this.copyIn = copyIn;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                copyIn.writeToCopy(b, off, len);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+}
@@ -1,8 +1,11 @@
 package cc.blynk.server.internal;
 
 import cc.blynk.server.core.protocol.model.messages.BinaryMessage;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 
 import java.nio.charset.StandardCharsets;
 
@@ -25,6 +28,7 @@ import static cc.blynk.server.core.protocol.enums.Response.SERVER_ERROR;
 import static cc.blynk.server.core.protocol.enums.Response.USER_ALREADY_REGISTERED;
 import static cc.blynk.server.core.protocol.enums.Response.USER_NOT_AUTHENTICATED;
 import static cc.blynk.server.core.protocol.enums.Response.USER_NOT_REGISTERED;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
 import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 
 /**
@@ -133,4 +137,36 @@ public final class CommonByteBufUtil {
         return new BinaryMessage(msgId, cmd, byteData);
     }
 
+    public static ByteBufMessage makeBinaryMessage(short cmd, int msgId, ByteBuf byteData) {
+        return new ByteBufMessage(msgId, cmd, byteData);
+    }
+
+    /**
+     * Same as StringUtils.prependDashIdAndDeviceId(), but written right to the buffer.
+     */
+    public static void writeDashIdAndDeviceId(ByteBuf buf, int dashId, int deviceId) {
+        writeAsciiInt(buf, dashId);
+        buf.writeByte(DEVICE_SEPARATOR);
+        writeAsciiInt(buf, deviceId);
+        buf.writeByte(BODY_SEPARATOR);
+    }
+
+    static void writeAsciiInt(ByteBuf buf, int value) {
+        if (value < 0) {
+            ByteBufUtil.writeAscii(buf, Integer.toString(value));
+            return;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        buf.ensureWritable(digits);
+        int start = buf.writerIndex();
+        for (int i = start + digits - 1; i >= start; i--) {
+            buf.setByte(i, '0' + value % 10);
+            value /= 10;
+        }
+        buf.writerIndex(start + digits);
+    }
+
 }
@@ -148,7 +148,7 @@ public class ReadingWidgetsWorker implements Runnable {
                     log.trace("Reading command for plaato. Pin {}{}, deviceId {}, val {}",
                             pinType.pintTypeChar, pin, deviceId, value);
                     if (!device.isOfflineFor7Minutes(now)) {
-                        reportingDiskDao.process(user, dash, deviceId, pin, pinType, value, now);
+                        reportingDiskDao.process(user, dash, device, pin, pinType, value, now);
                     }
                     user.profile.update(dash, deviceId, pin, pinType, value, now);
                     String body = DataStream.makeHardwareBody(pinType, pin, value);
@@ -170,9 +170,9 @@ public class ReadingWidgetsWorker implements Runnable {
                     Profile profile = user.profile;
                     for (DashBoard dashBoard : profile.dashBoards) {
                         if (dashBoard.isActive) {
-                            for (Channel channel : session.hardwareChannels) {
+                            for (Channel channel : session.getHardwareChannels(dashBoard.id)) {
                                 HardwareStateHolder stateHolder = StateHolderUtil.getHardState(channel);
-                                if (stateHolder != null && stateHolder.dash.id == dashBoard.id) {
+                                if (stateHolder != null) {
                                     int deviceId = stateHolder.device.id;
                                     for (Widget widget : dashBoard.widgets) {
                                         if (widget instanceof FrequencyWidget) {
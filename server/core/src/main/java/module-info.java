@@ -34,10 +34,12 @@ module cc.blynk.core {
     exports cc.blynk.server.core.model.widgets.others.webhook;
     exports cc.blynk.server.core.reporting.average;
     exports cc.blynk.server.core.reporting.raw;
+    exports cc.blynk.server.core.reporting.storage;
     exports cc.blynk.server.core.reporting;
     exports cc.blynk.server.db.model;
     exports cc.blynk.server.db.dao;
     exports cc.blynk.server.core.protocol.model.messages;
+    exports cc.blynk.server.core.protocol.model.messages.hardware;
     exports cc.blynk.server.core.session;
     exports cc.blynk.server.core.model.widgets.controls;
     exports cc.blynk.server.transport;
@@ -61,6 +63,7 @@ module cc.blynk.core {
     requires async.http.client;
     requires com.zaxxer.hikari;
     requires java.sql;
+    requires org.postgresql.jdbc;
     requires com.fasterxml.jackson.databind;
     requires jackson.annotations;
     requires org.apache.logging.log4j;
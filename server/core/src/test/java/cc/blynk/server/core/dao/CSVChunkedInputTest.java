@@ -0,0 +1,132 @@
+package cc.blynk.server.core.dao;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.zip.GZIPInputStream;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static cc.blynk.utils.FileUtils.writeBufToCsv;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CSVChunkedInputTest {
+
+    @Test
+    public void testSameRowsAsCSVFile() throws Exception {
+        ByteBuffer[] devicesData = {series(20_000, 1), null, series(3, 2)};
+        int[] deviceIds = {1, 2, 3};
+
+        String expected = csv(devicesData, deviceIds, 0, Long.MAX_VALUE);
+        String actual = readAll(new CSVChunkedInput(reader(devicesData), deviceIds, 0, Long.MAX_VALUE));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testTimeRange() throws Exception {
+        ByteBuffer[] devicesData = {series(1000, 3), series(1000, 4)};
+        int[] deviceIds = {1, 2};
+        long from = devicesData[0].getLong(100 * SIZE_OF_REPORT_ENTRY + 8);
+        long to = devicesData[0].getLong(200 * SIZE_OF_REPORT_ENTRY + 8);
+
+        String expected = csv(devicesData, deviceIds, from, to);
+        assertEquals(202, expected.split("\n").length);
+        assertEquals(expected, readAll(new CSVChunkedInput(reader(devicesData), deviceIds, from, to)));
+
+        assertEquals("", readAll(new CSVChunkedInput(reader(devicesData), deviceIds, 0, 1)));
+    }
+
+    @Test
+    public void testDeviceDataIsReadWhenPreviousDeviceIsEncoded() {
+        ByteBuffer[] devicesData = {series(20_000, 5), series(10, 6)};
+        List<Integer> reads = new ArrayList<>();
+        IntFunction<ByteBuffer> reader = reader(devicesData);
+        CSVChunkedInput input = new CSVChunkedInput(index -> {
+            reads.add(index);
+            return reader.apply(index);
+        }, new int[] {1, 2}, 0, Long.MAX_VALUE);
+        try {
+            input.readChunk(ByteBufAllocator.DEFAULT).release();
+            assertEquals(List.of(0), reads);
+            while (!input.isEndOfInput()) {
+                input.readChunk(ByteBufAllocator.DEFAULT).release();
+            }
+            assertEquals(List.of(0, 1), reads);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String readAll(CSVChunkedInput input) throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        int chunks = 0;
+        try {
+            while (!input.isEndOfInput()) {
+                ByteBuf chunk = input.readChunk(ByteBufAllocator.DEFAULT);
+                gzipped.writeBytes(ByteBufUtil.getBytes(chunk));
+                assertTrue(chunk.release());
+                chunks++;
+            }
+        } finally {
+            input.close();
+        }
+        assertTrue(chunks > 0);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static String csv(ByteBuffer[] devicesData, int[] deviceIds, long from, long to) throws Exception {
+        StringWriter result = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(result)) {
+            for (int i = 0; i < devicesData.length; i++) {
+                if (devicesData[i] == null) {
+                    continue;
+                }
+                ByteBuffer data = devicesData[i].duplicate();
+                ByteBuffer filtered = ByteBuffer.allocate(data.remaining());
+                while (data.hasRemaining()) {
+                    double value = data.getDouble();
+                    long ts = data.getLong();
+                    if (ts >= from && ts <= to) {
+                        filtered.putDouble(value).putLong(ts);
+                    }
+                }
+                ((Buffer) filtered).flip();
+                writeBufToCsv(writer, filtered, deviceIds[i]);
+            }
+        }
+        return result.toString();
+    }
+
+    private static IntFunction<ByteBuffer> reader(ByteBuffer[] devicesData) {
+        return index -> devicesData[index] == null ? null : devicesData[index].duplicate();
+    }
+
+    private static ByteBuffer series(int count, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer buf = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        long ts = 1_540_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            ts += 60_000;
+            buf.putDouble(random.nextInt(5) == 0 ? random.nextInt(100) : random.nextDouble() * 100)
+               .putLong(ts);
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+}
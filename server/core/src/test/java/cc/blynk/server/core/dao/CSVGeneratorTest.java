@@ -42,4 +42,13 @@ public class CSVGeneratorTest {
         assertEquals("http://myhost:8080/", FileUtils.downloadUrl("myhost", "8080", false));
     }
 
+    @Test
+    public void testFetchCountIsLimitedByFrom() {
+        long now = 1_540_000_000_000L;
+        assertEquals(1, CSVGenerator.fetchCount(now, now));
+        assertEquals(61, CSVGenerator.fetchCount(now - 60 * 60_000, now));
+        assertEquals(1, CSVGenerator.fetchCount(now + 60 * 60_000, now));
+        assertEquals(43200, CSVGenerator.fetchCount(0, now));
+    }
+
 }
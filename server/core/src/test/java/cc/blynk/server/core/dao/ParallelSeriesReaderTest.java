@@ -0,0 +1,85 @@
+package cc.blynk.server.core.dao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelSeriesReaderTest {
+
+    private ThreadPoolExecutor executor;
+
+    @Before
+    public void init() {
+        executor = new ThreadPoolExecutor(4, 4, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(4));
+    }
+
+    @After
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResultsAreInOrder() {
+        for (int parallelism : new int[] {1, 2, 3, 16}) {
+            ByteBuffer[] results = ParallelSeriesReader.readAll(50, ParallelSeriesReaderTest::read,
+                    executor, parallelism);
+            assertEquals(50, results.length);
+            for (int i = 0; i < results.length; i++) {
+                assertEquals(i, results[i].getInt(0));
+            }
+        }
+    }
+
+    @Test
+    public void testReadsAreLimitedByParallelism() {
+        AtomicInteger inProgress = new AtomicInteger();
+        AtomicInteger maxInProgress = new AtomicInteger();
+        ParallelSeriesReader.readAll(40, index -> {
+            maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            sleep();
+            inProgress.decrementAndGet();
+            return read(index);
+        }, executor, 3);
+
+        assertTrue(maxInProgress.get() > 1);
+        assertTrue(maxInProgress.get() <= 3);
+    }
+
+    @Test
+    public void testCallingThreadReadsWhenExecutorRejects() {
+        executor.shutdown();
+        ByteBuffer[] results = ParallelSeriesReader.readAll(5, ParallelSeriesReaderTest::read, executor, 4);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i, results[i].getInt(0));
+        }
+
+        results = ParallelSeriesReader.readAll(3, index -> null, null, 4);
+        assertNull(results[2]);
+        assertEquals(0, ParallelSeriesReader.readAll(0, ParallelSeriesReaderTest::read, null, 4).length);
+    }
+
+    private static ByteBuffer read(int index) {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(0, index);
+        return buf;
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.dao.functions.GraphFunction;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortedSeriesMergerTest {
+
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    public void testMergeMatchesTreeMapAggregation() {
+        Random random = new Random(3);
+        for (AggregationFunctionType functionType : AggregationFunctionType.values()) {
+            for (int seriesCount : new int[] {1, 2, 7, 50}) {
+                ByteBuffer[] series = new ByteBuffer[seriesCount];
+                for (int i = 0; i < seriesCount; i++) {
+                    series[i] = randomSeries(random, random.nextInt(5) == 0 ? 0 : random.nextInt(300));
+                }
+
+                ByteBuffer expected = treeMapMerge(series, functionType);
+                assertTrue(SortedSeriesMerger.isSorted(series, seriesCount));
+                ByteBuffer actual = SortedSeriesMerger.merge(series, seriesCount, functionType.produce());
+                assertEquals(functionType + " " + seriesCount, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testNoSeries() {
+        ByteBuffer[] series = new ByteBuffer[] {ByteBuffer.allocate(0)};
+        assertEquals(0, SortedSeriesMerger.merge(series, 0, AggregationFunctionType.AVG.produce()).remaining());
+        assertEquals(0, SortedSeriesMerger.merge(series, 1, AggregationFunctionType.AVG.produce()).remaining());
+    }
+
+    @Test
+    public void testUnsortedSeriesIsDetected() {
+        ByteBuffer unsorted = ByteBuffer.allocate(2 * SIZE_OF_REPORT_ENTRY);
+        unsorted.putDouble(1).putLong(2 * MINUTE)
+                .putDouble(2).putLong(MINUTE);
+        ((Buffer) unsorted).flip();
+        assertFalse(SortedSeriesMerger.isSorted(new ByteBuffer[] {randomSeries(new Random(1), 10), unsorted}, 2));
+    }
+
+    private static ByteBuffer randomSeries(Random random, int count) {
+        ByteBuffer buf = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        long ts = MINUTE * random.nextInt(100);
+        for (int i = 0; i < count; i++) {
+            //gaps and the same ts twice within the series
+            ts += MINUTE * random.nextInt(3);
+            buf.putDouble(random.nextInt(100) - 50 + random.nextInt(16) / 16D)
+               .putLong(ts);
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+    private static ByteBuffer treeMapMerge(ByteBuffer[] series, AggregationFunctionType functionType) {
+        TreeMap<Long, GraphFunction> data = new TreeMap<>();
+        for (ByteBuffer buf : series) {
+            for (int pos = buf.position(); pos < buf.limit(); pos += SIZE_OF_REPORT_ENTRY) {
+                data.computeIfAbsent(buf.getLong(pos + 8), ts -> functionType.produce())
+                    .apply(buf.getDouble(pos));
+            }
+        }
+        ByteBuffer result = ByteBuffer.allocate(data.size() * SIZE_OF_REPORT_ENTRY);
+        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
+            result.putDouble(entry.getValue().getResult())
+                  .putLong(entry.getKey());
+        }
+        ((Buffer) result).flip();
+        return result;
+    }
+
+}
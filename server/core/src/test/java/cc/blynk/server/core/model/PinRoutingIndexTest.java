@@ -0,0 +1,183 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.device.Tag;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import cc.blynk.server.core.model.widgets.controls.RGB;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.number.GreaterThan;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import cc.blynk.server.core.model.widgets.ui.reporting.ReportingWidget;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.DeviceReportSource;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportDataStream;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportSource;
+import cc.blynk.utils.ArrayUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PinRoutingIndexTest {
+
+    @Test
+    public void testRouteMatchesWidgetScan() {
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {
+                button(1, PinType.DIGITAL, 1, false),
+                button(1, PinType.ANALOG, 2, false),
+                button(1, PinType.DIGITAL, 3, true),
+                button(2, PinType.VIRTUAL, 1, false),
+                rgb(1, new DataStream((short) 4, PinType.VIRTUAL), new DataStream((short) 4, PinType.VIRTUAL),
+                        new DataStream((short) 5, true, false, PinType.DIGITAL, null, 0, 255, null)),
+                button(1, PinType.VIRTUAL, 4, false)
+        };
+
+        for (int deviceId = 0; deviceId < 3; deviceId++) {
+            for (PinType pinType : PinType.values()) {
+                for (short pin = 0; pin < 6; pin++) {
+                    List<Widget> expected = new ArrayList<>();
+                    for (Widget widget : dash.widgets) {
+                        if (widget.isSame(deviceId, pin, pinType)) {
+                            expected.add(widget);
+                        }
+                    }
+                    List<Widget> actual = new ArrayList<>();
+                    for (Widget widget : dash.getPinRoute(deviceId, pin, pinType).widgets) {
+                        if (widget.isSame(deviceId, pin, pinType)) {
+                            actual.add(widget);
+                        }
+                    }
+                    assertEquals(deviceId + " " + pinType + " " + pin, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndexIsRebuiltOnChange() {
+        DashBoard dash = new DashBoard();
+        Button button = button(1, PinType.VIRTUAL, 1, false);
+        dash.widgets = new Widget[] {button};
+
+        PinRoutingIndex.PinRoute route = dash.getPinRoute(1, (short) 1, PinType.VIRTUAL);
+        assertArrayEquals(new Widget[] {button}, route.widgets);
+        assertSame(route, dash.getPinRoute(1, (short) 1, PinType.VIRTUAL));
+        assertSame(PinRoutingIndex.EMPTY_ROUTE, dash.getPinRoute(1, (short) 2, PinType.VIRTUAL));
+
+        Button newButton = button(1, PinType.VIRTUAL, 2, false);
+        dash.widgets = ArrayUtil.add(dash.widgets, newButton, Widget.class);
+        assertArrayEquals(new Widget[] {newButton}, dash.getPinRoute(1, (short) 2, PinType.VIRTUAL).widgets);
+
+        dash.invalidatePinRouting();
+        route = dash.getPinRoute(1, (short) 1, PinType.VIRTUAL);
+        assertArrayEquals(new Widget[] {button}, route.widgets);
+        assertSame(route, dash.getPinRoute(1, (short) 1, PinType.VIRTUAL));
+    }
+
+    @Test
+    public void testLoggedPinResolvesTargets() {
+        DashBoard dash = new DashBoard();
+        Tag tag = new Tag(Tag.START_TAG_ID, "tag", new int[] {2});
+        dash.tags = new Tag[] {tag};
+        dash.devices = new Device[] {new Device(1, "device1", null), new Device(2, "device2", null)};
+        Superchart deviceGraph = superchart(1, new DataStream((short) 1, PinType.VIRTUAL));
+        Superchart tagGraph = superchart(tag.id, new DataStream((short) 2, PinType.VIRTUAL));
+        dash.widgets = new Widget[] {deviceGraph, tagGraph};
+
+        assertSame(deviceGraph, dash.getPinRoute(1, (short) 1, PinType.VIRTUAL).loggedWidget);
+        assertNull(dash.getPinRoute(2, (short) 1, PinType.VIRTUAL).loggedWidget);
+        assertSame(tagGraph, dash.getPinRoute(2, (short) 2, PinType.VIRTUAL).loggedWidget);
+        assertNull(dash.getPinRoute(1, (short) 2, PinType.VIRTUAL).loggedWidget);
+
+        //tag is updated in place
+        tag.update(new Tag(tag.id, "tag", new int[] {1, 2}));
+        dash.invalidatePinRouting();
+        assertSame(tagGraph, dash.getPinRoute(1, (short) 2, PinType.VIRTUAL).loggedWidget);
+    }
+
+    @Test
+    public void testReportingWidgetLogsPinOfAnyDevice() {
+        DashBoard dash = new DashBoard();
+        ReportingWidget reportingWidget = new ReportingWidget();
+        reportingWidget.reportSources = new ReportSource[] {
+                new DeviceReportSource(new ReportDataStream[] {
+                        new ReportDataStream((short) 1, PinType.VIRTUAL, null, true)
+                }, new int[] {1})
+        };
+        Superchart graph = superchart(1, new DataStream((short) 1, PinType.VIRTUAL));
+        dash.widgets = new Widget[] {reportingWidget, graph};
+
+        assertSame(reportingWidget, dash.getPinRoute(1, (short) 1, PinType.VIRTUAL).loggedWidget);
+        assertSame(reportingWidget, dash.getPinRoute(100, (short) 1, PinType.VIRTUAL).loggedWidget);
+        assertNull(dash.getPinRoute(1, (short) 1, PinType.DIGITAL).loggedWidget);
+
+        dash.widgets = new Widget[] {graph, reportingWidget};
+        assertSame(graph, dash.getPinRoute(1, (short) 1, PinType.VIRTUAL).loggedWidget);
+        assertSame(reportingWidget, dash.getPinRoute(100, (short) 1, PinType.VIRTUAL).loggedWidget);
+    }
+
+    @Test
+    public void testWebHookAndEventorRules() {
+        DashBoard dash = new DashBoard();
+        WebHook webHook = new WebHook();
+        webHook.deviceId = 1;
+        webHook.pinType = PinType.VIRTUAL;
+        webHook.pin = 1;
+        Rule rule1 = rule(new DataStream((short) 1, PinType.VIRTUAL));
+        Rule rule2 = rule(new DataStream((short) 2, PinType.VIRTUAL));
+        Rule rule3 = rule(new DataStream((short) 1, PinType.VIRTUAL));
+        Eventor eventor = new Eventor(new Rule[] {rule1, rule2, rule3});
+        eventor.deviceId = 1;
+        dash.widgets = new Widget[] {webHook, eventor};
+
+        PinRoutingIndex.PinRoute route = dash.getPinRoute(1, (short) 1, PinType.VIRTUAL);
+        assertSame(webHook, dash.findWebhookByPin(1, (short) 1, PinType.VIRTUAL));
+        assertSame(webHook, route.webHook);
+        assertEquals(0, route.widgets.length);
+        assertArrayEquals(new Rule[] {rule1, rule3}, route.rules);
+        assertArrayEquals(new Rule[] {rule2}, dash.getPinRoute(1, (short) 2, PinType.VIRTUAL).rules);
+        assertEquals(0, dash.getPinRoute(2, (short) 1, PinType.VIRTUAL).rules.length);
+        assertNull(dash.findWebhookByPin(2, (short) 1, PinType.VIRTUAL));
+    }
+
+    private static Button button(int deviceId, PinType pinType, int pin, boolean pwmMode) {
+        Button button = new Button();
+        button.deviceId = deviceId;
+        button.pinType = pinType;
+        button.pin = (short) pin;
+        button.pwmMode = pwmMode;
+        return button;
+    }
+
+    private static RGB rgb(int deviceId, DataStream... dataStreams) {
+        RGB rgb = new RGB();
+        rgb.deviceId = deviceId;
+        rgb.dataStreams = dataStreams;
+        return rgb;
+    }
+
+    private static Superchart superchart(int targetId, DataStream dataStream) {
+        Superchart superchart = new Superchart();
+        superchart.dataStreams = new GraphDataStream[] {
+                new GraphDataStream(null, null, 0, targetId, dataStream, null, 0, null, null, null,
+                        0, 0, false, null, false, false, false, null, 0, false, 0)
+        };
+        return superchart;
+    }
+
+    private static Rule rule(DataStream triggerDataStream) {
+        return new Rule(triggerDataStream, null, new GreaterThan(10), new BaseAction[0], true);
+    }
+
+}
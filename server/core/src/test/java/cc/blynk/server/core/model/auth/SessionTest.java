@@ -0,0 +1,226 @@
+package cc.blynk.server.core.model.auth;
+
+import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareWriteMessage;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.core.session.StateHolderBase;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static cc.blynk.server.core.protocol.enums.Command.APP_SYNC;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.internal.CommonByteBufUtil.writeDashIdAndDeviceId;
+import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionTest {
+
+    private final GlobalStats stats = new GlobalStats();
+
+    @Test
+    public void testDashIdAndDeviceIdWrittenAsString() {
+        int[] ids = {0, 1, 9, 10, 99, 100, 12345, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        for (int dashId : ids) {
+            for (int deviceId : ids) {
+                ByteBuf buf = Unpooled.buffer(1);
+                writeDashIdAndDeviceId(buf, dashId, deviceId);
+                assertEquals(prependDashIdAndDeviceId(dashId, deviceId, ""), buf.toString(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    @Test
+    public void testSendToAppsEncodesSameFrames() {
+        Session session = new Session(null);
+        EmbeddedChannel mobile1 = appChannel(new MobileMessageEncoder(stats), 1, "token1");
+        EmbeddedChannel mobile2 = appChannel(new MobileMessageEncoder(stats), 2, "token1");
+        EmbeddedChannel app1 = appChannel(new MessageEncoder(stats), 1, null);
+        session.addAppChannel(mobile1);
+        session.addAppChannel(mobile2);
+        session.addAppChannel(app1);
+
+        String body = "vw\u00001\u0000привет";
+        session.sendToApps(HARDWARE, 7, 1, 100, body);
+
+        String finalBody = prependDashIdAndDeviceId(1, 100, body);
+        assertFrame(new MobileMessageEncoder(stats), new StringMessage(7, HARDWARE, finalBody), mobile1);
+        assertFrame(new MessageEncoder(stats), new StringMessage(7, HARDWARE, finalBody), app1);
+        assertNull(mobile2.readOutbound());
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        session.sendToApps(HARDWARE, 8, 1, 100, HardwareWriteMessage.parse(8, bytes, bytes.length));
+        assertFrame(new MobileMessageEncoder(stats), new StringMessage(8, HARDWARE, finalBody), mobile1);
+        assertFrame(new MessageEncoder(stats), new StringMessage(8, HARDWARE, finalBody), app1);
+        assertNull(mobile2.readOutbound());
+    }
+
+    @Test
+    public void testSendToSharedAppsSkipsSender() {
+        Session session = new Session(null);
+        EmbeddedChannel mobile1 = appChannel(new MobileMessageEncoder(stats), 1, "token1");
+        EmbeddedChannel mobile2 = appChannel(new MobileMessageEncoder(stats), 1, "token1");
+        EmbeddedChannel mobile3 = appChannel(new MobileMessageEncoder(stats), 1, "token2");
+        session.addAppChannel(mobile1);
+        session.addAppChannel(mobile2);
+        session.addAppChannel(mobile3);
+
+        String body = "1-1\u0000vw\u00001\u00001";
+        session.sendToSharedApps(mobile1, "token1", APP_SYNC, 3, body);
+
+        assertNull(mobile1.readOutbound());
+        assertFrame(new MobileMessageEncoder(stats), new StringMessage(3, APP_SYNC, body), mobile2);
+        assertNull(mobile3.readOutbound());
+    }
+
+    private static void assertFrame(ChannelHandler encoder, MessageBase expectedMessage, EmbeddedChannel channel) {
+        EmbeddedChannel expectedChannel = new EmbeddedChannel(encoder);
+        expectedChannel.writeOutbound(expectedMessage);
+        ByteBuf expected = expectedChannel.readOutbound();
+        ByteBuf actual = channel.readOutbound();
+        try {
+            assertEquals(ByteBufUtil.hexDump(expected), ByteBufUtil.hexDump(actual));
+            assertNull(channel.readOutbound());
+        } finally {
+            expected.release();
+            actual.release();
+        }
+        assertEquals(0, actual.refCnt());
+    }
+
+    @Test
+    public void testHardwareChannelsLookup() {
+        Session session = new Session(null);
+        EmbeddedChannel device1 = hardwareChannel(1, 1);
+        EmbeddedChannel device1Copy = hardwareChannel(1, 1);
+        EmbeddedChannel device2 = hardwareChannel(1, 2);
+        EmbeddedChannel otherDashDevice1 = hardwareChannel(2, 1);
+        session.addHardChannel(device1);
+        session.addHardChannel(device1Copy);
+        session.addHardChannel(device2);
+        session.addHardChannel(otherDashDevice1);
+
+        assertTrue(session.isHardwareConnected(1, 1));
+        assertTrue(session.isHardwareConnected(2, 1));
+        assertFalse(session.isHardwareConnected(2, 2));
+        assertTrue(session.isHardwareConnected(2));
+        assertFalse(session.isHardwareConnected(3));
+        assertEquals(3, session.getHardwareChannels(1).length);
+
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 1, "vw\u00001\u00001", 1));
+        assertOutbound(1, device1, device1Copy);
+        assertOutbound(0, device2, otherDashDevice1);
+
+        //same device twice
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 2, "vw\u00001\u00001", 2, 2, 3));
+        assertOutbound(1, device2);
+        assertOutbound(0, device1, device1Copy, otherDashDevice1);
+
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 3, "vw\u00001\u00001", new int[0]));
+        assertOutbound(1, device1, device1Copy, device2);
+        assertOutbound(0, otherDashDevice1);
+
+        assertTrue(session.sendMessageToHardware(1, HARDWARE, 4, "vw\u00001\u00001", 3));
+
+        device1.close();
+        assertTrue(session.isHardwareConnected(1, 1));
+        session.closeHardwareChannelByDeviceId(1, 1);
+        assertFalse(device1Copy.isOpen());
+        assertFalse(session.isHardwareConnected(1, 1));
+        assertTrue(session.sendMessageToHardware(1, HARDWARE, 5, "vw\u00001\u00001", 1));
+        assertEquals(1, session.getHardwareChannels(1).length);
+
+        session.closeHardwareChannelByDashId(2);
+        assertFalse(otherDashDevice1.isOpen());
+        assertFalse(session.isHardwareConnected(2));
+        assertEquals(1, session.hardwareChannels.size());
+    }
+
+    private static void assertOutbound(int expectedMessages, EmbeddedChannel... channels) {
+        for (EmbeddedChannel channel : channels) {
+            for (int i = 0; i < expectedMessages; i++) {
+                assertTrue(channel.readOutbound() instanceof StringMessage);
+            }
+            assertNull(channel.readOutbound());
+        }
+    }
+
+    private static EmbeddedChannel hardwareChannel(int dashId, int deviceId) {
+        DashBoard dash = new DashBoard();
+        dash.id = dashId;
+        Device device = new Device(deviceId, "device", null);
+        return new EmbeddedChannel(new StateHandler(new HardwareStateHolder(new User(), dash, device)));
+    }
+
+    private static EmbeddedChannel appChannel(ChannelHandler encoder, int dashId, String sharedToken) {
+        return new EmbeddedChannel(encoder, new StateHandler(new AppState(dashId, sharedToken)));
+    }
+
+    private static final class AppState extends StateHolderBase {
+
+        private final int dashId;
+        private final String sharedToken;
+
+        AppState(int dashId, String sharedToken) {
+            super(new User());
+            this.dashId = dashId;
+            this.sharedToken = sharedToken;
+        }
+
+        @Override
+        public boolean contains(String sharedToken) {
+            return sharedToken.equals(this.sharedToken);
+        }
+
+        @Override
+        public boolean isSameDash(int inDashId) {
+            return dashId == inDashId;
+        }
+
+        @Override
+        public boolean isSameDevice(int deviceId) {
+            return false;
+        }
+
+        @Override
+        public boolean isSameDashAndDeviceId(int inDashId, int deviceId) {
+            return false;
+        }
+    }
+
+    private static final class StateHandler extends BaseSimpleChannelInboundHandler<MessageBase> {
+
+        private final StateHolderBase state;
+
+        StateHandler(StateHolderBase state) {
+            super(MessageBase.class);
+            this.state = state;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+        }
+
+        @Override
+        public StateHolderBase getState() {
+            return state;
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+package cc.blynk.server.core.model.widgets.ui.reporting;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportSource;
+import cc.blynk.server.core.model.widgets.ui.reporting.type.DailyReport;
+import cc.blynk.server.core.model.widgets.ui.reporting.type.OneTimeReport;
+import cc.blynk.server.core.model.widgets.ui.reporting.type.ReportDurationType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cc.blynk.server.core.model.widgets.ui.reporting.ReportOutput.CSV_FILE_PER_DEVICE_PER_PIN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReportPipelineTest {
+
+    private ReportScheduler reportScheduler;
+
+    @Before
+    public void init() {
+        reportScheduler = new ReportScheduler(1, new ReportPipeline(2, 0), "http://localhost/", null, null, Collections.emptyMap());
+    }
+
+    @After
+    public void shutdown() {
+        reportScheduler.shutdown();
+    }
+
+    @Test
+    public void testSlowMailDoesntBlockReads() throws Exception {
+        CountDownLatch mailBlocked = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(6);
+        AtomicInteger builds = new AtomicInteger();
+
+        for (int i = 0; i < 6; i++) {
+            new TestReportTask(i, finished) {
+                @Override
+                boolean build(ReportData reportData) {
+                    builds.incrementAndGet();
+                    return true;
+                }
+
+                @Override
+                void sendEmail(Path output) throws Exception {
+                    mailBlocked.await();
+                }
+            }.run();
+        }
+
+        //all reports are read and built while mail stage is blocked
+        long deadline = System.currentTimeMillis() + 5000;
+        while (builds.get() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(6, builds.get());
+        assertEquals(6, reportScheduler.pipeline.inProgress());
+
+        mailBlocked.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(6, reportScheduler.pipeline.mailMetrics.getCount(false));
+        assertEquals(6, reportScheduler.pipeline.readMetrics.getCount(false));
+        assertEquals(6, reportScheduler.pipeline.buildMetrics.getCount(false));
+    }
+
+    @Test
+    public void testResults() throws Exception {
+        CountDownLatch finished = new CountDownLatch(3);
+
+        TestReportTask ok = new TestReportTask(1, finished) {
+            @Override
+            boolean build(ReportData reportData) {
+                return true;
+            }
+        };
+        TestReportTask noData = new TestReportTask(2, finished) {
+            @Override
+            boolean build(ReportData reportData) {
+                return false;
+            }
+        };
+        TestReportTask error = new TestReportTask(3, finished) {
+            @Override
+            ReportData read(long now) {
+                throw new IllegalStateException("Disk is broken.");
+            }
+        };
+        ok.run();
+        noData.run();
+        error.run();
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(ReportResult.OK, ok.report.lastRunResult);
+        assertEquals(ReportResult.NO_DATA, noData.report.lastRunResult);
+        assertEquals(ReportResult.ERROR, error.report.lastRunResult);
+        assertTrue(ok.report.lastReportAt > 0);
+        assertTrue(error.report.lastReportAt > 0);
+
+        //only ok report reached the mail stage
+        assertEquals(1, reportScheduler.pipeline.mailMetrics.getCount(true));
+        assertEquals(0, reportScheduler.pipeline.mailMetrics.getCount(false));
+        assertEquals(0, reportScheduler.pipeline.inProgress());
+    }
+
+    @Test
+    public void testLagIsRecordedWhenReportStarts() throws Exception {
+        CountDownLatch buildBlocked = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        long dueAt = System.currentTimeMillis() - 60_000;
+        TestReportTask late = new TestReportTask(1, finished) {
+            @Override
+            protected long dueAt() {
+                return dueAt;
+            }
+
+            @Override
+            boolean build(ReportData reportData) {
+                try {
+                    buildBlocked.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return false;
+            }
+        };
+        late.run();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (reportScheduler.pipeline.lagMetrics.getCount(false) == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, reportScheduler.pipeline.lagMetrics.getCount(false));
+        assertTrue(reportScheduler.pipeline.lagMetrics.getMaxMillis(false) >= 60_000);
+        assertEquals(1, reportScheduler.pipeline.inProgress());
+
+        buildBlocked.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, reportScheduler.pipeline.lagMetrics.getCount(false));
+    }
+
+    @Test
+    public void testReportsAreFinishedAfterClose() throws Exception {
+        CountDownLatch readBlocked = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        TestReportTask reading = new TestReportTask(1, finished) {
+            @Override
+            ReportData read(long now) {
+                try {
+                    readBlocked.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.read(now);
+            }
+        };
+        reading.run();
+        while (reportScheduler.pipeline.readExecutor.getActiveCount() == 0) {
+            Thread.sleep(10);
+        }
+        reportScheduler.pipeline.close();
+
+        //build stage of the running report and the new report are rejected
+        TestReportTask rejected = new TestReportTask(2, finished);
+        rejected.run();
+        readBlocked.countDown();
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(ReportResult.ERROR, reading.report.lastRunResult);
+        assertEquals(ReportResult.ERROR, rejected.report.lastRunResult);
+        assertEquals(0, reportScheduler.pipeline.inProgress());
+        assertEquals(0, reportScheduler.pipeline.buildMetrics.getCount(false));
+    }
+
+    @Test
+    public void testOnlyCurrentReportIsRescheduled() {
+        User user = new User();
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        ReportingWidget reportingWidget = new ReportingWidget();
+        dash.widgets = new Widget[] {reportingWidget};
+        user.profile.dashBoards = new DashBoard[] {dash};
+
+        Report report = dailyReport();
+        reportingWidget.reports = new Report[] {report};
+        PeriodicReportTask task = new PeriodicReportTask(user, dash.id, report, reportScheduler);
+        task.onFinished(System.currentTimeMillis());
+        assertTrue(reportScheduler.map.containsKey(task.key));
+        assertTrue(reportScheduler.cancelStoredFuture(user, dash.id, report.id));
+
+        //report is updated while it was processed
+        reportingWidget.reports = new Report[] {dailyReport()};
+        task.onFinished(System.currentTimeMillis());
+        assertFalse(reportScheduler.map.containsKey(task.key));
+
+        //report is removed while it was processed
+        reportingWidget.reports = new Report[0];
+        task.onFinished(System.currentTimeMillis());
+        assertFalse(reportScheduler.map.containsKey(task.key));
+    }
+
+    private static Report dailyReport() {
+        return new Report(1, "Report",
+                new ReportSource[0], new DailyReport(3600, ReportDurationType.INFINITE, 0, 0), "test@gmail.com",
+                GraphGranularityType.MINUTE, true, CSV_FILE_PER_DEVICE_PER_PIN,
+                null, ZoneId.of("UTC"), 0, 0, null);
+    }
+
+    private class TestReportTask extends BaseReportTask {
+
+        private final CountDownLatch finished;
+
+        TestReportTask(int reportId, CountDownLatch finished) {
+            super(new User(), 1, new Report(reportId, "Report",
+                    new ReportSource[0], new OneTimeReport(86400), "test@gmail.com",
+                    GraphGranularityType.MINUTE, true, CSV_FILE_PER_DEVICE_PER_PIN,
+                    null, ZoneId.of("UTC"), 0, 0, null), reportScheduler);
+            this.finished = finished;
+        }
+
+        @Override
+        ReportData read(long now) {
+            return new ReportData(now, Paths.get("report.zip"), now, null, null);
+        }
+
+        @Override
+        boolean build(ReportData reportData) {
+            return false;
+        }
+
+        @Override
+        void sendEmail(Path output) throws Exception {
+        }
+
+        @Override
+        protected void onFinished(long finishedAt) {
+            report.lastReportAt = finishedAt;
+            finished.countDown();
+        }
+    }
+
+}
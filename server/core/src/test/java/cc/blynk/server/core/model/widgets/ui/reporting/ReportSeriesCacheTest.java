@@ -0,0 +1,184 @@
+package cc.blynk.server.core.model.widgets.ui.reporting;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.HOURLY;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.MINUTE;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReportSeriesCacheTest {
+
+    private static final int POINTS = 1000;
+
+    private final AtomicInteger diskReads = new AtomicInteger();
+    private final User user = new User("test@gmail.com", "hash", "Blynk", "local", "127.0.0.1", false, false);
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private volatile CountDownLatch diskBlocked = new CountDownLatch(0);
+
+    private final ReportingDiskDao reportingDiskDao = new ReportingDiskDao(tempDir(), true) {
+        @Override
+        public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId, PinType pinType, short pin,
+                                                int count, GraphGranularityType type, int skipCount) {
+            diskReads.incrementAndGet();
+            try {
+                diskBlocked.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            if (deviceId == 0) {
+                return null;
+            }
+            return series(Math.min(count, POINTS), pin);
+        }
+    };
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSameSeriesIsReadOnce() throws Exception {
+        ReportSeriesCache cache = new ReportSeriesCache(60_000, Long.MAX_VALUE);
+        diskBlocked = new CountDownLatch(1);
+
+        List<Future<ByteBuffer>> reads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            reads.add(executor.submit(() -> cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL,
+                    (short) 1, 100, MINUTE, 1000)));
+        }
+        Thread.sleep(100);
+        diskBlocked.countDown();
+
+        for (Future<ByteBuffer> read : reads) {
+            ByteBuffer data = read.get(5, TimeUnit.SECONDS);
+            assertEquals(100 * SIZE_OF_REPORT_ENTRY, data.remaining());
+            //every report consumes own view
+            while (data.hasRemaining()) {
+                data.getDouble();
+                data.getLong();
+            }
+        }
+        assertEquals(1, diskReads.get());
+        assertEquals(1, cache.diskReads.sum());
+        assertEquals(7, cache.sharedReads.sum());
+
+        //other pin, granularity and device are separate series
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 2, 100, MINUTE, 1000);
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 100, HOURLY, 1000);
+        cache.read(reportingDiskDao, user, 1, 2, PinType.VIRTUAL, (short) 1, 100, MINUTE, 1000);
+        assertEquals(4, diskReads.get());
+    }
+
+    @Test
+    public void testSmallerCountIsTheTailOfTheLoadedSeries() {
+        ReportSeriesCache cache = new ReportSeriesCache(60_000, Long.MAX_VALUE);
+
+        ByteBuffer week = cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 700, MINUTE, 1000);
+        ByteBuffer day = cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 100, MINUTE, 1000);
+        assertEquals(1, diskReads.get());
+
+        ByteBuffer expected = series(100, (short) 1);
+        assertEquals(expected, day);
+        assertEquals(700 * SIZE_OF_REPORT_ENTRY, week.remaining());
+
+        //bigger count than loaded needs new read
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 900, MINUTE, 1000);
+        assertEquals(2, diskReads.get());
+    }
+
+    @Test
+    public void testExpiredAndNoData() {
+        ReportSeriesCache cache = new ReportSeriesCache(60_000, Long.MAX_VALUE);
+
+        assertNull(cache.read(reportingDiskDao, user, 1, 0, PinType.VIRTUAL, (short) 1, 100, MINUTE, 1000));
+        assertNull(cache.read(reportingDiskDao, user, 1, 0, PinType.VIRTUAL, (short) 1, 100, MINUTE, 2000));
+        assertEquals(1, diskReads.get());
+
+        cache.read(reportingDiskDao, user, 1, 0, PinType.VIRTUAL, (short) 1, 100, MINUTE, 61_000);
+        assertEquals(2, diskReads.get());
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 100, MINUTE, 200_000);
+        assertEquals(1, cache.size());
+
+        ReportSeriesCache disabled = new ReportSeriesCache(0, Long.MAX_VALUE);
+        disabled.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 100, MINUTE, 1000);
+        disabled.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 100, MINUTE, 1000);
+        assertEquals(5, diskReads.get());
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void testCachedBytesAreLimited() {
+        long seriesBytes = 100 * SIZE_OF_REPORT_ENTRY;
+        ReportSeriesCache cache = new ReportSeriesCache(60_000, 3 * seriesBytes);
+
+        for (short pin = 1; pin <= 3; pin++) {
+            cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, pin, 100, MINUTE, 1000);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(3 * seriesBytes, cache.usedBytes());
+
+        //the oldest loaded series is dropped
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 4, 100, MINUTE, 1000);
+        assertEquals(3, cache.size());
+        assertEquals(3 * seriesBytes, cache.usedBytes());
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 2, 100, MINUTE, 1000);
+        assertEquals(4, diskReads.get());
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 100, MINUTE, 1000);
+        assertEquals(5, diskReads.get());
+
+        //bigger series replaces the loaded one and frees the space of 2 others
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 300, MINUTE, 1000);
+        assertEquals(1, cache.size());
+        assertEquals(3 * seriesBytes, cache.usedBytes());
+
+        //series bigger than the limit isn't kept at all
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 5, 400, MINUTE, 1000);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.usedBytes());
+
+        //expired series free the space
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 1, 100, MINUTE, 1000);
+        cache.read(reportingDiskDao, user, 1, 1, PinType.VIRTUAL, (short) 2, 100, MINUTE, 61_000);
+        assertEquals(1, cache.size());
+        assertEquals(seriesBytes, cache.usedBytes());
+    }
+
+    //last count points of the series of POINTS minute points
+    private static ByteBuffer series(int count, short pin) {
+        ByteBuffer buf = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        for (int i = POINTS - count; i < POINTS; i++) {
+            buf.putDouble(pin * 1000 + i).putLong(1_540_000_000_000L + i * 60_000L);
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+    private static String tempDir() {
+        try {
+            return Files.createTempDirectory("reports").toString();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
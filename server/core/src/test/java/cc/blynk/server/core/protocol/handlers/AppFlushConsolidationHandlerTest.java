@@ -0,0 +1,106 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.LOAD_PROFILE_GZIPPED;
+import static cc.blynk.server.core.protocol.enums.Response.OK;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AppFlushConsolidationHandlerTest {
+
+    private static EmbeddedChannel appChannel(long delayMicros) {
+        return new EmbeddedChannel(
+                new MobileMessageEncoder(new GlobalStats()),
+                new AppFlushConsolidationHandler(delayMicros)
+        );
+    }
+
+    private static StringMessage hardware(int msgId) {
+        return new StringMessage(msgId, HARDWARE, "1-0\u0000vw\u00001\u0000" + msgId);
+    }
+
+    private static void assertFlushed(int expectedMessages, EmbeddedChannel channel) {
+        for (int i = 0; i < expectedMessages; i++) {
+            ByteBuf buf = channel.readOutbound();
+            assertNotNull(buf);
+            buf.release();
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testUpdatesFlushedAfterQueuedTasks() {
+        //embedded channel runs the queued tasks on every write, so only one update here
+        EmbeddedChannel channel = appChannel(0);
+        channel.writeAndFlush(hardware(1));
+        assertFlushed(0, channel);
+
+        channel.runPendingTasks();
+        assertFlushed(1, channel);
+
+        //nothing is pending, task is not scheduled again
+        channel.runPendingTasks();
+        assertFlushed(0, channel);
+    }
+
+    @Test
+    public void testResponseFlushesPendingUpdates() {
+        EmbeddedChannel channel = appChannel(1_000_000);
+        channel.writeAndFlush(hardware(1));
+        channel.writeAndFlush(new ResponseMessage(2, OK));
+        assertFlushed(2, channel);
+
+        channel.writeAndFlush(hardware(3));
+        channel.writeAndFlush(new StringMessage(4, LOAD_PROFILE_GZIPPED, ""));
+        assertFlushed(2, channel);
+
+        channel.runPendingTasks();
+        assertFlushed(0, channel);
+    }
+
+    @Test
+    public void testTooManyPendingUpdatesFlushed() {
+        EmbeddedChannel channel = appChannel(1_000_000);
+        for (int i = 1; i < AppFlushConsolidationHandler.MAX_PENDING_MESSAGES; i++) {
+            channel.writeAndFlush(hardware(i));
+        }
+        assertFlushed(0, channel);
+
+        channel.writeAndFlush(hardware(AppFlushConsolidationHandler.MAX_PENDING_MESSAGES));
+        assertFlushed(AppFlushConsolidationHandler.MAX_PENDING_MESSAGES, channel);
+    }
+
+    @Test
+    public void testCloseFlushesPendingUpdates() {
+        EmbeddedChannel channel = appChannel(1_000_000);
+        channel.writeAndFlush(hardware(1));
+        channel.close();
+        assertFlushed(1, channel);
+    }
+
+    @Test
+    public void testUpdatesFlushedAfterDelay() throws Exception {
+        EmbeddedChannel channel = appChannel(10_000);
+        channel.writeAndFlush(hardware(1));
+        channel.runPendingTasks();
+        assertFlushed(0, channel);
+
+        Thread.sleep(20);
+        channel.runPendingTasks();
+        assertFlushed(1, channel);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDelay() {
+        new AppFlushConsolidationHandler(-1);
+    }
+
+}
@@ -0,0 +1,80 @@
+package cc.blynk.server.core.protocol.model.messages.hardware;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.utils.NumberUtil;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR_STRING;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class HardwareWriteMessageTest {
+
+    private static byte[] body(String... parts) {
+        //decoder buffer is usually bigger than the body
+        byte[] bytes = String.join(BODY_SEPARATOR_STRING, parts).getBytes(StandardCharsets.UTF_8);
+        return Arrays.copyOf(bytes, bytes.length + 10);
+    }
+
+    private static HardwareWriteMessage parse(String... parts) {
+        byte[] bytes = body(parts);
+        return HardwareWriteMessage.parse(1, bytes, bytes.length - 10);
+    }
+
+    @Test
+    public void testParseWriteCommands() {
+        HardwareWriteMessage message = parse("vw", "1", "22.5");
+        assertNotNull(message);
+        assertEquals(1, message.id);
+        assertEquals(PinType.VIRTUAL, message.pinType);
+        assertEquals(1, message.pin);
+        assertEquals(22.5, message.doubleValue, 0.0001);
+        assertEquals("22.5", message.getValue());
+        assertEquals("vw\u00001\u000022.5", message.getBody());
+        assertArrayEquals("vw\u00001\u000022.5".getBytes(StandardCharsets.UTF_8), message.getBytes());
+
+        message = parse("dw", "255", "1");
+        assertNotNull(message);
+        assertEquals(PinType.DIGITAL, message.pinType);
+        assertEquals(255, message.pin);
+        assertEquals(1, message.doubleValue, 0.0001);
+
+        message = parse("aw", "07", "-100");
+        assertNotNull(message);
+        assertEquals(PinType.ANALOG, message.pinType);
+        assertEquals(7, message.pin);
+        assertEquals(-100, message.doubleValue, 0.0001);
+    }
+
+    @Test
+    public void testNotNumberValue() {
+        HardwareWriteMessage message = parse("vw", "10", "hello", "world");
+        assertNotNull(message);
+        assertEquals(NumberUtil.NO_RESULT, message.doubleValue, 0.0001);
+        assertEquals("hello\u0000world", message.getValue());
+
+        message = parse("vw", "10", "привет");
+        assertNotNull(message);
+        assertEquals("привет", message.getValue());
+    }
+
+    @Test
+    public void testNotWriteCommandsGoRegularWay() {
+        assertNull(parse("vr", "1"));
+        assertNull(parse("vw", "1"));
+        assertNull(parse("vw", "1", ""));
+        assertNull(parse("vw", "", "1"));
+        assertNull(parse("vw", "256", "1"));
+        assertNull(parse("vw", "1000", "1"));
+        assertNull(parse("vw", "1a", "1"));
+        assertNull(parse("xw", "1", "1"));
+        assertNull(parse("vww", "1", "1"));
+        assertNull(parse("pm", "1", "out"));
+    }
+
+}
@@ -0,0 +1,134 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static cc.blynk.server.core.protocol.enums.Command.GET_ENHANCED_GRAPH_DATA;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GraphDataDeflaterTest {
+
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+
+    @Test
+    public void testSameOutputAsCompress() {
+        ByteBuffer[] values = {series(5000, 1), ByteBuffer.allocate(0), series(300, 2).asReadOnlyBuffer()};
+        byte[] expected = ByteUtils.compress(7, values);
+
+        ByteBuf result = GraphDataDeflater.deflate(allocator, 7, values);
+        assertArrayEquals(expected, ByteBufUtil.getBytes(result));
+        assertTrue(result.release());
+
+        //series are not modified
+        assertEquals(5000 * SIZE_OF_REPORT_ENTRY, values[0].remaining());
+    }
+
+    @Test
+    public void testChunks() {
+        ByteBuffer[] values = {series(20000, 3), series(20000, 4)};
+        byte[] expected = ByteUtils.compress(1, values);
+
+        for (int chunkSize : new int[] {1, 100, 4096, 1024 * 1024}) {
+            List<ByteBuf> chunks = new ArrayList<>();
+            GraphDataDeflater.deflate(allocator, chunkSize, 1, values, chunks::add);
+
+            ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+            for (int i = 0; i < chunks.size(); i++) {
+                ByteBuf chunk = chunks.get(i);
+                assertTrue(chunk.readableBytes() <= chunkSize);
+                if (i < chunks.size() - 1) {
+                    assertEquals(chunkSize, chunk.readableBytes());
+                }
+                concatenated.writeBytes(ByteBufUtil.getBytes(chunk));
+                assertTrue(chunk.release());
+            }
+            assertArrayEquals(expected, concatenated.toByteArray());
+        }
+    }
+
+    @Test
+    public void testSeriesAddedOneByOne() {
+        ByteBuffer[] values = {series(20000, 5), ByteBuffer.allocate(0), series(100, 6)};
+        byte[] expected = ByteUtils.compress(2, values);
+
+        GraphDataDeflater deflater = new GraphDataDeflater(allocator, 4096, 2);
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        int seriesIndex = 0;
+        while (!deflater.isFinished()) {
+            ByteBuf chunk = deflater.nextChunk();
+            if (chunk != null) {
+                concatenated.writeBytes(ByteBufUtil.getBytes(chunk));
+                assertTrue(chunk.release());
+            } else if (seriesIndex < values.length) {
+                assertTrue(deflater.needsInput());
+                deflater.addSeries(values[seriesIndex++]);
+                assertFalse(deflater.needsInput());
+            } else {
+                deflater.finish();
+            }
+        }
+        deflater.close();
+        assertArrayEquals(expected, concatenated.toByteArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSeriesIsNotAddedBeforePreviousIsDeflated() {
+        GraphDataDeflater deflater = new GraphDataDeflater(allocator, 4096, 2);
+        try {
+            deflater.nextChunk();
+            deflater.addSeries(series(10, 7));
+            deflater.addSeries(series(10, 8));
+        } finally {
+            deflater.close();
+        }
+    }
+
+    @Test
+    public void testBufferBodyIsNotCopiedByEncoder() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MobileMessageEncoder(new GlobalStats()));
+        ByteBuf body = GraphDataDeflater.deflate(allocator, 1, new ByteBuffer[] {series(100, 5)});
+        byte[] bodyBytes = ByteBufUtil.getBytes(body);
+
+        channel.writeOutbound(new ByteBufMessage(11, GET_ENHANCED_GRAPH_DATA, body));
+        ByteBuf out = channel.readOutbound();
+        assertEquals(GET_ENHANCED_GRAPH_DATA, out.readByte());
+        assertEquals(11, out.readShort());
+        assertEquals(bodyBytes.length, out.readInt());
+        assertArrayEquals(bodyBytes, ByteBufUtil.getBytes(out));
+        assertTrue(out.release());
+        assertEquals(0, body.refCnt());
+    }
+
+    private static ByteBuffer series(int count, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer buf = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        long ts = 1_540_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            ts += 60_000;
+            buf.putDouble(random.nextDouble())
+               .putLong(ts);
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+}
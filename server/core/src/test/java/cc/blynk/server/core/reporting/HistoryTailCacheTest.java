@@ -0,0 +1,218 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.DAILY;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.HOURLY;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.MINUTE;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryTailCacheTest {
+
+    private final Path reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "history_tail_cache_test");
+    private final String userDir = FileUtils.getUserStorageDir("test@test.com", "Blynk");
+
+    private FileReportingStorage storage;
+    private GlobalStats stats;
+    private HistoryTailCache cache;
+
+    @Before
+    public void init() throws Exception {
+        deleteFolder(reportingFolder);
+        storage = new FileReportingStorage(reportingFolder.toString());
+        stats = new GlobalStats();
+        cache = new HistoryTailCache(HistoryTailCache.DEFAULT_MAX_BYTES, stats);
+    }
+
+    @After
+    public void close() throws Exception {
+        storage.close();
+        deleteFolder(reportingFolder);
+    }
+
+    @Test
+    public void testSeededAndAppendedRingMatchesStorage() throws Exception {
+        String fileName = fileName(1, MINUTE);
+        writeAndAppend(1, MINUTE, 1, 100);
+
+        //not cached yet, so nothing is appended
+        assertEquals(0, cache.size());
+        assertSameWindows(1, MINUTE, fileName);
+        assertEquals(1, cache.size());
+        assertEquals(1, stats.getHistoryCacheMisses(false));
+
+        writeAndAppend(1, MINUTE, 101, 2000);
+        stats.getHistoryCacheMisses(true);
+        assertSameWindows(1, MINUTE, fileName);
+        assertEquals(0, stats.getHistoryCacheMisses(false));
+        assertTrue(stats.getHistoryCacheHits(false) > 0);
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        String fileName = fileName(1, HOURLY);
+        assertNull(read(1, HOURLY, fileName, 10, 0));
+        writeAndAppend(1, HOURLY, 1, 5);
+        assertSameWindows(1, HOURLY, fileName);
+    }
+
+    @Test
+    public void testRingIsNotCachedWhenLoadedDuringFlush() throws Exception {
+        String fileName = fileName(1, MINUTE);
+        writeAndAppend(1, MINUTE, 1, 10);
+
+        cache.beginFlush();
+        assertNotNull(read(1, MINUTE, fileName, 10, 0));
+        assertEquals(0, cache.size());
+        writeAndAppend(1, MINUTE, 11, 20);
+        cache.endFlush();
+
+        assertSameWindows(1, MINUTE, fileName);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testRingIsNotCachedWhenDataIsRemovedDuringLoad() throws Exception {
+        String fileName = fileName(1, MINUTE);
+        writeAndAppend(1, MINUTE, 1, 10);
+
+        assertNotNull(cache.read(1, MINUTE, 10, 0, (count, skip) -> {
+            ByteBuffer data = storage.read(userDir, fileName, count, skip);
+            cache.invalidate(1, MINUTE);
+            return data;
+        }));
+        assertEquals(0, cache.size());
+
+        assertNotNull(cache.read(1, MINUTE, 10, 0, (count, skip) -> {
+            ByteBuffer data = storage.read(userDir, fileName, count, skip);
+            cache.clear();
+            return data;
+        }));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOnlyInvalidatedSeriesIsRemoved() throws Exception {
+        for (int seriesId = 1; seriesId <= 2; seriesId++) {
+            writeAndAppend(seriesId, MINUTE, 1, 10);
+            read(seriesId, MINUTE, fileName(seriesId, MINUTE), 10, 0);
+        }
+        long usedBytes = cache.usedBytes();
+        assertEquals(2, cache.size());
+
+        cache.invalidate(1, HOURLY);
+        assertEquals(2, cache.size());
+        cache.invalidate(1, MINUTE);
+        assertEquals(1, cache.size());
+        assertEquals(usedBytes / 2, cache.usedBytes());
+
+        stats.getHistoryCacheHits(true);
+        read(2, MINUTE, fileName(2, MINUTE), 10, 0);
+        assertEquals(1, stats.getHistoryCacheHits(false));
+    }
+
+    @Test
+    public void testBypassedRequests() throws Exception {
+        writeAndAppend(1, DAILY, 1, 10);
+        writeAndAppend(1, MINUTE, 1, 10);
+
+        assertNotNull(read(1, DAILY, fileName(1, DAILY), 10, 0));
+        assertNotNull(read(1, MINUTE, fileName(1, MINUTE), HistoryTailCache.MINUTE_POINTS, 1));
+        assertEquals(0, cache.size());
+        assertEquals(0, stats.getHistoryCacheMisses(false));
+
+        HistoryTailCache disabled = new HistoryTailCache(0, stats);
+        assertNotNull(disabled.read(1, MINUTE, 10, 0,
+                (count, skip) -> storage.read(userDir, fileName(1, MINUTE), count, skip)));
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void testLeastRecentlyReadRingsAreEvicted() throws Exception {
+        long ringBytes = HistoryTailCache.MINUTE_POINTS * SIZE_OF_REPORT_ENTRY;
+        cache = new HistoryTailCache(ringBytes * 3, stats);
+        for (int seriesId = 1; seriesId <= 5; seriesId++) {
+            writeAndAppend(seriesId, MINUTE, 1, 10);
+            read(seriesId, MINUTE, fileName(seriesId, MINUTE), 10, 0);
+            assertTrue(cache.usedBytes() <= ringBytes * 3);
+            //series 4 is read again before the series 5 is loaded, so series 4 is not evicted
+            if (seriesId == 4) {
+                read(4, MINUTE, fileName(4, MINUTE), 10, 0);
+            }
+        }
+        assertEquals(2, cache.size());
+
+        //series 4 and 5 are the most recently read, so they are still cached
+        stats.getHistoryCacheHits(true);
+        read(5, MINUTE, fileName(5, MINUTE), 10, 0);
+        read(4, MINUTE, fileName(4, MINUTE), 10, 0);
+        assertEquals(2, stats.getHistoryCacheHits(false));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.usedBytes());
+    }
+
+    private void assertSameWindows(int seriesId, GraphGranularityType type, String fileName) throws Exception {
+        int capacity = HistoryTailCache.capacity(type);
+        int[][] countAndSkip = {{1, 0}, {60, 0}, {capacity, 0}, {60, 60}, {10, capacity - 10}, {100, capacity - 50}};
+        for (int[] request : countAndSkip) {
+            ByteBuffer expected = storage.read(userDir, fileName, request[0], request[1]);
+            ByteBuffer actual = read(seriesId, type, fileName, request[0], request[1]);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    private ByteBuffer read(int seriesId, GraphGranularityType type, String fileName,
+                            int count, int skip) throws Exception {
+        return cache.read(seriesId, type, count, skip,
+                (loadCount, loadSkip) -> storage.read(userDir, fileName, loadCount, loadSkip));
+    }
+
+    private void writeAndAppend(int seriesId, GraphGranularityType type, int from, int to) throws Exception {
+        ByteBuffer entries = ByteBuffer.allocate((to - from + 1) * SIZE_OF_REPORT_ENTRY);
+        for (int i = from; i <= to; i++) {
+            entries.putDouble(i * 1.5)
+                   .putLong(i * type.period);
+        }
+        ((Buffer) entries).flip();
+        storage.write(userDir, fileName(seriesId, type), entries);
+        ((Buffer) entries).rewind();
+        cache.append(seriesId, type, entries);
+    }
+
+    private static String fileName(int seriesId, GraphGranularityType type) {
+        return "history_1-0_v" + seriesId + "_" + type.label + ".bin";
+    }
+
+    private static void deleteFolder(Path folder) throws Exception {
+        if (Files.exists(folder)) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+            }
+        }
+    }
+
+}
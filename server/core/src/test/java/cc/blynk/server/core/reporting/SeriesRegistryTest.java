@@ -0,0 +1,135 @@
+package cc.blynk.server.core.reporting;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SeriesRegistryTest {
+
+    private final Path dataFolder = Paths.get(System.getProperty("java.io.tmpdir"), "series_registry_test");
+    private final Path registryFile = dataFolder.resolve(SeriesRegistry.REGISTRY_FILENAME);
+
+    @Before
+    public void init() throws Exception {
+        FileUtils.deleteQuietly(registryFile);
+        Files.createDirectories(dataFolder);
+    }
+
+    @After
+    public void close() {
+        FileUtils.deleteQuietly(registryFile);
+    }
+
+    @Test
+    public void testIdsAreStableAfterReload() {
+        SeriesRegistry registry = new SeriesRegistry(dataFolder.toString());
+        int id0 = registry.getOrCreateId(key(1, 1));
+        int id1 = registry.getOrCreateId(key(1, 2));
+        assertEquals(id0, registry.getOrCreateId(key(1, 1)));
+        registry.persist();
+        int id2 = registry.getOrCreateId(key(2, 1));
+        registry.persist();
+
+        SeriesRegistry reloaded = new SeriesRegistry(dataFolder.toString());
+        assertEquals(3, reloaded.size());
+        assertEquals(id0, reloaded.getId(key(1, 1)));
+        assertEquals(id1, reloaded.getId(key(1, 2)));
+        assertEquals(id2, reloaded.getId(key(2, 1)));
+        assertEquals(3, reloaded.getOrCreateId(key(3, 1)));
+        assertEquals("history_1-2_v1_minute.bin", reloaded.getFileName(id2, GraphGranularityType.MINUTE));
+        assertEquals(FileUtils.getUserStorageDir("test@test.com", "Blynk"), reloaded.getUserDir(id2));
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsDropped() throws Exception {
+        SeriesRegistry registry = new SeriesRegistry(dataFolder.toString());
+        registry.getOrCreateId(key(1, 1));
+        registry.getOrCreateId(key(1, 2));
+        registry.persist();
+
+        try (FileChannel channel = FileChannel.open(registryFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        SeriesRegistry reloaded = new SeriesRegistry(dataFolder.toString());
+        assertEquals(1, reloaded.size());
+        assertEquals(0, reloaded.getId(key(1, 1)));
+        assertEquals(SeriesRegistry.NO_ID, reloaded.getId(key(1, 2)));
+        assertEquals(1, reloaded.getOrCreateId(key(1, 2)));
+        reloaded.persist();
+
+        assertEquals(2, new SeriesRegistry(dataFolder.toString()).size());
+    }
+
+    @Test
+    public void testRemovedSeriesKeepIdsOfOthers() {
+        SeriesRegistry registry = new SeriesRegistry(dataFolder.toString());
+        int id0 = registry.getOrCreateId(key(1, 1));
+        int id1 = registry.getOrCreateId(key(1, 2));
+        int id2 = registry.getOrCreateId(key(2, 1));
+        registry.persist();
+
+        assertEquals(2, registry.remove("test@test.com", "Blynk", 1, 1));
+        assertEquals(SeriesRegistry.NO_ID, registry.getId(key(1, 1)));
+        assertTrue(registry.isRemoved(id0));
+        assertTrue(registry.isRemoved(id1));
+        assertNull(registry.getKey(id1));
+        assertEquals(key(2, 1), registry.getKey(id2));
+        int id3 = registry.getOrCreateId(key(3, 1));
+        registry.persist();
+
+        SeriesRegistry reloaded = new SeriesRegistry(dataFolder.toString());
+        assertEquals(4, reloaded.size());
+        assertTrue(reloaded.isRemoved(id0));
+        assertEquals(SeriesRegistry.NO_ID, reloaded.getId(key(1, 2)));
+        assertEquals(id2, reloaded.getId(key(2, 1)));
+        assertEquals(id3, reloaded.getId(key(3, 1)));
+        //ids are never reused
+        assertEquals(4, reloaded.getOrCreateId(key(1, 1)));
+
+        assertEquals(3, reloaded.remove("test@test.com", "Blynk"));
+        assertEquals(SeriesRegistry.NO_ID, reloaded.getId(key(3, 1)));
+    }
+
+    @Test
+    public void testDeviceCache() {
+        SeriesRegistry registry = new SeriesRegistry();
+        User user = new User("test@test.com", "123", "Blynk", "local", "127.0.0.1", false, false);
+        Device device = new Device(2, "My Device", BoardType.ESP8266);
+
+        int id = registry.getOrCreateId(user, 1, device, PinType.VIRTUAL, (short) 1);
+        assertEquals(id, device.seriesIdCache.get(PinType.VIRTUAL, (short) 1));
+        assertEquals(id, registry.getOrCreateId(user, 1, device, PinType.VIRTUAL, (short) 1));
+        assertEquals(id, registry.getId(key(2, 1)));
+        assertSame(registry.getKey(id), registry.getKey(registry.getOrCreateId(key(2, 1))));
+
+        //cache filled by another registry is verified
+        SeriesRegistry another = new SeriesRegistry();
+        another.getOrCreateId(key(5, 5));
+        int anotherId = another.getOrCreateId(user, 1, device, PinType.VIRTUAL, (short) 1);
+        assertEquals(key(2, 1), another.getKey(anotherId));
+    }
+
+    private static BaseReportingKey key(int deviceId, int pin) {
+        return new BaseReportingKey("test@test.com", "Blynk", 1, deviceId, PinType.VIRTUAL, (short) pin);
+    }
+
+}
@@ -0,0 +1,159 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.SeriesRegistry;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AggregationCheckpointTest {
+
+    private static final long TS = 1_540_000_000_000L;
+
+    private Path dir;
+
+    @Before
+    public void init() throws Exception {
+        dir = Files.createTempDirectory("aggregation_checkpoint");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+        }
+    }
+
+    @Test
+    public void testRestoreAfterCrash() {
+        AverageAggregatorProcessor aggregator = open();
+        for (int i = 0; i < 100; i++) {
+            aggregator.collect(key(i % 10), TS + i * 1000, i);
+        }
+        aggregator.checkpoint();
+
+        //no close
+        AverageAggregatorProcessor restored = open();
+        assertEquals(aggregator.getMinute().size(), restored.getMinute().size());
+        assertEquals(10, restored.getHourly().size());
+        assertEquals(10, restored.getDaily().size());
+        for (int i = 0; i < 10; i++) {
+            AggregationKey hourKey = new AggregationKey(key(i), TS / HOUR);
+            assertEquals(aggregator.getHourly().get(hourKey).calcAverage(),
+                    restored.getHourly().get(hourKey).calcAverage(), 0);
+            AggregationKey dayKey = new AggregationKey(key(i), TS / DAY);
+            assertEquals(aggregator.getDaily().get(dayKey).getCount(), restored.getDaily().get(dayKey).getCount());
+        }
+    }
+
+    @Test
+    public void testIncrementalCheckpoint() throws Exception {
+        AverageAggregatorProcessor aggregator = open();
+        for (int i = 0; i < 1000; i++) {
+            aggregator.collect(key(i), TS, i);
+        }
+        aggregator.checkpoint();
+        Path hourly = dir.resolve(AverageAggregatorProcessor.HOURLY_CHECKPOINT_FILENAME);
+        long snapshotSize = Files.size(hourly);
+
+        //only changed entry is appended
+        aggregator.collect(key(1), TS, 3);
+        aggregator.checkpoint();
+        assertEquals(snapshotSize + 8 + 8 + AggregationCheckpoint.ENTRY_SIZE, Files.size(hourly));
+        //nothing changed
+        aggregator.checkpoint();
+        assertEquals(snapshotSize + 8 + 8 + AggregationCheckpoint.ENTRY_SIZE, Files.size(hourly));
+
+        AverageAggregatorProcessor restored = open();
+        AggregationValue value = restored.getHourly().get(new AggregationKey(key(1), TS / HOUR));
+        assertEquals(2, value.calcAverage(), 0);
+        assertEquals(2, value.getCount());
+        assertEquals(1000, restored.getHourly().size());
+    }
+
+    @Test
+    public void testDrainedEntriesAreNotRestored() {
+        AverageAggregatorProcessor aggregator = open();
+        aggregator.collect(key(1), TS, 1);
+        aggregator.collect(key(1), TS + MINUTE, 2);
+        aggregator.checkpoint();
+
+        assertEquals(1, aggregator.getMinute().drainOutdated((TS + MINUTE) / MINUTE, (id, bucket, sum, count) -> { }));
+        aggregator.checkpoint();
+
+        AverageAggregatorProcessor restored = open();
+        assertEquals(1, restored.getMinute().size());
+        assertNull(restored.getMinute().get(new AggregationKey(key(1), TS / MINUTE)));
+        assertEquals(2, restored.getMinute().get(new AggregationKey(key(1), (TS + MINUTE) / MINUTE)).calcAverage(), 0);
+    }
+
+    @Test
+    public void testBrokenTailIsSkipped() throws Exception {
+        AverageAggregatorProcessor aggregator = open();
+        aggregator.collect(key(1), TS, 1);
+        aggregator.checkpoint();
+        aggregator.collect(key(1), TS, 3);
+        aggregator.checkpoint();
+
+        //crash in the middle of the write
+        Path daily = dir.resolve(AverageAggregatorProcessor.DAILY_CHECKPOINT_FILENAME);
+        try (FileChannel channel = FileChannel.open(daily, APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 32, 1, 2, 3, 4, 5}));
+        }
+
+        AverageAggregatorProcessor restored = open();
+        assertEquals(2, restored.getDaily().get(new AggregationKey(key(1), TS / DAY)).calcAverage(), 0);
+        restored.collect(key(1), TS, 5);
+        restored.checkpoint();
+
+        assertEquals(3, open().getDaily().get(new AggregationKey(key(1), TS / DAY)).calcAverage(), 0);
+    }
+
+    @Test
+    public void testDataFolderIsCreatedWithTheFirstData() {
+        Path dataFolder = dir.resolve("data");
+        AverageAggregatorProcessor aggregator = new AverageAggregatorProcessor(dataFolder.toString(),
+                new SeriesRegistry(dataFolder.toString()));
+        aggregator.checkpoint();
+        assertTrue(Files.notExists(dataFolder));
+
+        aggregator.collect(key(1), TS, 1);
+        aggregator.checkpoint();
+        assertTrue(Files.exists(dataFolder.resolve(AverageAggregatorProcessor.MINUTE_CHECKPOINT_FILENAME)));
+        assertTrue(Files.exists(dataFolder.resolve(AverageAggregatorProcessor.DAILY_CHECKPOINT_FILENAME)));
+    }
+
+    @Test
+    public void testNoCheckpointWithoutPersistentRegistry() {
+        AverageAggregatorProcessor aggregator = new AverageAggregatorProcessor(dir.toString(), new SeriesRegistry());
+        aggregator.collect(key(1), TS, 1);
+        aggregator.checkpoint();
+        assertTrue(Files.notExists(dir.resolve(AverageAggregatorProcessor.MINUTE_CHECKPOINT_FILENAME)));
+    }
+
+    private AverageAggregatorProcessor open() {
+        return new AverageAggregatorProcessor(dir.toString(), new SeriesRegistry(dir.toString()));
+    }
+
+    private static BaseReportingKey key(int i) {
+        return new BaseReportingKey("test" + i + "@blynk.cc", "Blynk", 1, i, PinType.VIRTUAL, (short) 1);
+    }
+
+}
@@ -16,6 +16,7 @@ import java.time.ZoneOffset;
 
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -98,6 +99,41 @@ public class AverageAggregatorTest {
         assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(user.email, user.appName, dashId, 0, pinType, pin, getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
     }
 
+    @Test
+    public void testDrainOutdatedGroupsBySeries() {
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
+        BaseReportingKey key1 = new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (short) 1);
+        BaseReportingKey key2 = new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, (short) 2);
+
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        for (int minute = 4; minute >= 0; minute--) {
+            averageAggregator.collect(key2, ts + minute * MINUTE, minute);
+            averageAggregator.collect(key1, ts + minute * MINUTE, minute);
+            averageAggregator.collect(key1, ts + minute * MINUTE, minute + 2);
+        }
+        assertEquals(10, averageAggregator.getMinute().size());
+
+        AggregationBatch batch = new AggregationBatch(1);
+        long nowBucket = (ts + 3 * MINUTE) / MINUTE;
+        assertEquals(6, averageAggregator.getMinute().drainOutdated(nowBucket, batch));
+        assertEquals(4, averageAggregator.getMinute().size());
+
+        batch.sort();
+        int seriesId1 = averageAggregator.seriesRegistry.getId(key1);
+        int seriesId2 = averageAggregator.seriesRegistry.getId(key2);
+        int firstSeries = Math.min(seriesId1, seriesId2);
+        for (int i = 0; i < 6; i++) {
+            int seriesId = batch.getSeriesId(i);
+            assertEquals(i < 3 ? firstSeries : Math.max(seriesId1, seriesId2), seriesId);
+            assertEquals(ts / MINUTE + i % 3, batch.getBucket(i));
+            assertEquals(seriesId == seriesId1 ? i % 3 + 1 : i % 3, batch.getAverage(i), 0);
+        }
+
+        //not outdated entries are still available
+        assertEquals(4, averageAggregator.getMinute().get(
+                new AggregationKey(key1, (ts + 3 * MINUTE) / MINUTE)).calcAverage(), 0);
+    }
+
     @Test
     public void testTempFilesCreated() throws IOException {
         Path dir = Paths.get(reportingFolder, "");
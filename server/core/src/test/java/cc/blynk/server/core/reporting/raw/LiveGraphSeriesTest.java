@@ -0,0 +1,98 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class LiveGraphSeriesTest {
+
+    @Test
+    public void testReadLastValues() {
+        LiveGraphSeries series = new LiveGraphSeries(4);
+        assertNull(series.read(10, 0));
+        series.add(1, 100, 0);
+        series.add(2, 200, 0);
+
+        assertValues(series.read(10, 0), 1, 2);
+        assertValues(series.read(1, 0), 2);
+        assertValues(series.read(1, 1), 1);
+        assertNull(series.read(1, 2));
+        assertNull(series.read(0, 0));
+    }
+
+    @Test
+    public void testOldestValuesAreOverwritten() {
+        LiveGraphSeries series = new LiveGraphSeries(4);
+        for (int i = 1; i <= 6; i++) {
+            series.add(i, i * 100, 0);
+        }
+        assertValues(series.read(10, 0), 3, 4, 5, 6);
+        assertValues(series.read(2, 1), 4, 5);
+        assertValues(series.read(10, 3), 3);
+    }
+
+    @Test
+    public void testReadersSeeConsistentValues() throws Exception {
+        LiveGraphSeries series = new LiveGraphSeries(60);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicReference<String> error = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                ByteBuffer buffer = series.read(60, 0);
+                if (buffer == null) {
+                    continue;
+                }
+                long previousTs = -1;
+                while (buffer.hasRemaining()) {
+                    double value = buffer.getDouble();
+                    long ts = buffer.getLong();
+                    if (value != ts || ts != previousTs + 1 && previousTs != -1) {
+                        error.set("Broken read " + value + " " + ts + " after " + previousTs);
+                    }
+                    previousTs = ts;
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 2_000_000; i++) {
+            series.add(i, i, 0);
+        }
+        stop.set(true);
+        reader.join();
+
+        assertNull(error.get());
+    }
+
+    @Test
+    public void testIdleSeriesEvicted() {
+        RawDataCacheForGraphProcessor processor = new RawDataCacheForGraphProcessor();
+        BaseReportingKey key1 = new BaseReportingKey("test@blynk.cc", "Blynk", 1, 0, PinType.VIRTUAL, (short) 1);
+        BaseReportingKey key2 = new BaseReportingKey("test@blynk.cc", "Blynk", 1, 0, PinType.VIRTUAL, (short) 2);
+        processor.collect(key1, 1, 100);
+        processor.collect(key2, 1, 100);
+        assertEquals(2, processor.size());
+
+        long now = System.currentTimeMillis();
+        processor.rawStorage.get(key1).lastWriteTs = now - RawDataCacheForGraphProcessor.IDLE_TIMEOUT - 1;
+        assertEquals(1, processor.evictIdle(now));
+        assertFalse(processor.rawStorage.containsKey(key1));
+        assertEquals(0, processor.evictIdle(now));
+    }
+
+    private static void assertValues(ByteBuffer buffer, double... values) {
+        assertEquals(values.length * 16, buffer.remaining());
+        for (double value : values) {
+            assertEquals(value, buffer.getDouble(), 0);
+            assertEquals((long) value * 100, buffer.getLong());
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.SeriesRegistry;
+import cc.blynk.utils.NumberUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RawDataProcessorTest {
+
+    private final SeriesRegistry seriesRegistry = new SeriesRegistry();
+    private final BaseReportingKey key1 =
+            new BaseReportingKey("test@test.com", "Blynk", 1, 2, PinType.VIRTUAL, (short) 3);
+    private final BaseReportingKey key2 =
+            new BaseReportingKey("test@test.com", "Blynk", 1, 2, PinType.VIRTUAL, (short) 4);
+
+    @Test
+    public void testDrainPassesRecordsInOrder() throws Exception {
+        RawDataProcessor processor = new RawDataProcessor(true, seriesRegistry, 16);
+        processor.collect(key1, 1000, "1.5", 1.5D);
+        processor.collect(key2, 1001, "Lamp is ON", NumberUtil.NO_RESULT);
+        processor.collect(key1, 1002, "2", 2D);
+        assertEquals(3, processor.size());
+
+        List<String> records = new ArrayList<>();
+        int drained = processor.drain((key, seriesId, ts, stringValue, doubleValue) ->
+                records.add(key.pin + " " + ts + " " + stringValue + " " + doubleValue));
+
+        assertEquals(3, drained);
+        assertEquals(0, processor.size());
+        assertEquals("3 1000 null 1.5", records.get(0));
+        assertEquals("4 1001 Lamp is ON " + NumberUtil.NO_RESULT, records.get(1));
+        assertEquals("3 1002 null 2.0", records.get(2));
+        assertEquals(0, processor.drain((key, seriesId, ts, stringValue, doubleValue) -> records.add("")));
+    }
+
+    @Test
+    public void testNewRecordsAreDroppedWhenFull() throws Exception {
+        RawDataProcessor processor = new RawDataProcessor(true, seriesRegistry, 8);
+        assertEquals(8, processor.capacity());
+        for (int i = 0; i < 10; i++) {
+            processor.collect(key1, i, null, i);
+        }
+        assertEquals(8, processor.size());
+        assertEquals(8, processor.collected.sum());
+        assertEquals(2, processor.dropped.sum());
+
+        List<Long> timestamps = new ArrayList<>();
+        processor.drain((key, seriesId, ts, stringValue, doubleValue) -> timestamps.add(ts));
+        assertEquals(8, timestamps.size());
+        assertEquals(7L, (long) timestamps.get(7));
+
+        //slots are reused after the drain
+        assertTrue(processor.collect(key1, 100, null, 100));
+        timestamps.clear();
+        processor.drain((key, seriesId, ts, stringValue, doubleValue) -> timestamps.add(ts));
+        assertEquals(1, timestamps.size());
+        assertEquals(100L, (long) timestamps.get(0));
+    }
+
+    @Test
+    public void testLastRecordOfTheSameTsWins() throws Exception {
+        RawDataProcessor processor = new RawDataProcessor(true, seriesRegistry, 16);
+        processor.collect(key1, 1000, null, 1);
+        processor.collect(key2, 1000, null, 2);
+        processor.collect(key1, 1000, null, 3);
+        processor.collect(key1, 1001, null, 4);
+
+        List<Double> values = new ArrayList<>();
+        assertEquals(3, processor.drain((key, seriesId, ts, stringValue, doubleValue) -> values.add(doubleValue)));
+        assertEquals(List.of(2D, 3D, 4D), values);
+        assertEquals(1, processor.duplicates.sum());
+    }
+
+    @Test
+    public void testFailedDrainFreesTheBuffer() {
+        RawDataProcessor processor = new RawDataProcessor(true, seriesRegistry, 16);
+        processor.collect(key1, 1000, "Lamp is ON", NumberUtil.NO_RESULT);
+        processor.collect(key1, 1001, null, 1);
+        try {
+            processor.drain((key, seriesId, ts, stringValue, doubleValue) -> {
+                throw new IllegalStateException("DB is down.");
+            });
+        } catch (Exception e) {
+            assertEquals("DB is down.", e.getMessage());
+        }
+        assertEquals(0, processor.size());
+
+        processor.collect(key1, 1002, null, 2);
+        List<String> values = new ArrayList<>();
+        try {
+            processor.drain((key, seriesId, ts, stringValue, doubleValue) -> values.add(stringValue));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        //string value of the freed slot is not leaked to the new record
+        assertNull(values.get(0));
+    }
+
+    @Test
+    public void testHighWaterMarkAndSingleDrain() {
+        RawDataProcessor processor = new RawDataProcessor(true, seriesRegistry, 16);
+        AtomicInteger triggered = new AtomicInteger();
+        processor.setHighWaterMarkListener(triggered::incrementAndGet);
+        for (int i = 0; i < 16; i++) {
+            processor.collect(key1, i, null, i);
+        }
+        assertEquals(1, triggered.get());
+
+        assertTrue(processor.tryStartDrain());
+        assertFalse(processor.tryStartDrain());
+        processor.finishDrain();
+        assertTrue(processor.tryStartDrain());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        RawDataProcessor processor = new RawDataProcessor(false);
+        assertFalse(processor.collect(key1, 1000, null, 1));
+        assertEquals(0, processor.size());
+        assertEquals(0, processor.drain((key, seriesId, ts, stringValue, doubleValue) -> { }));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        RawDataProcessor processor = new RawDataProcessor(true, seriesRegistry, 1024);
+        int writers = 4;
+        int perWriter = 100_000;
+        int seriesId = seriesRegistry.getOrCreateId(key1);
+        CountDownLatch done = new CountDownLatch(writers);
+        for (int w = 0; w < writers; w++) {
+            long base = w * (long) perWriter;
+            new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    processor.collect(seriesId, base + i, null, base + i);
+                }
+                done.countDown();
+            }).start();
+        }
+
+        AtomicInteger received = new AtomicInteger();
+        RawDataProcessor.RawDataConsumer consumer = (key, id, ts, stringValue, doubleValue) -> {
+            assertEquals(ts, (long) doubleValue);
+            received.incrementAndGet();
+        };
+        while (done.getCount() > 0) {
+            processor.drain(consumer);
+        }
+        processor.drain(consumer);
+
+        assertEquals(writers * perWriter, processor.collected.sum() + processor.dropped.sum());
+        assertEquals(processor.collected.sum(), received.get());
+        assertEquals(0, processor.size());
+    }
+
+}
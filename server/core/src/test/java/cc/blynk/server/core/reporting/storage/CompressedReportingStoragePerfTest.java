@@ -0,0 +1,133 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Compares legacy and compressed formats on a month of minute fermentation temperature.
+ * Sizes of both files are printed on setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class CompressedReportingStoragePerfTest {
+
+    private static final int COUNT = 30 * 24 * 60;
+
+    private final Path reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "compressed_perf_test");
+    private final String userDir = FileUtils.getUserStorageDir("test@test.com", "Blynk");
+    private final String fileName = "history_1-0_v1_minute.bin";
+
+    @Param({"60", "1440", "10080"})
+    public int points;
+
+    private FileReportingStorage fileStorage;
+    private CompressedReportingStorage compressedStorage;
+    private ByteBuffer data;
+    private CompressedBlockWriter writer;
+    private long lastTs;
+
+    @Setup
+    public void setup() throws Exception {
+        deleteFolder(reportingFolder);
+        fileStorage = new FileReportingStorage(reportingFolder.toString());
+        compressedStorage = new CompressedReportingStorage(reportingFolder.toString());
+        writer = new CompressedBlockWriter(4096);
+
+        Random random = new Random(7);
+        data = ByteBuffer.allocate(COUNT * SIZE_OF_REPORT_ENTRY);
+        long ts = 1_540_000_000_000L;
+        double temp = 20;
+        for (int i = 0; i < COUNT; i++) {
+            temp += (random.nextInt(3) - 1) / 16D;
+            ts += GraphGranularityType.MINUTE.period;
+            data.putDouble(temp).putLong(ts);
+        }
+        ((Buffer) data).flip();
+        lastTs = ts;
+        fileStorage.write(userDir, fileName, data.duplicate());
+        compressedStorage.write(userDir, fileName, data.duplicate());
+
+        System.out.println("Legacy size : " + Files.size(reportingFolder.resolve(userDir).resolve(fileName))
+                + " bytes, compressed size : " + Files.size(reportingFolder
+                .resolve(CompressedReportingStorage.COMPRESSED_FOLDER).resolve(userDir).resolve(fileName))
+                + " bytes.");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        MappedReadCache readCache = compressedStorage.readCache;
+        System.out.println("Compressed read cache hits : " + readCache.hits() + ", misses : " + readCache.misses());
+        deleteFolder(reportingFolder);
+    }
+
+    @Benchmark
+    public ByteBuffer readLegacy() throws Exception {
+        return fileStorage.read(userDir, fileName, points, 0);
+    }
+
+    @Benchmark
+    public ByteBuffer readCompressed() throws Exception {
+        return compressedStorage.read(userDir, fileName, points, 0);
+    }
+
+    /**
+     * Steady state of the live graph, every new entry is read few times before the next one.
+     */
+    @Benchmark
+    public ByteBuffer appendAndReadCompressed() throws Exception {
+        lastTs += GraphGranularityType.MINUTE.period;
+        compressedStorage.write(userDir, fileName, 20, lastTs);
+        ByteBuffer result = null;
+        for (int i = 0; i < 4; i++) {
+            result = compressedStorage.read(userDir, fileName, points, 0);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int encodeBlock() {
+        writer.reset();
+        for (int i = 0; i < CompressedReportingStorage.ENTRIES_PER_BLOCK; i++) {
+            int position = i * SIZE_OF_REPORT_ENTRY;
+            writer.append(data.getDouble(position), data.getLong(position + 8));
+        }
+        return writer.size();
+    }
+
+    private static void deleteFolder(Path folder) throws Exception {
+        if (Files.exists(folder)) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static cc.blynk.server.core.reporting.storage.CompressedReportingStorage.ENTRIES_PER_BLOCK;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedReportingStorageTest {
+
+    private static final long MINUTE = GraphGranularityType.MINUTE.period;
+
+    private final Path reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "compressed_reporting_test");
+    private final String userDir = FileUtils.getUserStorageDir("test@test.com", "Blynk");
+    private final String minuteFile = "history_1-0_v1_minute.bin";
+
+    private CompressedReportingStorage storage;
+    private FileReportingStorage fileStorage;
+
+    @Before
+    public void init() throws Exception {
+        deleteFolder(reportingFolder);
+        storage = new CompressedReportingStorage(reportingFolder.toString());
+        fileStorage = new FileReportingStorage(reportingFolder.toString());
+    }
+
+    @After
+    public void close() throws Exception {
+        storage.close();
+        deleteFolder(reportingFolder);
+    }
+
+    @Test
+    public void testEncodeDecodeEdgeValues() {
+        double[] values = {0, -0.0, 1, 1, 22.5625, -22.5625, Double.NaN, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1.0 / 3, 1.0 / 3, 1e-300, 42};
+        long[] timestamps = {0, MINUTE, 2 * MINUTE, 3 * MINUTE, 3 * MINUTE + 1, 3 * MINUTE + 100,
+                10 * MINUTE, 10 * MINUTE, 9 * MINUTE, Integer.MAX_VALUE * 3L, Long.MAX_VALUE / 2,
+                -5, 1_540_000_000_000L, 1_540_000_060_000L, 1_540_000_120_000L};
+
+        CompressedBlockWriter writer = new CompressedBlockWriter(1);
+        for (int i = 0; i < values.length; i++) {
+            writer.append(values[i], timestamps[i]);
+        }
+
+        CompressedBlockReader reader = new CompressedBlockReader();
+        reader.reset(ByteBuffer.wrap(writer.array()), 0, writer.count());
+        for (int i = 0; i < values.length; i++) {
+            assertTrue(reader.hasNext());
+            reader.next();
+            assertEquals(timestamps[i], reader.ts());
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(reader.value()));
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testReadMatchesFileStorage() throws Exception {
+        Random random = new Random(1);
+        long ts = 1_540_000_000_000L;
+        int count = 0;
+        //batches of different size, so blocks are reopened, filled and sealed
+        for (int batchSize : new int[] {1, 1, 5, ENTRIES_PER_BLOCK - 7, 1, ENTRIES_PER_BLOCK * 3 + 2, 60, 1}) {
+            ByteBuffer batch = ByteBuffer.allocate(batchSize * SIZE_OF_REPORT_ENTRY);
+            for (int i = 0; i < batchSize; i++) {
+                ts += random.nextInt(10) == 0 ? MINUTE * random.nextInt(100) : MINUTE;
+                batch.putDouble(random.nextInt(10) == 0 ? random.nextDouble() : 20 + random.nextInt(16) / 16D)
+                     .putLong(ts);
+            }
+            ((Buffer) batch).flip();
+            storage.write(userDir, minuteFile, batch.duplicate());
+            fileStorage.write(userDir, minuteFile, batch);
+            count += batchSize;
+        }
+
+        int[][] countAndSkip = {{1, 0}, {10, 0}, {ENTRIES_PER_BLOCK, 3}, {count, 0}, {count + 100, 0},
+                {100, count - 50}, {10, count}, {10, count + 1}, {ENTRIES_PER_BLOCK, ENTRIES_PER_BLOCK}};
+        for (int[] request : countAndSkip) {
+            assertSameData(fileStorage.read(userDir, minuteFile, request[0], request[1]),
+                    storage.read(userDir, minuteFile, request[0], request[1]));
+        }
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        assertNull(storage.read(userDir, minuteFile, 10, 0));
+        storage.write(userDir, minuteFile, 1, 1);
+        assertNull(storage.read(userDir, "history_1-0_v1_hourly.bin", 10, 0));
+        assertNull(storage.read(userDir, minuteFile, 10, 1));
+        assertTrue(storage.contains(userDir, minuteFile));
+    }
+
+    @Test
+    public void testInterruptedWriteIsRecovered() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            storage.write(userDir, minuteFile, i, i * MINUTE);
+            fileStorage.write(userDir, minuteFile, i, i * MINUTE);
+        }
+
+        //payload of the rewritten block is partially written, header is still old
+        Path file = reportingFolder.resolve(CompressedReportingStorage.COMPRESSED_FOLDER)
+                .resolve(userDir).resolve(minuteFile);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7}), channel.size() - 2);
+        }
+        assertSameData(fileStorage.read(userDir, minuteFile, 100, 0), storage.read(userDir, minuteFile, 100, 0));
+
+        storage.write(userDir, minuteFile, 11, 11 * MINUTE);
+        fileStorage.write(userDir, minuteFile, 11, 11 * MINUTE);
+        assertSameData(fileStorage.read(userDir, minuteFile, 100, 0), storage.read(userDir, minuteFile, 100, 0));
+    }
+
+    @Test
+    public void testReadAfterAppendIsCacheHit() throws Exception {
+        storage.write(userDir, minuteFile, 1, MINUTE);
+        assertNotNull(storage.read(userDir, minuteFile, 10, 0));
+        assertEquals(1, storage.readCache.misses());
+
+        storage.write(userDir, minuteFile, 2, 2 * MINUTE);
+        ByteBuffer data = storage.read(userDir, minuteFile, 10, 0);
+        assertEquals(1, storage.readCache.misses());
+        assertEquals(1, storage.readCache.hits());
+        assertEquals(2, data.remaining() / SIZE_OF_REPORT_ENTRY);
+        data.position(SIZE_OF_REPORT_ENTRY);
+        assertEquals(2, data.getDouble(), 0.0001);
+    }
+
+    @Test
+    public void testReadsDuringAppendsAreNotTruncated() throws Exception {
+        int count = ENTRIES_PER_BLOCK * 20;
+        storage.write(userDir, minuteFile, 1, MINUTE);
+        AtomicInteger written = new AtomicInteger(1);
+        Thread writerThread = new Thread(() -> {
+            try {
+                for (int i = 2; i <= count; i++) {
+                    storage.write(userDir, minuteFile, i, i * MINUTE);
+                    written.set(i);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writerThread.start();
+
+        int limit = ENTRIES_PER_BLOCK * 2;
+        while (writerThread.isAlive()) {
+            int writtenBefore = written.get();
+            ByteBuffer data = storage.read(userDir, minuteFile, limit, 0);
+            int entries = data.remaining() / SIZE_OF_REPORT_ENTRY;
+            assertTrue(entries >= Math.min(limit, writtenBefore));
+            double last = data.getDouble(data.limit() - SIZE_OF_REPORT_ENTRY);
+            assertTrue(last >= writtenBefore);
+            //entries are consecutive
+            assertEquals(last - entries + 1, data.getDouble(), 0.0001);
+        }
+        writerThread.join();
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        int count = ENTRIES_PER_BLOCK * 5 + 10;
+        for (int i = 1; i <= count; i++) {
+            storage.write(userDir, minuteFile, i, i * MINUTE);
+        }
+
+        assertEquals(0, storage.truncate(GraphGranularityType.MINUTE, count));
+        assertEquals(1, storage.truncate(GraphGranularityType.MINUTE, ENTRIES_PER_BLOCK + 20));
+
+        ByteBuffer data = storage.read(userDir, minuteFile, count, 0);
+        assertNotNull(data);
+        assertEquals(ENTRIES_PER_BLOCK * 2 + 10, data.remaining() / SIZE_OF_REPORT_ENTRY);
+        data.position(data.limit() - SIZE_OF_REPORT_ENTRY);
+        assertEquals(count, data.getDouble(), 0.0001);
+        assertEquals(count * MINUTE, data.getLong());
+    }
+
+    @Test
+    public void testSizeOfRealisticData() throws Exception {
+        //a month of minute fermentation data : temperature with 1/16 degree resolution and bubbles per minute
+        Random random = new Random(7);
+        int count = 30 * 24 * 60;
+        ByteBuffer temperature = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        ByteBuffer bpm = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        long ts = 1_540_000_000_000L;
+        double temp = 20;
+        double bubbles = 0;
+        for (int i = 0; i < count; i++) {
+            temp += (random.nextInt(3) - 1) / 16D;
+            bubbles = Math.max(0, bubbles + random.nextInt(3) - 1);
+            ts += random.nextInt(1000) == 0 ? 30 * MINUTE : MINUTE;
+            temperature.putDouble(temp).putLong(ts);
+            bpm.putDouble(bubbles).putLong(ts);
+        }
+        ((Buffer) temperature).flip();
+        ((Buffer) bpm).flip();
+        storage.write(userDir, "history_1-0_v1_minute.bin", temperature);
+        storage.write(userDir, "history_1-0_v2_minute.bin", bpm);
+
+        Path folder = reportingFolder.resolve(CompressedReportingStorage.COMPRESSED_FOLDER).resolve(userDir);
+        long legacySize = count * SIZE_OF_REPORT_ENTRY;
+        long temperatureSize = Files.size(folder.resolve("history_1-0_v1_minute.bin"));
+        long bpmSize = Files.size(folder.resolve("history_1-0_v2_minute.bin"));
+        System.out.println("Legacy : " + legacySize + " bytes. Compressed temperature : " + temperatureSize
+                + " bytes, bpm : " + bpmSize + " bytes.");
+        assertTrue(temperatureSize * 5 < legacySize);
+        assertTrue(bpmSize * 5 < legacySize);
+    }
+
+    private static void assertSameData(ByteBuffer expected, ByteBuffer actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertNotNull(actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    private static void deleteFolder(Path folder) throws Exception {
+        if (Files.exists(folder)) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileReportingStorageTest {
+
+    private final Path reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "file_reporting_test");
+    private final String userDir = FileUtils.getUserStorageDir("test@test.com", "Blynk");
+    private final String minuteFile = "history_1-0_v1_minute.bin";
+
+    private FileReportingStorage storage;
+
+    @Before
+    public void init() throws Exception {
+        deleteFolder(reportingFolder);
+        storage = new FileReportingStorage(reportingFolder.toString(), 2);
+    }
+
+    @After
+    public void close() throws Exception {
+        storage.close();
+        deleteFolder(reportingFolder);
+    }
+
+    @Test
+    public void testReadMatchesFileUtils() throws Exception {
+        for (int i = 1; i <= 100; i++) {
+            storage.write(userDir, minuteFile, i, i);
+        }
+        Path file = reportingFolder.resolve(userDir).resolve(minuteFile);
+
+        int[][] countAndSkip = {{1, 0}, {10, 0}, {100, 0}, {200, 0}, {10, 95}, {10, 100}, {10, 101}};
+        for (int[] request : countAndSkip) {
+            ByteBuffer expected = FileUtils.read(file, request[0], request[1]);
+            ByteBuffer actual = storage.read(userDir, minuteFile, request[0], request[1]);
+            assertEquals(expected, actual);
+            if (actual != null) {
+                assertTrue(actual.isReadOnly());
+            }
+        }
+        assertNull(storage.read(userDir, "history_1-0_v2_minute.bin", 10, 0));
+    }
+
+    @Test
+    public void testMappingIsInvalidatedOnModification() throws Exception {
+        storage.write(userDir, minuteFile, 1, 1);
+        assertEquals(1, storage.read(userDir, minuteFile, 10, 0).remaining() / SIZE_OF_REPORT_ENTRY);
+        assertEquals(1, storage.readCache.size());
+
+        storage.write(userDir, minuteFile, 2, 2);
+        assertEquals(0, storage.readCache.size());
+        ByteBuffer beforeTruncate = storage.read(userDir, minuteFile, 10, 0);
+        assertEquals(2, beforeTruncate.remaining() / SIZE_OF_REPORT_ENTRY);
+
+        assertEquals(1, storage.truncate(GraphGranularityType.MINUTE, 1));
+        ByteBuffer data = storage.read(userDir, minuteFile, 10, 0);
+        assertEquals(1, data.remaining() / SIZE_OF_REPORT_ENTRY);
+        assertEquals(2, data.getDouble(), 0.0001);
+        //file is replaced, so previously returned view is still valid
+        assertEquals(1, beforeTruncate.getDouble(), 0.0001);
+
+        storage.delete(userDir, minuteFile);
+        assertNull(storage.read(userDir, minuteFile, 10, 0));
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            String fileName = "history_1-0_v" + i + "_minute.bin";
+            storage.write(userDir, fileName, i, i);
+            storage.read(userDir, fileName, 1, 0);
+        }
+        assertEquals(2, storage.readCache.size());
+    }
+
+    private static void deleteFolder(Path folder) throws Exception {
+        if (Files.exists(folder)) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static cc.blynk.server.core.reporting.storage.SegmentReportingStorage.ENTRIES_PER_BLOCK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentReportingStorageTest {
+
+    private final Path reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "segment_reporting_test");
+    private final String userDir = FileUtils.getUserStorageDir("test@test.com", "Blynk");
+    private final String minuteFile = "history_1-0_v1_minute.bin";
+    private final String hourlyFile = "history_1-0_v1_hourly.bin";
+
+    private SegmentReportingStorage storage;
+
+    @Before
+    public void init() throws Exception {
+        deleteFolder(reportingFolder);
+        storage = new SegmentReportingStorage(reportingFolder.toString());
+    }
+
+    @After
+    public void close() throws Exception {
+        storage.close();
+        deleteFolder(reportingFolder);
+    }
+
+    @Test
+    public void testReadMatchesFileStorage() throws Exception {
+        FileReportingStorage fileStorage = new FileReportingStorage(reportingFolder.toString());
+        int count = ENTRIES_PER_BLOCK * 3 + 7;
+        for (int i = 1; i <= count; i++) {
+            storage.write(userDir, minuteFile, i, i);
+            fileStorage.write(userDir, minuteFile, i, i);
+        }
+
+        int[][] countAndSkip = {{1, 0}, {10, 0}, {ENTRIES_PER_BLOCK, 3}, {count, 0},
+                {count + 100, 0}, {100, count - 50}, {10, count}, {10, count + 1}};
+        for (int[] request : countAndSkip) {
+            ByteBuffer expected = fileStorage.read(userDir, minuteFile, request[0], request[1]);
+            ByteBuffer actual = storage.read(userDir, minuteFile, request[0], request[1]);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertNotNull(actual);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testNoData() throws Exception {
+        assertNull(storage.read(userDir, minuteFile, 10, 0));
+        storage.write(userDir, minuteFile, 1, 1);
+        assertNull(storage.read(userDir, hourlyFile, 10, 0));
+        assertNull(storage.read("unknown", minuteFile, 10, 0));
+    }
+
+    @Test
+    public void testDataIsPersistedBetweenRestarts() throws Exception {
+        int count = ENTRIES_PER_BLOCK * 2 + 1;
+        for (int i = 1; i <= count; i++) {
+            storage.write(userDir, minuteFile, i, i);
+        }
+        storage.flush();
+        //written after the last checkpoint, should be recovered from the segment
+        storage.write(userDir, minuteFile, count + 1, count + 1);
+        storage.write(userDir, hourlyFile, 1, 1);
+        storage.close();
+
+        storage = new SegmentReportingStorage(reportingFolder.toString());
+        ByteBuffer data = storage.read(userDir, minuteFile, count + 1, 0);
+        assertNotNull(data);
+        assertEquals((count + 1) * 16, data.remaining());
+        for (int i = 1; i <= count + 1; i++) {
+            assertEquals(i, data.getDouble(), 0.0001);
+            assertEquals(i, data.getLong());
+        }
+        assertEquals(16, storage.read(userDir, hourlyFile, 10, 0).remaining());
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        storage.write(userDir, minuteFile, 1, 1);
+        storage.write(userDir, hourlyFile, 1, 1);
+        storage.write(userDir, "history_2-0_v1_minute.bin", 1, 1);
+
+        storage.delete(userDir, minuteFile);
+        assertNull(storage.read(userDir, minuteFile, 10, 0));
+        assertFalse(storage.contains(userDir, minuteFile));
+
+        assertEquals(1, storage.delete(userDir, fileName -> fileName.startsWith("history_1-0_")));
+        assertNull(storage.read(userDir, hourlyFile, 10, 0));
+        assertTrue(storage.contains(userDir, "history_2-0_v1_minute.bin"));
+
+        //freed blocks are reused after the checkpoint and cleaned
+        storage.flush();
+        storage.write(userDir, minuteFile, 2, 2);
+        ByteBuffer data = storage.read(userDir, minuteFile, 10, 0);
+        assertEquals(16, data.remaining());
+        assertEquals(2, data.getDouble(), 0.0001);
+    }
+
+    @Test
+    public void testDeleteRemovesEmptyUser() throws Exception {
+        storage.write(userDir, minuteFile, 1, 1);
+        storage.write(userDir, hourlyFile, 1, 1);
+
+        storage.delete(userDir, minuteFile);
+        assertTrue(storage.hasUser(userDir));
+        assertEquals(1, storage.delete(userDir, fileName -> true));
+        assertFalse(storage.hasUser(userDir));
+
+        storage.write(userDir, minuteFile, 2, 2);
+        assertTrue(storage.hasUser(userDir));
+        assertEquals(16, storage.read(userDir, minuteFile, 10, 0).remaining());
+    }
+
+    @Test
+    public void testFreedBlocksNotReusedBeforeCheckpoint() throws Exception {
+        int count = ENTRIES_PER_BLOCK + 1;
+        for (int i = 1; i <= count; i++) {
+            storage.write(userDir, minuteFile, i, i);
+        }
+        storage.flush();
+
+        storage.delete(userDir, minuteFile);
+        for (int i = 1; i <= count; i++) {
+            storage.write(userDir, hourlyFile, -i, -i);
+        }
+
+        //crash, last checkpoint still has the deleted series
+        storage = new SegmentReportingStorage(reportingFolder.toString());
+        ByteBuffer data = storage.read(userDir, minuteFile, count, 0);
+        assertEquals(count * 16, data.remaining());
+        for (int i = 1; i <= count; i++) {
+            assertEquals(i, data.getDouble(), 0.0001);
+            assertEquals(i, data.getLong());
+        }
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        int count = ENTRIES_PER_BLOCK * 4;
+        for (int i = 1; i <= count; i++) {
+            storage.write(userDir, minuteFile, i, i);
+            storage.write(userDir, hourlyFile, i, i);
+        }
+
+        assertEquals(1, storage.truncate(GraphGranularityType.MINUTE, ENTRIES_PER_BLOCK + 1));
+
+        ByteBuffer data = storage.read(userDir, minuteFile, count, 0);
+        assertEquals(ENTRIES_PER_BLOCK * 2 * 16, data.remaining());
+        assertEquals(ENTRIES_PER_BLOCK * 2 + 1, data.getLong(8));
+        assertEquals(count * 16, storage.read(userDir, hourlyFile, count, 0).remaining());
+    }
+
+    private static void deleteFolder(Path folder) throws Exception {
+        if (Files.exists(folder)) {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+            }
+        }
+    }
+
+}
@@ -61,7 +61,7 @@ public class RawDataDBTest {
         rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName, 1, 2, PinType.VIRTUAL, (short) 3), 1111111111, "Lamp is ON", NumberUtil.NO_RESULT);
 
         //invoking directly dao to avoid separate thread execution
-        reportingDBManager.reportingDBDao.insertRawData(rawDataProcessor.rawStorage);
+        reportingDBManager.reportingDBDao.insertRawData(rawDataProcessor);
 
         try (Connection connection = reportingDBManager.getConnection();
              Statement statement = connection.createStatement();
@@ -90,7 +90,7 @@ public class RawDataDBTest {
         rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName, 1, 2, PinType.VIRTUAL, (short) 3), 1111111111, "Lamp is ON", 1.33D);
 
         //invoking directly dao to avoid separate thread execution
-        reportingDBManager.reportingDBDao.insertRawData(rawDataProcessor.rawStorage);
+        reportingDBManager.reportingDBDao.insertRawData(rawDataProcessor);
 
         try (Connection connection = reportingDBManager.getConnection();
              Statement statement = connection.createStatement();
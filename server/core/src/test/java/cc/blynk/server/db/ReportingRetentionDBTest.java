@@ -0,0 +1,147 @@
+package cc.blynk.server.db;
+
+import cc.blynk.server.db.ReportingRetentionManager.PartitionInterval;
+import cc.blynk.server.db.ReportingRetentionManager.Policy;
+import cc.blynk.utils.properties.DBProperties;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReportingRetentionDBTest {
+
+    private static final String TABLE = "reporting_retention_test";
+    private static final Instant NOW = Instant.parse("2026-12-31T23:30:00Z");
+
+    private HikariDataSource ds;
+
+    @Before
+    public void init() throws Exception {
+        DBProperties properties = new DBProperties("db-test.properties");
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(properties.getProperty("reporting.jdbc.url"));
+        config.setUsername(properties.getProperty("reporting.user"));
+        config.setPassword(properties.getProperty("reporting.password"));
+        config.setAutoCommit(false);
+        ds = new HikariDataSource(config);
+        dropTables();
+        execute("CREATE TABLE " + TABLE + " (email text, ts timestamptz, value float8, PRIMARY KEY (email, ts))");
+    }
+
+    @After
+    public void close() throws Exception {
+        dropTables();
+        ds.close();
+    }
+
+    @Test
+    public void testPlainTableIsPartitionedAndKeepsData() throws Exception {
+        insert("2026-12-29 10:00:00+00", "2026-12-31 10:00:00+00");
+        ReportingRetentionManager manager = manager(true);
+
+        manager.maintain(NOW);
+        assertEquals(List.of(TABLE + "_default", TABLE + "_p20261231", TABLE + "_p20270101",
+                TABLE + "_p20270102", TABLE + "_p20270103"), partitions());
+        //old data is in the migrated table, it is dropped as a whole once expired
+        assertEquals(2, count(TABLE + "_p20261231"));
+
+        //migrated table keeps no bound, ts after it goes to the other partitions
+        insert("2027-01-01 10:00:00+00", "2027-02-01 10:00:00+00");
+        assertEquals(1, count(TABLE + "_p20270101"));
+        assertEquals(1, count(TABLE + "_default"));
+
+        manager.maintain(Instant.parse("2027-01-02T23:30:00Z"));
+        assertTrue(partitions().contains(TABLE + "_p20270105"));
+        assertFalse(partitions().contains(TABLE + "_p20261231"));
+        assertEquals(2, count(TABLE));
+    }
+
+    @Test
+    public void testRowsOfTheDefaultPartitionAreMovedToTheNewPartition() throws Exception {
+        ReportingRetentionManager manager = manager(false);
+        manager.maintain(NOW);
+        insert("2027-01-10 10:00:00+00", "2027-01-10 11:00:00+00");
+        assertEquals(2, count(TABLE + "_default"));
+
+        manager.maintain(Instant.parse("2027-01-09T23:30:00Z"));
+        assertEquals(0, count(TABLE + "_default"));
+        assertEquals(2, count(TABLE + "_p20270110"));
+    }
+
+    @Test
+    public void testOldDataIsDeletedWhenPartitioningFails() throws Exception {
+        insert("2026-12-29 10:00:00+00", "2026-12-31 10:00:00+00");
+        //name of the partition for the migrated table is taken, so migration fails
+        execute("CREATE TABLE " + TABLE + "_p20261231 (id int)");
+
+        manager(true).maintain(NOW);
+        assertEquals(1, count(TABLE));
+        //table is still plain and accepts data after the failed migration bound
+        insert("2027-02-01 10:00:00+00");
+        assertEquals(2, count(TABLE));
+    }
+
+    private ReportingRetentionManager manager(boolean cleanOldReporting) {
+        return new ReportingRetentionManager(ds,
+                List.of(new Policy(TABLE, PartitionInterval.DAY, TimeUnit.HOURS.toMillis(24))), 3, cleanOldReporting);
+    }
+
+    private void insert(String... timestamps) throws Exception {
+        for (String ts : timestamps) {
+            execute("INSERT INTO " + TABLE + " VALUES ('test@test.com', '" + ts + "', 1)");
+        }
+    }
+
+    private int count(String table) throws Exception {
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT count(*) FROM " + table)) {
+            rs.next();
+            int count = rs.getInt(1);
+            connection.commit();
+            return count;
+        }
+    }
+
+    private List<String> partitions() throws Exception {
+        List<String> partitions = new ArrayList<>();
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT c.relname FROM pg_inherits i "
+                     + "JOIN pg_class c ON c.oid = i.inhrelid "
+                     + "WHERE i.inhparent = to_regclass('" + TABLE + "') ORDER BY c.relname")) {
+            while (rs.next()) {
+                partitions.add(rs.getString(1));
+            }
+            connection.commit();
+        }
+        return partitions;
+    }
+
+    private void dropTables() throws Exception {
+        execute("DROP TABLE IF EXISTS " + TABLE + " CASCADE");
+        execute("DROP TABLE IF EXISTS " + TABLE + "_p20261231");
+    }
+
+    private void execute(String sql) throws Exception {
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            connection.commit();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package cc.blynk.server.db;
+
+import cc.blynk.server.db.ReportingRetentionManager.PartitionInterval;
+import cc.blynk.server.db.ReportingRetentionManager.Policy;
+import cc.blynk.utils.properties.DBProperties;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReportingRetentionManagerTest {
+
+    private static final Instant NOW = Instant.parse("2026-12-31T23:30:00Z");
+
+    private final Policy minute = new Policy("reporting_average_minute", PartitionInterval.DAY,
+            TimeUnit.HOURS.toMillis(24));
+    private final Policy hourly = new Policy("reporting_average_hourly", PartitionInterval.MONTH,
+            TimeUnit.DAYS.toMillis(90));
+
+    @Test
+    public void testPartitionsAhead() {
+        List<ZonedDateTime> days = minute.partitionsToCreate(NOW, 2);
+        assertEquals(3, days.size());
+        assertEquals("reporting_average_minute_p20261231", minute.partitionName(days.get(0)));
+        assertEquals("reporting_average_minute_p20270101", minute.partitionName(days.get(1)));
+        assertEquals("reporting_average_minute_p20270102", minute.partitionName(days.get(2)));
+
+        List<ZonedDateTime> months = hourly.partitionsToCreate(NOW, 1);
+        assertEquals("reporting_average_hourly_p202612", hourly.partitionName(months.get(0)));
+        assertEquals("reporting_average_hourly_p202701", hourly.partitionName(months.get(1)));
+    }
+
+    @Test
+    public void testCreatePartitionSQL() {
+        ZonedDateTime start = ZonedDateTime.of(2026, 2, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        assertEquals(List.of(
+                "CREATE TABLE reporting_average_hourly_p202602 (LIKE reporting_average_hourly)",
+                "WITH moved AS (DELETE FROM reporting_average_hourly_default "
+                        + "WHERE ts >= '2026-02-01 00:00:00+00' AND ts < '2026-03-01 00:00:00+00' RETURNING *) "
+                        + "INSERT INTO reporting_average_hourly_p202602 SELECT * FROM moved",
+                "ALTER TABLE reporting_average_hourly ATTACH PARTITION reporting_average_hourly_p202602 "
+                        + "FOR VALUES FROM ('2026-02-01 00:00:00+00') TO ('2026-03-01 00:00:00+00')"
+                ), hourly.createPartitionSQL(start));
+        assertEquals("CREATE TABLE IF NOT EXISTS reporting_average_hourly_default "
+                + "PARTITION OF reporting_average_hourly DEFAULT", hourly.createDefaultPartitionSQL());
+    }
+
+    @Test
+    public void testExpiredPartitions() {
+        //ends 2026-12-30 00:00, older than 24 hours
+        assertTrue(minute.isExpired("reporting_average_minute_p20261229", NOW));
+        //ends 2026-12-31 00:00, still has records of the last 24 hours
+        assertFalse(minute.isExpired("reporting_average_minute_p20261230", NOW));
+        assertFalse(minute.isExpired("reporting_average_minute_p20261231", NOW));
+        assertTrue(minute.isExpired("reporting_average_minute_p20261230", NOW.plusSeconds(1800)));
+
+        //cutoff is 2026-10-02 23:30
+        assertTrue(hourly.isExpired("reporting_average_hourly_p202609", NOW));
+        assertFalse(hourly.isExpired("reporting_average_hourly_p202610", NOW));
+
+        //not created by the manager
+        assertFalse(minute.isExpired("reporting_average_minute_old", NOW));
+        assertFalse(minute.isExpired("reporting_average_minute_p2026", NOW));
+        assertFalse(minute.isExpired("reporting_average_hourly_p20200101", NOW));
+        assertFalse(minute.isExpired("reporting_average_minute_default", NOW));
+    }
+
+    @Test
+    public void testMigrationKeepsExistingTableAsPartition() {
+        assertEquals(List.of(
+                "ALTER TABLE reporting_average_minute DROP CONSTRAINT IF EXISTS "
+                        + "reporting_average_minute_migration_bound",
+                "ALTER TABLE reporting_average_minute ADD CONSTRAINT reporting_average_minute_migration_bound "
+                        + "CHECK (ts < '2027-01-01 00:00:00+00') NOT VALID"
+        ), minute.addMigrationBoundSQL(NOW));
+        assertEquals("ALTER TABLE reporting_average_minute VALIDATE CONSTRAINT "
+                + "reporting_average_minute_migration_bound", minute.validateMigrationBoundSQL());
+
+        List<String> sql = minute.migrationSQL(NOW);
+        assertEquals(List.of(
+                "ALTER TABLE reporting_average_minute RENAME TO reporting_average_minute_p20261231",
+                "ALTER INDEX IF EXISTS reporting_average_minute_pkey "
+                        + "RENAME TO reporting_average_minute_p20261231_pkey",
+                "CREATE TABLE reporting_average_minute (LIKE reporting_average_minute_p20261231 INCLUDING ALL) "
+                        + "PARTITION BY RANGE (ts)",
+                "ALTER TABLE reporting_average_minute DROP CONSTRAINT reporting_average_minute_migration_bound",
+                "ALTER TABLE reporting_average_minute ATTACH PARTITION reporting_average_minute_p20261231 "
+                        + "FOR VALUES FROM (MINVALUE) TO ('2027-01-01 00:00:00+00')",
+                "ALTER TABLE reporting_average_minute_p20261231 DROP CONSTRAINT "
+                        + "reporting_average_minute_migration_bound",
+                "CREATE TABLE IF NOT EXISTS reporting_average_minute_default "
+                        + "PARTITION OF reporting_average_minute DEFAULT"
+        ), sql);
+        //migrated table is the partition of the current day, so it expires as a whole
+        assertFalse(minute.isExpired("reporting_average_minute_p20261231", NOW.plus(1, ChronoUnit.DAYS)));
+        assertTrue(minute.isExpired("reporting_average_minute_p20261231", NOW.plus(2, ChronoUnit.DAYS)));
+    }
+
+    @Test
+    public void testPoliciesFromProperties() {
+        DBProperties properties = new DBProperties("db-test.properties");
+        List<Policy> defaults = ReportingRetentionManager.policies(properties);
+        //partitioning is opt-in
+        assertEquals(PartitionInterval.NONE, defaults.get(0).interval);
+        assertEquals(TimeUnit.MINUTES.toMillis(24 * 60 + 1), defaults.get(0).retention);
+        assertEquals(PartitionInterval.NONE, defaults.get(1).interval);
+        assertEquals(PartitionInterval.NONE, defaults.get(2).interval);
+        assertEquals(0, defaults.get(2).retention);
+
+        properties.setProperty("reporting.minute.partition", "day");
+        properties.setProperty("reporting.hourly.retention.hours", "48");
+        properties.setProperty("reporting.daily.partition", "month");
+        List<Policy> policies = ReportingRetentionManager.policies(properties);
+        assertEquals("reporting_average_minute", policies.get(0).table);
+        assertEquals(PartitionInterval.DAY, policies.get(0).interval);
+        assertEquals(TimeUnit.HOURS.toMillis(48), policies.get(1).retention);
+        assertEquals("reporting_average_daily", policies.get(2).table);
+        assertEquals(PartitionInterval.MONTH, policies.get(2).interval);
+    }
+
+}
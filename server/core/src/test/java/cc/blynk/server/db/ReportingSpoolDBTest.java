@@ -0,0 +1,129 @@
+package cc.blynk.server.db;
+
+import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.MINUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReportingSpoolDBTest {
+
+    private final long minute = System.currentTimeMillis() / GraphGranularityType.MINUTE.period;
+    private Path spoolDir;
+    private BlockingIOProcessor blockingIOProcessor;
+    private ReportingDBManager reportingDBManager;
+
+    @Before
+    public void init() throws Exception {
+        spoolDir = Files.createTempDirectory("reporting_spool");
+        blockingIOProcessor = new BlockingIOProcessor(4, 10000);
+        reportingDBManager = new ReportingDBManager("db-test.properties", blockingIOProcessor, true, spoolDir);
+        assertNotNull(reportingDBManager.spool);
+        reportingDBManager.executeSQL("DELETE FROM reporting_average_minute");
+    }
+
+    @After
+    public void close() throws Exception {
+        reportingDBManager.executeSQL("DELETE FROM reporting_average_minute");
+        reportingDBManager.close();
+        blockingIOProcessor.close();
+        try (Stream<Path> files = Files.walk(spoolDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+        }
+    }
+
+    @Test
+    public void testAlreadyStoredEntriesDontRejectTheRest() throws Exception {
+        ReportingSpool spool = reportingDBManager.spool;
+        spool.append(entries(0, 100), MINUTE, System.currentTimeMillis());
+        reportingDBManager.replaySpool(Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(100, countStored());
+
+        //first half of the record is stored by the previous replay
+        spool.append(entries(50, 100), MINUTE, System.currentTimeMillis());
+        reportingDBManager.replaySpool(Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertTrue(spool.isEmpty());
+        assertEquals(150, countStored());
+        assertEquals(50, spool.rejectedEntries.sum());
+    }
+
+    @Test
+    public void testBrokenEntriesDontRejectTheRest() throws Exception {
+        ReportingSpool spool = reportingDBManager.spool;
+        reportingDBManager.executeSQL("ALTER TABLE reporting_average_minute "
+                + "ADD CONSTRAINT test_positive_value CHECK (value >= 0)");
+        try {
+            //values are the pins, so 5 entries are negative
+            spool.append(entries(-5, 20), MINUTE, System.currentTimeMillis());
+            reportingDBManager.replaySpool(Integer.MAX_VALUE, Long.MAX_VALUE);
+        } finally {
+            reportingDBManager.executeSQL("ALTER TABLE reporting_average_minute "
+                    + "DROP CONSTRAINT test_positive_value");
+        }
+        assertTrue(spool.isEmpty());
+        assertEquals(15, countStored());
+        assertEquals(5, spool.rejectedEntries.sum());
+    }
+
+    @Test
+    public void testSpoolIsReplayedByPassesWithinBudget() throws Exception {
+        ReportingSpool spool = reportingDBManager.spool;
+        for (int i = 0; i < 5; i++) {
+            spool.append(entries(i * 10, 10), MINUTE, System.currentTimeMillis());
+        }
+
+        //budget is spent after the first pass
+        reportingDBManager.replaySpool(10, 0);
+        assertEquals(10, countStored());
+        assertFalse(spool.isEmpty());
+
+        reportingDBManager.replaySpool(10, Long.MAX_VALUE);
+        assertEquals(50, countStored());
+        assertTrue(spool.isEmpty());
+    }
+
+    private int countStored() throws Exception {
+        try (Connection connection = reportingDBManager.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT count(*) FROM reporting_average_minute")) {
+            rs.next();
+            int count = rs.getInt(1);
+            connection.commit();
+            return count;
+        }
+    }
+
+    //entries of the different pins within the last minute
+    private Map<AggregationKey, AggregationValue> entries(int from, int count) {
+        Map<AggregationKey, AggregationValue> entries = new HashMap<>();
+        for (int pin = from; pin < from + count; pin++) {
+            AggregationValue value = new AggregationValue();
+            value.update(pin);
+            BaseReportingKey key = new BaseReportingKey("test@test.com", "Blynk", 1, 2, PinType.VIRTUAL, (short) pin);
+            entries.put(new AggregationKey(key, minute), value);
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,169 @@
+package cc.blynk.server.db;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.DAILY;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.HOURLY;
+import static cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType.MINUTE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportingSpoolTest {
+
+    private Path dir;
+    private final List<GraphGranularityType> storedTypes = new ArrayList<>();
+    private final Map<AggregationKey, Double> stored = new HashMap<>();
+
+    private final ReportingSpool.Sink sink = (entries, type) -> {
+        storedTypes.add(type);
+        for (Map.Entry<AggregationKey, AggregationValue> entry : entries.entrySet()) {
+            stored.put(entry.getKey(), entry.getValue().calcAverage());
+        }
+    };
+
+    @Before
+    public void init() throws Exception {
+        dir = Files.createTempDirectory("reporting_spool");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+        }
+    }
+
+    @Test
+    public void testAppendAndReplay() throws Exception {
+        try (ReportingSpool spool = new ReportingSpool(dir)) {
+            assertTrue(spool.isEmpty());
+            spool.append(entries(0, 100), MINUTE, 1000);
+            spool.append(entries(100, 10), HOURLY, 1000);
+            spool.append(entries(200, 1), DAILY, 1000);
+            spool.sync();
+            assertTrue(spool.getPendingBytes() > 0);
+            assertEquals(1000, spool.getLagMillis(2000));
+
+            assertEquals(111, spool.replay(sink, Integer.MAX_VALUE));
+            assertEquals(List.of(MINUTE, HOURLY, DAILY), storedTypes);
+            assertEquals(111, stored.size());
+            AggregationKey key = new AggregationKey(key(5), 1_000_005);
+            assertEquals(5.5, stored.get(key), 0.0000001);
+
+            assertTrue(spool.isEmpty());
+            assertEquals(0, spool.getLagMillis(2000));
+            assertEquals(0, spool.replay(sink, Integer.MAX_VALUE));
+            assertEquals(111, spool.replayedEntries.sum());
+        }
+    }
+
+    @Test
+    public void testFailedReplayKeepsEntries() throws Exception {
+        try (ReportingSpool spool = new ReportingSpool(dir)) {
+            spool.append(entries(0, 10), MINUTE, 1000);
+            spool.append(entries(10, 10), MINUTE, 2000);
+
+            assertEquals(0, spool.replay((entries, type) -> {
+                throw new IllegalStateException("DB is down.");
+            }, Integer.MAX_VALUE));
+            assertEquals(1, spool.failedReplays.sum());
+            assertEquals(5000, spool.getLagMillis(6000));
+
+            //rate limit, the whole record is replayed at once
+            assertEquals(10, spool.replay(sink, 5));
+            assertEquals(10, stored.size());
+            assertEquals(4000, spool.getLagMillis(6000));
+            assertEquals(10, spool.replay(sink, 5));
+            assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void testReplayContinuesAfterRestart() throws Exception {
+        try (ReportingSpool spool = new ReportingSpool(dir)) {
+            spool.append(entries(0, 10), MINUTE, 1000);
+            spool.append(entries(10, 10), HOURLY, 1000);
+            spool.sync();
+            assertEquals(10, spool.replay(sink, 1));
+        }
+
+        try (ReportingSpool spool = new ReportingSpool(dir)) {
+            assertTrue(spool.getPendingBytes() > 0);
+            spool.append(entries(20, 10), DAILY, 1000);
+            assertEquals(20, spool.replay(sink, Integer.MAX_VALUE));
+            assertEquals(List.of(MINUTE, HOURLY, DAILY), storedTypes);
+            assertEquals(30, stored.size());
+            //replayed segment of the previous start is removed
+            assertEquals(1, spool.getSegmentsCount());
+        }
+    }
+
+    @Test
+    public void testBrokenTailIsSkipped() throws Exception {
+        try (ReportingSpool spool = new ReportingSpool(dir)) {
+            spool.append(entries(0, 10), MINUTE, 1000);
+        }
+        //crash in the middle of the append
+        Path segment = dir.resolve(ReportingSpool.SEGMENT_PREFIX + 0 + ReportingSpool.SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(segment, APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 1, 0, 1, 2, 3}));
+        }
+
+        try (ReportingSpool spool = new ReportingSpool(dir)) {
+            spool.append(entries(10, 10), MINUTE, 1000);
+            assertEquals(20, spool.replay(sink, Integer.MAX_VALUE));
+            assertEquals(20, stored.size());
+            assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void testSegmentsRoll() throws Exception {
+        try (ReportingSpool spool = new ReportingSpool(dir, 1024)) {
+            for (int i = 0; i < 20; i++) {
+                spool.append(entries(i * 10, 10), MINUTE, 1000);
+            }
+            assertTrue(spool.getSegmentsCount() > 1);
+            assertEquals(200, spool.replay(sink, Integer.MAX_VALUE));
+            assertEquals(200, stored.size());
+            assertEquals(1, spool.getSegmentsCount());
+            assertEquals(0, spool.getPendingBytes());
+        }
+    }
+
+    private static BaseReportingKey key(int i) {
+        return new BaseReportingKey("user" + (i % 7) + "@blynk.cc", null, 1, i, PinType.VIRTUAL, (short) (i % 5));
+    }
+
+    private static Map<AggregationKey, AggregationValue> entries(int from, int count) {
+        Map<AggregationKey, AggregationValue> map = new HashMap<>();
+        for (int i = from; i < from + count; i++) {
+            AggregationValue value = new AggregationValue();
+            value.update(i);
+            value.update(i + 1);
+            map.put(new AggregationKey(key(i), 1_000_000 + i), value);
+        }
+        return map;
+    }
+
+}
@@ -0,0 +1,65 @@
+package cc.blynk.server.db.dao;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Parses the encoded stream the way PostgreSQL COPY FROM STDIN (FORMAT BINARY) does.
+ */
+public class AverageCopyEncoderTest {
+
+    @Test
+    public void testBinaryCopyFormat() throws Exception {
+        Map<AggregationKey, AggregationValue> map = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            BaseReportingKey key = new BaseReportingKey("тест" + (i % 3) + "@test.com", "Blynk",
+                    1, i, PinType.ANALOG, (short) 7);
+            AggregationValue value = new AggregationValue();
+            value.update(i);
+            value.update(i + 1);
+            map.put(new AggregationKey(key, 25_000_000 + i), value);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //small buffer, so rows span few writes
+        int rows = new AverageCopyEncoder(64).encode(out, map, GraphGranularityType.MINUTE);
+        assertEquals(100, rows);
+
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        buf.position(BinaryCopyWriter.SIGNATURE.length + 8);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(7, buf.getShort());
+            byte[] email = new byte[buf.getInt()];
+            buf.get(email);
+            assertEquals("тест" + (i % 3) + "@test.com", new String(email, StandardCharsets.UTF_8));
+            assertEquals(4, buf.getInt());
+            assertEquals(1, buf.getInt());
+            assertEquals(8, buf.getInt());
+            assertEquals(i, buf.getLong());
+            assertEquals(2, buf.getInt());
+            assertEquals(7, buf.getShort());
+            assertEquals(2, buf.getInt());
+            assertEquals(PinType.ANALOG.ordinal(), buf.getShort());
+            assertEquals(8, buf.getInt());
+            assertEquals(BinaryCopyWriter.toPostgresTimestamp((25_000_000L + i) * 60_000), buf.getLong());
+            assertEquals(8, buf.getInt());
+            assertEquals(i + 0.5, buf.getDouble(), 0.0000001);
+        }
+        assertEquals(-1, buf.getShort());
+        assertFalse(buf.hasRemaining());
+    }
+
+}
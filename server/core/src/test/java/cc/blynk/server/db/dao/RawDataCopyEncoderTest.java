@@ -0,0 +1,113 @@
+package cc.blynk.server.db.dao;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.SeriesRegistry;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.utils.NumberUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Parses the encoded stream the way PostgreSQL COPY FROM STDIN (FORMAT BINARY) does.
+ */
+public class RawDataCopyEncoderTest {
+
+    private final BaseReportingKey key =
+            new BaseReportingKey("test@test.com", "Blynk", 1, 2, PinType.VIRTUAL, (short) 3);
+
+    @Test
+    public void testBinaryCopyFormat() throws Exception {
+        RawDataProcessor processor = new RawDataProcessor(true, new SeriesRegistry(), 16);
+        processor.collect(key, 1111111111, "Lamp is ON", NumberUtil.NO_RESULT);
+        processor.collect(key, 1111111112, "1.33", 1.33D);
+
+        RawDataCopyEncoder encoder = new RawDataCopyEncoder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.begin(out);
+        processor.drain(encoder);
+        assertEquals(2, encoder.finish());
+
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        byte[] signature = new byte[BinaryCopyWriter.SIGNATURE.length];
+        buf.get(signature);
+        assertArrayEquals(BinaryCopyWriter.SIGNATURE, signature);
+        assertEquals(0, buf.getInt());
+        assertEquals(0, buf.getInt());
+
+        assertRow(buf, 1111111111, "Lamp is ON", null);
+        assertRow(buf, 1111111112, null, 1.33D);
+
+        assertEquals(-1, buf.getShort());
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void testRowsSpanSeveralWrites() throws Exception {
+        RawDataProcessor processor = new RawDataProcessor(true, new SeriesRegistry(), 1024);
+        char[] large = new char[300];
+        Arrays.fill(large, 'a');
+        for (int i = 0; i < 500; i++) {
+            processor.collect(key, i, i % 10 == 0 ? new String(large) : null,
+                    i % 10 == 0 ? NumberUtil.NO_RESULT : i);
+        }
+
+        RawDataCopyEncoder encoder = new RawDataCopyEncoder(128);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.begin(out);
+        processor.drain(encoder);
+        assertEquals(500, encoder.finish());
+
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        buf.position(BinaryCopyWriter.SIGNATURE.length + 8);
+        for (int i = 0; i < 500; i++) {
+            if (i % 10 == 0) {
+                assertRow(buf, i, new String(large), null);
+            } else {
+                assertRow(buf, i, null, (double) i);
+            }
+        }
+        assertEquals(-1, buf.getShort());
+        assertFalse(buf.hasRemaining());
+    }
+
+    private static void assertRow(ByteBuffer buf, long ts, String stringValue, Double doubleValue) {
+        assertEquals(8, buf.getShort());
+        assertEquals("test@test.com", readText(buf));
+        assertEquals(4, buf.getInt());
+        assertEquals(1, buf.getInt());
+        assertEquals(4, buf.getInt());
+        assertEquals(2, buf.getInt());
+        assertEquals(2, buf.getInt());
+        assertEquals(3, buf.getShort());
+        assertEquals("v", readText(buf));
+        assertEquals(8, buf.getInt());
+        assertEquals(BinaryCopyWriter.toPostgresTimestamp(ts), buf.getLong());
+        assertEquals(stringValue, readText(buf));
+        if (doubleValue == null) {
+            assertEquals(-1, buf.getInt());
+        } else {
+            assertEquals(8, buf.getInt());
+            assertEquals(doubleValue, buf.getDouble(), 0.0000001);
+        }
+    }
+
+    private static String readText(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,112 @@
+package cc.blynk.server.db.dao;
+
+import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.db.ReportingDBManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.postgresql.PGConnection;
+
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest throughput of the minute aggregates, batch insert vs binary COPY.
+ * Requires local PostgreSQL with reporting_schema.sql and the db-test.properties credentials.
+ * Every invocation stores ROWS entries of the new minute, so the score is rows per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class ReportingDBIngestPerfTest {
+
+    private static final int ROWS = 10_000;
+    private static final int SERIES = 1000;
+
+    private final BaseReportingKey[] keys = new BaseReportingKey[SERIES];
+    private final Map<AggregationKey, AggregationValue> entries = new HashMap<>();
+    private BlockingIOProcessor blockingIOProcessor;
+    private ReportingDBManager reportingDBManager;
+    private Connection connection;
+    private long minute = System.currentTimeMillis() / GraphGranularityType.MINUTE.period;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ReportingDBIngestPerfTest.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        blockingIOProcessor = new BlockingIOProcessor(4, 10000);
+        reportingDBManager = new ReportingDBManager("db-test.properties", blockingIOProcessor, true);
+        reportingDBManager.executeSQL("DELETE FROM reporting_average_minute");
+        connection = reportingDBManager.getConnection();
+        for (int i = 0; i < SERIES; i++) {
+            keys[i] = new BaseReportingKey("user" + i + "@blynk.cc", "Blynk", 1, i, PinType.VIRTUAL, (short) 1);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void previousMinutes() {
+        entries.clear();
+        //ROWS / SERIES minutes per series, going back in time, so keys are unique between invocations
+        //and all rows are older than the partitions created ahead
+        long bucket = minute;
+        minute -= ROWS / SERIES;
+        for (int i = 0; i < ROWS; i++) {
+            AggregationValue value = new AggregationValue();
+            value.update(i);
+            entries.put(new AggregationKey(keys[i % SERIES], bucket - i / SERIES), value);
+        }
+    }
+
+    @TearDown
+    public void close() throws Exception {
+        connection.close();
+        reportingDBManager.executeSQL("DELETE FROM reporting_average_minute");
+        reportingDBManager.close();
+        blockingIOProcessor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int batchInsert() throws Exception {
+        int rows = ReportingDBDao.batchInsertAverages(connection, entries, GraphGranularityType.MINUTE);
+        connection.commit();
+        return rows;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int copy() throws Exception {
+        int rows = ReportingDBDao.copyAverages(connection.unwrap(PGConnection.class),
+                entries, GraphGranularityType.MINUTE);
+        connection.commit();
+        return rows;
+    }
+
+}
@@ -0,0 +1,161 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.session.StateHolderBase;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.internal.StateHolderUtil.isSameDash;
+import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
+
+/**
+ * Forwarding of the hardware update to all app channels of the user opened for the same dash
+ * (shared dashboards), as Session did before (prepend + HashSet + StringMessage encoded per channel)
+ * and with the body encoded once. Channels are embedded with the mobile encoder, so the score
+ * includes encoding of the frames. Run main() to get the bytes allocated per update as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class AppFanOutPerfTest {
+
+    private static final int DASH_ID = 1;
+    private static final int DEVICE_ID = 0;
+    private static final String BODY = "vw\u000010\u000022.534";
+
+    @Param({"1", "5", "50"})
+    public int appChannels;
+
+    private Session session;
+    private EmbeddedChannel[] channels;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AppFanOutPerfTest.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        GlobalStats stats = new GlobalStats();
+        session = new Session(null);
+        channels = new EmbeddedChannel[appChannels];
+        for (int i = 0; i < appChannels; i++) {
+            channels[i] = new EmbeddedChannel(new MobileMessageEncoder(stats), new AppHandler());
+            session.addAppChannel(channels[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Benchmark
+    public void perChannelEncoding() {
+        String finalBody = prependDashIdAndDeviceId(DASH_ID, DEVICE_ID, BODY);
+        Set<Channel> targetChannels = new HashSet<>();
+        for (Channel channel : session.appChannels) {
+            if (isSameDash(channel, DASH_ID)) {
+                targetChannels.add(channel);
+            }
+        }
+        StringMessage msg = new StringMessage(1, HARDWARE, finalBody);
+        for (Channel channel : targetChannels) {
+            if (channel.isWritable()) {
+                channel.writeAndFlush(msg, channel.voidPromise());
+            }
+        }
+        releaseOutbound();
+    }
+
+    @Benchmark
+    public void encodedOnce() {
+        session.sendToApps(HARDWARE, 1, DASH_ID, DEVICE_ID, BODY);
+        releaseOutbound();
+    }
+
+    private void releaseOutbound() {
+        for (EmbeddedChannel channel : channels) {
+            channel.releaseOutbound();
+        }
+    }
+
+    private static final class AppState extends StateHolderBase {
+
+        AppState() {
+            super(new User());
+        }
+
+        @Override
+        public boolean contains(String sharedToken) {
+            return false;
+        }
+
+        @Override
+        public boolean isSameDash(int inDashId) {
+            return inDashId == DASH_ID;
+        }
+
+        @Override
+        public boolean isSameDevice(int deviceId) {
+            return false;
+        }
+
+        @Override
+        public boolean isSameDashAndDeviceId(int inDashId, int deviceId) {
+            return false;
+        }
+    }
+
+    private static final class AppHandler extends BaseSimpleChannelInboundHandler<MessageBase> {
+
+        private final AppState state = new AppState();
+
+        AppHandler() {
+            super(MessageBase.class);
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+        }
+
+        @Override
+        public StateHolderBase getState() {
+            return state;
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.utils.CSVRowEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows of the merged report (formatted ts, pin, device name, value) and of the pin history export
+ * (value, ts, deviceId). Every invocation encodes ROWS rows, so the score is per row.
+ * Run main() to get the bytes allocated per row as well (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class CSVRowEncoderPerfTest {
+
+    private static final int ROWS = 1440;
+
+    private final double[] values = new double[ROWS];
+    private final long[] timestamps = new long[ROWS];
+    private final NullWriter writer = new NullWriter();
+    private final String pin = "V1";
+    private final String deviceName = "Device 1";
+    private DateTimeFormatter formatter;
+    private CSVRowEncoder reportEncoder;
+    private CSVRowEncoder exportEncoder;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(CSVRowEncoderPerfTest.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        long ts = 1_540_000_000_000L;
+        for (int i = 0; i < ROWS; i++) {
+            ts += 60_000;
+            timestamps[i] = ts;
+            values[i] = random.nextBoolean() ? random.nextInt(10_000) / 100D : random.nextDouble() * 100;
+        }
+        formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.of("UTC"));
+        reportEncoder = new CSVRowEncoder(formatter);
+        exportEncoder = new CSVRowEncoder();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void reportRowStringConcat() throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            String formattedTs = formatter.format(Instant.ofEpochMilli(timestamps[i]));
+            writer.write(formattedTs + ',' + pin + ',' + deviceName + ',' + values[i] + '\n');
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void reportRowEncoder() throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            reportEncoder.appendTs(timestamps[i]).append(',')
+                    .append(pin).append(',')
+                    .append(deviceName).append(',')
+                    .append(values[i]).append('\n');
+        }
+        reportEncoder.writeTo(writer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void exportRowStringConcat() throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            writer.write("" + values[i] + ',' + timestamps[i] + ',' + 1 + '\n');
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void exportRowEncoder() throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            exportEncoder.append(values[i]).append(',')
+                    .append(timestamps[i]).append(',')
+                    .append(1).append('\n');
+        }
+        exportEncoder.writeTo(writer);
+    }
+
+    //consumes the chars like BufferedWriter does, without keeping them
+    private static final class NullWriter extends Writer {
+
+        private final char[] buf = new char[64 * 1024];
+        public int written;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            int toCopy = Math.min(len, buf.length);
+            System.arraycopy(cbuf, off, buf, 0, toCopy);
+            written += len;
+        }
+
+        @Override
+        public void write(String str) {
+            int toCopy = Math.min(str.length(), buf.length);
+            str.getChars(0, toCopy, buf, 0);
+            written += str.length();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareWriteMessage;
+import cc.blynk.utils.NumberUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.utils.StringUtils.split3;
+
+/**
+ * Decoding of the hardware write command body ("vw 1 22.5") till the pin, pin type and double value,
+ * as the MessageDecoder did before (String + split3) and with the HardwareWriteMessage.
+ * Both include the value string, as it is created for every write.
+ * Run main() to get the bytes allocated per message as well (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HardwareDecodePerfTest {
+
+    @Param({"vw\u00001\u00001", "vw\u000099\u000022.534", "aw\u000010\u0000some text"})
+    public String body;
+
+    private ByteBuf in;
+    private int length;
+    private byte[] scratch;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(HardwareDecodePerfTest.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        in = Unpooled.directBuffer().writeBytes(body.getBytes(CharsetUtil.UTF_8));
+        length = in.readableBytes();
+        scratch = new byte[64];
+    }
+
+    @TearDown
+    public void tearDown() {
+        in.release();
+    }
+
+    @Benchmark
+    public void stringSplit(Blackhole bh) {
+        String body = (String) in.getCharSequence(0, length, CharsetUtil.UTF_8);
+        String[] splitBody = split3(body);
+        bh.consume(PinType.getPinType(splitBody[0].charAt(0)));
+        bh.consume(NumberUtil.parsePin(splitBody[1]));
+        bh.consume(NumberUtil.parseDouble(splitBody[2]));
+    }
+
+    @Benchmark
+    public void bytesParse(Blackhole bh) {
+        in.getBytes(0, scratch, 0, length);
+        HardwareWriteMessage message = HardwareWriteMessage.parse(1, scratch, length);
+        bh.consume(message.pinType);
+        bh.consume(message.pin);
+        bh.consume(message.doubleValue);
+        //every write keeps the value string for the pin storage, see HardwareLogic
+        bh.consume(message.getValue());
+    }
+
+}
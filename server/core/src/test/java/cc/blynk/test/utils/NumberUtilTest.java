@@ -2,6 +2,7 @@ package cc.blynk.test.utils;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ThreadLocalRandom;
 
 import static cc.blynk.utils.NumberUtil.NO_RESULT;
@@ -89,4 +90,20 @@ public class NumberUtilTest {
         d = parseDouble("-1.0");
         assertEquals(d, -1.0, 0.0000000001);
     }
+
+    @Test
+    public void testBytesParsedSameAsString() {
+        String[] values = {"0", "1.0", "+1.0", "-1.0", "22222.32", "1e3", "-2.5E-2", "1e", "",
+                "123.123F", "p 123.123", "-", ".", "1.", ".5", "ф", "1\0002"};
+        for (String value : values) {
+            byte[] bytes = ("xx" + value + "yy").getBytes(StandardCharsets.UTF_8);
+            int length = bytes.length - 4;
+            assertEquals(value, parseDouble(value), parseDouble(bytes, 2, length), 0);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            String value = String.valueOf(ThreadLocalRandom.current().nextDouble(-100000, 100000));
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(value, parseDouble(value), parseDouble(bytes, 0, bytes.length), 0);
+        }
+    }
 }
@@ -2,12 +2,16 @@ package cc.blynk.server.api.http.logic;
 
 import cc.blynk.core.http.Response;
 import cc.blynk.core.http.TokenBaseHttpHandler;
+import cc.blynk.core.http.annotation.Context;
 import cc.blynk.core.http.annotation.GET;
 import cc.blynk.core.http.annotation.Metric;
 import cc.blynk.core.http.annotation.Path;
 import cc.blynk.core.http.annotation.PathParam;
+import cc.blynk.core.http.annotation.QueryParam;
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.BlockingIOProcessor;
+import cc.blynk.server.core.dao.CSVChunkedInput;
+import cc.blynk.server.core.dao.CSVGenerator;
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.TokenValue;
@@ -34,10 +38,16 @@ import cc.blynk.server.notifications.mail.MailWrapper;
 import cc.blynk.server.notifications.push.GCMWrapper;
 import cc.blynk.utils.NumberUtil;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import static cc.blynk.core.http.Response.badRequest;
+import static cc.blynk.core.http.Response.noResponse;
 import static cc.blynk.core.http.Response.ok;
 import static cc.blynk.core.http.Response.redirect;
 import static cc.blynk.server.core.protocol.enums.Command.HTTP_GET_HISTORY_DATA;
@@ -45,6 +55,13 @@ import static cc.blynk.server.core.protocol.enums.Command.HTTP_GET_PIN_DATA;
 import static cc.blynk.server.core.protocol.enums.Command.HTTP_IS_HARDWARE_CONNECTED;
 import static cc.blynk.server.core.protocol.enums.Command.SET_WIDGET_PROPERTY;
 import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONNECTION;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_DISPOSITION;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.TRANSFER_ENCODING;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 /**
  * The Blynk Project.
@@ -263,8 +280,12 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
     @GET
     @Path("{token}/data/{pin}")
     @Metric(HTTP_GET_HISTORY_DATA)
-    public Response getPinHistoryData(@PathParam("token") String token,
-                                      @PathParam("pin") String pinString) {
+    public Response getPinHistoryData(@Context ChannelHandlerContext ctx,
+                                      @PathParam("token") String token,
+                                      @PathParam("pin") String pinString,
+                                      @QueryParam("stream") String stream,
+                                      @QueryParam("from") String fromParam,
+                                      @QueryParam("to") String toParam) {
         TokenValue tokenValue = tokenManager.getTokenValueByToken(token);
 
         if (tokenValue == null) {
@@ -287,7 +308,20 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
             return badRequest("Wrong pin format.");
         }
 
-        //todo may be optimized
+        if (Boolean.parseBoolean(stream) || fromParam != null || toParam != null) {
+            long from;
+            long to;
+            try {
+                from = fromParam == null ? 0 : Long.parseLong(fromParam);
+                to = toParam == null ? Long.MAX_VALUE : Long.parseLong(toParam);
+            } catch (NumberFormatException e) {
+                log.debug("Wrong time range. {} - {}", fromParam, toParam);
+                return badRequest("Wrong time range.");
+            }
+            streamPinHistoryData(ctx, user, dashId, deviceId, pinType, pin, from, to);
+            return noResponse();
+        }
+
         try {
             java.nio.file.Path path = reportingDao.csvGenerator.createCSV(
                     user, dashId, deviceId, pinType, pin, deviceId);
@@ -301,6 +335,41 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         }
     }
 
+    /**
+     * Sends gzipped CSV with chunked transfer encoding, without the temp file.
+     * First series is read from the reporting storage within the history pool, to respond with
+     * the error when there is no data. Encoding and reading of the other device series is done
+     * by the ChunkedWriteHandler when the channel is writable.
+     */
+    private void streamPinHistoryData(ChannelHandlerContext ctx, User user, int dashId, int deviceId,
+                                      PinType pinType, short pin, long from, long to) {
+        blockingIOProcessor.executeHistory(() -> {
+            CSVChunkedInput csv;
+            try {
+                csv = reportingDao.csvGenerator.streamCSV(user, dashId, pinType, pin, from, to, deviceId);
+            } catch (NoDataException | IllegalStateException noData) {
+                log.debug(noData.getMessage());
+                ctx.writeAndFlush(badRequest(noData.getMessage()), ctx.voidPromise());
+                return;
+            } catch (Exception e) {
+                log.debug("Error getting pin data.", e);
+                ctx.writeAndFlush(badRequest("Error getting pin data."), ctx.voidPromise());
+                return;
+            }
+
+            HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+            response.headers()
+                    .set(CONTENT_TYPE, "application/x-gzip")
+                    .set(CONTENT_DISPOSITION, "attachment; filename=\"" + deviceId + "_"
+                            + pinType.pintTypeChar + pin + CSVGenerator.EXPORT_CSV_EXTENSION + "\"")
+                    .set(TRANSFER_ENCODING, HttpHeaderValues.CHUNKED)
+                    .set(CONNECTION, HttpHeaderValues.KEEP_ALIVE)
+                    .set(ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+            ctx.write(response);
+            ctx.writeAndFlush(new HttpChunkedInput(csv), ctx.voidPromise());
+        });
+    }
+
     public Response updateWidgetProperty(String token,
                                          String pinString,
                                          WidgetProperty property,
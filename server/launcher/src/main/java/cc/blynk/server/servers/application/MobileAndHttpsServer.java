@@ -32,6 +32,7 @@ import cc.blynk.server.application.handlers.main.auth.MobileRegisterHandler;
 import cc.blynk.server.application.handlers.sharing.auth.MobileShareLoginHandler;
 import cc.blynk.server.common.handlers.AlreadyLoggedHandler;
 import cc.blynk.server.common.handlers.UserNotLoggedHandler;
+import cc.blynk.server.core.protocol.handlers.AppFlushConsolidationHandler;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.MobileMessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.WSMessageDecoder;
@@ -84,6 +85,7 @@ public class MobileAndHttpsServer extends BaseServer {
 
         var hardwareIdleTimeout = holder.limits.hardwareIdleTimeout;
         var appIdleTimeout = holder.limits.appIdleTimeout;
+        var appFlushDelayMicros = holder.limits.appFlushConsolidationDelayMicros;
 
         var hardwareChannelStateHandler = new HardwareChannelStateHandler(holder,
                 holder.props.getIntProperty("device.offline.delay"));
@@ -196,8 +198,9 @@ public class MobileAndHttpsServer extends BaseServer {
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(WEBSOCKET_WEB_PATH))
                         .addLast("WSMessageDecoder", new WSMessageDecoder(stats, holder.limits))
-                        .addLast("WSMessageEncoder", webAppMessageEncoder)
-                        .addLast("AGetServer", getServerHandler)
+                        .addLast("WSMessageEncoder", webAppMessageEncoder);
+                addFlushConsolidation(pipeline, appFlushDelayMicros);
+                pipeline.addLast("AGetServer", getServerHandler)
                         .addLast("ALogin", appLoginHandler)
                         .addLast("ANotLogged", userNotLoggedHandler);
                 pipeline.remove(ChunkedWriteHandler.class);
@@ -218,7 +221,7 @@ public class MobileAndHttpsServer extends BaseServer {
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(websocketPath, true))
                         .addLast("WSWebSocket", webSocketHandler)
-                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits))
+                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits, true))
                         .addLast("WSSocketWrapper", webSocketWrapperEncoder)
                         .addLast("WSMessageEncoder", new MessageEncoder(stats))
                         .addLast("WSLogin", hardwareLoginHandler)
@@ -260,11 +263,12 @@ public class MobileAndHttpsServer extends BaseServer {
                     @Override
                     public ChannelPipeline buildAppPipeline(ChannelPipeline pipeline) {
                         log.trace("Blynk app protocol connection detected.", pipeline.channel());
-                        return pipeline
-                                .addFirst("AChannelState", appChannelStateHandler)
+                        pipeline.addFirst("AChannelState", appChannelStateHandler)
                                 .addFirst("AReadTimeout", new IdleStateHandler(appIdleTimeout, 0, 0))
                                 .addLast("AMessageDecoder", new MobileMessageDecoder(holder.stats, holder.limits))
-                                .addLast("AMessageEncoder", new MobileMessageEncoder(holder.stats))
+                                .addLast("AMessageEncoder", new MobileMessageEncoder(holder.stats));
+                        addFlushConsolidation(pipeline, appFlushDelayMicros);
+                        return pipeline
                                 .addLast("AGetServer", getServerHandler)
                                 .addLast("ARegister", registerHandler)
                                 .addLast("ALogin", appLoginHandler)
@@ -280,7 +284,7 @@ public class MobileAndHttpsServer extends BaseServer {
                                 .addFirst("H_IdleStateHandler",
                                         new IdleStateHandler(hardTimeoutSecs, 0, 0))
                                 .addLast("H_ChannelState", hardwareChannelStateHandler)
-                                .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, holder.limits))
+                                .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, holder.limits, true))
                                 .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                                 .addLast("H_Login", hardwareLoginHandler)
                                 .addLast("H_AlreadyLogged", alreadyLoggedHandler);
@@ -290,6 +294,12 @@ public class MobileAndHttpsServer extends BaseServer {
         };
     }
 
+    private static void addFlushConsolidation(ChannelPipeline pipeline, int delayMicros) {
+        if (delayMicros >= 0) {
+            pipeline.addLast("AFlushConsolidation", new AppFlushConsolidationHandler(delayMicros));
+        }
+    }
+
     @Override
     public ChannelInitializer<SocketChannel> getChannelInitializer() {
         return channelInitializer;
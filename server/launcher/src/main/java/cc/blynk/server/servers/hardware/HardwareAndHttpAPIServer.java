@@ -116,7 +116,7 @@ public class HardwareAndHttpAPIServer extends BaseServer {
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(websocketPath, true))
                         .addLast("WSWebSocket", new WSHandler(stats))
-                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits))
+                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits, true))
                         .addLast("WSSocketWrapper", new WSWrapperEncoder())
                         .addLast("WSMessageEncoder", new MessageEncoder(stats))
                         .addLast("WSLogin", hardwareLoginHandler)
@@ -156,7 +156,8 @@ public class HardwareAndHttpAPIServer extends BaseServer {
                                         .addFirst("H_IdleStateHandler",
                                                 new IdleStateHandler(hardTimeoutSecs, 0, 0))
                                         .addLast("H_ChannelState", hardwareChannelStateHandler)
-                                        .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, holder.limits))
+                                        .addLast("H_MessageDecoder",
+                                                new MessageDecoder(holder.stats, holder.limits, true))
                                         .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                                         .addLast("H_Login", hardwareLoginHandler)
                                         .addLast("H_AlreadyLogged", alreadyLoggedHandler);
@@ -93,7 +93,7 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
                     }
 
                     removedFilesCounter += reportingDao.delete(user,
-                            reportingFile -> !doNotRemovePaths.contains(reportingFile.getFileName().toString()));
+                            reportingFile -> !doNotRemovePaths.contains(reportingFile));
                 } catch (Exception e) {
                     log.error("Error cleaning reporting record for user {}. {}", user.email, e.getMessage());
                 }
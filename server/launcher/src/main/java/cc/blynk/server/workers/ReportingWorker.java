@@ -2,24 +2,24 @@ package cc.blynk.server.workers;
 
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.core.reporting.SeriesRegistry;
+import cc.blynk.server.core.reporting.average.AggregationBatch;
 import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationTable;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.server.db.ReportingDBManager;
-import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 
-import static cc.blynk.server.core.dao.ReportingDiskDao.generateFilename;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 
 /**
  * Worker that runs once a minute. During run - stores all aggregated reporting data
@@ -34,87 +34,139 @@ public class ReportingWorker implements Runnable {
     private static final Logger log = LogManager.getLogger(ReportingWorker.class);
 
     private final ReportingDiskDao reportingDao;
-    private final String reportingPath;
     private final ReportingDBManager reportingDBManager;
 
-    public ReportingWorker(ReportingDiskDao reportingDao,
-                           String reportingPath, ReportingDBManager reportingDBManager) {
+    //reused between ticks, worker is always run by the single thread
+    private final AggregationBatch batch;
+    private ByteBuffer entriesBuffer;
+    private int flushedSeries;
+    private int flushedEntries;
+
+    public ReportingWorker(ReportingDiskDao reportingDao, ReportingDBManager reportingDBManager) {
         this.reportingDao = reportingDao;
-        this.reportingPath = reportingPath;
         this.reportingDBManager = reportingDBManager;
+        this.batch = new AggregationBatch(1024);
+        this.entriesBuffer = ByteBuffer.allocate(64 * SIZE_OF_REPORT_ENTRY);
     }
 
     @Override
     public void run() {
         try {
-            Map<AggregationKey, AggregationValue> removedKeysMinute =
-                    process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE);
-            Map<AggregationKey, AggregationValue> removedKeysHour =
-                    process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY);
-            Map<AggregationKey, AggregationValue> removedKeysDay =
-                    process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY);
+            long start = System.currentTimeMillis();
+            flushedSeries = 0;
+            flushedEntries = 0;
+
+            Map<AggregationKey, AggregationValue> removedKeysMinute;
+            Map<AggregationKey, AggregationValue> removedKeysHour;
+            Map<AggregationKey, AggregationValue> removedKeysDay;
+            reportingDao.tailCache.beginFlush();
+            try {
+                removedKeysMinute = process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE);
+                removedKeysHour = process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY);
+                removedKeysDay = process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY);
+            } finally {
+                reportingDao.tailCache.endFlush();
+            }
+
+            reportingDao.storage.flush();
+            reportingDao.seriesRegistry.persist();
+            //after the drain, so flushed entries are removed from the checkpoint
+            reportingDao.averageAggregator.checkpoint();
+            reportingDao.rawDataCacheForGraphProcessor.evictIdle(System.currentTimeMillis());
+
+            if (flushedEntries > 0) {
+                log.info("Flushed {} reporting entries ({} bytes) of {} series. Time : {} ms.",
+                        flushedEntries, flushedEntries * SIZE_OF_REPORT_ENTRY, flushedSeries,
+                        System.currentTimeMillis() - start);
+            }
 
             reportingDBManager.insertReporting(removedKeysMinute, GraphGranularityType.MINUTE);
             reportingDBManager.insertReporting(removedKeysHour, GraphGranularityType.HOURLY);
             reportingDBManager.insertReporting(removedKeysDay, GraphGranularityType.DAILY);
+            reportingDBManager.flushReporting();
 
-            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor.rawStorage);
+            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor);
 
-            reportingDBManager.cleanOldReportingRecords(Instant.now());
+            reportingDBManager.maintainReportingTables(Instant.now());
         } catch (Exception e) {
             log.error("Error during reporting job.", e);
         }
     }
 
     /**
-     * Iterates over all reporting entries that were created during last minute.
-     * And stores all entries one by one to disk.
+     * Drains all outdated reporting entries that were aggregated during last period.
+     * Drained entries are grouped per series, so every series is written to disk
+     * with the single write, entries within the series are ordered by ts.
      *
-     * @param map - reporting entires that were created during last minute.
+     * @param table - aggregated reporting entries.
      * @param type - type of reporting. Could be minute, hourly, daily.
-     * @return - returns list of reporting entries that were successfully flushed to disk.
+     * @return - returns reporting entries that were successfully flushed to disk,
+     *           filled only when DB is enabled.
      */
-    private Map<AggregationKey, AggregationValue>  process(Map<AggregationKey, AggregationValue> map,
-                                                           GraphGranularityType type) {
-        if (map.size() == 0) {
+    private Map<AggregationKey, AggregationValue> process(AggregationTable table, GraphGranularityType type) {
+        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
+        batch.clear();
+        if (table.drainOutdated(nowTruncatedToPeriod, batch) == 0) {
             return Collections.emptyMap();
         }
+        batch.sort();
 
-        Set<AggregationKey> aggregationKeySet = map.keySet();
-        AggregationKey[] keys = aggregationKeySet.toArray(new AggregationKey[0]);
-        Arrays.sort(keys, AggregationKey.AGGREGATION_KEY_COMPARATOR);
-
+        SeriesRegistry seriesRegistry = reportingDao.seriesRegistry;
+        boolean isDBEnabled = reportingDBManager.isDBEnabled();
         var removedKeys = new HashMap<AggregationKey, AggregationValue>();
 
-        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
-        for (AggregationKey keyToRemove : keys) {
-            //if prev hour
-            if (keyToRemove.isOutdated(nowTruncatedToPeriod)) {
-                AggregationValue value = map.get(keyToRemove);
-
-                try {
-                    Path userReportFolder = Paths.get(reportingPath,
-                            FileUtils.getUserStorageDir(keyToRemove.getEmail(), keyToRemove.getAppName()));
-                    if (Files.notExists(userReportFolder)) {
-                        Files.createDirectories(userReportFolder);
-                    }
-
-                    String fileName = generateFilename(keyToRemove.getDashId(),
-                            keyToRemove.getDeviceId(), keyToRemove.getPinType(), keyToRemove.getPin(), type);
-                    Path filePath = Paths.get(userReportFolder.toString(), fileName);
-
-                    FileUtils.write(filePath, value.calcAverage(), keyToRemove.getTs(type));
+        int from = 0;
+        while (from < batch.size()) {
+            int seriesId = batch.getSeriesId(from);
+            int to = from + 1;
+            while (to < batch.size() && batch.getSeriesId(to) == seriesId) {
+                to++;
+            }
+            //device or user was removed while entries were aggregated
+            if (seriesRegistry.isRemoved(seriesId)) {
+                from = to;
+                continue;
+            }
 
-                    removedKeys.put(keyToRemove, value);
-                } catch (Exception ioe) {
-                    log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
-                } finally {
-                    map.remove(keyToRemove);
+            try {
+                ByteBuffer entries = getEntriesBuffer(to - from);
+                for (int i = from; i < to; i++) {
+                    entries.putDouble(batch.getAverage(i))
+                           .putLong(batch.getBucket(i) * type.period);
                 }
+                ((Buffer) entries).flip();
+
+                reportingDao.storage.write(seriesRegistry.getUserDir(seriesId),
+                        seriesRegistry.getFileName(seriesId, type), entries);
+                ((Buffer) entries).rewind();
+                reportingDao.tailCache.append(seriesId, type, entries);
+
+                flushedSeries++;
+                flushedEntries += to - from;
+                if (isDBEnabled) {
+                    BaseReportingKey key = seriesRegistry.getKey(seriesId);
+                    for (int i = from; i < to; i++) {
+                        AggregationValue value = new AggregationValue();
+                        value.update(batch.getAverage(i));
+                        removedKeys.put(new AggregationKey(key, batch.getBucket(i)), value);
+                    }
+                }
+            } catch (Exception ioe) {
+                log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
             }
+            from = to;
         }
 
         return removedKeys;
     }
 
+    private ByteBuffer getEntriesBuffer(int entriesCount) {
+        int size = entriesCount * SIZE_OF_REPORT_ENTRY;
+        if (entriesBuffer.capacity() < size) {
+            entriesBuffer = ByteBuffer.allocate(size);
+        }
+        ((Buffer) entriesBuffer).clear();
+        return entriesBuffer;
+    }
+
 }
@@ -5,9 +5,8 @@ import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
-import cc.blynk.server.core.reporting.average.AggregationKey;
-import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.server.db.ReportingDBManager;
 import cc.blynk.utils.AppNameUtil;
 import cc.blynk.utils.properties.ServerProperties;
@@ -28,7 +27,6 @@ import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.server.core.dao.ReportingDiskDao.generateFilename;
 import static org.junit.Assert.assertEquals;
@@ -49,7 +47,6 @@ public class ReportingWorkerTest {
 
     private final String reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "data").toString();
 
-    @Mock
     public AverageAggregatorProcessor averageAggregator;
 
     public ReportingDiskDao reportingDaoMock;
@@ -70,6 +67,7 @@ public class ReportingWorkerTest {
         FileUtils.deleteDirectory(dataFolder2.toFile());
         createReportingFolder(reportingFolder, "test2");
 
+        averageAggregator = new AverageAggregatorProcessor("");
         reportingDaoMock = new ReportingDiskDao(reportingFolder, averageAggregator, true);
     }
 
@@ -90,23 +88,15 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
-
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
-
-        long ts = getTS() / AverageAggregatorProcessor.HOUR;
-
-        AggregationKey aggregationKey = new AggregationKey("ddd\0+123@gmail.com",
-                AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts);
-        AggregationValue aggregationValue = new AggregationValue();
-        aggregationValue.update(100);
+                new ReportingDBManager(blockingIOProcessor, true));
 
-        map.put(aggregationKey, aggregationValue);
+        long ts = getTS();
 
-        when(averageAggregator.getMinute()).thenReturn(map);
+        averageAggregator.collect(new BaseReportingKey("ddd\0+123@gmail.com",
+                AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1), ts, 100);
 
         reportingWorker.run();
-        assertTrue(map.isEmpty());
+        assertEquals(0, averageAggregator.getMinute().size());
     }
 
     @Test
@@ -115,29 +105,16 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
-
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+                new ReportingDBManager(blockingIOProcessor, true));
 
         long ts = getTS() / AverageAggregatorProcessor.HOUR;
 
-        AggregationKey aggregationKey = new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts);
-        AggregationValue aggregationValue = new AggregationValue();
-        aggregationValue.update(100);
-        AggregationKey aggregationKey2 = new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts - 1);
-        AggregationValue aggregationValue2 = new AggregationValue();
-        aggregationValue2.update(150.54);
-        AggregationKey aggregationKey3 = new AggregationKey("test2", AppNameUtil.BLYNK, 2, 0, PinType.ANALOG, (short) 2, ts);
-        AggregationValue aggregationValue3 = new AggregationValue();
-        aggregationValue3.update(200);
-
-        map.put(aggregationKey, aggregationValue);
-        map.put(aggregationKey2, aggregationValue2);
-        map.put(aggregationKey3, aggregationValue3);
-
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        averageAggregator.collect(new BaseReportingKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1),
+                ts * AverageAggregatorProcessor.HOUR, 100);
+        averageAggregator.collect(new BaseReportingKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1),
+                (ts - 1) * AverageAggregatorProcessor.HOUR, 150.54);
+        averageAggregator.collect(new BaseReportingKey("test2", AppNameUtil.BLYNK, 2, 0, PinType.ANALOG, (short) 2),
+                ts * AverageAggregatorProcessor.HOUR, 200);
 
         reportingWorker.run();
 
@@ -146,7 +123,7 @@ public class ReportingWorkerTest {
         assertTrue(Files.exists(Paths.get(reportingFolder, "test2",
                 generateFilename(2, 0, PinType.ANALOG, (short) 2, GraphGranularityType.HOURLY))));
 
-        assertTrue(map.isEmpty());
+        assertEquals(0, averageAggregator.getHourly().size());
 
         ByteBuffer data = reportingDaoMock.getByteBufferFromDisk(user, 1, 0, PinType.ANALOG, (short) 1, 2, GraphGranularityType.HOURLY, 0);
         assertNotNull(data);
@@ -171,36 +148,23 @@ public class ReportingWorkerTest {
     @Test
     public void testStore2() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
-
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+                new ReportingDBManager(blockingIOProcessor, true));
 
         long ts = getTS() / AverageAggregatorProcessor.HOUR;
 
-        AggregationKey aggregationKey = new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts);
-        AggregationValue aggregationValue = new AggregationValue();
-        aggregationValue.update(100);
-        AggregationKey aggregationKey2 = new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts - 1);
-        AggregationValue aggregationValue2 = new AggregationValue();
-        aggregationValue2.update(150.54);
-        AggregationKey aggregationKey3 = new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts - 2);
-        AggregationValue aggregationValue3 = new AggregationValue();
-        aggregationValue3.update(200);
-
-        map.put(aggregationKey, aggregationValue);
-        map.put(aggregationKey2, aggregationValue2);
-        map.put(aggregationKey3, aggregationValue3);
-
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        averageAggregator.collect(new BaseReportingKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1),
+                ts * AverageAggregatorProcessor.HOUR, 100);
+        averageAggregator.collect(new BaseReportingKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1),
+                (ts - 1) * AverageAggregatorProcessor.HOUR, 150.54);
+        averageAggregator.collect(new BaseReportingKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1),
+                (ts - 2) * AverageAggregatorProcessor.HOUR, 200);
 
         reportingWorker.run();
 
         assertTrue(Files.exists(Paths.get(reportingFolder, "test",
                 generateFilename(1, 0, PinType.ANALOG, (short) 1, GraphGranularityType.HOURLY))));
 
-        assertTrue(map.isEmpty());
+        assertEquals(0, averageAggregator.getHourly().size());
 
         User user = new User();
         user.email = "test";
@@ -234,29 +198,16 @@ public class ReportingWorkerTest {
     @Test
     public void testDeleteCommand() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
-
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+                new ReportingDBManager(blockingIOProcessor, true));
 
         long ts = getTS() / AverageAggregatorProcessor.HOUR;
 
-        AggregationKey aggregationKey = new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts);
-        AggregationValue aggregationValue = new AggregationValue();
-        aggregationValue.update(100);
-        AggregationKey aggregationKey2 = new AggregationKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1, ts - 1);
-        AggregationValue aggregationValue2 = new AggregationValue();
-        aggregationValue2.update(150.54);
-        AggregationKey aggregationKey3 = new AggregationKey("test2", AppNameUtil.BLYNK, 2, 0, PinType.ANALOG, (short) 2, ts);
-        AggregationValue aggregationValue3 = new AggregationValue();
-        aggregationValue3.update(200);
-
-        map.put(aggregationKey, aggregationValue);
-        map.put(aggregationKey2, aggregationValue2);
-        map.put(aggregationKey3, aggregationValue3);
-
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
-        when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        averageAggregator.collect(new BaseReportingKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1),
+                ts * AverageAggregatorProcessor.HOUR, 100);
+        averageAggregator.collect(new BaseReportingKey("test", AppNameUtil.BLYNK, 1, 0, PinType.ANALOG, (short) 1),
+                (ts - 1) * AverageAggregatorProcessor.HOUR, 150.54);
+        averageAggregator.collect(new BaseReportingKey("test2", AppNameUtil.BLYNK, 2, 0, PinType.ANALOG, (short) 2),
+                ts * AverageAggregatorProcessor.HOUR, 200);
         when(properties.getProperty("data.folder")).thenReturn(System.getProperty("java.io.tmpdir"));
 
         reportingWorker.run();
@@ -106,6 +106,7 @@ public final class MobileCreateWidgetLogic {
             DeviceTiles deviceTiles = (DeviceTiles) dash.getWidgetByIdOrThrow(widgetAddToId);
             TileTemplate tileTemplate = deviceTiles.getTileTemplateByIdOrThrow(templateIdAddToId);
             tileTemplate.widgets = ArrayUtil.add(tileTemplate.widgets, newWidget, Widget.class);
+            dash.invalidatePinRouting();
         }
 
         user.profile.cleanPinStorage(dash, newWidget, true);
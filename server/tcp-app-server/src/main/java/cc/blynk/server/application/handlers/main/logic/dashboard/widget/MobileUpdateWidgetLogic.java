@@ -142,6 +142,7 @@ public final class MobileUpdateWidgetLogic {
             }
             tileTemplate.widgets = ArrayUtil.copyAndReplace(
                     tileTemplate.widgets, newWidget, tileTemplate.getWidgetIndexByIdOrThrow(newWidget.id));
+            dash.invalidatePinRouting();
         } else {
             if (newWidget instanceof Tabs) {
                 Tabs newTabs = (Tabs) newWidget;
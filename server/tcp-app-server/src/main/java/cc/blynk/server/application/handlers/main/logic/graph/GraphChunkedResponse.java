@@ -0,0 +1,103 @@
+package cc.blynk.server.application.handlers.main.logic.graph;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.reporting.GraphDataDeflater;
+import cc.blynk.server.core.reporting.GraphPinRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import static cc.blynk.server.core.protocol.enums.Command.GET_ENHANCED_GRAPH_DATA;
+import static cc.blynk.server.internal.CommonByteBufUtil.makeBinaryMessage;
+import static cc.blynk.server.internal.CommonByteBufUtil.noData;
+import static cc.blynk.server.internal.CommonByteBufUtil.serverError;
+
+/**
+ * Chunked graph response. Series are read one by one, right before they are deflated,
+ * and the next chunk is produced only while the channel is writable. When it is not,
+ * response is resumed within the executor after the last chunk is written, so the request
+ * keeps at most one series and one chunk besides the chunks buffered by the channel.
+ *
+ * Response without data is the single "no data" message, same as the not chunked one.
+ * Deflated empty series are few bytes, so no chunk is full before the first series with data.
+ */
+final class GraphChunkedResponse implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(GraphChunkedResponse.class);
+
+    private final Channel channel;
+    private final Executor executor;
+    private final ReportingDiskDao reportingDiskDao;
+    private final User user;
+    private final GraphPinRequest[] requestedPins;
+    private final int msgId;
+    private final GraphDataDeflater deflater;
+    private int nextPin;
+    private boolean hasData;
+    private boolean isSent;
+
+    GraphChunkedResponse(Channel channel, Executor executor, ReportingDiskDao reportingDiskDao,
+                         User user, GraphPinRequest[] requestedPins, int msgId, int chunkSize) {
+        this.channel = channel;
+        this.executor = executor;
+        this.reportingDiskDao = reportingDiskDao;
+        this.user = user;
+        this.requestedPins = requestedPins;
+        this.msgId = msgId;
+        this.deflater = new GraphDataDeflater(channel.alloc(), chunkSize, requestedPins[0].dashId);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (channel.isActive()) {
+                ByteBuf chunk = deflater.nextChunk();
+                if (chunk != null) {
+                    ChannelFuture future = channel.writeAndFlush(
+                            makeBinaryMessage(GET_ENHANCED_GRAPH_DATA, msgId, chunk));
+                    isSent = true;
+                    if (!channel.isWritable()) {
+                        future.addListener(writeFuture -> resume(writeFuture.isSuccess()));
+                        return;
+                    }
+                } else if (deflater.isFinished()) {
+                    break;
+                } else if (nextPin < requestedPins.length) {
+                    ByteBuffer data = reportingDiskDao.getReportingData(user, requestedPins[nextPin++]);
+                    hasData |= data.hasRemaining();
+                    deflater.addSeries(data);
+                } else if (!hasData && !isSent) {
+                    channel.writeAndFlush(noData(msgId), channel.voidPromise());
+                    break;
+                } else {
+                    deflater.finish();
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error reading reporting data. For user {}. Error: {}", user.email, e.getMessage());
+            channel.writeAndFlush(serverError(msgId), channel.voidPromise());
+        }
+        deflater.close();
+    }
+
+    //called by the event loop when the last chunk is written
+    private void resume(boolean isWritten) {
+        if (!isWritten) {
+            deflater.close();
+            return;
+        }
+        try {
+            executor.execute(this);
+        } catch (Exception e) {
+            log.error("Error resuming graph response. For user {}. Error: {}", user.email, e.getMessage());
+            deflater.close();
+            channel.writeAndFlush(serverError(msgId), channel.voidPromise());
+        }
+    }
+}
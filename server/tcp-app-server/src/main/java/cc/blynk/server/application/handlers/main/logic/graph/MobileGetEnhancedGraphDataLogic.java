@@ -2,6 +2,7 @@ package cc.blynk.server.application.handlers.main.logic.graph;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.application.handlers.main.auth.MobileStateHolder;
+import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.Profile;
 import cc.blynk.server.core.model.auth.User;
@@ -16,6 +17,7 @@ import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
 import cc.blynk.server.core.protocol.exceptions.IllegalCommandException;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.reporting.GraphDataDeflater;
 import cc.blynk.server.core.reporting.GraphPinRequest;
 import cc.blynk.utils.StringUtils;
 import io.netty.channel.Channel;
@@ -23,14 +25,20 @@ import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.nio.ByteBuffer;
+
 import static cc.blynk.server.core.protocol.enums.Command.GET_ENHANCED_GRAPH_DATA;
 import static cc.blynk.server.internal.CommonByteBufUtil.makeBinaryMessage;
 import static cc.blynk.server.internal.CommonByteBufUtil.noData;
 import static cc.blynk.server.internal.CommonByteBufUtil.serverError;
-import static cc.blynk.utils.ByteUtils.compress;
 import static cc.blynk.utils.StringUtils.split2Device;
 
 /**
+ * Graph data is deflated directly into the pooled buffers. By default it is sent as the single message.
+ * Apps that pass CHUNKED_RESPONSE flag after the page number receive the deflated stream
+ * as the sequence of messages with the same message id, see GraphChunkedResponse.
+ * End of the response is the end of the deflated stream.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 2/1/2015.
@@ -40,6 +48,8 @@ public final class MobileGetEnhancedGraphDataLogic {
 
     private static final Logger log = LogManager.getLogger(MobileGetEnhancedGraphDataLogic.class);
 
+    static final String CHUNKED_RESPONSE = "chunked";
+
     private MobileGetEnhancedGraphDataLogic() {
     }
 
@@ -61,9 +71,10 @@ public final class MobileGetEnhancedGraphDataLogic {
         long widgetId = Long.parseLong(messageParts[1]);
         GraphPeriod graphPeriod = GraphPeriod.valueOf(messageParts[2]);
         int page = 0;
-        if (messageParts.length == 4) {
+        if (messageParts.length > 3) {
             page = Integer.parseInt(messageParts[3]);
         }
+        boolean chunked = messageParts.length > 4 && CHUNKED_RESPONSE.equals(messageParts[4]);
         int skipCount = graphPeriod.numberOfPoints * page;
 
         Profile profile = state.user.profile;
@@ -120,19 +131,27 @@ public final class MobileGetEnhancedGraphDataLogic {
             i++;
         }
 
-        readGraphData(holder, ctx.channel(), state.user, requestedPins, message.id);
+        readGraphData(holder, ctx.channel(), state.user, requestedPins, message.id, chunked);
     }
 
     private static void readGraphData(Holder holder, Channel channel, User user,
-                                      GraphPinRequest[] requestedPins, int msgId) {
-        holder.blockingIOProcessor.executeHistory(() -> {
+                                      GraphPinRequest[] requestedPins, int msgId, boolean chunked) {
+        BlockingIOProcessor blockingIOProcessor = holder.blockingIOProcessor;
+        if (chunked) {
+            blockingIOProcessor.executeHistory(new GraphChunkedResponse(channel, blockingIOProcessor::executeHistory,
+                    holder.reportingDiskDao, user, requestedPins, msgId, GraphDataDeflater.DEFAULT_CHUNK_SIZE));
+            return;
+        }
+        blockingIOProcessor.executeHistory(() -> {
             try {
-                byte[][] data = holder.reportingDiskDao.getReportingData(user, requestedPins);
-                byte[] compressed = compress(requestedPins[0].dashId, data);
+                ByteBuffer[] data = holder.reportingDiskDao.getReportingData(user, requestedPins,
+                        blockingIOProcessor.historyReadExecutor, blockingIOProcessor.historyReadsPerRequest);
+                int dashId = requestedPins[0].dashId;
 
                 if (channel.isWritable()) {
                     channel.writeAndFlush(
-                            makeBinaryMessage(GET_ENHANCED_GRAPH_DATA, msgId, compressed),
+                            makeBinaryMessage(GET_ENHANCED_GRAPH_DATA, msgId,
+                                    GraphDataDeflater.deflate(channel.alloc(), dashId, data)),
                             channel.voidPromise()
                     );
                 }
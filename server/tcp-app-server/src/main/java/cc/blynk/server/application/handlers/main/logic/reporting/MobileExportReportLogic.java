@@ -71,13 +71,11 @@ public final class MobileExportReportLogic {
         }
 
         ReportScheduler reportScheduler = holder.reportScheduler;
-        reportScheduler.schedule(new BaseReportTask(user, dashId, report,
-                reportScheduler.mailWrapper, reportScheduler.reportingDao,
-                reportScheduler.downloadUrl) {
+        reportScheduler.schedule(new BaseReportTask(user, dashId, report, reportScheduler) {
             @Override
-            public void run() {
+            protected void onFinished(long finishedAt) {
                 try {
-                    report.lastReportAt = generateReport();
+                    report.lastReportAt = finishedAt;
                     if (ctx.channel().isWritable()) {
                         ctx.writeAndFlush(
                                 makeUTF8StringMessage(EXPORT_REPORT, message.id, report.toString()),
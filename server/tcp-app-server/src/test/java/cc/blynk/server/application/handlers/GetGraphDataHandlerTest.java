@@ -82,4 +82,28 @@ public class GetGraphDataHandlerTest {
         //System.out.println(result);
     }
 
+    @Test
+    public void testCompressDirectReadOnlyBuffers() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(100 * REPORTING_RECORD_SIZE_BYTES);
+        for (int i = 0; i < 100; i++) {
+            direct.putDouble(i).putLong(i * 1000L);
+        }
+        direct.flip();
+        ByteBuffer[] data = {direct.asReadOnlyBuffer(), ByteBuffer.allocate(0), direct.slice().asReadOnlyBuffer()};
+
+        ByteBuffer result = ByteBuffer.wrap(decompress(ByteUtils.compress(5, data)));
+
+        assertEquals(5, result.getInt());
+        assertEquals(100, result.getInt());
+        for (int i = 0; i < 100; i++) {
+            assertEquals((double) i, result.getDouble(), 0.001);
+            assertEquals(i * 1000L, result.getLong());
+        }
+        assertEquals(0, result.getInt());
+        assertEquals(100, result.getInt());
+        assertEquals(100 * REPORTING_RECORD_SIZE_BYTES, result.remaining());
+        //source buffers are not consumed
+        assertEquals(100 * REPORTING_RECORD_SIZE_BYTES, data[0].remaining());
+    }
+
 }
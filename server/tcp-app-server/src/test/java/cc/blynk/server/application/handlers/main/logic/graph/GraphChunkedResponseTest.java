@@ -0,0 +1,137 @@
+package cc.blynk.server.application.handlers.main.logic.graph;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
+import cc.blynk.server.core.protocol.model.messages.ByteBufMessage;
+import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.reporting.GraphPinRequest;
+import cc.blynk.utils.ByteUtils;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import static cc.blynk.server.core.protocol.enums.Response.NO_DATA;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphChunkedResponseTest {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @Mock
+    private ReportingDiskDao reportingDiskDao;
+
+    private final User user = new User();
+    private final Queue<Runnable> executor = new ArrayDeque<>();
+    private final GraphPinRequest[] requestedPins = {pin((short) 1), pin((short) 2)};
+
+    @Test
+    public void testChunksAreProducedWhenPreviousIsWritten() {
+        ByteBuffer[] values = {series(5000, 1), series(5000, 2)};
+        when(reportingDiskDao.getReportingData(user, requestedPins[0])).thenReturn(values[0]);
+        when(reportingDiskDao.getReportingData(user, requestedPins[1])).thenReturn(values[1]);
+
+        HoldingWritesHandler writes = new HoldingWritesHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(writes);
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+
+        new GraphChunkedResponse(channel, executor::add, reportingDiskDao, user, requestedPins, 7, CHUNK_SIZE)
+                .run();
+        //only the first series is read for the first chunk, and response waits for the chunk to be written
+        assertEquals(1, writes.messages.size());
+        verify(reportingDiskDao).getReportingData(user, requestedPins[0]);
+        verify(reportingDiskDao, times(0)).getReportingData(user, requestedPins[1]);
+        assertTrue(executor.isEmpty());
+
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        writes.promises.remove().setSuccess();
+        assertEquals(1, executor.size());
+        executor.remove().run();
+
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (Object message : writes.messages) {
+            ByteBufMessage chunk = (ByteBufMessage) message;
+            assertEquals(7, chunk.id);
+            concatenated.writeBytes(ByteBufUtil.getBytes(chunk.body));
+            chunk.release();
+        }
+        assertArrayEquals(ByteUtils.compress(requestedPins[0].dashId, values), concatenated.toByteArray());
+    }
+
+    @Test
+    public void testNoData() {
+        when(reportingDiskDao.getReportingData(eq(user), any(GraphPinRequest.class))).thenReturn(ByteBuffer.allocate(0));
+
+        HoldingWritesHandler writes = new HoldingWritesHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(writes);
+        new GraphChunkedResponse(channel, executor::add, reportingDiskDao, user, requestedPins, 7, CHUNK_SIZE)
+                .run();
+
+        assertEquals(1, writes.messages.size());
+        ResponseMessage response = (ResponseMessage) writes.messages.get(0);
+        assertEquals(7, response.id);
+        assertEquals(NO_DATA, response.code);
+    }
+
+    private static GraphPinRequest pin(short pin) {
+        return new GraphPinRequest(1, 0, new DataStream(pin, PinType.VIRTUAL),
+                GraphPeriod.ONE_HOUR, 0, AggregationFunctionType.AVG);
+    }
+
+    private static ByteBuffer series(int count, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer buf = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        long ts = 1_540_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            ts += 60_000;
+            buf.putDouble(random.nextDouble())
+               .putLong(ts);
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+    //keeps the written messages, write is completed by the test
+    private static final class HoldingWritesHandler extends ChannelOutboundHandlerAdapter {
+
+        private final List<Object> messages = new ArrayList<>();
+        private final Queue<ChannelPromise> promises = new ArrayDeque<>();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            messages.add(msg);
+            if (promise.isVoid()) {
+                return;
+            }
+            promises.add(promise);
+        }
+    }
+
+}
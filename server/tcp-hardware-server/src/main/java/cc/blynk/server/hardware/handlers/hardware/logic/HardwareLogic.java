@@ -13,6 +13,7 @@ import cc.blynk.server.core.plugins.PlaatoStructure;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.hardware.HardwareWriteMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.utils.NumberUtil;
 import io.netty.channel.ChannelHandlerContext;
@@ -77,32 +78,63 @@ public class HardwareLogic extends BaseProcessorHandler {
             PinType pinType = PinType.getPinType(splitBody[0].charAt(0));
             short pin = NumberUtil.parsePin(splitBody[1]);
             String value = splitBody[2];
-            long now = System.currentTimeMillis();
-            int deviceId = device.id;
-
-            reportingDao.process(user, dash, deviceId, pin, pinType, value, now);
-            user.profile.update(dash, deviceId, pin, pinType, value, now);
-            device.dataReceivedAt = now;
-
-            Session session = sessionDao.userSession.get(userKey);
-            processEventorAndWebhook(user, dash, device.id, session, pin, pinType, value, now);
-
-            if (PlaatoStructure.isReservedByHardware(pinType, pin)) {
-                device.plaato.setHardwarePinData(pin, value);
-                //if temperature is received (after bubbles)
-                if (pin == 101) {
-                    try {
-                        this.webhookProcessor.processPlaato(user, dash, device, (short) 98, PinType.VIRTUAL);
-                    } catch (Exception e) {
-                        log.error("Error processing plaato webhook.", e);
-                    }
-                }
-            } else if (dash.isActive) {
+
+            Session session = processWrite(userKey, user, dash, device,
+                    pin, pinType, value, NumberUtil.parseDouble(value));
+            if (session != null) {
                 session.sendToApps(HARDWARE, message.id, dash.id, device.id, body);
-            } else {
-                log.trace("No active dashboard.");
             }
         }
     }
 
+    /**
+     * Write command already parsed by the MessageDecoder. Body goes to the apps
+     * right from the message bytes. Value string is still created, as widgets and pin storage
+     * keep the last value as string, so it is needed by the profile update of every write.
+     * Reporting gets the value parsed by the decoder.
+     */
+    public void messageReceived(HardwareStateHolder state, HardwareWriteMessage message) {
+        DashBoard dash = state.dash;
+        Device device = state.device;
+        Session session = processWrite(state.userKey, state.user, dash, device,
+                message.pin, message.pinType, message.getValue(), message.doubleValue);
+        if (session != null) {
+            session.sendToApps(HARDWARE, message.id, dash.id, device.id, message);
+        }
+    }
+
+    /**
+     * @return - session the write command should be forwarded to, null when there is no need to forward it.
+     */
+    private Session processWrite(UserKey userKey, User user, DashBoard dash, Device device,
+                                 short pin, PinType pinType, String value, double doubleValue) {
+        long now = System.currentTimeMillis();
+        int deviceId = device.id;
+
+        reportingDao.process(user, dash, device, pin, pinType, value, now, doubleValue);
+        user.profile.update(dash, deviceId, pin, pinType, value, now);
+        device.dataReceivedAt = now;
+
+        Session session = sessionDao.userSession.get(userKey);
+        processEventorAndWebhook(user, dash, deviceId, session, pin, pinType, value, now);
+
+        if (PlaatoStructure.isReservedByHardware(pinType, pin)) {
+            device.plaato.setHardwarePinData(pin, value);
+            //if temperature is received (after bubbles)
+            if (pin == 101) {
+                try {
+                    this.webhookProcessor.processPlaato(user, dash, device, (short) 98, PinType.VIRTUAL);
+                } catch (Exception e) {
+                    log.error("Error processing plaato webhook.", e);
+                }
+            }
+            return null;
+        }
+        if (dash.isActive) {
+            return session;
+        }
+        log.trace("No active dashboard.");
+        return null;
+    }
+
 }
@@ -0,0 +1,90 @@
+package cc.blynk.server.tools;
+
+import cc.blynk.server.core.reporting.storage.CompressedReportingStorage;
+import cc.blynk.server.core.reporting.storage.SegmentReportingStorage;
+import cc.blynk.utils.FileUtils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * One-shot conversion of the file per pin reporting data into the compressed format.
+ * Should be run on stopped server, before switching to "reporting.storage=compressed".
+ * Series that are already converted are skipped, so conversion could be safely
+ * restarted after failure. Legacy files are not removed, so it is possible
+ * to switch back to "reporting.storage=file".
+ */
+public final class ReportingFormatConverter {
+
+    private ReportingFormatConverter() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String reportingFolder = args[0];
+        Path reportingPath = Paths.get(reportingFolder);
+        if (Files.exists(reportingPath)) {
+            System.out.println("Starting conversion of " + reportingPath.toString());
+            start(reportingFolder);
+        } else {
+            System.out.println(reportingPath.toString() + " not exists.");
+        }
+    }
+
+    private static void start(String reportingFolder) throws Exception {
+        File[] allReporting = Paths.get(reportingFolder).toFile().listFiles();
+        if (allReporting == null || allReporting.length == 0) {
+            System.out.println("No files.");
+            return;
+        }
+
+        int filesCount = 0;
+        int skippedCount = 0;
+        long legacySize = 0;
+        long compressedSize = 0;
+
+        try (CompressedReportingStorage storage = new CompressedReportingStorage(reportingFolder)) {
+            for (File userDirectory : allReporting) {
+                if (!userDirectory.isDirectory()
+                        || SegmentReportingStorage.isSegmentsFolder(userDirectory.toPath())
+                        || CompressedReportingStorage.isCompressedFolder(userDirectory.toPath())) {
+                    continue;
+                }
+                String userDir = userDirectory.getName();
+                File[] userFiles = userDirectory.listFiles();
+                if (userFiles == null) {
+                    continue;
+                }
+                for (File file : userFiles) {
+                    String fileName = file.getName();
+                    if (!fileName.endsWith(".bin")) {
+                        continue;
+                    }
+                    if (storage.contains(userDir, fileName)) {
+                        skippedCount++;
+                        continue;
+                    }
+                    ByteBuffer data = FileUtils.read(file.toPath(), (int) (file.length() / SIZE_OF_REPORT_ENTRY));
+                    if (data != null) {
+                        storage.write(userDir, fileName, data);
+                        legacySize += file.length();
+                        compressedSize += Files.size(Paths.get(reportingFolder,
+                                CompressedReportingStorage.COMPRESSED_FOLDER, userDir, fileName));
+                    }
+                    filesCount++;
+                    if (filesCount % 1000 == 0) {
+                        System.out.println("Converted " + filesCount + " files.");
+                    }
+                }
+            }
+        }
+
+        System.out.println("Converted : " + filesCount + " files, " + legacySize + " bytes -> "
+                + compressedSize + " bytes. Skipped : " + skippedCount + ".");
+    }
+
+}
@@ -0,0 +1,106 @@
+package cc.blynk.server.tools;
+
+import cc.blynk.server.core.reporting.storage.CompressedReportingStorage;
+import cc.blynk.server.core.reporting.storage.SegmentReportingStorage;
+import cc.blynk.utils.FileUtils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * One-shot migration of the file per pin reporting data into the segment storage.
+ * Should be run on stopped server, before switching to "reporting.storage=segment".
+ * Series that are already within the segment storage are skipped, so migration
+ * could be safely restarted after failure.
+ */
+public final class ReportingStorageMigrator {
+
+    private ReportingStorageMigrator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String reportingFolder = args[0];
+        Path reportingPath = Paths.get(reportingFolder);
+        if (Files.exists(reportingPath)) {
+            System.out.println("Starting migration of " + reportingPath.toString());
+            start(reportingFolder);
+        } else {
+            System.out.println(reportingPath.toString() + " not exists.");
+        }
+    }
+
+    private static void start(String reportingFolder) throws Exception {
+        File[] allReporting = Paths.get(reportingFolder).toFile().listFiles();
+        if (allReporting == null || allReporting.length == 0) {
+            System.out.println("No files.");
+            return;
+        }
+
+        int filesCount = 0;
+        int skippedCount = 0;
+        long entriesCount = 0;
+
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder)) {
+            for (File userDirectory : allReporting) {
+                if (!isLegacyUserFolder(userDirectory)) {
+                    continue;
+                }
+                String userDir = userDirectory.getName();
+                File[] userFiles = userDirectory.listFiles();
+                if (userFiles == null) {
+                    continue;
+                }
+                for (File file : userFiles) {
+                    String fileName = file.getName();
+                    if (!fileName.endsWith(".bin")) {
+                        continue;
+                    }
+                    if (storage.contains(userDir, fileName)) {
+                        skippedCount++;
+                        continue;
+                    }
+                    ByteBuffer data = FileUtils.read(file.toPath(), (int) (file.length() / SIZE_OF_REPORT_ENTRY));
+                    if (data != null) {
+                        entriesCount += data.remaining() / SIZE_OF_REPORT_ENTRY;
+                        storage.write(userDir, fileName, data);
+                    }
+                    filesCount++;
+                    if (filesCount % 1000 == 0) {
+                        System.out.println("Migrated " + filesCount + " files.");
+                    }
+                }
+            }
+            storage.flush();
+        }
+
+        System.out.println("Migrated : " + filesCount + " files, " + entriesCount + " entries. "
+                + "Skipped : " + skippedCount + ".");
+
+        for (File userDirectory : allReporting) {
+            if (isLegacyUserFolder(userDirectory)) {
+                File[] userFiles = userDirectory.listFiles();
+                if (userFiles != null) {
+                    for (File file : userFiles) {
+                        if (file.getName().endsWith(".bin")) {
+                            FileUtils.deleteQuietly(file.toPath());
+                        }
+                    }
+                }
+                userDirectory.delete();
+            }
+        }
+        System.out.println("Legacy reporting files removed.");
+    }
+
+    private static boolean isLegacyUserFolder(File userDirectory) {
+        return userDirectory.isDirectory()
+                && !SegmentReportingStorage.isSegmentsFolder(userDirectory.toPath())
+                && !CompressedReportingStorage.isCompressedFolder(userDirectory.toPath());
+    }
+
+}
@@ -2,9 +2,9 @@ package cc.blynk.utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 /**
@@ -45,24 +45,41 @@ public final class ByteUtils {
         return baos.toByteArray();
     }
 
-    public static byte[] compress(int dashId, byte[][] values) throws IOException {
+    /**
+     * Deflates buffers directly, so read only (memory mapped) views of the
+     * reporting data are compressed without copying them to the heap.
+     * Buffers are not modified.
+     */
+    public static byte[] compress(int dashId, ByteBuffer[] values) {
         var baos = new ByteArrayOutputStream(8192);
-
-        try (var out = new DeflaterOutputStream(baos)) {
-            writeInt(out, dashId);
+        var deflater = new Deflater();
+        try {
+            byte[] out = new byte[8192];
+            deflate(deflater, intBuffer(dashId), baos, out);
             for (var data : values) {
-                writeInt(out, data.length / REPORTING_RECORD_SIZE_BYTES);
-                out.write(data);
+                deflate(deflater, intBuffer(data.remaining() / REPORTING_RECORD_SIZE_BYTES), baos, out);
+                deflate(deflater, data.duplicate(), baos, out);
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                baos.write(out, 0, deflater.deflate(out));
             }
+        } finally {
+            deflater.end();
         }
         return baos.toByteArray();
     }
 
-    private static void writeInt(OutputStream out, int value) throws IOException {
-        out.write((value >>> 24) & 0xFF);
-        out.write((value >>> 16) & 0xFF);
-        out.write((value >>>  8) & 0xFF);
-        out.write((value) & 0xFF);
+    private static ByteBuffer intBuffer(int value) {
+        return ByteBuffer.allocate(4).putInt(0, value);
+    }
+
+    private static void deflate(Deflater deflater, ByteBuffer input,
+                                ByteArrayOutputStream baos, byte[] out) {
+        deflater.setInput(input);
+        while (!deflater.needsInput()) {
+            baos.write(out, 0, deflater.deflate(out));
+        }
     }
 
     public static int parseColor(String fieldValue) {
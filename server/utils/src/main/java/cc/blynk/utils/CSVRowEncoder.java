@@ -0,0 +1,282 @@
+package cc.blynk.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+/**
+ * Encodes CSV rows of the reporting data into the reusable char buffer.
+ * Output is exactly the same as for the string concatenation of the values
+ * (value + ',' + ts...), but numbers are formatted right into the buffer,
+ * so no intermediate strings are created per row.
+ *
+ * Doubles with up to 4 decimal places (most of the sensor values) are formatted
+ * with the integer arithmetic, other values go through the StringBuilder.append(double)
+ * that also doesn't allocate the string. Formatted timestamps are cached, as the
+ * reporting points of the different pins and devices have the same timestamps.
+ *
+ * Not thread safe, one encoder per writer.
+ */
+public final class CSVRowEncoder {
+
+    private static final int DEFAULT_CAPACITY = 8 * 1024;
+    //max length of the long + sign
+    private static final int MAX_LONG_LENGTH = 20;
+    private static final int TS_CACHE_SIZE = 4096;
+    private static final int TS_CACHE_PROBES = 8;
+    private static final int MAX_FAST_DECIMALS = 4;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000};
+
+    private static final byte[] UTF_16_BOM = {(byte) 0xFE, (byte) 0xFF};
+
+    private final DateTimeFormatter formatter;
+
+    private char[] buf;
+    private int length;
+
+    //fallback for the doubles that are not covered by the fast path
+    private final StringBuilder doubleBuilder;
+
+    private final long[] cachedTs;
+    private final char[][] cachedFormattedTs;
+    private final StringBuilder tsBuilder;
+
+    private byte[] bytes;
+
+    public CSVRowEncoder() {
+        this(null);
+    }
+
+    /**
+     * @param formatter - timestamps format, when null timestamps are written as epoch millis
+     */
+    public CSVRowEncoder(DateTimeFormatter formatter) {
+        this.formatter = formatter;
+        this.buf = new char[DEFAULT_CAPACITY];
+        this.doubleBuilder = new StringBuilder(32);
+        if (formatter == null) {
+            this.cachedTs = null;
+            this.cachedFormattedTs = null;
+            this.tsBuilder = null;
+        } else {
+            this.cachedTs = new long[TS_CACHE_SIZE];
+            this.cachedFormattedTs = new char[TS_CACHE_SIZE][];
+            this.tsBuilder = new StringBuilder(32);
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    public CSVRowEncoder append(char c) {
+        ensureCapacity(1);
+        buf[length++] = c;
+        return this;
+    }
+
+    public CSVRowEncoder append(String s) {
+        int len = s.length();
+        ensureCapacity(len);
+        s.getChars(0, len, buf, length);
+        length += len;
+        return this;
+    }
+
+    public CSVRowEncoder append(long value) {
+        ensureCapacity(MAX_LONG_LENGTH);
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        if (value < 0) {
+            buf[length++] = '-';
+            value = -value;
+        }
+        int digits = digits(value);
+        int pos = length + digits;
+        do {
+            buf[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Same output as the Double.toString(value).
+     */
+    public CSVRowEncoder append(double value) {
+        if (!appendFast(value)) {
+            doubleBuilder.setLength(0);
+            doubleBuilder.append(value);
+            appendBuilder(doubleBuilder);
+        }
+        return this;
+    }
+
+    /**
+     * Appends the timestamp either as the epoch millis or formatted with the encoder formatter.
+     */
+    public CSVRowEncoder appendTs(long ts) {
+        if (formatter == null) {
+            return append(ts);
+        }
+        char[] formatted = cachedFormattedTs(ts);
+        ensureCapacity(formatted.length);
+        System.arraycopy(formatted, 0, buf, length, formatted.length);
+        length += formatted.length;
+        return this;
+    }
+
+    /**
+     * Writes encoded rows to the writer and resets the encoder.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(buf, 0, length);
+        length = 0;
+    }
+
+    /**
+     * Writes encoded rows as the US-ASCII bytes and resets the encoder.
+     * Should be used only when all appended strings are ASCII (numbers).
+     *
+     * @return - number of the written bytes
+     */
+    public int writeAsciiTo(byte[] dst, int offset) {
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = (byte) buf[i];
+        }
+        int written = length;
+        length = 0;
+        return written;
+    }
+
+    /**
+     * Writes encoded rows in UTF-16 (big endian with the byte order mark),
+     * the same bytes as String.getBytes(UTF_16) produces, and resets the encoder.
+     */
+    public void writeUtf16To(OutputStream out) throws IOException {
+        int size = UTF_16_BOM.length + length * 2;
+        if (bytes == null || bytes.length < size) {
+            bytes = new byte[size];
+        }
+        bytes[0] = UTF_16_BOM[0];
+        bytes[1] = UTF_16_BOM[1];
+        int pos = UTF_16_BOM.length;
+        for (int i = 0; i < length; i++) {
+            char c = buf[i];
+            bytes[pos++] = (byte) (c >> 8);
+            bytes[pos++] = (byte) c;
+        }
+        out.write(bytes, 0, size);
+        length = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, length);
+    }
+
+    //values in [1e-3, 1e7) are printed by Double.toString without the exponent
+    private boolean appendFast(double value) {
+        double abs = Math.abs(value);
+        if (!(abs >= 1e-3 && abs < 1e7)) {
+            return false;
+        }
+        for (int decimals = 0; decimals <= MAX_FAST_DECIMALS; decimals++) {
+            long scale = POWERS_OF_TEN[decimals];
+            long scaled = Math.round(abs * scale);
+            if ((double) scaled / scale == abs) {
+                //shorter representation was missed due to the rounding, let the JDK handle it
+                if (decimals > 0 && scaled % 10 == 0) {
+                    return false;
+                }
+                appendScaled(value < 0, scaled, decimals, scale);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void appendScaled(boolean negative, long scaled, int decimals, long scale) {
+        if (negative) {
+            append('-');
+        }
+        append(scaled / scale);
+        append('.');
+        if (decimals == 0) {
+            append('0');
+            return;
+        }
+        ensureCapacity(decimals);
+        long fraction = scaled % scale;
+        int pos = length + decimals;
+        for (int i = 0; i < decimals; i++) {
+            buf[--pos] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        length += decimals;
+    }
+
+    private void appendBuilder(StringBuilder sb) {
+        int len = sb.length();
+        ensureCapacity(len);
+        sb.getChars(0, len, buf, length);
+        length += len;
+    }
+
+    //open addressing with the short probe, when all probed slots are taken the first one is replaced
+    private char[] cachedFormattedTs(long ts) {
+        int home = tsIndex(ts);
+        int index = home;
+        for (int probe = 0; probe < TS_CACHE_PROBES; probe++) {
+            index = (home + probe) & (TS_CACHE_SIZE - 1);
+            char[] formatted = cachedFormattedTs[index];
+            if (formatted == null) {
+                break;
+            }
+            if (cachedTs[index] == ts) {
+                return formatted;
+            }
+            index = home;
+        }
+        tsBuilder.setLength(0);
+        formatter.formatTo(Instant.ofEpochMilli(ts), tsBuilder);
+        char[] formatted = new char[tsBuilder.length()];
+        tsBuilder.getChars(0, formatted.length, formatted, 0);
+        cachedTs[index] = ts;
+        cachedFormattedTs[index] = formatted;
+        return formatted;
+    }
+
+    private static int tsIndex(long ts) {
+        //fibonacci hashing, reporting timestamps are multiples of the granularity
+        long hash = (ts ^ (ts >>> 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> (64 - Integer.numberOfTrailingZeros(TS_CACHE_SIZE)));
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        long threshold = 10;
+        while (digits < 19 && value >= threshold) {
+            digits++;
+            threshold *= 10;
+        }
+        return digits;
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = length + additional;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import java.io.BufferedWriter;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
@@ -13,7 +14,6 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.EnumSet;
@@ -55,6 +55,9 @@ public final class FileUtils {
     //reporting entry is long value (8 bytes) + timestamp (8 bytes)
     public static final int SIZE_OF_REPORT_ENTRY = 16;
 
+    //encoded CSV rows are passed to the writer in batches of this size (in chars)
+    private static final int CSV_FLUSH_THRESHOLD = 4 * 1024;
+
     public static void deleteQuietly(Path path) {
         try {
             Files.deleteIfExists(path);
@@ -128,18 +131,33 @@ public final class FileUtils {
     public static boolean writeBufToCsvFilterAndFormat(BufferedWriter writer, ByteBuffer onePinData,
                                                       String pin, String deviceName,
                                                       long startFrom, DateTimeFormatter formatter) throws IOException {
+        return writeBufToCsvFilterAndFormat(writer, new CSVRowEncoder(formatter),
+                onePinData, pin, deviceName, startFrom);
+    }
+
+    /**
+     * Writes rows "ts,pin,deviceName,value" of the merged report.
+     * Encoder is reused across the pins and devices of the report.
+     */
+    public static boolean writeBufToCsvFilterAndFormat(Writer writer, CSVRowEncoder encoder, ByteBuffer onePinData,
+                                                      String pin, String deviceName,
+                                                      long startFrom) throws IOException {
         boolean hasData = false;
         while (onePinData.remaining() > 0) {
             double value = onePinData.getDouble();
             long ts = onePinData.getLong();
 
             if (startFrom <= ts) {
-                String formattedTs = formatTS(formatter, ts);
-                writer.write(formattedTs + ',' + pin + ',' + deviceName + ',' + value + '\n');
+                encoder.appendTs(ts).append(',')
+                        .append(pin).append(',')
+                        .append(deviceName).append(',')
+                        .append(value).append('\n');
+                flushIfFull(writer, encoder);
                 hasData = true;
             }
         }
         if (hasData) {
+            encoder.writeTo(writer);
             writer.flush();
         }
         return hasData;
@@ -147,18 +165,29 @@ public final class FileUtils {
 
     public static boolean writeBufToCsvFilterAndFormat(BufferedWriter writer, ByteBuffer onePinData, String pin,
                                                       long startFrom, DateTimeFormatter formatter) throws IOException {
+        return writeBufToCsvFilterAndFormat(writer, new CSVRowEncoder(formatter), onePinData, pin, startFrom);
+    }
+
+    /**
+     * Writes rows "ts,pin,value" of the file per device report.
+     */
+    public static boolean writeBufToCsvFilterAndFormat(Writer writer, CSVRowEncoder encoder, ByteBuffer onePinData,
+                                                      String pin, long startFrom) throws IOException {
         boolean hasData = false;
         while (onePinData.remaining() > 0) {
             double value = onePinData.getDouble();
             long ts = onePinData.getLong();
 
             if (startFrom <= ts) {
-                String formattedTs = formatTS(formatter, ts);
-                writer.write(formattedTs + ',' + pin + ',' + value + '\n');
+                encoder.appendTs(ts).append(',')
+                        .append(pin).append(',')
+                        .append(value).append('\n');
+                flushIfFull(writer, encoder);
                 hasData = true;
             }
         }
         if (hasData) {
+            encoder.writeTo(writer);
             writer.flush();
         }
         return hasData;
@@ -166,33 +195,51 @@ public final class FileUtils {
 
     public static String writeBufToCsvFilterAndFormat(ByteBuffer onePinData,
                                                     long startFrom, DateTimeFormatter formatter) {
-        StringBuilder sb = new StringBuilder(onePinData.capacity() * 3);
+        CSVRowEncoder encoder = new CSVRowEncoder(formatter);
+        writeBufToCsvFilterAndFormat(encoder, onePinData, startFrom);
+        return encoder.toString();
+    }
+
+    /**
+     * Encodes rows "ts,value" of the file per device per pin report into the encoder.
+     * Caller writes the encoder content as the separate zip entry.
+     */
+    public static void writeBufToCsvFilterAndFormat(CSVRowEncoder encoder, ByteBuffer onePinData, long startFrom) {
         while (onePinData.remaining() > 0) {
             double value = onePinData.getDouble();
             long ts = onePinData.getLong();
 
             if (startFrom <= ts) {
-                String formattedTs = formatTS(formatter, ts);
-                sb.append(formattedTs).append(',')
+                encoder.appendTs(ts).append(',')
                         .append(value).append('\n');
             }
         }
-        return sb.toString();
     }
 
-    private static String formatTS(DateTimeFormatter formatter, long ts) {
-        if (formatter == null) {
-            return String.valueOf(ts);
-        }
-        return formatter.format(Instant.ofEpochMilli(ts));
+    public static void writeBufToCsv(BufferedWriter writer, ByteBuffer onePinData, int deviceId) throws Exception {
+        writeBufToCsv(writer, new CSVRowEncoder(), onePinData, deviceId);
     }
 
-    public static void writeBufToCsv(BufferedWriter writer, ByteBuffer onePinData, int deviceId) throws Exception {
+    /**
+     * Writes rows "value,ts,deviceId" of the pin history export.
+     */
+    public static void writeBufToCsv(Writer writer, CSVRowEncoder encoder,
+                                     ByteBuffer onePinData, int deviceId) throws IOException {
         while (onePinData.remaining() > 0) {
             double value = onePinData.getDouble();
             long ts = onePinData.getLong();
 
-            writer.write("" + value + ',' + ts + ',' + deviceId + '\n');
+            encoder.append(value).append(',')
+                    .append(ts).append(',')
+                    .append(deviceId).append('\n');
+            flushIfFull(writer, encoder);
+        }
+        encoder.writeTo(writer);
+    }
+
+    private static void flushIfFull(Writer writer, CSVRowEncoder encoder) throws IOException {
+        if (encoder.length() >= CSV_FLUSH_THRESHOLD) {
+            encoder.writeTo(writer);
         }
     }
 
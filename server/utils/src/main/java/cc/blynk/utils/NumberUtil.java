@@ -174,6 +174,124 @@ public final class NumberUtil {
         return (numSign) ? number : -number;
     }
 
+    /**
+     * Same as parseDouble(String), but reads ASCII chars right from the bytes,
+     * so value received from the network doesn't have to be decoded into the String.
+     */
+    public static double parseDouble(final byte[] bytes, int off, int len) {
+        if (len == 0) {
+            return NO_RESULT;
+        }
+
+        byte ch;
+        boolean numSign = true;
+
+        ch = bytes[off];
+        if (ch == '+') {
+            off++;
+            len--;
+        } else if (ch == '-') {
+            numSign = false;
+            off++;
+            len--;
+        }
+
+        double number;
+
+        boolean error = true;
+
+        int startOffset = off;
+        double dval;
+
+        for (dval = 0d; (len > 0) && ((ch = bytes[off]) >= '0') && (ch <= '9');) {
+            dval *= 10d;
+            dval += ch - '0';
+            off++;
+            len--;
+        }
+        int numberLength = off - startOffset;
+
+        number = dval;
+
+        if (numberLength > 0) {
+            error = false;
+        }
+
+        // Check for fractional values after decimal
+        if ((len > 0) && (bytes[off] == '.')) {
+
+            off++;
+            len--;
+
+            startOffset = off;
+
+            for (dval = 0d; (len > 0) && ((ch = bytes[off]) >= '0') && (ch <= '9');) {
+                dval *= 10d;
+                dval += ch - '0';
+                off++;
+                len--;
+            }
+            numberLength = off - startOffset;
+
+            if (numberLength > 0) {
+                number += getPow10(-numberLength) * dval;
+                error = false;
+            }
+        }
+
+        if (error) {
+            return NO_RESULT;
+        }
+
+        // Look for an exponent
+        if (len > 0) {
+            if ((ch = bytes[off]) == 'e' || ch == 'E') {
+
+                off++;
+                len--;
+
+                if (len > 0) {
+                    boolean expSign = true;
+
+                    ch = bytes[off];
+                    if (ch == '+') {
+                        off++;
+                        len--;
+                    } else if (ch == '-') {
+                        expSign = false;
+                        off++;
+                        len--;
+                    }
+
+                    int exponent;
+
+                    for (exponent = 0; (len > 0) && ((ch = bytes[off]) >= '0') && (ch <= '9');) {
+                        exponent *= 10;
+                        exponent += ch - '0';
+                        off++;
+                        len--;
+                    }
+
+                    if (!expSign) {
+                        exponent = -exponent;
+                    }
+
+                    if (exponent > -300) {
+                        number *= getPow10(exponent);
+                    } else {
+                        number = 1.0E-300 * (number * getPow10(exponent + 300));
+                    }
+                }
+            }
+        }
+        // check other characters:
+        if (len > 0) {
+            return NO_RESULT;
+        }
+
+        return (numSign) ? number : -number;
+    }
+
     public static int calcHeartbeatTimeout(int heartbeatInterval) {
         return (int) Math.ceil(heartbeatInterval * 2.3D);
     }
@@ -0,0 +1,123 @@
+package cc.blynk.utils;
+
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CSVRowEncoderTest {
+
+    @Test
+    public void testDoublesSameAsToString() {
+        double[] special = {0, -0.0, 1, -1, 0.1, 0.2, 0.3, 1.005, 0.001, 0.0009999, 9999999.9999, 1e7, 1e-3,
+                123.456, 22222.32, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.MIN_VALUE, Double.MAX_VALUE, Long.MAX_VALUE, 1.0E23, 2.0E-3, 4.35, 0.15, 100.5};
+        CSVRowEncoder encoder = new CSVRowEncoder();
+        for (double value : special) {
+            assertDouble(encoder, value);
+            assertDouble(encoder, -value);
+        }
+
+        Random random = new Random(1);
+        for (int i = 0; i < 300_000; i++) {
+            int decimals = random.nextInt(6);
+            double value = Math.round(random.nextDouble() * 20_000_000 - 10_000_000) / Math.pow(10, decimals);
+            assertDouble(encoder, value);
+            assertDouble(encoder, random.nextDouble() * Math.pow(10, random.nextInt(12) - 4));
+            assertDouble(encoder, Double.longBitsToDouble(random.nextLong()));
+        }
+    }
+
+    @Test
+    public void testLongs() {
+        long[] values = {0, 1, -1, 9, 10, 99, 100, 1_540_000_000_000L, Long.MAX_VALUE, Long.MIN_VALUE,
+                Long.MIN_VALUE + 1, Integer.MAX_VALUE, Integer.MIN_VALUE, 999_999_999_999_999_999L};
+        CSVRowEncoder encoder = new CSVRowEncoder();
+        for (long value : values) {
+            encoder.append(value);
+            assertEquals(String.valueOf(value), encoder.toString());
+            encoder.reset();
+        }
+    }
+
+    @Test
+    public void testFormattedTs() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS")
+                .withZone(ZoneId.of("Europe/Kiev"));
+        CSVRowEncoder encoder = new CSVRowEncoder(formatter);
+        Random random = new Random(2);
+        for (int i = 0; i < 100_000; i++) {
+            //same timestamps repeat, as in reports
+            long ts = 1_540_000_000_000L + random.nextInt(10_000) * 60_000L + (i % 3 == 0 ? random.nextInt(1000) : 0);
+            encoder.appendTs(ts);
+            assertEquals(formatter.format(Instant.ofEpochMilli(ts)), encoder.toString());
+            encoder.reset();
+        }
+    }
+
+    @Test
+    public void testReportRowsSameAsStringConcatenation() throws Exception {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+                .withZone(ZoneId.of("UTC"));
+        ByteBuffer data = series(10_000);
+        String pin = "V1";
+        String deviceName = "Устройство 1";
+
+        StringBuilder expected = new StringBuilder();
+        StringBuilder expectedOnePin = new StringBuilder();
+        ByteBuffer copy = data.duplicate();
+        while (copy.hasRemaining()) {
+            double value = copy.getDouble();
+            long ts = copy.getLong();
+            expected.append(formatter.format(Instant.ofEpochMilli(ts)) + ',' + pin + ',' + deviceName + ','
+                    + value + '\n');
+            expectedOnePin.append(String.valueOf(ts)).append(',').append(value).append('\n');
+        }
+
+        StringWriter result = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(result)) {
+            FileUtils.writeBufToCsvFilterAndFormat(writer, new CSVRowEncoder(formatter),
+                    data.duplicate(), pin, deviceName, 0);
+        }
+        assertEquals(expected.toString(), result.toString());
+
+        CSVRowEncoder encoder = new CSVRowEncoder();
+        FileUtils.writeBufToCsvFilterAndFormat(encoder, data.duplicate(), 0);
+        ByteArrayOutputStream utf16 = new ByteArrayOutputStream();
+        encoder.writeUtf16To(utf16);
+        assertArrayEquals(expectedOnePin.toString().getBytes(StandardCharsets.UTF_16), utf16.toByteArray());
+        assertEquals(0, encoder.length());
+    }
+
+    private static void assertDouble(CSVRowEncoder encoder, double value) {
+        encoder.append(value);
+        assertEquals(Double.toString(value), encoder.toString());
+        encoder.reset();
+    }
+
+    private static ByteBuffer series(int count) {
+        Random random = new Random(3);
+        ByteBuffer buf = ByteBuffer.allocate(count * SIZE_OF_REPORT_ENTRY);
+        long ts = 1_540_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            ts += 60_000;
+            buf.putDouble(random.nextBoolean() ? random.nextInt(1000) / 10D : random.nextDouble())
+               .putLong(ts);
+        }
+        ((Buffer) buf).flip();
+        return buf;
+    }
+
+}